@@ -0,0 +1,56 @@
+package com.seagle.net.socket;
+
+/**
+ * Guess the size of the next read buffer from the previous reads.
+ * Grows one size class when a read filled the buffer and shrinks one size class after
+ * consecutive reads that would have fit the smaller class.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class AdaptiveRecvSizer {
+
+    /**
+     * Size class of the first read, 1024 bytes.
+     */
+    private static final byte INITIAL_INDEX = (byte) BufferPool.sizeClassIndex(1024);
+
+    /**
+     * Small reads in a row before shrinking.
+     */
+    private static final byte SHRINK_THRESHOLD = 2;
+
+    private byte mIndex = INITIAL_INDEX;
+    private byte mSmallReads;
+
+    /**
+     * Return the size of the next read buffer.
+     *
+     * @return byte count
+     */
+    int nextSize() {
+        return BufferPool.sizeOfClass(mIndex);
+    }
+
+    /**
+     * Record the result of a read.
+     *
+     * @param bytesRead  bytes read
+     * @param bufferSize size of the buffer read into
+     */
+    void record(int bytesRead, int bufferSize) {
+        if (bytesRead >= bufferSize) {
+            mSmallReads = 0;
+            if (mIndex < BufferPool.SIZE_CLASSES - 1) {
+                mIndex++;
+            }
+        } else if (mIndex > 0 && bytesRead <= BufferPool.sizeOfClass(mIndex - 1)) {
+            if (++mSmallReads >= SHRINK_THRESHOLD) {
+                mSmallReads = 0;
+                mIndex--;
+            }
+        } else {
+            mSmallReads = 0;
+        }
+    }
+}
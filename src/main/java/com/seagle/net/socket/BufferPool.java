@@ -0,0 +1,105 @@
+package com.seagle.net.socket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Byte buffer pool with power of two size classes.
+ * Not thread safe, a pool is owned by the event loop thread that uses it.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class BufferPool {
+
+    /**
+     * Smallest size class.
+     */
+    static final int MIN_SIZE = 64;
+
+    /**
+     * Largest size class.
+     */
+    static final int MAX_SIZE = 64 * 1024;
+
+    /**
+     * Size class count, from MIN_SIZE to MAX_SIZE.
+     */
+    static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+
+    /**
+     * Max cached buffers per size class.
+     */
+    private static final int MAX_CACHED_PER_CLASS = 16;
+
+    private final boolean mDirect;
+    private final ArrayDeque<ByteBuffer>[] mFreeLists;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(boolean direct) {
+        mDirect = direct;
+        mFreeLists = new ArrayDeque[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            mFreeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Return the size class index that fits size bytes.
+     *
+     * @param size byte count
+     * @return index
+     */
+    static int sizeClassIndex(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        if (size >= MAX_SIZE) {
+            return SIZE_CLASSES - 1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /**
+     * Return the buffer size of a size class.
+     *
+     * @param index size class index
+     * @return byte count
+     */
+    static int sizeOfClass(int index) {
+        return MIN_SIZE << index;
+    }
+
+    /**
+     * Take a cleared buffer of the size class that fits size bytes.
+     *
+     * @param size byte count, at most MAX_SIZE
+     * @return ByteBuffer
+     */
+    ByteBuffer acquire(int size) {
+        int index = sizeClassIndex(size);
+        ByteBuffer buffer = mFreeLists[index].poll();
+        if (buffer == null) {
+            int capacity = sizeOfClass(index);
+            buffer = mDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer taken by {@link #acquire(int)} back to the pool.
+     *
+     * @param buffer ByteBuffer
+     */
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1 || capacity < MIN_SIZE || capacity > MAX_SIZE || buffer.isDirect() != mDirect) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> freeList = mFreeLists[sizeClassIndex(capacity)];
+        if (freeList.size() < MAX_CACHED_PER_CLASS) {
+            freeList.push(buffer);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression stage of one {@link SESocketChannel}, the message format is described by {@link SECompression}.
+ * The deflater and inflater are created on the first message that needs them and kept for the connection,
+ * raw deflate without zlib headers, so a small message costs a few bytes of deflate output only. Inflating
+ * stops at the max message size, a zip bomb costs no more memory than the largest legal message.
+ * Event loop only.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class CompressionCodec {
+
+    /**
+     * Bytes of the type and the length field.
+     */
+    static final int HEADER_SIZE = 5;
+
+    private static final byte TYPE_RAW = 0;
+    private static final byte TYPE_DEFLATED = 1;
+
+    private final SECompression mSettings;
+    /**
+     * Max length field accepted, a deflated legal message plus the deflate block overhead.
+     */
+    private final int mMaxFrameLength;
+    private Deflater mDeflater;
+    private Inflater mInflater;
+    private byte[] mCumulation;
+    private int mCumulated;
+
+    CompressionCodec(SECompression settings) {
+        mSettings = settings;
+        int maxMessageSize = settings.getMaxMessageSize();
+        mMaxFrameLength = (int) Math.min(Integer.MAX_VALUE - HEADER_SIZE, maxMessageSize + (maxMessageSize >> 10) + 64L);
+    }
+
+    /**
+     * Encode one message.
+     *
+     * @param src message
+     * @return wire bytes
+     */
+    ByteBuffer encode(ByteBuffer src) {
+        int length = src.remaining();
+        if (length < mSettings.getThreshold()) {
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+            frame.put(TYPE_RAW).putInt(length).put(src);
+            frame.flip();
+            return frame;
+        }
+        long start = System.nanoTime();
+        byte[] input;
+        int offset;
+        if (src.hasArray()) {
+            input = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            input = new byte[length];
+            src.duplicate().get(input);
+            offset = 0;
+        }
+        src.position(src.limit());
+        Deflater deflater = mDeflater;
+        if (deflater == null) {
+            deflater = new Deflater(mSettings.getLevel(), true);
+            byte[] dictionary = mSettings.getDictionary();
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            mDeflater = deflater;
+        }
+        deflater.setInput(input, offset, length);
+        byte[] frame = new byte[HEADER_SIZE + length + (length >> 10) + 16];
+        int position = HEADER_SIZE;
+        while (true) {
+            position += deflater.deflate(frame, position, frame.length - position, Deflater.SYNC_FLUSH);
+            if (position < frame.length) {
+                break;
+            }
+            frame = Arrays.copyOf(frame, frame.length * 2);
+        }
+        int bodyLength = position - HEADER_SIZE;
+        frame[0] = TYPE_DEFLATED;
+        frame[1] = (byte) (bodyLength >>> 24);
+        frame[2] = (byte) (bodyLength >>> 16);
+        frame[3] = (byte) (bodyLength >>> 8);
+        frame[4] = (byte) bodyLength;
+        SEChannelMetrics.DEFLATE_BYTES_IN.addAndGet(length);
+        SEChannelMetrics.DEFLATE_BYTES_OUT.addAndGet(bodyLength);
+        SEChannelMetrics.DEFLATE_NANOS.addAndGet(System.nanoTime() - start);
+        return ByteBuffer.wrap(frame, 0, position);
+    }
+
+    /**
+     * Decode received bytes, a partial message is kept until the rest arrives.
+     *
+     * @param data received bytes
+     * @return complete messages, may be empty
+     * @throws IOException illegal type or length, bad deflate data or a message above the max size
+     */
+    List<byte[]> decode(byte[] data) throws IOException {
+        List<byte[]> messages = new ArrayList<>(1);
+        byte[] source = data;
+        int offset = 0;
+        int end = data.length;
+        if (mCumulated > 0) {
+            if (mCumulation.length < mCumulated + data.length) {
+                mCumulation = Arrays.copyOf(mCumulation, Math.max(mCumulated + data.length, mCumulation.length * 2));
+            }
+            System.arraycopy(data, 0, mCumulation, mCumulated, data.length);
+            mCumulated += data.length;
+            source = mCumulation;
+            end = mCumulated;
+        }
+        while (end - offset >= HEADER_SIZE) {
+            byte type = source[offset];
+            int length = (source[offset + 1] & 0xff) << 24 | (source[offset + 2] & 0xff) << 16
+                    | (source[offset + 3] & 0xff) << 8 | (source[offset + 4] & 0xff);
+            if ((type != TYPE_RAW && type != TYPE_DEFLATED) || length < 0
+                    || length > (type == TYPE_RAW ? mSettings.getMaxMessageSize() : mMaxFrameLength)) {
+                mCumulated = 0;
+                throw new IOException("Illegal message type or length: " + type + ", " + length);
+            }
+            if (end - offset - HEADER_SIZE < length) {
+                break;
+            }
+            int bodyOffset = offset + HEADER_SIZE;
+            offset = bodyOffset + length;
+            if (type == TYPE_RAW) {
+                messages.add(Arrays.copyOfRange(source, bodyOffset, offset));
+            } else {
+                messages.add(inflate(source, bodyOffset, length));
+            }
+        }
+        int remaining = end - offset;
+        if (remaining > 0) {
+            if (source != mCumulation) {
+                if (mCumulation == null || mCumulation.length < remaining) {
+                    mCumulation = new byte[Math.max(remaining, 1024)];
+                }
+            }
+            System.arraycopy(source, offset, mCumulation, 0, remaining);
+        }
+        mCumulated = remaining;
+        return messages;
+    }
+
+    /**
+     * Free the deflate state of the closed connection, a reconnect starts new streams.
+     */
+    void reset() {
+        if (mDeflater != null) {
+            mDeflater.end();
+            mDeflater = null;
+        }
+        if (mInflater != null) {
+            mInflater.end();
+            mInflater = null;
+        }
+        mCumulation = null;
+        mCumulated = 0;
+    }
+
+    private byte[] inflate(byte[] source, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        Inflater inflater = mInflater;
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            byte[] dictionary = mSettings.getDictionary();
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            mInflater = inflater;
+        }
+        int maxMessageSize = mSettings.getMaxMessageSize();
+        byte[] message = new byte[(int) Math.min(maxMessageSize, Math.max(length * 4L, 64))];
+        int position = 0;
+        inflater.setInput(source, offset, length);
+        try {
+            while (true) {
+                position += inflater.inflate(message, position, message.length - position);
+                if (position < message.length) {
+                    if (inflater.finished() || inflater.needsDictionary()) {
+                        throw new IOException("Deflate stream ended.");
+                    }
+                    if (inflater.needsInput()) {
+                        break;
+                    }
+                } else if (message.length == maxMessageSize) {
+                    if (inflater.inflate(new byte[1]) > 0) {
+                        throw new IOException("Message exceeds " + maxMessageSize + " bytes.");
+                    }
+                    break;
+                } else {
+                    message = Arrays.copyOf(message, (int) Math.min(maxMessageSize, message.length * 2L));
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        }
+        SEChannelMetrics.INFLATE_BYTES_IN.addAndGet(length);
+        SEChannelMetrics.INFLATE_BYTES_OUT.addAndGet(position);
+        SEChannelMetrics.INFLATE_NANOS.addAndGet(System.nanoTime() - start);
+        return position == message.length ? message : Arrays.copyOf(message, position);
+    }
+}
@@ -0,0 +1,213 @@
+package com.seagle.net.socket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * HTTP state of one connection of an {@link SEHttpServer}: the request decoder and the responses in request
+ * order. Responses completed while a received chunk is dispatched are gathered into one write, so a burst of
+ * pipelined requests answered at once costs one write call. Reading pauses while too many responses are
+ * outstanding or the channel is not writable, a client pipelining without reading can not pile up output.
+ * Event loop of the channel only, responses completed elsewhere are handed to it.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class HttpConnection implements HttpRequestDecoder.RequestHandler {
+
+    /**
+     * Output gathered beyond this size is written at once.
+     */
+    private static final int MAX_BATCH = 16 * 1024;
+
+    private final SEHttpServer mServer;
+    private final SESocketChannel mChannel;
+    private final HttpRequestDecoder mDecoder;
+    private final ArrayDeque<SEHttpResponse> mResponses = new ArrayDeque<>();
+    private byte[] mBatch;
+    private int mBatchLength;
+    private boolean mBatching;
+    /**
+     * No further requests are served, the last one asked to close or was malformed.
+     */
+    private boolean mClosing;
+    private boolean mClosed;
+    private boolean mReadingPaused;
+
+    HttpConnection(SEHttpServer server, SESocketChannel channel) {
+        mServer = server;
+        mChannel = channel;
+        mDecoder = new HttpRequestDecoder(this, server.getMaxHeaderSize(), server.getMaxBodySize());
+    }
+
+    /**
+     * Decode received bytes and serve the requests.
+     *
+     * @param data received bytes
+     */
+    void onData(byte[] data) {
+        if (mClosing) {
+            return;
+        }
+        mBatching = true;
+        try {
+            mDecoder.decode(data);
+        } catch (HttpRequestDecoder.DecodeException ex) {
+            mClosing = true;
+            SEHttpResponse response = new SEHttpResponse(this, true, false, false);
+            mResponses.add(response);
+            response.setStatus(ex.getStatus()).setContentType(SEHttpResponse.TEXT_PLAIN)
+                    .send(SEHttpResponse.reason(ex.getStatus()).getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            mBatching = false;
+            flushBatch();
+        }
+        updateReading();
+    }
+
+    @Override
+    public void onRequest(SEHttpRequest request) {
+        if (mClosing) {
+            return;
+        }
+        if (!request.isKeepAlive()) {
+            mClosing = true;
+        }
+        SEHttpResponse response = new SEHttpResponse(this, request.isHttp11(),
+                HttpRequestDecoder.HEAD == request.getMethod(), request.isKeepAlive());
+        mResponses.add(response);
+        try {
+            mServer.getHandler().handle(request, response);
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+            if (!response.isCommitted()) {
+                response.setStatus(500).send(null);
+            } else {
+                mClosing = true;
+                mServer.removeConnection(mChannel);
+                mChannel.disConnect();
+            }
+        }
+    }
+
+    void onWritabilityChanged() {
+        updateReading();
+    }
+
+    void onClosed() {
+        mClosing = true;
+        mClosed = true;
+        mResponses.clear();
+    }
+
+    /**
+     * Take the output of a response, any thread.
+     *
+     * @param response response
+     * @param bytes    output
+     * @param last     whether the response is complete
+     */
+    void output(final SEHttpResponse response, final byte[] bytes, final boolean last) {
+        if (!mChannel.getEventLoop().inEventLoop()) {
+            mChannel.getEventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    output(response, bytes, last);
+                }
+            });
+            return;
+        }
+        if (mClosed) {
+            return;
+        }
+        if (mResponses.peek() != response) {
+            response.buffer(bytes, last);
+            return;
+        }
+        emit(bytes);
+        if (last) {
+            mResponses.poll();
+            if (finished(response)) {
+                SEHttpResponse next;
+                while ((next = mResponses.peek()) != null && next.flushBuffered()) {
+                    mResponses.poll();
+                    if (!finished(next)) {
+                        break;
+                    }
+                }
+            }
+            if (!mBatching) {
+                flushBatch();
+                updateReading();
+            }
+        } else if (!mBatching) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Write bytes, gathered while a received chunk is dispatched.
+     *
+     * @param bytes output
+     */
+    void emit(byte[] bytes) {
+        if (bytes.length == 0) {
+            return;
+        }
+        if (mBatchLength + bytes.length > MAX_BATCH) {
+            flushBatch();
+        }
+        if (bytes.length >= MAX_BATCH) {
+            mChannel.writeData(bytes);
+            return;
+        }
+        if (mBatch == null) {
+            mBatch = new byte[MAX_BATCH];
+        }
+        System.arraycopy(bytes, 0, mBatch, mBatchLength, bytes.length);
+        mBatchLength += bytes.length;
+    }
+
+    /**
+     * A response went out completely.
+     *
+     * @return false if the connection closes after it
+     */
+    private boolean finished(SEHttpResponse response) {
+        if (response.isKeepAlive()) {
+            return true;
+        }
+        mClosing = true;
+        flushBatch();
+        mResponses.clear();
+        mChannel.closeAsync().whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable throwable) {
+                mServer.removeConnection(mChannel);
+            }
+        });
+        return false;
+    }
+
+    private void flushBatch() {
+        if (mBatchLength > 0) {
+            byte[] batch = Arrays.copyOf(mBatch, mBatchLength);
+            mBatchLength = 0;
+            mChannel.writeData(batch);
+        }
+    }
+
+    private void updateReading() {
+        boolean pause = !mClosing && (mResponses.size() >= mServer.getMaxPipelinedRequests() || !mChannel.isWritable());
+        if (pause != mReadingPaused) {
+            mReadingPaused = pause;
+            if (pause) {
+                mChannel.pauseReading();
+            } else {
+                mChannel.resumeReading();
+            }
+        }
+    }
+}
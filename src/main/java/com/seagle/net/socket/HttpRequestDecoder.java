@@ -0,0 +1,512 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.1 request decoder of one {@link SEHttpServer} connection, fed with the chunks the socket
+ * delivers. Requests are parsed straight from the chunk, only a trailing partial head or chunk size line is
+ * kept, and the search for the end of a head resumes where the last chunk ended instead of rescanning it.
+ * Byte scanning only: the common methods and header names map to shared String constants without decoding,
+ * Content-Length and chunk sizes are parsed from the bytes. Bodies are sized by Content-Length or chunked,
+ * a request carrying both is refused since the two framings could be read differently by a proxy.
+ * Not thread safe, use it from the channel's event loop.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class HttpRequestDecoder {
+
+    static final String GET = "GET";
+    static final String HEAD = "HEAD";
+    static final String POST = "POST";
+    static final String PUT = "PUT";
+    static final String DELETE = "DELETE";
+    static final String OPTIONS = "OPTIONS";
+    static final String PATCH = "PATCH";
+
+    static final String HOST = "Host";
+    static final String CONNECTION = "Connection";
+    static final String CONTENT_LENGTH = "Content-Length";
+    static final String CONTENT_TYPE = "Content-Type";
+    static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    static final String ACCEPT = "Accept";
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String USER_AGENT = "User-Agent";
+
+    private static final String[] METHODS = {GET, HEAD, POST, PUT, DELETE, OPTIONS, PATCH};
+    private static final String[] HEADER_NAMES = {HOST, CONNECTION, CONTENT_LENGTH, CONTENT_TYPE, TRANSFER_ENCODING,
+            ACCEPT, ACCEPT_ENCODING, USER_AGENT};
+    private static final byte[] HTTP_11 = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_10 = "HTTP/1.0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int STATE_HEAD = 0;
+    private static final int STATE_BODY = 1;
+    private static final int STATE_CHUNK_SIZE = 2;
+    private static final int STATE_CHUNK_DATA = 3;
+    private static final int STATE_CHUNK_END = 4;
+    private static final int STATE_TRAILERS = 5;
+
+    /**
+     * Longest chunk size line, extensions included.
+     */
+    private static final int MAX_CHUNK_LINE = 1024;
+    private static final int INITIAL_HEADERS = 8;
+
+    private final RequestHandler mHandler;
+    private final int mMaxHeaderSize;
+    private final int mMaxBodySize;
+    private byte[] mCumulation = new byte[0];
+    private int mCumulated;
+    /**
+     * Bytes of the pending head already searched for its end.
+     */
+    private int mScanned;
+    private int mState = STATE_HEAD;
+    private SEHttpRequest mRequest;
+    private byte[] mBody;
+    private int mBodyLength;
+    private long mRemaining;
+    private int mTrailerBytes;
+
+    HttpRequestDecoder(RequestHandler handler, int maxHeaderSize, int maxBodySize) {
+        mHandler = handler;
+        mMaxHeaderSize = maxHeaderSize;
+        mMaxBodySize = maxBodySize;
+    }
+
+    /**
+     * Decode received bytes, the handler is called for every completed request.
+     *
+     * @param data received bytes
+     * @throws DecodeException malformed or too large request, the stream can not be resynchronized
+     */
+    void decode(byte[] data) throws DecodeException {
+        if (data == null || data.length == 0) {
+            return;
+        }
+        byte[] source = data;
+        int offset = 0;
+        int end = data.length;
+        if (mCumulated > 0) {
+            if (mCumulation.length < mCumulated + data.length) {
+                mCumulation = Arrays.copyOf(mCumulation, Math.max(mCumulated + data.length, mCumulation.length * 2));
+            }
+            System.arraycopy(data, 0, mCumulation, mCumulated, data.length);
+            mCumulated += data.length;
+            source = mCumulation;
+            end = mCumulated;
+        }
+        try {
+            loop:
+            while (offset < end) {
+                switch (mState) {
+                    case STATE_HEAD: {
+                        if (mScanned == 0) {
+                            // Tolerate the line breaks some clients send after a body.
+                            while (offset < end && (source[offset] == '\r' || source[offset] == '\n')) {
+                                offset++;
+                            }
+                            if (offset == end) {
+                                break loop;
+                            }
+                        }
+                        int headEnd = findHeadEnd(source, offset + Math.max(mScanned - 2, 0), end);
+                        if (headEnd < 0) {
+                            mScanned = end - offset;
+                            if (mScanned > mMaxHeaderSize) {
+                                throw new DecodeException(431, "Request header too large.");
+                            }
+                            break loop;
+                        }
+                        if (headEnd - offset > mMaxHeaderSize) {
+                            throw new DecodeException(431, "Request header too large.");
+                        }
+                        int start = offset;
+                        offset = headEnd;
+                        mScanned = 0;
+                        parseHead(source, start, headEnd);
+                        break;
+                    }
+                    case STATE_BODY:
+                    case STATE_CHUNK_DATA: {
+                        int length = (int) Math.min(mRemaining, end - offset);
+                        System.arraycopy(source, offset, mBody, mBodyLength, length);
+                        mBodyLength += length;
+                        offset += length;
+                        mRemaining -= length;
+                        if (mRemaining == 0) {
+                            if (mState == STATE_BODY) {
+                                complete();
+                            } else {
+                                mState = STATE_CHUNK_END;
+                            }
+                        }
+                        break;
+                    }
+                    case STATE_CHUNK_SIZE: {
+                        int lineEnd = findLineEnd(source, offset, end);
+                        if (lineEnd < 0) {
+                            if (end - offset > MAX_CHUNK_LINE) {
+                                throw new DecodeException(400, "Chunk size line too long.");
+                            }
+                            break loop;
+                        }
+                        long size = parseChunkSize(source, offset, lineEnd);
+                        offset = lineEnd + 1;
+                        if (size == 0) {
+                            mTrailerBytes = 0;
+                            mState = STATE_TRAILERS;
+                        } else {
+                            if (mBodyLength + size > mMaxBodySize) {
+                                throw new DecodeException(413, "Request body too large.");
+                            }
+                            if (mBody.length < mBodyLength + size) {
+                                mBody = Arrays.copyOf(mBody, (int) Math.min(mMaxBodySize,
+                                        Math.max(mBodyLength + size, mBody.length * 2L)));
+                            }
+                            mRemaining = size;
+                            mState = STATE_CHUNK_DATA;
+                        }
+                        break;
+                    }
+                    case STATE_CHUNK_END: {
+                        int lineEnd = findLineEnd(source, offset, end);
+                        if (lineEnd < 0) {
+                            if (end - offset > 1 || source[offset] != '\r') {
+                                throw new DecodeException(400, "Missing chunk delimiter.");
+                            }
+                            break loop;
+                        }
+                        if (lineEnd - offset > 1 || (lineEnd > offset && source[offset] != '\r')) {
+                            throw new DecodeException(400, "Missing chunk delimiter.");
+                        }
+                        offset = lineEnd + 1;
+                        mState = STATE_CHUNK_SIZE;
+                        break;
+                    }
+                    default: {
+                        int lineEnd = findLineEnd(source, offset, end);
+                        if (lineEnd < 0) {
+                            if (mTrailerBytes + end - offset > mMaxHeaderSize) {
+                                throw new DecodeException(431, "Request trailers too large.");
+                            }
+                            break loop;
+                        }
+                        int length = lineEnd - offset;
+                        mTrailerBytes += length + 1;
+                        if (mTrailerBytes > mMaxHeaderSize) {
+                            throw new DecodeException(431, "Request trailers too large.");
+                        }
+                        offset = lineEnd + 1;
+                        if (length == 0 || (length == 1 && source[lineEnd - 1] == '\r')) {
+                            complete();
+                        }
+                        break;
+                    }
+                }
+            }
+        } catch (DecodeException ex) {
+            mCumulated = 0;
+            mScanned = 0;
+            mState = STATE_HEAD;
+            mRequest = null;
+            mBody = null;
+            throw ex;
+        }
+        int remaining = end - offset;
+        if (remaining > 0) {
+            if (source != mCumulation && mCumulation.length < remaining) {
+                mCumulation = new byte[Math.max(remaining, 1024)];
+            }
+            System.arraycopy(source, offset, mCumulation, 0, remaining);
+        }
+        mCumulated = remaining;
+    }
+
+    /**
+     * Parse the request line and the headers, then wait for the body or hand the request over.
+     *
+     * @param source  bytes
+     * @param start   first byte of the request line
+     * @param headEnd index after the blank line
+     * @throws DecodeException malformed head
+     */
+    private void parseHead(byte[] source, int start, int headEnd) throws DecodeException {
+        int lineEnd = findLineEnd(source, start, headEnd);
+        int lineStop = trimCarriageReturn(source, start, lineEnd);
+        int methodEnd = indexOf(source, start, lineStop, (byte) ' ');
+        int uriEnd = methodEnd < 0 ? -1 : indexOf(source, methodEnd + 1, lineStop, (byte) ' ');
+        if (methodEnd <= start || uriEnd <= methodEnd + 1) {
+            throw new DecodeException(400, "Malformed request line.");
+        }
+        boolean http11;
+        if (regionEquals(source, uriEnd + 1, lineStop, HTTP_11)) {
+            http11 = true;
+        } else if (regionEquals(source, uriEnd + 1, lineStop, HTTP_10)) {
+            http11 = false;
+        } else if (lineStop - uriEnd - 1 > HTTP.length && regionEquals(source, uriEnd + 1, uriEnd + 1 + HTTP.length, HTTP)) {
+            throw new DecodeException(505, "Unsupported version.");
+        } else {
+            throw new DecodeException(400, "Malformed request line.");
+        }
+        String method = intern(source, start, methodEnd, METHODS, false);
+        String uri = new String(source, methodEnd + 1, uriEnd - methodEnd - 1, StandardCharsets.ISO_8859_1);
+
+        String[] headers = new String[INITIAL_HEADERS * 2];
+        int headerCount = 0;
+        long contentLength = -1;
+        boolean chunked = false;
+        boolean close = false;
+        boolean keepAlive = false;
+        int position = lineEnd + 1;
+        while (position < headEnd) {
+            lineEnd = findLineEnd(source, position, headEnd);
+            lineStop = trimCarriageReturn(source, position, lineEnd);
+            if (lineStop == position) {
+                break;
+            }
+            int colon = indexOf(source, position, lineStop, (byte) ':');
+            if (colon <= position || source[position] == ' ' || source[position] == '\t' || source[colon - 1] == ' ') {
+                throw new DecodeException(400, "Malformed header.");
+            }
+            int valueStart = colon + 1;
+            while (valueStart < lineStop && (source[valueStart] == ' ' || source[valueStart] == '\t')) {
+                valueStart++;
+            }
+            int valueStop = lineStop;
+            while (valueStop > valueStart && (source[valueStop - 1] == ' ' || source[valueStop - 1] == '\t')) {
+                valueStop--;
+            }
+            String name = intern(source, position, colon, HEADER_NAMES, true);
+            String value = new String(source, valueStart, valueStop - valueStart, StandardCharsets.ISO_8859_1);
+            if (name == CONTENT_LENGTH) {
+                long length = parseDecimal(source, valueStart, valueStop);
+                if (length < 0 || (contentLength >= 0 && contentLength != length)) {
+                    throw new DecodeException(400, "Illegal Content-Length.");
+                }
+                contentLength = length;
+            } else if (name == TRANSFER_ENCODING) {
+                if (!endsWithToken(value, "chunked")) {
+                    throw new DecodeException(400, "Unsupported Transfer-Encoding.");
+                }
+                chunked = true;
+            } else if (name == CONNECTION) {
+                close |= hasToken(value, "close");
+                keepAlive |= hasToken(value, "keep-alive");
+            }
+            if (headerCount * 2 == headers.length) {
+                headers = Arrays.copyOf(headers, headers.length * 2);
+            }
+            headers[headerCount * 2] = name;
+            headers[headerCount * 2 + 1] = value;
+            headerCount++;
+            position = lineEnd + 1;
+        }
+        if (chunked && contentLength >= 0) {
+            throw new DecodeException(400, "Both Content-Length and chunked.");
+        }
+        mRequest = new SEHttpRequest(method, uri, http11, headers, headerCount, http11 ? !close : keepAlive && !close);
+        if (chunked) {
+            mBody = new byte[Math.min(1024, mMaxBodySize)];
+            mBodyLength = 0;
+            mState = STATE_CHUNK_SIZE;
+        } else if (contentLength > 0) {
+            if (contentLength > mMaxBodySize) {
+                throw new DecodeException(413, "Request body too large.");
+            }
+            mBody = new byte[(int) contentLength];
+            mBodyLength = 0;
+            mRemaining = contentLength;
+            mState = STATE_BODY;
+        } else {
+            complete();
+        }
+    }
+
+    private void complete() {
+        SEHttpRequest request = mRequest;
+        if (mBody != null) {
+            request.setBody(mBodyLength == mBody.length ? mBody : Arrays.copyOf(mBody, mBodyLength));
+        }
+        mRequest = null;
+        mBody = null;
+        mBodyLength = 0;
+        mState = STATE_HEAD;
+        mHandler.onRequest(request);
+    }
+
+    /**
+     * Find the blank line ending a head, bare line feeds are accepted.
+     *
+     * @return index after the blank line, -1 if not received yet
+     */
+    private static int findHeadEnd(byte[] source, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (source[i] == '\n') {
+                if (i + 1 < end && source[i + 1] == '\n') {
+                    return i + 2;
+                }
+                if (i + 2 < end && source[i + 1] == '\r' && source[i + 2] == '\n') {
+                    return i + 3;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int findLineEnd(byte[] source, int from, int end) {
+        return indexOf(source, from, end, (byte) '\n');
+    }
+
+    private static int indexOf(byte[] source, int from, int end, byte value) {
+        for (int i = from; i < end; i++) {
+            if (source[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int trimCarriageReturn(byte[] source, int start, int lineEnd) {
+        return lineEnd > start && source[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    private static boolean regionEquals(byte[] source, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (source[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the shared constant a token spells, or a new String if it is not one of them.
+     */
+    private static String intern(byte[] source, int start, int end, String[] constants, boolean ignoreCase) {
+        int length = end - start;
+        for (String constant : constants) {
+            if (constant.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length) {
+                int b = source[start + i];
+                int c = constant.charAt(i);
+                if (b != c && !(ignoreCase && (b | 0x20) == (c | 0x20) && (c | 0x20) >= 'a' && (c | 0x20) <= 'z')) {
+                    break;
+                }
+                i++;
+            }
+            if (i == length) {
+                return constant;
+            }
+        }
+        return new String(source, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static long parseDecimal(byte[] source, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = source[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static long parseChunkSize(byte[] source, int start, int lineEnd) throws DecodeException {
+        long size = 0;
+        int i = start;
+        for (; i < lineEnd; i++) {
+            int b = source[i];
+            int digit;
+            if (b >= '0' && b <= '9') {
+                digit = b - '0';
+            } else if ((b | 0x20) >= 'a' && (b | 0x20) <= 'f') {
+                digit = (b | 0x20) - 'a' + 10;
+            } else {
+                break;
+            }
+            if (i - start >= 15) {
+                throw new DecodeException(400, "Illegal chunk size.");
+            }
+            size = size << 4 | digit;
+        }
+        if (i == start || (i < lineEnd && source[i] != ';' && source[i] != '\r' && source[i] != ' ' && source[i] != '\t')) {
+            throw new DecodeException(400, "Illegal chunk size.");
+        }
+        return size;
+    }
+
+    /**
+     * Return whether a comma separated header value holds a token, case ignored.
+     */
+    static boolean hasToken(String value, String token) {
+        int start = 0;
+        int length = value.length();
+        while (start < length) {
+            int comma = value.indexOf(',', start);
+            int stop = comma < 0 ? length : comma;
+            int tokenStart = start;
+            while (tokenStart < stop && value.charAt(tokenStart) == ' ') {
+                tokenStart++;
+            }
+            int tokenStop = stop;
+            while (tokenStop > tokenStart && value.charAt(tokenStop - 1) == ' ') {
+                tokenStop--;
+            }
+            if (tokenStop - tokenStart == token.length() && value.regionMatches(true, tokenStart, token, 0, token.length())) {
+                return true;
+            }
+            start = stop + 1;
+        }
+        return false;
+    }
+
+    private static boolean endsWithToken(String value, String token) {
+        int stop = value.length();
+        while (stop > 0 && value.charAt(stop - 1) == ' ') {
+            stop--;
+        }
+        int start = stop - token.length();
+        return start >= 0 && value.regionMatches(true, start, token, 0, token.length())
+                && (start == 0 || value.charAt(start - 1) == ',' || value.charAt(start - 1) == ' ');
+    }
+
+    /**
+     * Receives decoded requests.
+     */
+    interface RequestHandler {
+        void onRequest(SEHttpRequest request);
+    }
+
+    /**
+     * Malformed or too large request, answered with its status before the connection is closed.
+     */
+    static final class DecodeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int mStatus;
+
+        DecodeException(int status, String message) {
+            super(message);
+            mStatus = status;
+        }
+
+        int getStatus() {
+            return mStatus;
+        }
+    }
+}
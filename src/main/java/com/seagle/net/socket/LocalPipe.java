@@ -0,0 +1,276 @@
+package com.seagle.net.socket;
+
+import java.net.BindException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One direction of an in-VM connection, and the name table of in-VM servers.
+ * The writing channel hands buffers in on its event loop, the reading channel takes them out on its own,
+ * like a socket send buffer of {@link #CAPACITY} bytes: a full pipe takes no more and wakes the writer once
+ * the reader drained half of it, a reader that paused reading leaves the data in the pipe. A write is handed
+ * over without a copy when it is a whole array, which the caller gave up with writeData.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class LocalPipe {
+
+    /**
+     * Bytes buffered per direction before the writer has to wait.
+     */
+    static final int CAPACITY = 64 * 1024;
+
+    /**
+     * Max buffers delivered by one read task, the rest goes to a new task so other channels get their turn.
+     */
+    private static final int MAX_READS_PER_TASK = 16;
+
+    private static final ConcurrentHashMap<String, SEServerSocketChannel> SERVERS = new ConcurrentHashMap<>();
+
+    /**
+     * Pipe of the other direction.
+     */
+    final LocalPipe mReverse;
+    private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<>();
+    private int mHeadOffset;
+    private int mBuffered;
+    private SESocketChannel mWriter;
+    private SESocketChannel mReader;
+    private boolean mReadScheduled;
+    private boolean mWriterBlocked;
+    private boolean mWriteClosed;
+    private boolean mReadClosed;
+    private final Runnable mReadTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private final Runnable mWritableTask = new Runnable() {
+        @Override
+        public void run() {
+            mWriter.onWritable();
+        }
+    };
+
+    /**
+     * Create both directions of a connection.
+     */
+    LocalPipe() {
+        mReverse = new LocalPipe(this);
+    }
+
+    private LocalPipe(LocalPipe reverse) {
+        mReverse = reverse;
+    }
+
+    /**
+     * Make a server reachable by name.
+     *
+     * @param address local address
+     * @param server  server
+     * @throws BindException name taken
+     */
+    static void bind(SELocalAddress address, SEServerSocketChannel server) throws BindException {
+        if (SERVERS.putIfAbsent(address.getName(), server) != null) {
+            throw new BindException("Address already in use: " + address);
+        }
+    }
+
+    /**
+     * Remove a server from the name table, nothing happens if the name is bound to another server.
+     *
+     * @param address local address
+     * @param server  server
+     */
+    static void unbind(SELocalAddress address, SEServerSocketChannel server) {
+        SERVERS.remove(address.getName(), server);
+    }
+
+    /**
+     * Return the server bound to the address.
+     *
+     * @param address local address
+     * @return server, null if none
+     */
+    static SEServerSocketChannel lookup(SELocalAddress address) {
+        return SERVERS.get(address.getName());
+    }
+
+    /**
+     * Attach the channel writing to this pipe and reading from the reverse one.
+     *
+     * @param channel connected channel
+     */
+    void attach(SESocketChannel channel) {
+        synchronized (this) {
+            mWriter = channel;
+        }
+        synchronized (mReverse) {
+            mReverse.mReader = channel;
+        }
+        mReverse.scheduleRead();
+    }
+
+    /**
+     * Take what fits of the buffer, writer's event loop only.
+     * Once the reader is gone everything is taken and dropped, as a socket does until the peer's reset.
+     *
+     * @param buffer    data
+     * @param allowance max bytes
+     * @return bytes taken
+     */
+    int write(ByteBuffer buffer, long allowance) {
+        int length = (int) Math.min(buffer.remaining(), allowance);
+        byte[] data;
+        SESocketChannel reader;
+        synchronized (this) {
+            if (mReadClosed) {
+                buffer.position(buffer.position() + length);
+                return length;
+            }
+            if (CAPACITY - mBuffered < length) {
+                length = CAPACITY - mBuffered;
+                mWriterBlocked = true;
+            }
+            if (length <= 0) {
+                return 0;
+            }
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                    && length == buffer.array().length) {
+                data = buffer.array();
+                buffer.position(length);
+            } else {
+                data = new byte[length];
+                buffer.get(data);
+            }
+            mBuffers.add(data);
+            mBuffered += length;
+            reader = mReader != null && !mReadScheduled ? mReader : null;
+            if (reader != null) {
+                mReadScheduled = true;
+            }
+        }
+        if (reader != null) {
+            reader.getEventLoop().execute(mReadTask);
+        }
+        return length;
+    }
+
+    /**
+     * Deliver buffered data to the reader if it reads, or the end of stream once the writer closed.
+     */
+    void scheduleRead() {
+        SESocketChannel reader;
+        synchronized (this) {
+            if (mReader == null || mReadScheduled || mReadClosed || (mBuffers.isEmpty() && !mWriteClosed)) {
+                return;
+            }
+            mReadScheduled = true;
+            reader = mReader;
+        }
+        reader.getEventLoop().execute(mReadTask);
+    }
+
+    /**
+     * Run the writer's write handler unless the pipe is full, a full pipe wakes it when drained.
+     */
+    void scheduleWrite() {
+        SESocketChannel writer;
+        synchronized (this) {
+            if (mWriterBlocked || mWriter == null) {
+                return;
+            }
+            writer = mWriter;
+        }
+        writer.getEventLoop().execute(mWritableTask);
+    }
+
+    /**
+     * Close the connection on behalf of the writer of this pipe: the peer reads the rest, then the end of
+     * stream; what the peer writes from now on is dropped.
+     */
+    void close() {
+        synchronized (this) {
+            mWriteClosed = true;
+        }
+        scheduleRead();
+        LocalPipe reverse = mReverse;
+        SESocketChannel writer;
+        synchronized (reverse) {
+            reverse.mReadClosed = true;
+            reverse.mBuffers.clear();
+            reverse.mHeadOffset = 0;
+            reverse.mBuffered = 0;
+            writer = reverse.mWriterBlocked ? reverse.mWriter : null;
+            reverse.mWriterBlocked = false;
+        }
+        if (writer != null) {
+            writer.getEventLoop().execute(reverse.mWritableTask);
+        }
+    }
+
+    /**
+     * Deliver buffers while the reader has read capacity, reader's event loop only.
+     */
+    private void drain() {
+        SESocketChannel reader;
+        synchronized (this) {
+            reader = mReader;
+        }
+        for (int reads = 0; ; reads++) {
+            int capacity = reader.getReadCapacity();
+            byte[] data;
+            SESocketChannel writer = null;
+            synchronized (this) {
+                if (mReadClosed) {
+                    mReadScheduled = false;
+                    return;
+                }
+                if (mBuffers.isEmpty()) {
+                    mReadScheduled = false;
+                    if (!mWriteClosed) {
+                        return;
+                    }
+                    mReadClosed = true;
+                    data = null;
+                } else if (capacity <= 0) {
+                    mReadScheduled = false;
+                    return;
+                } else if (reads == MAX_READS_PER_TASK) {
+                    break;
+                } else {
+                    byte[] head = mBuffers.peek();
+                    int length = Math.min(head.length - mHeadOffset, capacity);
+                    if (mHeadOffset == 0 && length == head.length) {
+                        data = head;
+                    } else {
+                        data = Arrays.copyOfRange(head, mHeadOffset, mHeadOffset + length);
+                    }
+                    mHeadOffset += length;
+                    if (mHeadOffset == head.length) {
+                        mBuffers.poll();
+                        mHeadOffset = 0;
+                    }
+                    mBuffered -= length;
+                    if (mWriterBlocked && mBuffered <= CAPACITY / 2) {
+                        mWriterBlocked = false;
+                        writer = mWriter;
+                    }
+                }
+            }
+            if (writer != null) {
+                writer.getEventLoop().execute(mWritableTask);
+            }
+            if (data == null) {
+                reader.onDisconnected(null);
+                return;
+            }
+            reader.onRead(data);
+        }
+        reader.getEventLoop().execute(mReadTask);
+    }
+}
@@ -0,0 +1,201 @@
+package com.seagle.net.socket;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map with primitive long keys, linear probing and backward shift deletion.
+ * Keys are never boxed and no entry objects are allocated. Not thread safe.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class LongObjectHashMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mMask;
+    private int mSize;
+    private int mResizeThreshold;
+
+    LongObjectHashMap() {
+        this(16);
+    }
+
+    /**
+     * Create a map that holds expectedSize entries without resizing.
+     *
+     * @param expectedSize expected entry count
+     */
+    LongObjectHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mMask = capacity - 1;
+        mResizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Return the value of a key.
+     *
+     * @param key key
+     * @return value, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) mValues[index];
+    }
+
+    /**
+     * Map a key to a value.
+     *
+     * @param key   key
+     * @param value value, not null
+     * @return previous value, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value is null.");
+        }
+        int index = hash(key) & mMask;
+        while (mValues[index] != null) {
+            if (mKeys[index] == key) {
+                V previous = (V) mValues[index];
+                mValues[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mMask;
+        }
+        mKeys[index] = key;
+        mValues[index] = value;
+        if (++mSize > mResizeThreshold) {
+            rehash(mKeys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key key
+     * @return removed value, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        V value = (V) mValues[index];
+        mSize--;
+        int hole = index;
+        int next = (index + 1) & mMask;
+        while (mValues[next] != null) {
+            int home = hash(mKeys[next]) & mMask;
+            if (((next - home) & mMask) >= ((next - hole) & mMask)) {
+                mKeys[hole] = mKeys[next];
+                mValues[hole] = mValues[next];
+                hole = next;
+            }
+            next = (next + 1) & mMask;
+        }
+        mValues[hole] = null;
+        return value;
+    }
+
+    /**
+     * Return the entry count.
+     *
+     * @return size
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void clear() {
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    /**
+     * Visit every entry. The map must not be modified while visiting.
+     *
+     * @param visitor visitor
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(EntryVisitor<? super V> visitor) {
+        for (int i = 0; i < mValues.length; i++) {
+            if (mValues[i] != null) {
+                visitor.visit(mKeys[i], (V) mValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Copy every entry into the given arrays, which must hold at least size() entries.
+     *
+     * @param keys   key array
+     * @param values value array
+     * @return copied entry count
+     */
+    int copyTo(long[] keys, Object[] values) {
+        int count = 0;
+        for (int i = 0; i < mValues.length; i++) {
+            if (mValues[i] != null) {
+                keys[count] = mKeys[i];
+                values[count] = mValues[i];
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int indexOf(long key) {
+        int index = hash(key) & mMask;
+        while (mValues[index] != null) {
+            if (mKeys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mMask;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        allocate(capacity);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                int index = hash(keys[i]) & mMask;
+                while (mValues[index] != null) {
+                    index = (index + 1) & mMask;
+                }
+                mKeys[index] = keys[i];
+                mValues[index] = values[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Entry visitor, gets the key unboxed.
+     */
+    interface EntryVisitor<V> {
+        void visit(long key, V value);
+    }
+}
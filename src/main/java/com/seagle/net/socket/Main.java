@@ -156,5 +156,10 @@ public class Main {
             String dataStr = new String(data);
             System.out.println(channel.getSocketChannel().socket().getInetAddress() + " read dta: " + dataStr);
         }
+
+        @Override
+        public void onWritabilityChanged(SESocketChannel channel, boolean writable) {
+            System.out.println(channel.getSocketChannel().socket().getInetAddress() + " writable: " + writable);
+        }
     };
 }
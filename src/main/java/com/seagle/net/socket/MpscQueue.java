@@ -0,0 +1,69 @@
+package com.seagle.net.socket;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock free multi producer single consumer queue, linked list with a stub head node.
+ * Any thread may offer, one swap of the tail per element; only the single consumer thread, an event loop or
+ * the writer of a traffic capture, may poll.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class MpscQueue<E> {
+
+    private final AtomicReference<Node<E>> mTail;
+    private Node<E> mHead;
+
+    MpscQueue() {
+        Node<E> stub = new Node<>(null);
+        mHead = stub;
+        mTail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Append an element, any thread.
+     *
+     * @param element element, not null
+     */
+    void offer(E element) {
+        Node<E> node = new Node<>(element);
+        Node<E> previous = mTail.getAndSet(node);
+        previous.mNext = node;
+    }
+
+    /**
+     * Remove the head element, consumer thread only.
+     * An element whose producer has swapped the tail but not linked it yet is seen on the next poll.
+     *
+     * @return element, null if empty
+     */
+    E poll() {
+        Node<E> next = mHead.mNext;
+        if (next == null) {
+            return null;
+        }
+        E element = next.mElement;
+        next.mElement = null;
+        mHead = next;
+        return element;
+    }
+
+    /**
+     * Return whether no linked element is left, consumer thread only.
+     *
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return mHead.mNext == null;
+    }
+
+    private static final class Node<E> {
+        private E mElement;
+        private volatile Node<E> mNext;
+
+        private Node(E element) {
+            mElement = element;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.seagle.net.socket;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Overload signal of a {@link SEServerSocketChannel}: event loop lag and heap occupancy, with hysteresis.
+ * Lag is probed by a task handed to every loop on each check; a probe that has not run by the next check
+ * counts with its age, so a stalled loop is seen without waiting for it. Heap occupancy is what the heap
+ * pools held after their last collection, garbage not collected yet does not count.
+ * {@link #check()} runs on the server's loop only, the thresholds may be set from any thread.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class OverloadMonitor {
+
+    /**
+     * Check interval in milliseconds.
+     */
+    static final long CHECK_INTERVAL_MILLIS = 100;
+
+    private static final List<MemoryPoolMXBean> HEAP_POOLS = heapPools();
+
+    private volatile long mSuspendLagNanos;
+    private volatile long mResumeLagNanos;
+    private volatile double mSuspendHeapRatio;
+    private volatile double mResumeHeapRatio;
+    private volatile long mLagNanos;
+    private volatile double mHeapRatio;
+    private final AtomicInteger mPendingProbes = new AtomicInteger();
+    private final AtomicLong mMaxProbeLag = new AtomicLong();
+    private long mProbeSentAt;
+    private boolean mOverloaded;
+
+    void setLagLimit(long suspendNanos, long resumeNanos) {
+        mSuspendLagNanos = suspendNanos;
+        mResumeLagNanos = resumeNanos;
+    }
+
+    void setHeapLimit(double suspendRatio, double resumeRatio) {
+        mSuspendHeapRatio = suspendRatio;
+        mResumeHeapRatio = resumeRatio;
+    }
+
+    /**
+     * Return whether a lag or heap limit is set.
+     *
+     * @return true if enabled
+     */
+    boolean isEnabled() {
+        return mSuspendLagNanos > 0 || mSuspendHeapRatio > 0;
+    }
+
+    /**
+     * Return the lag measured by the last check.
+     *
+     * @return nanoseconds
+     */
+    long getLagNanos() {
+        return mLagNanos;
+    }
+
+    /**
+     * Return the heap occupancy measured by the last check.
+     *
+     * @return ratio of the max heap, 0 unless a heap limit is set
+     */
+    double getHeapRatio() {
+        return mHeapRatio;
+    }
+
+    /**
+     * Measure and decide. Overloaded once a signal reaches its suspend threshold, relieved once every
+     * signal is back at its resume threshold.
+     *
+     * @param eventLoops loops to probe
+     * @return true while overloaded
+     */
+    boolean check(SEEventLoop[] eventLoops) {
+        long now = System.nanoTime();
+        long suspendLag = mSuspendLagNanos;
+        long lag = 0;
+        if (suspendLag > 0) {
+            lag = mMaxProbeLag.getAndSet(0);
+            if (mPendingProbes.get() > 0) {
+                lag = Math.max(lag, now - mProbeSentAt);
+            } else {
+                probe(eventLoops, now);
+            }
+        }
+        double suspendHeap = mSuspendHeapRatio;
+        double heap = suspendHeap > 0 ? heapRatio() : 0;
+        mLagNanos = lag;
+        mHeapRatio = heap;
+        if (!mOverloaded) {
+            mOverloaded = (suspendLag > 0 && lag >= suspendLag) || (suspendHeap > 0 && heap >= suspendHeap);
+        } else {
+            mOverloaded = !((suspendLag <= 0 || lag <= mResumeLagNanos) && (suspendHeap <= 0 || heap <= mResumeHeapRatio));
+        }
+        return mOverloaded;
+    }
+
+    /**
+     * Forget the state, the server stopped listening.
+     */
+    void reset() {
+        mOverloaded = false;
+        mLagNanos = 0;
+        mHeapRatio = 0;
+    }
+
+    private void probe(SEEventLoop[] eventLoops, final long now) {
+        mProbeSentAt = now;
+        mPendingProbes.set(eventLoops.length);
+        for (SEEventLoop eventLoop : eventLoops) {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long lag = System.nanoTime() - now;
+                    long max;
+                    do {
+                        max = mMaxProbeLag.get();
+                    } while (lag > max && !mMaxProbeLag.compareAndSet(max, lag));
+                    mPendingProbes.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private static double heapRatio() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : HEAP_POOLS) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return (double) used / Runtime.getRuntime().maxMemory();
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+}
@@ -0,0 +1,368 @@
+package com.seagle.net.socket;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Replays a {@link SETrafficCapture} log against a server, as benchmark input with the timing and message
+ * sizes of real traffic. Every captured connection becomes a new connection to the target, which sends the
+ * bytes the client side sent in the capture: the received bytes of connections the captured process
+ * accepted, the written bytes of connections it opened. Opens, writes and closes keep their original
+ * spacing divided by the speed factor; a connection closes at its captured close time, but not before it
+ * received as many bytes as the captured server answered or {@link #REPLY_TIMEOUT_MILLIS} passed.
+ * <p>
+ * Usage: SECaptureReplay &lt;log&gt; &lt;host&gt; &lt;port&gt; [speed], speed 1 for the original pace,
+ * 0 for as fast as possible.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SECaptureReplay {
+
+    /**
+     * Longest wait for the answers of a connection past its close time.
+     */
+    public static final long REPLY_TIMEOUT_MILLIS = 5000;
+
+    private final List<Connection> mConnections;
+    private final long mRequestBytes;
+    private final long mReplyBytes;
+
+    /**
+     * Load a log.
+     *
+     * @param log capture log
+     * @throws IOException not a capture log or read failed
+     */
+    public SECaptureReplay(File log) throws IOException {
+        final Map<Integer, Connection> connections = new HashMap<>();
+        final List<Connection> ordered = new ArrayList<>();
+        SETrafficCapture.read(log, new SETrafficCapture.RecordVisitor() {
+            @Override
+            public void onRecord(int connection, int kind, long nanos, byte[] body) {
+                Connection replayed = connections.get(connection);
+                if (replayed == null) {
+                    // The open record was dropped, server side captures are the common case.
+                    replayed = new Connection(nanos, kind != SETrafficCapture.KIND_OPEN || body[0] != 0);
+                    connections.put(connection, replayed);
+                    ordered.add(replayed);
+                }
+                if (kind == SETrafficCapture.KIND_CLOSE) {
+                    replayed.mCloseNanos = nanos;
+                } else if (kind != SETrafficCapture.KIND_OPEN) {
+                    if ((kind == SETrafficCapture.KIND_READ) == replayed.mAccepted) {
+                        replayed.mFrameNanos.add(nanos);
+                        replayed.mFrames.add(body);
+                    } else {
+                        replayed.mReplyBytes += body.length;
+                    }
+                }
+            }
+        });
+        long requestBytes = 0;
+        long replyBytes = 0;
+        for (Connection connection : ordered) {
+            for (byte[] frame : connection.mFrames) {
+                requestBytes += frame.length;
+            }
+            replyBytes += connection.mReplyBytes;
+        }
+        mConnections = ordered;
+        mRequestBytes = requestBytes;
+        mReplyBytes = replyBytes;
+    }
+
+    /**
+     * Return the captured connections.
+     *
+     * @return count
+     */
+    public int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    /**
+     * Return the bytes a replay sends.
+     *
+     * @return byte count
+     */
+    public long getRequestBytes() {
+        return mRequestBytes;
+    }
+
+    /**
+     * Return the bytes the captured server answered.
+     *
+     * @return byte count
+     */
+    public long getReplyBytes() {
+        return mReplyBytes;
+    }
+
+    /**
+     * Replay the log once.
+     *
+     * @param target server address
+     * @param speed  pace factor, 1 for the original pace, 0 or less for as fast as possible
+     * @return future completed once every connection closed
+     */
+    public CompletableFuture<Result> replay(SocketAddress target, double speed) {
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        Run run = new Run(future, mConnections.size());
+        if (mConnections.isEmpty()) {
+            run.complete();
+            return future;
+        }
+        long firstOpen = Long.MAX_VALUE;
+        for (Connection connection : mConnections) {
+            firstOpen = Math.min(firstOpen, connection.mOpenNanos);
+        }
+        for (Connection connection : mConnections) {
+            new Session(connection, run, target, speed, firstOpen).schedule();
+        }
+        return future;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: SECaptureReplay <log> <host> <port> [speed]");
+            System.exit(1);
+        }
+        double speed = args.length > 3 ? Double.parseDouble(args[3]) : 1;
+        SECaptureReplay replay = new SECaptureReplay(new File(args[0]));
+        System.out.println("Replaying " + replay.getConnectionCount() + " connections, "
+                + replay.getRequestBytes() + " bytes at speed " + speed);
+        Result result = replay.replay(new InetSocketAddress(args[1], Integer.parseInt(args[2])), speed).get();
+        System.out.println(result);
+        System.exit(0);
+    }
+
+    /**
+     * Outcome of one replay.
+     */
+    public static final class Result {
+        private final int mConnections;
+        private final int mFailedConnections;
+        private final long mBytesSent;
+        private final long mBytesReceived;
+        private final long mElapsedNanos;
+
+        Result(int connections, int failedConnections, long bytesSent, long bytesReceived, long elapsedNanos) {
+            mConnections = connections;
+            mFailedConnections = failedConnections;
+            mBytesSent = bytesSent;
+            mBytesReceived = bytesReceived;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        public int getConnections() {
+            return mConnections;
+        }
+
+        public int getFailedConnections() {
+            return mFailedConnections;
+        }
+
+        public long getBytesSent() {
+            return mBytesSent;
+        }
+
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "connections=" + mConnections + " failed=" + mFailedConnections + " sent=" + mBytesSent
+                    + " received=" + mBytesReceived + " elapsed=" + TimeUnit.NANOSECONDS.toMillis(mElapsedNanos) + "ms";
+        }
+    }
+
+    /**
+     * Captured client side of one connection.
+     */
+    private static final class Connection {
+        final long mOpenNanos;
+        final boolean mAccepted;
+        final List<Long> mFrameNanos = new ArrayList<>();
+        final List<byte[]> mFrames = new ArrayList<>();
+        long mCloseNanos = -1;
+        long mReplyBytes;
+
+        Connection(long openNanos, boolean accepted) {
+            mOpenNanos = openNanos;
+            mAccepted = accepted;
+        }
+    }
+
+    /**
+     * Counters of one replay, shared by its sessions.
+     */
+    private static final class Run {
+        final CompletableFuture<Result> mFuture;
+        final long mStartNanos = System.nanoTime();
+        final int mConnections;
+        final AtomicInteger mRemaining;
+        final AtomicInteger mFailed = new AtomicInteger();
+        final AtomicLong mBytesSent = new AtomicLong();
+        final AtomicLong mBytesReceived = new AtomicLong();
+
+        Run(CompletableFuture<Result> future, int connections) {
+            mFuture = future;
+            mConnections = connections;
+            mRemaining = new AtomicInteger(connections);
+        }
+
+        void finish() {
+            if (mRemaining.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        void complete() {
+            mFuture.complete(new Result(mConnections, mFailed.get(), mBytesSent.get(), mBytesReceived.get(),
+                    System.nanoTime() - mStartNanos));
+        }
+    }
+
+    /**
+     * Replay of one connection, event loop of its channel only.
+     */
+    private static final class Session implements Runnable, SESocketChannel.SocketChannelStateListener {
+        private final Connection mConnection;
+        private final Run mRun;
+        private final SocketAddress mTarget;
+        private final double mSpeed;
+        private final long mFirstOpen;
+        private final SESocketChannel mChannel = new SESocketChannel();
+        private int mNext = -1;
+        private long mReceived;
+        private boolean mAwaitingReply;
+        private boolean mClosing;
+        private boolean mFinished;
+
+        Session(Connection connection, Run run, SocketAddress target, double speed, long firstOpen) {
+            mConnection = connection;
+            mRun = run;
+            mTarget = target;
+            mSpeed = speed;
+            mFirstOpen = firstOpen;
+        }
+
+        void schedule() {
+            mChannel.getEventLoop().schedule(this, delay(mConnection.mOpenNanos), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Connect on the first run, then write the frames that are due.
+         */
+        @Override
+        public void run() {
+            if (mFinished) {
+                return;
+            }
+            if (mNext < 0) {
+                mNext = 0;
+                mChannel.registerSocketChannelListener(this);
+                mChannel.connectAsync(mTarget).whenComplete(new BiConsumer<SESocketChannel, Throwable>() {
+                    @Override
+                    public void accept(SESocketChannel channel, Throwable throwable) {
+                        if (throwable != null) {
+                            mRun.mFailed.incrementAndGet();
+                            finish();
+                        } else {
+                            mChannel.getEventLoop().execute(Session.this);
+                        }
+                    }
+                });
+                return;
+            }
+            List<byte[]> frames = mConnection.mFrames;
+            while (mNext < frames.size()) {
+                long delay = delay(mConnection.mFrameNanos.get(mNext));
+                if (delay > 0) {
+                    mChannel.getEventLoop().schedule(this, delay, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                byte[] frame = frames.get(mNext++);
+                mChannel.writeData(frame);
+                mRun.mBytesSent.addAndGet(frame.length);
+            }
+            long closeDelay = mConnection.mCloseNanos >= 0 ? delay(mConnection.mCloseNanos) : 0;
+            if (closeDelay > 0) {
+                mChannel.getEventLoop().schedule(this, closeDelay, TimeUnit.NANOSECONDS);
+            } else if (!mAwaitingReply) {
+                mAwaitingReply = true;
+                if (mReceived >= mConnection.mReplyBytes) {
+                    close();
+                } else {
+                    mChannel.getEventLoop().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            close();
+                        }
+                    }, REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+            finish();
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+            mReceived += data.length;
+            mRun.mBytesReceived.addAndGet(data.length);
+            if (mAwaitingReply && mReceived >= mConnection.mReplyBytes) {
+                close();
+            }
+        }
+
+        private long delay(long capturedNanos) {
+            if (mSpeed <= 0) {
+                return 0;
+            }
+            long due = mRun.mStartNanos + (long) ((capturedNanos - mFirstOpen) / mSpeed);
+            return due - System.nanoTime();
+        }
+
+        private void close() {
+            if (mClosing) {
+                return;
+            }
+            mClosing = true;
+            mChannel.closeAsync().whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void result, Throwable throwable) {
+                    finish();
+                }
+            });
+        }
+
+        private void finish() {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            mChannel.unRegisterSocketChannelListener(this);
+            mRun.finish();
+        }
+    }
+}
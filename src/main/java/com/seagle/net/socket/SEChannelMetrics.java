@@ -0,0 +1,139 @@
+package com.seagle.net.socket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide socket channel counters.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEChannelMetrics {
+    static final AtomicLong BYTES_READ = new AtomicLong();
+    static final AtomicLong BYTES_WRITTEN = new AtomicLong();
+    static final AtomicLong READ_THROTTLED = new AtomicLong();
+    static final AtomicLong WRITE_THROTTLED = new AtomicLong();
+    static final AtomicLong SELECTOR_REBUILDS = new AtomicLong();
+    static final AtomicLong DEFLATE_BYTES_IN = new AtomicLong();
+    static final AtomicLong DEFLATE_BYTES_OUT = new AtomicLong();
+    static final AtomicLong DEFLATE_NANOS = new AtomicLong();
+    static final AtomicLong INFLATE_BYTES_IN = new AtomicLong();
+    static final AtomicLong INFLATE_BYTES_OUT = new AtomicLong();
+    static final AtomicLong INFLATE_NANOS = new AtomicLong();
+    static final AtomicLong CONNECTIONS_REJECTED = new AtomicLong();
+    static final AtomicLong ACCEPT_SUSPENSIONS = new AtomicLong();
+
+    private SEChannelMetrics() {
+    }
+
+    /**
+     * Return bytes read by all channels.
+     *
+     * @return byte count
+     */
+    public static long getBytesRead() {
+        return BYTES_READ.get();
+    }
+
+    /**
+     * Return bytes written by all channels.
+     *
+     * @return byte count
+     */
+    public static long getBytesWritten() {
+        return BYTES_WRITTEN.get();
+    }
+
+    /**
+     * Return how many times a channel suspended reading because of bandwidth limits.
+     *
+     * @return count
+     */
+    public static long getReadThrottledCount() {
+        return READ_THROTTLED.get();
+    }
+
+    /**
+     * Return how many times a channel delayed writing because of bandwidth limits.
+     *
+     * @return count
+     */
+    public static long getWriteThrottledCount() {
+        return WRITE_THROTTLED.get();
+    }
+
+    /**
+     * Return how many times a spinning selector was replaced.
+     *
+     * @return count
+     */
+    public static long getSelectorRebuildCount() {
+        return SELECTOR_REBUILDS.get();
+    }
+
+    /**
+     * Return the ratio of message bytes to deflated bytes over all messages deflated so far.
+     * Messages under the compression threshold are not counted.
+     *
+     * @return ratio, 0 if nothing was deflated
+     */
+    public static double getCompressionRatio() {
+        long out = DEFLATE_BYTES_OUT.get();
+        return out == 0 ? 0 : (double) DEFLATE_BYTES_IN.get() / out;
+    }
+
+    /**
+     * Return message bytes handed to deflate.
+     *
+     * @return byte count
+     */
+    public static long getDeflatedBytes() {
+        return DEFLATE_BYTES_IN.get();
+    }
+
+    /**
+     * Return message bytes produced by inflate.
+     *
+     * @return byte count
+     */
+    public static long getInflatedBytes() {
+        return INFLATE_BYTES_OUT.get();
+    }
+
+    /**
+     * Return the event loop time spent deflating, the work is pure CPU.
+     *
+     * @return nanoseconds
+     */
+    public static long getDeflateNanos() {
+        return DEFLATE_NANOS.get();
+    }
+
+    /**
+     * Return the event loop time spent inflating, the work is pure CPU.
+     *
+     * @return nanoseconds
+     */
+    public static long getInflateNanos() {
+        return INFLATE_NANOS.get();
+    }
+
+    /**
+     * Return connections closed right after accept by admission control, see
+     * {@link SEServerSocketChannel#getRejectedConnections(SEServerSocketChannel.RejectReason)}.
+     *
+     * @return count
+     */
+    public static long getRejectedConnections() {
+        return CONNECTIONS_REJECTED.get();
+    }
+
+    /**
+     * Return how many times a server stopped accepting because of event loop lag or heap pressure.
+     *
+     * @return count
+     */
+    public static long getAcceptSuspensions() {
+        return ACCEPT_SUSPENSIONS.get();
+    }
+}
@@ -0,0 +1,242 @@
+package com.seagle.net.socket;
+
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Channels accepted by a {@link SEServerSocketChannel}, addressed by id.
+ * Ids are assigned in accept order starting from 1 and never reused. A channel is removed as soon as it
+ * is disconnected. Entries are spread over lock striped primitive maps, several per event loop, so
+ * lookups and the removals running on different loops rarely meet on a lock. Ids are never boxed.
+ * The registry of a TCP server also counts its channels per remote address, for admission control,
+ * in maps striped by address the same way.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEChannelRegistry {
+
+    /**
+     * Stripes per event loop.
+     */
+    private static final int STRIPES_PER_LOOP = 4;
+
+    private final LongObjectHashMap<SESocketChannel>[] mStripes;
+    private final int mMask;
+    private final AtomicLong mNextId = new AtomicLong();
+    private final AtomicInteger mSize = new AtomicInteger();
+    /**
+     * Channel count per remote address, striped by address hash, null unless counted.
+     */
+    private final HashMap<InetAddress, int[]>[] mAddressCounts;
+
+    SEChannelRegistry(int loopCount) {
+        this(loopCount, false);
+    }
+
+    /**
+     * Create a registry.
+     *
+     * @param loopCount      event loop count, sizes the lock striping
+     * @param countAddresses count channels per remote address, TCP channels only
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SEChannelRegistry(int loopCount, boolean countAddresses) {
+        int stripes = Integer.highestOneBit(Math.max(loopCount * STRIPES_PER_LOOP, 2) - 1) << 1;
+        mStripes = new LongObjectHashMap[stripes];
+        for (int i = 0; i < stripes; i++) {
+            mStripes[i] = new LongObjectHashMap<>();
+        }
+        mMask = stripes - 1;
+        if (countAddresses) {
+            mAddressCounts = new HashMap[stripes];
+            for (int i = 0; i < stripes; i++) {
+                mAddressCounts[i] = new HashMap<>();
+            }
+        } else {
+            mAddressCounts = null;
+        }
+    }
+
+    /**
+     * Return the channel with the given id.
+     *
+     * @param id channel id
+     * @return channel, null if unknown or disconnected
+     */
+    public SESocketChannel get(long id) {
+        LongObjectHashMap<SESocketChannel> stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.get(id);
+        }
+    }
+
+    /**
+     * Write data to the channel with the given id.
+     *
+     * @param id   channel id
+     * @param data Data
+     * @return false if no channel has the id
+     * @see SESocketChannel#writeData(byte[])
+     */
+    public boolean writeData(long id, byte[] data) {
+        SESocketChannel channel = get(id);
+        if (channel == null) {
+            return false;
+        }
+        channel.writeData(data);
+        return true;
+    }
+
+    /**
+     * Visit every registered channel.
+     * Each stripe is copied under its lock and visited outside of it, so the visitor may write to or
+     * disconnect channels. Channels registered or removed meanwhile may or may not be visited.
+     *
+     * @param visitor visitor
+     */
+    public void forEach(ChannelVisitor visitor) {
+        long[] ids = new long[0];
+        SESocketChannel[] channels = new SESocketChannel[0];
+        for (LongObjectHashMap<SESocketChannel> stripe : mStripes) {
+            int count;
+            synchronized (stripe) {
+                count = stripe.size();
+                if (count > ids.length) {
+                    ids = new long[count];
+                    channels = new SESocketChannel[count];
+                }
+                stripe.copyTo(ids, channels);
+            }
+            for (int i = 0; i < count; i++) {
+                visitor.visit(ids[i], channels[i]);
+                channels[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Return the registered channel count.
+     *
+     * @return size
+     */
+    public int size() {
+        return mSize.get();
+    }
+
+    /**
+     * Return the registered channels connected from an address.
+     *
+     * @param address remote address
+     * @return count, 0 unless the registry counts addresses
+     */
+    int countOf(InetAddress address) {
+        if (mAddressCounts == null || address == null) {
+            return 0;
+        }
+        HashMap<InetAddress, int[]> counts = addressStripe(address);
+        synchronized (counts) {
+            int[] count = counts.get(address);
+            return count != null ? count[0] : 0;
+        }
+    }
+
+    /**
+     * Return a new channel id.
+     *
+     * @return id
+     */
+    long nextId() {
+        return mNextId.incrementAndGet();
+    }
+
+    /**
+     * Register a channel.
+     *
+     * @param id      channel id
+     * @param channel channel
+     */
+    void put(long id, SESocketChannel channel) {
+        LongObjectHashMap<SESocketChannel> stripe = stripe(id);
+        synchronized (stripe) {
+            if (stripe.put(id, channel) != null) {
+                return;
+            }
+        }
+        mSize.incrementAndGet();
+        countAddress(channel, 1);
+    }
+
+    /**
+     * Unregister a channel, nothing happens if the id maps to another channel.
+     *
+     * @param id      channel id
+     * @param channel channel
+     */
+    void remove(long id, SESocketChannel channel) {
+        LongObjectHashMap<SESocketChannel> stripe = stripe(id);
+        synchronized (stripe) {
+            if (stripe.get(id) != channel) {
+                return;
+            }
+            stripe.remove(id);
+        }
+        mSize.decrementAndGet();
+        countAddress(channel, -1);
+    }
+
+    /**
+     * Add to the count of the channel's remote address.
+     * The socket keeps the address after it is closed, so a removal finds the address of the put.
+     *
+     * @param channel channel
+     * @param delta   1 or -1
+     */
+    private void countAddress(SESocketChannel channel, int delta) {
+        if (mAddressCounts == null) {
+            return;
+        }
+        SocketChannel socketChannel = channel.getSocketChannel();
+        InetAddress address = socketChannel != null ? socketChannel.socket().getInetAddress() : null;
+        if (address == null) {
+            return;
+        }
+        HashMap<InetAddress, int[]> counts = addressStripe(address);
+        synchronized (counts) {
+            int[] count = counts.get(address);
+            if (count == null) {
+                count = new int[1];
+                counts.put(address, count);
+            }
+            count[0] += delta;
+            if (count[0] <= 0) {
+                counts.remove(address);
+            }
+        }
+    }
+
+    private HashMap<InetAddress, int[]> addressStripe(InetAddress address) {
+        int hash = address.hashCode();
+        return mAddressCounts[(hash ^ (hash >>> 16)) & mMask];
+    }
+
+    private LongObjectHashMap<SESocketChannel> stripe(long id) {
+        return mStripes[(int) (id ^ (id >>> 32)) & mMask];
+    }
+
+    /**
+     * Channel visitor, gets the id unboxed.
+     */
+    public interface ChannelVisitor {
+        /**
+         * Visit a channel.
+         *
+         * @param id      channel id
+         * @param channel channel
+         */
+        void visit(long id, SESocketChannel channel);
+    }
+}
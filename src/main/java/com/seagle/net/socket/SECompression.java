@@ -0,0 +1,73 @@
+package com.seagle.net.socket;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compression settings of a channel, see {@link SESocketChannel#setCompression(SECompression)}.
+ * Every write becomes one message on the wire: [byte type][int length][body], big endian. Messages of at
+ * least the threshold are deflated into one stream per connection direction, flushed at every message end,
+ * so later messages refer back to earlier ones; smaller messages are sent as they are. Both ends need the
+ * same dictionary; each end bounds the size of the messages it inflates.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SECompression {
+
+    /**
+     * Default min message size that is deflated.
+     */
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    /**
+     * Default max size of a received message once inflated.
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    private final int mLevel;
+    private final int mThreshold;
+    private final int mMaxMessageSize;
+    private final byte[] mDictionary;
+
+    public SECompression() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD, DEFAULT_MAX_MESSAGE_SIZE, null);
+    }
+
+    /**
+     * Create compression settings.
+     *
+     * @param level          deflate level, 1 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param threshold      min message size that is deflated
+     * @param maxMessageSize max size of a received message once inflated, larger ones close the channel
+     * @param dictionary     preset dictionary, typical message content, may be null
+     */
+    public SECompression(int level, int threshold, int maxMessageSize, byte[] dictionary) {
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Illegal level: " + level);
+        }
+        if (threshold < 0 || maxMessageSize <= 0) {
+            throw new IllegalArgumentException("Illegal threshold or max message size: " + threshold + ", " + maxMessageSize);
+        }
+        mLevel = level;
+        mThreshold = threshold;
+        mMaxMessageSize = maxMessageSize;
+        mDictionary = dictionary != null && dictionary.length > 0 ? Arrays.copyOf(dictionary, dictionary.length) : null;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getThreshold() {
+        return mThreshold;
+    }
+
+    public int getMaxMessageSize() {
+        return mMaxMessageSize;
+    }
+
+    byte[] getDictionary() {
+        return mDictionary;
+    }
+}
@@ -0,0 +1,1026 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event loop: one selector and the thread that polls it.
+ * Channels are bound to one loop for their lifetime and all their events are handled on its thread.
+ * How the loop waits for events is decided by its {@link SESelectStrategy}, so latency critical sockets
+ * can get a dedicated busy polling loop while the others keep blocking.
+ * The loop is also an {@link Executor}: tasks submitted from any thread run on the loop thread between
+ * selects, so channel state is only ever mutated by its own loop and needs no locks.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEEventLoop implements Executor {
+    /**
+     * Read budget of one key per loop iteration, so a busy connection can not starve the others.
+     */
+    private static final int MAX_READS_PER_WAKEUP = 16;
+
+    /**
+     * Interval in which throttled channels re-check their token buckets.
+     */
+    private static final long TRAFFIC_TICK_MILLIS = 10;
+
+    /**
+     * Premature empty selects within {@link #SELECTOR_SPIN_WINDOW_NANOS} after which the selector is rebuilt.
+     * Guards against the JDK epoll bug where select() keeps returning immediately with nothing selected.
+     */
+    private static final int SELECTOR_REBUILD_THRESHOLD = 512;
+    private static final long SELECTOR_SPIN_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Read buffer size of channels without a receive sizer.
+     */
+    private static final int DEFAULT_READ_SIZE = 1024;
+
+    /**
+     * Tasks run per loop iteration, the rest waits for the next one so I/O is not starved.
+     */
+    private static final int MAX_TASKS_PER_ITERATION = 1024;
+
+    private static final AtomicInteger LOOP_ID = new AtomicInteger();
+
+    private final SESelectStrategy mSelectStrategy;
+    private final String mName;
+    private volatile Selector mSelector;
+    private volatile Thread mThread;
+    private SelectedSelectionKeySet mSelectedKeys;
+    private int mRound;
+    private int mPrematureSelects;
+    private long mPrematureWindowStart;
+    private volatile boolean mSelecting;
+    private volatile boolean mWakeupRequested;
+    private final AtomicBoolean mAwake = new AtomicBoolean(true);
+    private final MpscQueue<Runnable> mTaskQueue = new MpscQueue<>();
+    private ScheduledTask[] mScheduledTasks = new ScheduledTask[16];
+    private int mScheduledCount;
+    private long mScheduledSequence;
+    private final BufferPool mReadBufferPool = new BufferPool(true);
+    private final Set<SESocketChannel> mThrottledChannels = new HashSet<>();
+    private long mLastTrafficTick;
+    private ArrayList<SelectionKey> mPendingKeys = new ArrayList<>();
+    private ArrayList<SelectionKey> mHandlingKeys = new ArrayList<>();
+
+    /**
+     * Create a loop that blocks in select().
+     */
+    public SEEventLoop() {
+        this(new SESelectStrategy.Blocking());
+    }
+
+    /**
+     * Create a loop with the given select strategy.
+     *
+     * @param selectStrategy SESelectStrategy
+     */
+    public SEEventLoop(SESelectStrategy selectStrategy) {
+        if (selectStrategy == null) {
+            throw new IllegalArgumentException("Select strategy is null.");
+        }
+        mSelectStrategy = selectStrategy;
+        mName = "SEEventLoop-" + LOOP_ID.incrementAndGet();
+    }
+
+    /**
+     * Return the select strategy.
+     *
+     * @return SESelectStrategy
+     */
+    public SESelectStrategy getSelectStrategy() {
+        return mSelectStrategy;
+    }
+
+    /**
+     * Return whether the loop has work besides ready keys, a spinning strategy should stop spinning then.
+     * Loop thread only, that is from {@link SESelectStrategy#select}; the task queue may only be read by
+     * its consumer.
+     *
+     * @return true if the loop should return from select
+     */
+    public boolean hasPendingWork() {
+        return mWakeupRequested || !mTaskQueue.isEmpty();
+    }
+
+    /**
+     * Return whether the calling thread is the loop thread.
+     *
+     * @return true on the loop thread
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Run a task on the loop thread.
+     * Tasks run in submission order between selects; the selector is woken only if the loop is blocked in it.
+     *
+     * @param task task
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Task is null.");
+        }
+        try {
+            startIfNeeded();
+        } catch (IOException ex) {
+            throw new RejectedExecutionException(ex);
+        }
+        mTaskQueue.offer(task);
+        if (!inEventLoop() && mAwake.compareAndSet(false, true)) {
+            mWakeupRequested = true;
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * Run a task on the loop thread after a delay.
+     *
+     * @param task  task
+     * @param delay delay
+     * @param unit  delay unit
+     * @return handle to cancel the task
+     */
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null || unit == null) {
+            throw new IllegalArgumentException("Task or unit is null.");
+        }
+        // Start the loop first, so its start up does not shift the deadline of the next tasks.
+        try {
+            startIfNeeded();
+        } catch (IOException ex) {
+            throw new RejectedExecutionException(ex);
+        }
+        final ScheduledTask scheduledTask = new ScheduledTask(this, task, System.nanoTime() + unit.toNanos(Math.max(delay, 0)));
+        if (inEventLoop()) {
+            addScheduledTask(scheduledTask);
+        } else {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    addScheduledTask(scheduledTask);
+                }
+            });
+        }
+        return scheduledTask;
+    }
+
+    /**
+     * Register socket channel.
+     * Registration runs on the loop thread, callers on other threads wait for it.
+     * The handler gets the key through {@link ChannelEventHandler#onKeyChanged} before any event is dispatched.
+     *
+     * @param channel     channel
+     * @param interestSet select key set
+     * @param handler     event handler
+     * @return SelectionKey
+     * @throws IOException Socket Exception
+     */
+    SelectionKey registerChannel(AbstractSelectableChannel channel, int interestSet,
+                                 ChannelEventHandler handler) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Illegal channel!");
+        }
+        channel.configureBlocking(false);
+        startIfNeeded();
+        if (inEventLoop()) {
+            SelectionKey selectionKey = channel.register(mSelector, interestSet, handler);
+            if (handler != null) {
+                handler.onKeyChanged(selectionKey);
+            }
+            return selectionKey;
+        }
+        RegisterTask task = new RegisterTask(channel, interestSet, handler);
+        execute(task);
+        return task.await();
+    }
+
+    /**
+     * Open the selector and start the loop thread on first use.
+     *
+     * @throws IOException selector open failed
+     */
+    private void startIfNeeded() throws IOException {
+        if (mThread != null) {
+            return;
+        }
+        synchronized (this) {
+            if (mThread == null) {
+                Selector selector = Selector.open();
+                mSelectedKeys = SelectedSelectionKeySet.install(selector);
+                mSelector = selector;
+                mSelecting = true;
+                Thread thread = new Thread(new SelectKeyLooper(), mName);
+                mThread = thread;
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Return the direct buffer pool of the loop, loop thread only.
+     *
+     * @return BufferPool
+     */
+    BufferPool getDirectBufferPool() {
+        return mReadBufferPool;
+    }
+
+    /**
+     * Let a channel that ran out of tokens be re-checked on every traffic tick.
+     *
+     * @param channel channel
+     */
+    void addThrottledChannel(final SESocketChannel channel) {
+        if (inEventLoop()) {
+            mThrottledChannels.add(channel);
+        } else {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    mThrottledChannels.add(channel);
+                }
+            });
+        }
+    }
+
+    /**
+     * Resume throttled channels whose buckets have been refilled.
+     */
+    private void handleTrafficTick() {
+        long now = System.nanoTime();
+        if (now - mLastTrafficTick < TimeUnit.MILLISECONDS.toNanos(TRAFFIC_TICK_MILLIS)) {
+            return;
+        }
+        mLastTrafficTick = now;
+        Iterator<SESocketChannel> iterator = mThrottledChannels.iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().handleTrafficTick()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Queue a scheduled task, loop thread only.
+     *
+     * @param task task
+     */
+    private void addScheduledTask(ScheduledTask task) {
+        if (task.mCancelled) {
+            return;
+        }
+        task.mSequence = mScheduledSequence++;
+        if (mScheduledCount == mScheduledTasks.length) {
+            mScheduledTasks = Arrays.copyOf(mScheduledTasks, mScheduledCount * 2);
+        }
+        siftUp(mScheduledCount++, task);
+    }
+
+    /**
+     * Return the tasks in the deadline heap, loop thread only.
+     *
+     * @return task count
+     */
+    int getScheduledTaskCount() {
+        return mScheduledCount;
+    }
+
+    /**
+     * Remove a scheduled task from the deadline heap, loop thread only.
+     * Tasks keep their heap index, so a cancelled task leaves the heap at once instead of at its deadline.
+     *
+     * @param task task
+     */
+    private void removeScheduledTask(ScheduledTask task) {
+        int index = task.mHeapIndex;
+        if (index < 0 || index >= mScheduledCount || mScheduledTasks[index] != task) {
+            return;
+        }
+        task.mHeapIndex = -1;
+        int last = --mScheduledCount;
+        ScheduledTask moved = mScheduledTasks[last];
+        mScheduledTasks[last] = null;
+        if (index != last) {
+            siftDown(index, moved);
+            if (mScheduledTasks[index] == moved) {
+                siftUp(index, moved);
+            }
+        }
+    }
+
+    private void siftUp(int index, ScheduledTask task) {
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            ScheduledTask parent = mScheduledTasks[parentIndex];
+            if (task.compareTo(parent) >= 0) {
+                break;
+            }
+            mScheduledTasks[index] = parent;
+            parent.mHeapIndex = index;
+            index = parentIndex;
+        }
+        mScheduledTasks[index] = task;
+        task.mHeapIndex = index;
+    }
+
+    private void siftDown(int index, ScheduledTask task) {
+        int half = mScheduledCount >>> 1;
+        while (index < half) {
+            int childIndex = 2 * index + 1;
+            ScheduledTask child = mScheduledTasks[childIndex];
+            int rightIndex = childIndex + 1;
+            if (rightIndex < mScheduledCount && child.compareTo(mScheduledTasks[rightIndex]) > 0) {
+                childIndex = rightIndex;
+                child = mScheduledTasks[childIndex];
+            }
+            if (task.compareTo(child) <= 0) {
+                break;
+            }
+            mScheduledTasks[index] = child;
+            child.mHeapIndex = index;
+            index = childIndex;
+        }
+        mScheduledTasks[index] = task;
+        task.mHeapIndex = index;
+    }
+
+    /**
+     * Return nanos until the loop has to wake up for the traffic tick or a scheduled task.
+     *
+     * @param now current nanos
+     * @return nanos, Long.MAX_VALUE if nothing is due
+     */
+    private long nextWakeupNanos(long now) {
+        long timeout = mThrottledChannels.isEmpty() ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(TRAFFIC_TICK_MILLIS);
+        if (mScheduledCount > 0) {
+            ScheduledTask task = mScheduledTasks[0];
+            timeout = Math.min(timeout, Math.max(task.mDeadline - now, 0));
+        }
+        return timeout;
+    }
+
+    /**
+     * Run due scheduled tasks and one batch of submitted tasks.
+     */
+    private void runTasks() {
+        long now = System.nanoTime();
+        ScheduledTask scheduledTask;
+        while (mScheduledCount > 0 && (scheduledTask = mScheduledTasks[0]).mDeadline - now <= 0) {
+            removeScheduledTask(scheduledTask);
+            if (!scheduledTask.isCancelled()) {
+                runTask(scheduledTask.mTask);
+            }
+        }
+        for (int i = 0; i < MAX_TASKS_PER_ITERATION; i++) {
+            Runnable task = mTaskQueue.poll();
+            if (task == null) {
+                break;
+            }
+            runTask(task);
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Selector key looper.
+     */
+    private class SelectKeyLooper implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (mSelecting && !Thread.currentThread().isInterrupted()) {
+                    int selected;
+                    try {
+                        selected = select();
+                        if (!mThrottledChannels.isEmpty()) {
+                            handleTrafficTick();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        break;
+                    }
+                    if (selected > 0 || !mPendingKeys.isEmpty()) {
+                        try {
+                            mRound++;
+                            handlePendingKeys();
+                            if (mSelectedKeys != null) {
+                                handleSelectedKeysOptimized();
+                            } else {
+                                handleSelectedKeysPlain();
+                            }
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                    runTasks();
+                }
+            } finally {
+                mSelecting = false;
+            }
+        }
+    }
+
+    /**
+     * Poll the selector, blocking through the strategy only if no keys or tasks are waiting.
+     * While blocked the awake flag is cleared, so only the first task submitted from another thread wakes the selector.
+     *
+     * @return selected key count
+     * @throws IOException select failed
+     */
+    private int select() throws IOException {
+        if (!mPendingKeys.isEmpty() || !mTaskQueue.isEmpty()) {
+            return mSelector.selectNow();
+        }
+        long selectStart = System.nanoTime();
+        long timeout = nextWakeupNanos(selectStart);
+        mAwake.set(false);
+        try {
+            if (!mTaskQueue.isEmpty() || timeout < TimeUnit.MILLISECONDS.toNanos(1)) {
+                mWakeupRequested = false;
+                return mSelector.selectNow();
+            }
+            long timeoutMillis = timeout == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(timeout);
+            int selected = mSelectStrategy.select(mSelector, timeoutMillis, this);
+            checkSelectorSpin(selected, selectStart, timeoutMillis == 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            return selected;
+        } finally {
+            mAwake.set(true);
+        }
+    }
+
+    /**
+     * Count selects that returned nothing before their timeout, rebuild the selector when they pile up.
+     *
+     * @param selected    select result
+     * @param selectStart select start time in nanos
+     * @param timeout     select timeout in nanos
+     */
+    private void checkSelectorSpin(int selected, long selectStart, long timeout) {
+        long now = System.nanoTime();
+        boolean wakeupRequested = mWakeupRequested;
+        mWakeupRequested = false;
+        if (selected > 0 || wakeupRequested || now - selectStart >= timeout || Thread.currentThread().isInterrupted()) {
+            mPrematureSelects = 0;
+            return;
+        }
+        if (mPrematureSelects == 0 || now - mPrematureWindowStart > SELECTOR_SPIN_WINDOW_NANOS) {
+            mPrematureSelects = 0;
+            mPrematureWindowStart = now;
+        }
+        if (++mPrematureSelects >= SELECTOR_REBUILD_THRESHOLD) {
+            mPrematureSelects = 0;
+            rebuildSelector();
+        }
+    }
+
+    /**
+     * Move every valid key to a new selector with the same interest set and attachment, then close the old one.
+     */
+    private void rebuildSelector() {
+        Selector oldSelector = mSelector;
+        Selector newSelector;
+        try {
+            newSelector = Selector.open();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        SelectedSelectionKeySet selectedKeys = SelectedSelectionKeySet.install(newSelector);
+        for (SelectionKey key : oldSelector.keys()) {
+            if (!key.isValid() || key.channel().keyFor(newSelector) != null) {
+                continue;
+            }
+            Object attachment = key.attachment();
+            try {
+                int interestOps = key.interestOps();
+                key.cancel();
+                SelectionKey newKey = key.channel().register(newSelector, interestOps, attachment);
+                if (attachment instanceof ChannelEventHandler) {
+                    ((ChannelEventHandler) attachment).onKeyChanged(newKey);
+                }
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                if (attachment instanceof ChannelEventHandler) {
+                    ((ChannelEventHandler) attachment).onDisconnected(ex);
+                }
+            }
+        }
+        mSelector = newSelector;
+        mSelectedKeys = selectedKeys;
+        mPendingKeys.clear();
+        try {
+            oldSelector.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        SEChannelMetrics.SELECTOR_REBUILDS.incrementAndGet();
+    }
+
+    /**
+     * Handle selected keys of the array backed set by index.
+     */
+    private void handleSelectedKeysOptimized() {
+        SelectedSelectionKeySet selectedKeys = mSelectedKeys;
+        try {
+            for (int i = 0; i < selectedKeys.size(); i++) {
+                SelectionKey key = selectedKeys.get(i);
+                if (key.isValid() && !isHandledThisRound(key)) {
+                    handleSelectionKey(key);
+                }
+            }
+        } finally {
+            selectedKeys.reset();
+        }
+    }
+
+    /**
+     * Handle selected keys of the JDK set, used when the array backed set could not be installed.
+     */
+    private void handleSelectedKeysPlain() {
+        Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (key.isValid() && !isHandledThisRound(key)) {
+                handleSelectionKey(key);
+            }
+        }
+    }
+
+    /**
+     * Return whether the key was already served as a pending key in this iteration.
+     *
+     * @param key SelectionKey
+     * @return true if served
+     */
+    private boolean isHandledThisRound(SelectionKey key) {
+        Object obj = key.attachment();
+        return obj instanceof ChannelEventHandler && ((ChannelEventHandler) obj).mPendingRound == mRound;
+    }
+
+    /**
+     * Continue reading keys that used up their read budget in the previous iteration,
+     * and flush their pending writes, since a key stamped here is skipped in the selected set.
+     * They are served before the freshly selected keys and stamped with the iteration,
+     * so every key is handled at most once per iteration.
+     */
+    private void handlePendingKeys() {
+        if (mPendingKeys.isEmpty()) {
+            return;
+        }
+        ArrayList<SelectionKey> pendingKeys = mPendingKeys;
+        mPendingKeys = mHandlingKeys;
+        mHandlingKeys = pendingKeys;
+        for (int i = 0; i < pendingKeys.size(); i++) {
+            SelectionKey key = pendingKeys.get(i);
+            Object obj = key.attachment();
+            if (obj instanceof ChannelEventHandler) {
+                ((ChannelEventHandler) obj).mPendingRound = mRound;
+            }
+            if (key.isValid() && (key.interestOps() & SelectionKey.OP_READ) != 0) {
+                handleReadableKey(key);
+            }
+            if (key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                handleWritableKey(key);
+            }
+        }
+        pendingKeys.clear();
+    }
+
+    /**
+     * Merge two byte array.
+     *
+     * @param bytes1 byte array
+     * @param bytes2 byte array
+     * @return byte array
+     */
+    private byte[] mergeBytes(byte[] bytes1, byte[] bytes2) {
+        int byte1Len = (null != bytes1) ? bytes1.length : 0;
+        int byte2Len = (null != bytes2) ? bytes2.length : 0;
+        if (byte1Len > 0 || byte2Len > 0) {
+            byte[] data = new byte[byte1Len + byte2Len];
+            if (byte1Len > 0) {
+                System.arraycopy(bytes1, 0, data, 0, byte1Len);
+            }
+            if (byte2Len > 0) {
+                System.arraycopy(bytes2, 0, data, byte1Len, byte2Len);
+            }
+            return data;
+        }
+        return null;
+    }
+
+    /**
+     * Handle selection key.
+     *
+     * @param selectionKey SelectionKey
+     */
+    private void handleSelectionKey(SelectionKey selectionKey) {
+        int readyOps = selectionKey.readyOps();
+        if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+            handleConnectableKey(selectionKey);
+        } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+            handleAcceptableKey(selectionKey);
+        } else {
+            // A key can be readable and writable at once, serve both so that
+            // queued writes keep flushing under steady inbound traffic.
+            if ((readyOps & SelectionKey.OP_READ) != 0) {
+                handleReadableKey(selectionKey);
+            }
+            if ((readyOps & SelectionKey.OP_WRITE) != 0 && selectionKey.isValid()) {
+                handleWritableKey(selectionKey);
+            }
+        }
+    }
+
+    /**
+     * Handle connectable key.
+     *
+     * @param selectionKey SelectionKey
+     */
+    private void handleConnectableKey(SelectionKey selectionKey) {
+        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+        Object obj = selectionKey.attachment();
+        if (null != obj && obj instanceof ChannelEventHandler) {
+            ChannelEventHandler handler = (ChannelEventHandler) obj;
+            try {
+                if (socketChannel.isConnectionPending() && !socketChannel.finishConnect()) {
+                    return;
+                }
+                handler.onConnected();
+            } catch (IOException e) {
+                selectionKey.cancel();
+                handler.onConnectFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Socket channel client connect accept.
+     *
+     * @param selectionKey SelectionKey
+     */
+    private void handleAcceptableKey(SelectionKey selectionKey) {
+        final Channel socketChannel = selectionKey.channel();
+        Object obj = selectionKey.attachment();
+        if (null != obj && obj instanceof ChannelEventHandler) {
+            if (socketChannel != null) {
+                try {
+                    SocketChannel client = ((ServerSocketChannel) socketChannel).accept();
+                    ChannelEventHandler handler = (ChannelEventHandler) obj;
+                    if (client != null) {
+                        handler.onAccept(client);
+                    }
+                } catch (Exception ex) {
+                    selectionKey.cancel();
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Socket channel receive data.
+     *
+     * @param selectionKey SelectionKey
+     */
+    private void handleReadableKey(SelectionKey selectionKey) {
+        final SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+        Object obj = selectionKey.attachment();
+        if (null != obj && obj instanceof ChannelEventHandler) {
+            ChannelEventHandler handler = (ChannelEventHandler) obj;
+            int capacity = handler.getReadCapacity();
+            AdaptiveRecvSizer sizer = handler.getRecvSizer();
+            int reads = 0;
+            byte[] dataBytes = null;
+            try {
+                while (capacity > 0) {
+                    if (reads == MAX_READS_PER_WAKEUP) {
+                        mPendingKeys.add(selectionKey);
+                        break;
+                    }
+                    ByteBuffer buffer = mReadBufferPool.acquire(sizer != null ? sizer.nextSize() : DEFAULT_READ_SIZE);
+                    int length;
+                    byte[] newData = null;
+                    boolean taken = false;
+                    try {
+                        buffer.limit(Math.min(buffer.capacity(), capacity));
+                        length = socketChannel.read(buffer);
+                        if (length > 0) {
+                            // A read clamped by throttling or watermarks says nothing about the size class.
+                            if (sizer != null && buffer.limit() == buffer.capacity()) {
+                                sizer.record(length, buffer.capacity());
+                            }
+                            buffer.flip();
+                            taken = handler.onReadBuffer(buffer);
+                            if (!taken) {
+                                newData = new byte[buffer.limit()];
+                                buffer.get(newData);
+                            }
+                        }
+                    } finally {
+                        mReadBufferPool.release(buffer);
+                    }
+                    if (length > 0) {
+                        if (taken) {
+                            // The handler may have paused reading while it took the buffer.
+                            capacity = Math.min(capacity - length, handler.getReadCapacity());
+                        } else {
+                            dataBytes = mergeBytes(dataBytes, newData);
+                            capacity -= length;
+                        }
+                        reads++;
+                    } else if (length == 0) {
+                        break;
+                    } else {
+                        socketChannel.close();
+                        throw new IOException("Stream end!");
+                    }
+                }
+                if (dataBytes != null && dataBytes.length > 0) {
+                    handler.onRead(dataBytes);
+                }
+            } catch (NotYetConnectedException | IOException ex) {
+                selectionKey.cancel();
+                handler.onDisconnected(ex);
+            }
+        }
+    }
+
+    /**
+     * Socket channel prepared write data.
+     *
+     * @param selectionKey SelectionKey
+     */
+    private void handleWritableKey(SelectionKey selectionKey) {
+        final Channel socketChannel = selectionKey.channel();
+        Object obj = selectionKey.attachment();
+        if (null != obj && obj instanceof ChannelEventHandler) {
+            if (socketChannel != null) {
+                try {
+                    ChannelEventHandler handler = (ChannelEventHandler) obj;
+                    handler.onWritable();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    selectionKey.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle of a task submitted with {@link #schedule(Runnable, long, TimeUnit)}.
+     */
+    public static final class ScheduledTask implements Comparable<ScheduledTask> {
+        private final SEEventLoop mLoop;
+        private final Runnable mTask;
+        private final long mDeadline;
+        private long mSequence;
+        private int mHeapIndex = -1;
+        private volatile boolean mCancelled;
+
+        private ScheduledTask(SEEventLoop loop, Runnable task, long deadline) {
+            mLoop = loop;
+            mTask = task;
+            mDeadline = deadline;
+        }
+
+        /**
+         * Cancel the task. No effect once the task has run.
+         */
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            if (mLoop.inEventLoop()) {
+                mLoop.removeScheduledTask(this);
+            } else {
+                mLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoop.removeScheduledTask(ScheduledTask.this);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Return whether the task was cancelled.
+         *
+         * @return true if cancelled
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            long diff = mDeadline - other.mDeadline;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Channel registration handed to the loop thread.
+     */
+    private final class RegisterTask implements Runnable {
+        private final AbstractSelectableChannel mChannel;
+        private final int mInterestSet;
+        private final ChannelEventHandler mHandler;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private SelectionKey mSelectionKey;
+        private IOException mFailure;
+
+        private RegisterTask(AbstractSelectableChannel channel, int interestSet, ChannelEventHandler handler) {
+            mChannel = channel;
+            mInterestSet = interestSet;
+            mHandler = handler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mSelectionKey = mChannel.register(mSelector, mInterestSet, mHandler);
+                if (mHandler != null) {
+                    mHandler.onKeyChanged(mSelectionKey);
+                }
+            } catch (IOException ex) {
+                mFailure = ex;
+            } catch (RuntimeException ex) {
+                mFailure = new IOException(ex);
+            } finally {
+                mDone.countDown();
+            }
+        }
+
+        private SelectionKey await() throws IOException {
+            try {
+                mDone.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while registering channel.");
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            return mSelectionKey;
+        }
+    }
+
+    /**
+     * Selection event handler。
+     * Every event has its own typed callback, so dispatching allocates nothing and takes no lock.
+     * Callbacks run on the selector thread.
+     */
+    abstract static class ChannelEventHandler {
+
+        /**
+         * Loop iteration in which the key was last served as a pending key, owned by the selector thread.
+         */
+        int mPendingRound;
+
+        /**
+         * Pending connection finished.
+         */
+        void onConnected() {
+        }
+
+        /**
+         * Pending connection failed.
+         *
+         * @param cause failure
+         */
+        void onConnectFailed(Throwable cause) {
+        }
+
+        /**
+         * Server channel accepted a connection.
+         *
+         * @param socketChannel accepted channel
+         */
+        void onAccept(SocketChannel socketChannel) {
+        }
+
+        /**
+         * Data read from the channel.
+         *
+         * @param data bytes read
+         */
+        void onRead(byte[] data) {
+        }
+
+        /**
+         * Data read from the channel, straight from the loop's pooled read buffer. The buffer is only valid
+         * during the call; bytes the handler takes here are not handed to {@link #onRead(byte[])}.
+         *
+         * @param buffer flipped read buffer
+         * @return true if the handler took the bytes, false to have them copied for onRead
+         */
+        boolean onReadBuffer(ByteBuffer buffer) {
+            return false;
+        }
+
+        /**
+         * Channel is ready for writing.
+         */
+        void onWritable() {
+        }
+
+        /**
+         * Channel closed or failed.
+         *
+         * @param cause failure
+         */
+        void onDisconnected(Throwable cause) {
+        }
+
+        /**
+         * The channel was registered, or registered again after a selector rebuild.
+         *
+         * @param selectionKey new key
+         */
+        void onKeyChanged(SelectionKey selectionKey) {
+        }
+
+        /**
+         * Return how many bytes the handler accepts for the next read event.
+         * The read loop stops once this many bytes have been read, the rest stays in the socket buffer.
+         *
+         * @return byte count
+         */
+        int getReadCapacity() {
+            return 0;
+        }
+
+        /**
+         * Return the receive buffer sizer of the channel.
+         *
+         * @return sizer, null to use the default read buffer size
+         */
+        AdaptiveRecvSizer getRecvSizer() {
+            return null;
+        }
+    }
+
+    /**
+     * Emit a spin wait hint where the JDK supports it. Thread.onSpinWait was added in Java 9 and the library
+     * is built for Java 8, so it is resolved once through a MethodHandle and skipped on older JDKs.
+     */
+    static void onSpinWait() {
+        MethodHandle onSpinWait = ON_SPIN_WAIT;
+        if (onSpinWait != null) {
+            try {
+                onSpinWait.invokeExact();
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    private static final MethodHandle ON_SPIN_WAIT = findOnSpinWait();
+
+    private static MethodHandle findOnSpinWait() {
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
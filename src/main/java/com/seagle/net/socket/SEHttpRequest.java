@@ -0,0 +1,119 @@
+package com.seagle.net.socket;
+
+/**
+ * HTTP request parsed by {@link SEHttpServer}. Header names keep the case the client sent, lookups ignore it.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEHttpRequest {
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final String mMethod;
+    private final String mUri;
+    private final boolean mHttp11;
+    private final String[] mHeaders;
+    private final int mHeaderCount;
+    private final boolean mKeepAlive;
+    private byte[] mBody = EMPTY_BODY;
+
+    SEHttpRequest(String method, String uri, boolean http11, String[] headers, int headerCount, boolean keepAlive) {
+        mMethod = method;
+        mUri = uri;
+        mHttp11 = http11;
+        mHeaders = headers;
+        mHeaderCount = headerCount;
+        mKeepAlive = keepAlive;
+    }
+
+    /**
+     * Return the method, the common ones are the same String instances as the HttpRequestDecoder constants.
+     *
+     * @return method, e.g. GET
+     */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * Return the request target as sent.
+     *
+     * @return uri, e.g. /status?verbose=1
+     */
+    public String getUri() {
+        return mUri;
+    }
+
+    /**
+     * Return the request target without the query.
+     *
+     * @return path
+     */
+    public String getPath() {
+        int query = mUri.indexOf('?');
+        return query < 0 ? mUri : mUri.substring(0, query);
+    }
+
+    /**
+     * Return the protocol version.
+     *
+     * @return HTTP/1.1 or HTTP/1.0
+     */
+    public String getVersion() {
+        return mHttp11 ? "HTTP/1.1" : "HTTP/1.0";
+    }
+
+    /**
+     * Return the value of the first header of a name.
+     *
+     * @param name header name, case is ignored
+     * @return value, null if absent
+     */
+    public String getHeader(String name) {
+        for (int i = 0; i < mHeaderCount; i++) {
+            if (mHeaders[i * 2].equalsIgnoreCase(name)) {
+                return mHeaders[i * 2 + 1];
+            }
+        }
+        return null;
+    }
+
+    public int getHeaderCount() {
+        return mHeaderCount;
+    }
+
+    public String getHeaderName(int index) {
+        return mHeaders[index * 2];
+    }
+
+    public String getHeaderValue(int index) {
+        return mHeaders[index * 2 + 1];
+    }
+
+    /**
+     * Return the body, chunked bodies are delivered joined.
+     *
+     * @return body, empty if none
+     */
+    public byte[] getBody() {
+        return mBody;
+    }
+
+    /**
+     * Return whether the connection stays open after the response, from the version and the Connection header.
+     *
+     * @return true for keep-alive
+     */
+    public boolean isKeepAlive() {
+        return mKeepAlive;
+    }
+
+    boolean isHttp11() {
+        return mHttp11;
+    }
+
+    void setBody(byte[] body) {
+        mBody = body;
+    }
+}
@@ -0,0 +1,478 @@
+package com.seagle.net.socket;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Response to one {@link SEHttpRequest}. Either {@link #send(byte[])} a whole body with a Content-Length, or
+ * stream it with {@link #write(byte[])} as chunks and {@link #end()}. Status lines, the Date header and the
+ * framing headers are pre-encoded bytes, a small response is one array built without String formatting.
+ * <p>
+ * A response may be completed later and from any thread, one thread at a time; responses to pipelined
+ * requests are still sent in request order, a response that is ready early waits for its predecessors.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEHttpResponse {
+
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CONTENT_TYPE = ascii("Content-Type: ");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    private static final byte[] LAST_CHUNK = ascii("0\r\n\r\n");
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+    private static final byte[][] STATUS_LINES = new byte[500][];
+    private static final byte[][] HEADER_LINES = new byte[4][];
+
+    /**
+     * Common content types, their header lines are pre-encoded.
+     */
+    public static final String TEXT_PLAIN = "text/plain; charset=utf-8";
+    public static final String APPLICATION_JSON = "application/json";
+    public static final String TEXT_HTML = "text/html; charset=utf-8";
+    public static final String APPLICATION_OCTET_STREAM = "application/octet-stream";
+
+    private static final String[] CONTENT_TYPES = {TEXT_PLAIN, APPLICATION_JSON, TEXT_HTML, APPLICATION_OCTET_STREAM};
+
+    private static final int STATE_NEW = 0;
+    private static final int STATE_STREAMING = 1;
+    private static final int STATE_DONE = 2;
+
+    private static volatile DateLine sDateLine;
+
+    static {
+        int[] codes = {100, 101, 200, 201, 202, 204, 206, 301, 302, 303, 304, 307, 308, 400, 401, 403, 404, 405,
+                408, 409, 411, 413, 414, 415, 429, 431, 500, 501, 502, 503, 504, 505};
+        for (int code : codes) {
+            STATUS_LINES[code - 100] = ascii("HTTP/1.1 " + code + " " + reason(code) + "\r\n");
+        }
+        for (int i = 0; i < CONTENT_TYPES.length; i++) {
+            HEADER_LINES[i] = ascii("Content-Type: " + CONTENT_TYPES[i] + "\r\n");
+        }
+    }
+
+    private final HttpConnection mConnection;
+    private final boolean mHttp11;
+    private final boolean mHead;
+    private boolean mKeepAlive;
+    private int mStatus = 200;
+    private String mContentType;
+    private String[] mHeaders;
+    private int mHeaderCount;
+    private int mState = STATE_NEW;
+    /**
+     * Output waiting for the responses before this one, event loop only.
+     */
+    private ArrayDeque<byte[]> mBuffered;
+    private boolean mBufferedLast;
+
+    SEHttpResponse(HttpConnection connection, boolean http11, boolean head, boolean keepAlive) {
+        mConnection = connection;
+        mHttp11 = http11;
+        mHead = head;
+        mKeepAlive = keepAlive;
+    }
+
+    /**
+     * Set the status code, 200 by default.
+     *
+     * @param status status code, 100 to 599
+     * @return this
+     */
+    public SEHttpResponse setStatus(int status) {
+        if (status < 100 || status > 599) {
+            throw new IllegalArgumentException("Illegal status: " + status);
+        }
+        checkNew();
+        mStatus = status;
+        return this;
+    }
+
+    /**
+     * Set the Content-Type header, the constants of this class are pre-encoded.
+     *
+     * @param contentType content type, null for none
+     * @return this
+     */
+    public SEHttpResponse setContentType(String contentType) {
+        checkNew();
+        mContentType = contentType;
+        return this;
+    }
+
+    /**
+     * Add a header. Content-Length, Transfer-Encoding and Connection are set by the response itself.
+     *
+     * @param name  header name
+     * @param value header value
+     * @return this
+     */
+    public SEHttpResponse addHeader(String name, String value) {
+        checkNew();
+        if (!isToken(name) || value == null || value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Illegal header: " + name);
+        }
+        if (mHeaders == null) {
+            mHeaders = new String[8];
+        } else if (mHeaderCount * 2 == mHeaders.length) {
+            mHeaders = Arrays.copyOf(mHeaders, mHeaders.length * 2);
+        }
+        mHeaders[mHeaderCount * 2] = name;
+        mHeaders[mHeaderCount * 2 + 1] = value;
+        mHeaderCount++;
+        return this;
+    }
+
+    /**
+     * Return whether the status and headers were sent or are on their way.
+     *
+     * @return true once send or write was called
+     */
+    public boolean isCommitted() {
+        return mState != STATE_NEW;
+    }
+
+    /**
+     * Send the whole response.
+     *
+     * @param body body, may be null for none
+     */
+    public void send(byte[] body) {
+        checkNew();
+        int length = body != null ? body.length : 0;
+        boolean bodyAllowed = mStatus >= 200 && mStatus != 204 && mStatus != 304;
+        HeadBuilder builder = head(bodyAllowed && !mHead ? length : 0);
+        if (bodyAllowed) {
+            builder.put(CONTENT_LENGTH).putDecimal(length).put(CRLF);
+        }
+        builder.put(CRLF);
+        if (bodyAllowed && !mHead && length > 0) {
+            builder.put(body);
+        }
+        mState = STATE_DONE;
+        mConnection.output(this, builder.toBytes(), true);
+    }
+
+    /**
+     * Send a chunk of a streamed body, the status and headers go out with the first one.
+     * HTTP/1.0 clients get the raw body, ended by closing the connection.
+     *
+     * @param chunk chunk, empty ones are skipped
+     */
+    public void write(byte[] chunk) {
+        if (mState == STATE_DONE) {
+            throw new IllegalStateException("Response already ended.");
+        }
+        int length = chunk != null ? chunk.length : 0;
+        HeadBuilder builder;
+        if (mState == STATE_NEW) {
+            if (!mHttp11) {
+                mKeepAlive = false;
+            }
+            builder = head(length + 32);
+            if (mHttp11) {
+                builder.put(TRANSFER_ENCODING_CHUNKED);
+            }
+            builder.put(CRLF);
+            mState = STATE_STREAMING;
+        } else if (length == 0 || mHead) {
+            return;
+        } else {
+            builder = new HeadBuilder(length + 16);
+        }
+        if (length > 0 && !mHead) {
+            if (mHttp11) {
+                builder.putHex(length).put(CRLF).put(chunk).put(CRLF);
+            } else {
+                builder.put(chunk);
+            }
+        }
+        mConnection.output(this, builder.toBytes(), false);
+    }
+
+    /**
+     * End the response, a response not committed yet is sent with an empty body.
+     */
+    public void end() {
+        if (mState == STATE_NEW) {
+            send(null);
+            return;
+        }
+        if (mState == STATE_DONE) {
+            return;
+        }
+        mState = STATE_DONE;
+        mConnection.output(this, mHttp11 && !mHead ? LAST_CHUNK : EMPTY, true);
+    }
+
+    boolean isKeepAlive() {
+        return mKeepAlive;
+    }
+
+    /**
+     * Keep output until the responses before this one are done, event loop only.
+     *
+     * @param bytes output
+     * @param last  whether the response is complete
+     */
+    void buffer(byte[] bytes, boolean last) {
+        if (mBuffered == null) {
+            mBuffered = new ArrayDeque<>(2);
+        }
+        if (bytes.length > 0) {
+            mBuffered.add(bytes);
+        }
+        mBufferedLast |= last;
+    }
+
+    /**
+     * Hand the kept output over once this response became the first one, event loop only.
+     *
+     * @return true if the response is complete
+     */
+    boolean flushBuffered() {
+        if (mBuffered != null) {
+            byte[] bytes;
+            while ((bytes = mBuffered.poll()) != null) {
+                mConnection.emit(bytes);
+            }
+        }
+        return mBufferedLast;
+    }
+
+    private void checkNew() {
+        if (mState != STATE_NEW) {
+            throw new IllegalStateException("Response already committed.");
+        }
+    }
+
+    /**
+     * Build the status line and the headers shared by both framings.
+     */
+    private HeadBuilder head(int extra) {
+        HeadBuilder builder = new HeadBuilder(192 + extra);
+        byte[] statusLine = STATUS_LINES[mStatus - 100];
+        if (statusLine != null) {
+            builder.put(statusLine);
+        } else {
+            builder.putAscii("HTTP/1.1 ").putDecimal(mStatus).putAscii(" ").putAscii(reason(mStatus)).put(CRLF);
+        }
+        builder.put(dateLine());
+        if (mContentType != null) {
+            byte[] line = null;
+            for (int i = 0; i < CONTENT_TYPES.length && line == null; i++) {
+                if (CONTENT_TYPES[i] == mContentType || CONTENT_TYPES[i].equals(mContentType)) {
+                    line = HEADER_LINES[i];
+                }
+            }
+            if (line != null) {
+                builder.put(line);
+            } else {
+                builder.put(CONTENT_TYPE).putAscii(mContentType).put(CRLF);
+            }
+        }
+        for (int i = 0; i < mHeaderCount; i++) {
+            builder.putAscii(mHeaders[i * 2]).putAscii(": ").putAscii(mHeaders[i * 2 + 1]).put(CRLF);
+        }
+        if (!mKeepAlive) {
+            builder.put(CONNECTION_CLOSE);
+        } else if (!mHttp11) {
+            builder.put(CONNECTION_KEEP_ALIVE);
+        }
+        return builder;
+    }
+
+    /**
+     * Return the Date header line, encoded again once a second.
+     */
+    private static byte[] dateLine() {
+        long second = System.currentTimeMillis() / 1000;
+        DateLine dateLine = sDateLine;
+        if (dateLine == null || dateLine.mSecond != second) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            dateLine = new DateLine(second, ascii("Date: " + format.format(new Date(second * 1000)) + "\r\n"));
+            sDateLine = dateLine;
+        }
+        return dateLine.mLine;
+    }
+
+    private static boolean isToken(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= 127 || c == ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String reason(int status) {
+        switch (status) {
+            case 100:
+                return "Continue";
+            case 101:
+                return "Switching Protocols";
+            case 200:
+                return "OK";
+            case 201:
+                return "Created";
+            case 202:
+                return "Accepted";
+            case 204:
+                return "No Content";
+            case 206:
+                return "Partial Content";
+            case 301:
+                return "Moved Permanently";
+            case 302:
+                return "Found";
+            case 303:
+                return "See Other";
+            case 304:
+                return "Not Modified";
+            case 307:
+                return "Temporary Redirect";
+            case 308:
+                return "Permanent Redirect";
+            case 400:
+                return "Bad Request";
+            case 401:
+                return "Unauthorized";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 408:
+                return "Request Timeout";
+            case 409:
+                return "Conflict";
+            case 411:
+                return "Length Required";
+            case 413:
+                return "Content Too Large";
+            case 414:
+                return "URI Too Long";
+            case 415:
+                return "Unsupported Media Type";
+            case 429:
+                return "Too Many Requests";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 500:
+                return "Internal Server Error";
+            case 501:
+                return "Not Implemented";
+            case 502:
+                return "Bad Gateway";
+            case 503:
+                return "Service Unavailable";
+            case 504:
+                return "Gateway Timeout";
+            case 505:
+                return "HTTP Version Not Supported";
+            default:
+                return "Status";
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class DateLine {
+        final long mSecond;
+        final byte[] mLine;
+
+        DateLine(long second, byte[] line) {
+            mSecond = second;
+            mLine = line;
+        }
+    }
+
+    /**
+     * Growable byte array for one response write.
+     */
+    private static final class HeadBuilder {
+        private byte[] mBytes;
+        private int mLength;
+
+        HeadBuilder(int capacity) {
+            mBytes = new byte[capacity];
+        }
+
+        HeadBuilder put(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBytes, mLength, bytes.length);
+            mLength += bytes.length;
+            return this;
+        }
+
+        HeadBuilder putAscii(String value) {
+            int length = value.length();
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                mBytes[mLength++] = (byte) value.charAt(i);
+            }
+            return this;
+        }
+
+        HeadBuilder putDecimal(long value) {
+            ensure(20);
+            if (value == 0) {
+                mBytes[mLength++] = '0';
+                return this;
+            }
+            int start = mLength;
+            while (value > 0) {
+                mBytes[mLength++] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            reverse(start);
+            return this;
+        }
+
+        HeadBuilder putHex(int value) {
+            ensure(8);
+            int start = mLength;
+            do {
+                mBytes[mLength++] = HEX_DIGITS[value & 0xf];
+                value >>>= 4;
+            } while (value != 0);
+            reverse(start);
+            return this;
+        }
+
+        byte[] toBytes() {
+            return mLength == mBytes.length ? mBytes : Arrays.copyOf(mBytes, mLength);
+        }
+
+        private void reverse(int start) {
+            for (int i = start, j = mLength - 1; i < j; i++, j--) {
+                byte b = mBytes[i];
+                mBytes[i] = mBytes[j];
+                mBytes[j] = b;
+            }
+        }
+
+        private void ensure(int extra) {
+            if (mLength + extra > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(mLength + extra, mBytes.length * 2));
+            }
+        }
+    }
+}
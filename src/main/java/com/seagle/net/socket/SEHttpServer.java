@@ -0,0 +1,183 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal HTTP/1.1 server mode of an {@link SEServerSocketChannel}, for health, admin and small JSON
+ * endpoints served by the event loops of the process, without threads of its own.
+ * <p>
+ * Connections are kept alive unless the client asks otherwise or speaks HTTP/1.0 without keep-alive, and
+ * requests may be pipelined: they are parsed incrementally from what the socket delivers, handed to the
+ * {@link Handler} in order on the connection's event loop, and answered in order, see {@link SEHttpResponse}.
+ * Malformed or oversized requests are answered with their status and the connection is closed.
+ * The server installs the child listener of the server channel; other settings of the channel, TLS, limits
+ * and loops, apply as usual.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEHttpServer {
+
+    /**
+     * Default max size of a request line and its headers.
+     */
+    public static final int DEFAULT_MAX_HEADER_SIZE = 8 * 1024;
+
+    /**
+     * Default max size of a request body.
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    /**
+     * Default max outstanding responses per connection before reading pauses.
+     */
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 16;
+
+    private final SEServerSocketChannel mServerChannel;
+    private final Handler mHandler;
+    private final ConcurrentHashMap<SESocketChannel, HttpConnection> mConnections = new ConcurrentHashMap<>();
+    private volatile int mMaxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+    private volatile int mMaxBodySize = DEFAULT_MAX_BODY_SIZE;
+    private volatile int mMaxPipelinedRequests = DEFAULT_MAX_PIPELINED_REQUESTS;
+
+    /**
+     * Serve HTTP on a server channel.
+     *
+     * @param serverChannel server channel, not started yet
+     * @param handler       request handler
+     */
+    public SEHttpServer(SEServerSocketChannel serverChannel, Handler handler) {
+        if (serverChannel == null || handler == null) {
+            throw new IllegalArgumentException("Server channel or handler is null.");
+        }
+        mServerChannel = serverChannel;
+        mHandler = handler;
+        serverChannel.setChildSocketChannelListener(new ChildListener());
+    }
+
+    /**
+     * Set request size limits for connections accepted from now on.
+     *
+     * @param maxHeaderSize max size of a request line and its headers, larger ones get 431
+     * @param maxBodySize   max size of a request body, larger ones get 413
+     */
+    public void setRequestLimits(int maxHeaderSize, int maxBodySize) {
+        if (maxHeaderSize <= 0 || maxBodySize < 0) {
+            throw new IllegalArgumentException("Illegal limits: " + maxHeaderSize + ", " + maxBodySize);
+        }
+        mMaxHeaderSize = maxHeaderSize;
+        mMaxBodySize = maxBodySize;
+    }
+
+    /**
+     * Set how many responses a connection may owe before reading its further requests pauses.
+     *
+     * @param maxPipelinedRequests max outstanding responses, at least 1
+     */
+    public void setMaxPipelinedRequests(int maxPipelinedRequests) {
+        if (maxPipelinedRequests < 1) {
+            throw new IllegalArgumentException("Illegal max pipelined requests: " + maxPipelinedRequests);
+        }
+        mMaxPipelinedRequests = maxPipelinedRequests;
+    }
+
+    /**
+     * Start listening.
+     *
+     * @throws IOException bind failed
+     */
+    public void start() throws IOException {
+        mServerChannel.startServer();
+    }
+
+    /**
+     * Stop listening, open connections are served until they close.
+     */
+    public void stop() {
+        mServerChannel.closeServer();
+    }
+
+    /**
+     * Return the server channel.
+     *
+     * @return SEServerSocketChannel
+     */
+    public SEServerSocketChannel getServerChannel() {
+        return mServerChannel;
+    }
+
+    /**
+     * Return the open HTTP connections that sent a request.
+     *
+     * @return count
+     */
+    public int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    Handler getHandler() {
+        return mHandler;
+    }
+
+    int getMaxHeaderSize() {
+        return mMaxHeaderSize;
+    }
+
+    int getMaxBodySize() {
+        return mMaxBodySize;
+    }
+
+    int getMaxPipelinedRequests() {
+        return mMaxPipelinedRequests;
+    }
+
+    void removeConnection(SESocketChannel channel) {
+        mConnections.remove(channel);
+    }
+
+    /**
+     * Serves requests.
+     */
+    public interface Handler {
+        /**
+         * Serve a request on the connection's event loop. The response may be completed later from any
+         * thread; until it is, the responses to later requests of the connection wait.
+         *
+         * @param request  request
+         * @param response response to complete
+         */
+        void handle(SEHttpRequest request, SEHttpResponse response);
+    }
+
+    /**
+     * Listener shared by the accepted channels, the connection state is created with the first data.
+     */
+    private final class ChildListener implements SESocketChannel.SocketChannelStateListener {
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+            HttpConnection connection = mConnections.remove(channel);
+            if (connection != null) {
+                connection.onClosed();
+            }
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+            HttpConnection connection = mConnections.get(channel);
+            if (connection == null) {
+                connection = new HttpConnection(SEHttpServer.this, channel);
+                mConnections.put(channel, connection);
+            }
+            connection.onData(data);
+        }
+
+        @Override
+        public void onWritabilityChanged(SESocketChannel channel, boolean writable) {
+            HttpConnection connection = mConnections.get(channel);
+            if (connection != null) {
+                connection.onWritabilityChanged();
+            }
+        }
+    }
+}
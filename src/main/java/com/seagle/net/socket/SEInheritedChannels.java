@@ -0,0 +1,227 @@
+package com.seagle.net.socket;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * Listening sockets a process inherits from the launcher that bound them, inetd or systemd socket activation,
+ * served with {@link SEServerSocketChannel#SEServerSocketChannel(ServerSocketChannel, SEEventLoop)}. A systemd
+ * socket unit keeps its socket across service restarts, so the new process serves the same socket the old one
+ * let go with {@link SEServerSocketChannel#handOff(long, java.util.concurrent.TimeUnit)}.
+ * <p>
+ * A socket inherited as the standard input, inetd style, is reached through {@link System#inheritedChannel()}.
+ * Other descriptors, such as the ones systemd passes from descriptor 3 on, have no JDK API: they are wrapped by
+ * reflection on the JDK's channel implementation, which JDK 16 and later only allow with
+ * --add-opens java.base/sun.nio.ch=ALL-UNNAMED; {@link #isFileDescriptorSupported()} tells.
+ * <p>
+ * A Java process can not pass a socket to another process itself: a child started by ProcessBuilder inherits
+ * no descriptor above 2, and the JDK has no SCM_RIGHTS to send one over a unix domain socket.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEInheritedChannels {
+
+    /**
+     * First descriptor systemd passes, SD_LISTEN_FDS_START.
+     */
+    public static final int SYSTEMD_FIRST_DESCRIPTOR = 3;
+
+    private static final Constructor<?> CHANNEL_CONSTRUCTOR;
+    private static final boolean CONSTRUCTOR_TAKES_FAMILY;
+    private static final Method NEW_FD;
+    private static final Method FD_VAL;
+    private static final Method GET_FD;
+    private static final Method ADDRESS_FAMILY;
+    private static final int AF_UNIX;
+    private static final int AF_INET;
+
+    static {
+        Constructor<?> constructor = null;
+        boolean takesFamily = false;
+        Method newFd = null;
+        Method fdVal = null;
+        Method getFd = null;
+        Method addressFamily = null;
+        int afUnix = -1;
+        int afInet = -1;
+        try {
+            Class<?> channelClass = Class.forName("sun.nio.ch.ServerSocketChannelImpl");
+            try {
+                constructor = channelClass.getDeclaredConstructor(SelectorProvider.class, ProtocolFamily.class,
+                        FileDescriptor.class, boolean.class);
+                takesFamily = true;
+                Class<?> inheritedClass = Class.forName("sun.nio.ch.InheritedChannel");
+                addressFamily = inheritedClass.getDeclaredMethod("addressFamily", int.class);
+                addressFamily.setAccessible(true);
+                afUnix = staticInt(inheritedClass, "AF_UNIX");
+                afInet = staticInt(inheritedClass, "AF_INET");
+            } catch (NoSuchMethodException ex) {
+                constructor = channelClass.getDeclaredConstructor(SelectorProvider.class, FileDescriptor.class,
+                        boolean.class);
+            }
+            constructor.setAccessible(true);
+            Class<?> ioUtilClass = Class.forName("sun.nio.ch.IOUtil");
+            newFd = ioUtilClass.getDeclaredMethod("newFD", int.class);
+            newFd.setAccessible(true);
+            fdVal = ioUtilClass.getDeclaredMethod("fdVal", FileDescriptor.class);
+            fdVal.setAccessible(true);
+            getFd = Class.forName("sun.nio.ch.SelChImpl").getMethod("getFD");
+            getFd.setAccessible(true);
+        } catch (Throwable ex) {
+            constructor = null;
+        }
+        CHANNEL_CONSTRUCTOR = constructor;
+        CONSTRUCTOR_TAKES_FAMILY = takesFamily;
+        NEW_FD = newFd;
+        FD_VAL = fdVal;
+        GET_FD = getFd;
+        ADDRESS_FAMILY = addressFamily;
+        AF_UNIX = afUnix;
+        AF_INET = afInet;
+    }
+
+    private SEInheritedChannels() {
+    }
+
+    /**
+     * Return the listening socket inherited as the standard input.
+     *
+     * @return ServerSocketChannel, null if none was inherited
+     * @throws IOException the inherited channel is not a listening socket
+     */
+    public static ServerSocketChannel inheritedServerChannel() throws IOException {
+        Channel channel = System.inheritedChannel();
+        if (channel == null) {
+            return null;
+        }
+        if (!(channel instanceof ServerSocketChannel)) {
+            throw new IOException("Inherited channel is not a server socket: " + channel);
+        }
+        return (ServerSocketChannel) channel;
+    }
+
+    /**
+     * Return whether listening sockets can be wrapped from descriptor numbers in this JVM.
+     *
+     * @return true if supported
+     */
+    public static boolean isFileDescriptorSupported() {
+        return CHANNEL_CONSTRUCTOR != null;
+    }
+
+    /**
+     * Wrap a bound, listening socket descriptor the process inherited. The channel owns the descriptor.
+     *
+     * @param fd descriptor number
+     * @return ServerSocketChannel
+     * @throws IOException wrap failed
+     * @throws UnsupportedOperationException see {@link #isFileDescriptorSupported()}
+     */
+    public static ServerSocketChannel fromFileDescriptor(int fd) throws IOException {
+        checkSupported();
+        FileDescriptor descriptor = (FileDescriptor) invoke(NEW_FD, null, fd);
+        if (CONSTRUCTOR_TAKES_FAMILY) {
+            int family = (Integer) invoke(ADDRESS_FAMILY, null, fd);
+            ProtocolFamily protocolFamily = family == AF_UNIX ? StandardProtocolFamily.valueOf("UNIX")
+                    : family == AF_INET ? StandardProtocolFamily.INET : StandardProtocolFamily.INET6;
+            return (ServerSocketChannel) newInstance(SelectorProvider.provider(), protocolFamily, descriptor, true);
+        }
+        return (ServerSocketChannel) newInstance(SelectorProvider.provider(), descriptor, true);
+    }
+
+    /**
+     * Return the descriptor number of a channel in this process. The number means nothing to another process,
+     * see the class comment.
+     *
+     * @param channel JDK socket channel
+     * @return descriptor number
+     * @throws IOException not a JDK socket channel
+     * @throws UnsupportedOperationException see {@link #isFileDescriptorSupported()}
+     */
+    static int getFileDescriptor(Channel channel) throws IOException {
+        checkSupported();
+        if (!GET_FD.getDeclaringClass().isInstance(channel)) {
+            throw new IOException("Not a JDK socket channel: " + channel);
+        }
+        return (Integer) invoke(FD_VAL, null, invoke(GET_FD, channel));
+    }
+
+    /**
+     * Wrap the listening sockets systemd passed to this process by socket activation, in the order of the
+     * socket unit. The LISTEN_PID and LISTEN_FDS variables must name this process.
+     *
+     * @return channels, empty if none were passed
+     * @throws IOException wrap failed
+     * @throws UnsupportedOperationException see {@link #isFileDescriptorSupported()}
+     */
+    public static ServerSocketChannel[] systemdServerChannels() throws IOException {
+        String listenPid = System.getenv("LISTEN_PID");
+        String listenFds = System.getenv("LISTEN_FDS");
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        String pid = name.substring(0, Math.max(name.indexOf('@'), 0));
+        if (listenPid == null || listenFds == null || !listenPid.equals(pid)) {
+            return new ServerSocketChannel[0];
+        }
+        int count;
+        try {
+            count = Integer.parseInt(listenFds);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Illegal LISTEN_FDS: " + listenFds);
+        }
+        ServerSocketChannel[] channels = new ServerSocketChannel[Math.max(count, 0)];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = fromFileDescriptor(SYSTEMD_FIRST_DESCRIPTOR + i);
+        }
+        return channels;
+    }
+
+    private static void checkSupported() {
+        if (!isFileDescriptorSupported()) {
+            throw new UnsupportedOperationException(
+                    "Adopting descriptors needs --add-opens java.base/sun.nio.ch=ALL-UNNAMED on this JDK.");
+        }
+    }
+
+    private static int staticInt(Class<?> clazz, String name) throws ReflectiveOperationException {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.getInt(null);
+    }
+
+    private static Object newInstance(Object... args) throws IOException {
+        try {
+            return CHANNEL_CONSTRUCTOR.newInstance(args);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } catch (ReflectiveOperationException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.seagle.net.socket;
+
+import java.net.SocketAddress;
+
+/**
+ * Address of an in-VM server, a plain name.
+ * An {@link SEServerSocketChannel} started on a local address is reachable by {@link SESocketChannel}s of the
+ * same JVM only; the connection hands data buffers between the two channels' event loops without a socket,
+ * with the listener, watermark, bandwidth limit and write queue behavior of a TCP connection.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SELocalAddress extends SocketAddress {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String mName;
+
+    /**
+     * Create a local address.
+     *
+     * @param name server name
+     */
+    public SELocalAddress(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Name is empty.");
+        }
+        mName = name;
+    }
+
+    /**
+     * Return the server name.
+     *
+     * @return name
+     */
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof SELocalAddress && mName.equals(((SELocalAddress) other).mName);
+    }
+
+    @Override
+    public int hashCode() {
+        return mName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "local:" + mName;
+    }
+}
@@ -0,0 +1,490 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Many logical streams over one {@link SESocketChannel}.
+ * Both peers wrap their end of the connection; frames use the {@link SERpcCodec} layout with the tag holding
+ * (stream id &lt;&lt; 8 | frame type). A stream is announced with an empty data frame when it is opened; each
+ * peer announces its streams in increasing id order, so data for an unknown stream at or below the highest id
+ * the peer announced is refused as a protocol error.
+ * <p>
+ * Every stream has a credit based send window, so a bulk transfer the peer does not consume can not
+ * fill the connection. Data is handed to the socket in frames of at most {@link #MAX_FRAME_PAYLOAD} bytes,
+ * only while the socket channel is writable, taking streams by priority and round robin within a priority.
+ * Both peers must use the same initial window. Nagle's algorithm is turned off on the socket, window updates
+ * and interactive frames are small and must not wait for the peer's delayed ACK.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEMuxChannel {
+
+    /**
+     * Max data bytes of one frame.
+     */
+    public static final int MAX_FRAME_PAYLOAD = 16 * 1024;
+
+    /**
+     * Default initial stream window.
+     */
+    public static final int DEFAULT_INITIAL_WINDOW = 64 * 1024;
+
+    private static final int TYPE_DATA = 0;
+    private static final int TYPE_WINDOW_UPDATE = 1;
+    private static final int TYPE_CLOSE = 2;
+
+    private final SESocketChannel mChannel;
+    private final SEEventLoop mEventLoop;
+    private final int mInitialWindow;
+    private final int mLocalParity;
+    /**
+     * Streams opened but not registered and announced yet, in id order, guarded by itself.
+     */
+    private final ArrayDeque<SEMuxStream> mPendingOpens = new ArrayDeque<>();
+    private int mNextStreamId;
+    /**
+     * Highest stream id the peer announced, event loop only.
+     */
+    private int mMaxRemoteStreamId;
+    private final LongObjectHashMap<SEMuxStream> mStreams = new LongObjectHashMap<>();
+    private final SERpcCodec.Decoder mDecoder;
+    private final ArrayDeque<SEMuxStream>[] mActiveStreams;
+    private final ChannelListener mChannelListener = new ChannelListener();
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final Runnable mOpenTask = new Runnable() {
+        @Override
+        public void run() {
+            openPending();
+        }
+    };
+    private boolean mFlushScheduled;
+    private volatile StreamListener mListener;
+
+    /**
+     * Wrap a connected channel with the default initial window.
+     *
+     * @param channel   connected channel
+     * @param initiator true on the connecting side, its streams get odd ids, the accepting side's even ones
+     */
+    public SEMuxChannel(SESocketChannel channel, boolean initiator) {
+        this(channel, initiator, DEFAULT_INITIAL_WINDOW);
+    }
+
+    /**
+     * Wrap a connected channel.
+     *
+     * @param channel       connected channel
+     * @param initiator     true on the connecting side, its streams get odd ids, the accepting side's even ones
+     * @param initialWindow initial stream window in bytes, same on both peers
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SEMuxChannel(SESocketChannel channel, boolean initiator, int initialWindow) {
+        if (channel == null || initialWindow <= 0) {
+            throw new IllegalArgumentException("Illegal channel or window.");
+        }
+        mChannel = channel;
+        mEventLoop = channel.getEventLoop();
+        mInitialWindow = initialWindow;
+        mLocalParity = initiator ? 1 : 0;
+        mNextStreamId = initiator ? 1 : 2;
+        mActiveStreams = new ArrayDeque[SEMuxStream.PRIORITY_LOWEST + 1];
+        for (int i = 0; i < mActiveStreams.length; i++) {
+            mActiveStreams[i] = new ArrayDeque<>();
+        }
+        mDecoder = new SERpcCodec.Decoder(new SERpcCodec.FrameHandler() {
+            @Override
+            public void onFrame(long tag, byte[] payload) {
+                handleFrame(tag, payload);
+            }
+        }, MAX_FRAME_PAYLOAD + 8);
+        channel.registerSocketChannelListener(mChannelListener);
+        try {
+            SocketChannel socketChannel = channel.getSocketChannel();
+            if (socketChannel != null && socketChannel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Set the listener of stream events, called on the event loop.
+     *
+     * @param listener StreamListener
+     */
+    public void setStreamListener(StreamListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Return the underlying socket channel.
+     *
+     * @return SESocketChannel
+     */
+    public SESocketChannel getSocketChannel() {
+        return mChannel;
+    }
+
+    /**
+     * Open a stream with the default priority.
+     *
+     * @return SEMuxStream
+     */
+    public SEMuxStream openStream() {
+        return openStream(SEMuxStream.PRIORITY_DEFAULT);
+    }
+
+    /**
+     * Open a stream. The peer learns about it with an empty data frame.
+     *
+     * @param priority {@link SEMuxStream#PRIORITY_HIGHEST} to {@link SEMuxStream#PRIORITY_LOWEST}
+     * @return SEMuxStream
+     */
+    public SEMuxStream openStream(int priority) {
+        checkPriority(priority);
+        SEMuxStream stream;
+        synchronized (mPendingOpens) {
+            stream = new SEMuxStream(this, mNextStreamId, priority, mInitialWindow);
+            mNextStreamId += 2;
+            mPendingOpens.add(stream);
+        }
+        runOnLoop(mOpenTask);
+        return stream;
+    }
+
+    /**
+     * Register and announce the opened streams in id order, whichever thread opened them, event loop only.
+     */
+    private void openPending() {
+        synchronized (mPendingOpens) {
+            SEMuxStream stream;
+            while ((stream = mPendingOpens.poll()) != null) {
+                mStreams.put(stream.getId(), stream);
+                mChannel.writeData(SERpcCodec.encode(tag(stream.getId(), TYPE_DATA), null));
+            }
+        }
+    }
+
+    /**
+     * Return the registered streams, event loop only.
+     *
+     * @return stream count
+     */
+    int getStreamCount() {
+        return mStreams.size();
+    }
+
+    static int checkPriority(int priority) {
+        if (priority < SEMuxStream.PRIORITY_HIGHEST || priority > SEMuxStream.PRIORITY_LOWEST) {
+            throw new IllegalArgumentException("Illegal priority: " + priority);
+        }
+        return priority;
+    }
+
+    void write(final SEMuxStream stream, final byte[] data) {
+        runOnLoop(new Runnable() {
+            @Override
+            public void run() {
+                openPending();
+                if (stream.mLocalClosing || mStreams.get(stream.getId()) != stream) {
+                    return;
+                }
+                stream.mSendQueue.add(data);
+                activate(stream);
+            }
+        });
+    }
+
+    void markConsumed(final SEMuxStream stream, final int bytes) {
+        runOnLoop(new Runnable() {
+            @Override
+            public void run() {
+                consume(stream, bytes);
+            }
+        });
+    }
+
+    void close(final SEMuxStream stream) {
+        runOnLoop(new Runnable() {
+            @Override
+            public void run() {
+                openPending();
+                if (stream.mLocalClosing) {
+                    return;
+                }
+                stream.mLocalClosing = true;
+                if (stream.mSendQueue.isEmpty()) {
+                    sendClose(stream);
+                }
+            }
+        });
+    }
+
+    private void runOnLoop(Runnable task) {
+        if (mEventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            mEventLoop.execute(task);
+        }
+    }
+
+    /**
+     * Put a stream with queued data and credit into its priority queue, event loop only.
+     */
+    private void activate(SEMuxStream stream) {
+        if (!stream.mScheduled && !stream.mSendQueue.isEmpty() && stream.mSendWindow > 0) {
+            stream.mScheduled = true;
+            mActiveStreams[stream.getPriority()].add(stream);
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mEventLoop.execute(mFlushTask);
+        }
+    }
+
+    /**
+     * Hand frames to the socket while it is writable, highest priority first and one frame per stream per turn.
+     */
+    private void flush() {
+        try {
+            flushFrames();
+        } finally {
+            mFlushScheduled = false;
+        }
+    }
+
+    private void flushFrames() {
+        while (mChannel.isConnected() && mChannel.isWritable()) {
+            SEMuxStream stream = pollActive();
+            if (stream == null) {
+                return;
+            }
+            byte[] head = stream.mSendQueue.peek();
+            int length = Math.min(Math.min(head.length - stream.mSendOffset, MAX_FRAME_PAYLOAD), stream.mSendWindow);
+            mChannel.writeData(SERpcCodec.encode(tag(stream.getId(), TYPE_DATA), head, stream.mSendOffset, length));
+            stream.mSendWindow -= length;
+            stream.mSendOffset += length;
+            if (stream.mSendOffset == head.length) {
+                stream.mSendQueue.poll();
+                stream.mSendOffset = 0;
+            }
+            if (stream.mSendQueue.isEmpty() && stream.mLocalClosing) {
+                sendClose(stream);
+            }
+            activate(stream);
+        }
+    }
+
+    /**
+     * Take the next stream to send from, event loop only.
+     */
+    private SEMuxStream pollActive() {
+        for (int priority = 0; priority < mActiveStreams.length; priority++) {
+            ArrayDeque<SEMuxStream> streams = mActiveStreams[priority];
+            SEMuxStream stream;
+            while ((stream = streams.poll()) != null) {
+                stream.mScheduled = false;
+                if (stream.getPriority() != priority) {
+                    activate(stream);
+                } else if (!stream.mSendQueue.isEmpty() && stream.mSendWindow > 0) {
+                    return stream;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void sendClose(SEMuxStream stream) {
+        if (stream.mLocalClosed) {
+            return;
+        }
+        stream.mLocalClosed = true;
+        mChannel.writeData(SERpcCodec.encode(tag(stream.getId(), TYPE_CLOSE), null));
+        if (stream.mRemoteClosed) {
+            mStreams.remove(stream.getId());
+        }
+    }
+
+    /**
+     * Return credit for consumed bytes, batched until half the initial window is consumed.
+     */
+    private void consume(SEMuxStream stream, int bytes) {
+        if (stream.mRemoteClosed) {
+            return;
+        }
+        stream.mRecvConsumed += bytes;
+        if (stream.mRecvConsumed >= mInitialWindow / 2) {
+            int increment = stream.mRecvConsumed;
+            stream.mRecvConsumed = 0;
+            stream.mRecvWindow += increment;
+            byte[] payload = ByteBuffer.allocate(4).putInt(increment).array();
+            mChannel.writeData(SERpcCodec.encode(tag(stream.getId(), TYPE_WINDOW_UPDATE), payload));
+        }
+    }
+
+    private static long tag(int streamId, int type) {
+        return (long) streamId << 8 | type;
+    }
+
+    /**
+     * Dispatch a received frame, event loop only.
+     */
+    private void handleFrame(long tag, byte[] payload) {
+        int streamId = (int) (tag >>> 8);
+        int type = (int) (tag & 0xff);
+        SEMuxStream stream = mStreams.get(streamId);
+        StreamListener listener = mListener;
+        if (type == TYPE_DATA) {
+            if (stream == null) {
+                if ((streamId & 1) == mLocalParity) {
+                    protocolError("Data for unknown local stream " + streamId);
+                    return;
+                }
+                if (streamId <= mMaxRemoteStreamId) {
+                    protocolError("Data for closed stream " + streamId);
+                    return;
+                }
+                mMaxRemoteStreamId = streamId;
+                stream = new SEMuxStream(this, streamId, SEMuxStream.PRIORITY_DEFAULT, mInitialWindow);
+                mStreams.put(streamId, stream);
+                if (listener != null) {
+                    listener.onStreamOpened(stream);
+                }
+            }
+            stream.mRecvWindow -= payload.length;
+            if (stream.mRemoteClosed || stream.mRecvWindow < 0) {
+                protocolError("Flow control violated on stream " + streamId);
+                return;
+            }
+            if (payload.length == 0) {
+                return;
+            }
+            if (listener != null) {
+                listener.onData(stream, payload);
+            }
+            if (stream.isAutoConsume()) {
+                consume(stream, payload.length);
+            }
+        } else if (type == TYPE_WINDOW_UPDATE && stream != null && payload.length == 4) {
+            int increment = ByteBuffer.wrap(payload).getInt();
+            if (increment <= 0 || (long) stream.mSendWindow + increment > Integer.MAX_VALUE) {
+                protocolError("Illegal window update " + increment + " on stream " + streamId);
+                return;
+            }
+            stream.mSendWindow += increment;
+            activate(stream);
+        } else if (type == TYPE_CLOSE && stream != null && !stream.mRemoteClosed) {
+            stream.mRemoteClosed = true;
+            if (stream.mLocalClosed) {
+                mStreams.remove(streamId);
+            }
+            if (listener != null) {
+                listener.onStreamClosed(stream);
+            }
+        }
+    }
+
+    private void protocolError(String message) {
+        new IOException(message).printStackTrace();
+        mChannel.disConnect();
+        handleDisconnected();
+    }
+
+    /**
+     * Tell the listener about every stream the peer did not close, event loop only.
+     */
+    private void handleDisconnected() {
+        final ArrayList<SEMuxStream> streams = new ArrayList<>(mStreams.size());
+        mStreams.forEach(new LongObjectHashMap.EntryVisitor<SEMuxStream>() {
+            @Override
+            public void visit(long id, SEMuxStream stream) {
+                streams.add(stream);
+            }
+        });
+        mStreams.clear();
+        for (ArrayDeque<SEMuxStream> active : mActiveStreams) {
+            active.clear();
+        }
+        StreamListener listener = mListener;
+        for (SEMuxStream stream : streams) {
+            stream.mScheduled = false;
+            stream.mSendQueue.clear();
+            if (!stream.mRemoteClosed) {
+                stream.mRemoteClosed = true;
+                if (listener != null) {
+                    listener.onStreamClosed(stream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Socket channel events.
+     */
+    private final class ChannelListener implements SESocketChannel.SocketChannelStateListener {
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+            handleDisconnected();
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+            try {
+                mDecoder.decode(data);
+            } catch (IOException ex) {
+                protocolError(ex.getMessage());
+            }
+            channel.markInboundConsumed(data.length);
+        }
+
+        @Override
+        public void onWritabilityChanged(SESocketChannel channel, boolean writable) {
+            if (writable) {
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Stream events, called on the event loop.
+     */
+    public interface StreamListener {
+        /**
+         * The peer opened a stream.
+         *
+         * @param stream stream
+         */
+        void onStreamOpened(SEMuxStream stream);
+
+        /**
+         * Data received on a stream.
+         *
+         * @param stream stream
+         * @param data   data
+         */
+        void onData(SEMuxStream stream, byte[] data);
+
+        /**
+         * The peer closed its side of the stream, or the connection was lost.
+         *
+         * @param stream stream
+         */
+        void onStreamClosed(SEMuxStream stream);
+    }
+}
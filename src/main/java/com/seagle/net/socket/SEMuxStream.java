@@ -0,0 +1,137 @@
+package com.seagle.net.socket;
+
+import java.util.ArrayDeque;
+
+/**
+ * Logical stream of a {@link SEMuxChannel}.
+ * A stream may only send while the peer has granted credit: its send window starts at the channel's initial window,
+ * shrinks with every data byte sent and grows with the window updates the peer sends as it consumes the data.
+ * Methods may be called from any thread, state is owned by the channel's event loop.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEMuxStream {
+
+    /**
+     * Highest scheduling priority.
+     */
+    public static final int PRIORITY_HIGHEST = 0;
+
+    /**
+     * Default scheduling priority.
+     */
+    public static final int PRIORITY_DEFAULT = 3;
+
+    /**
+     * Lowest scheduling priority.
+     */
+    public static final int PRIORITY_LOWEST = 7;
+
+    private final SEMuxChannel mMuxChannel;
+    private final int mId;
+    private volatile int mPriority;
+    private volatile boolean mAutoConsume = true;
+    final ArrayDeque<byte[]> mSendQueue = new ArrayDeque<>();
+    int mSendOffset;
+    int mSendWindow;
+    int mRecvWindow;
+    int mRecvConsumed;
+    boolean mScheduled;
+    boolean mLocalClosing;
+    boolean mLocalClosed;
+    boolean mRemoteClosed;
+
+    SEMuxStream(SEMuxChannel muxChannel, int id, int priority, int initialWindow) {
+        mMuxChannel = muxChannel;
+        mId = id;
+        mPriority = priority;
+        mSendWindow = initialWindow;
+        mRecvWindow = initialWindow;
+    }
+
+    /**
+     * Return the stream id, odd for streams opened by the initiating side, even for the others.
+     *
+     * @return id
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * Return the channel this stream belongs to.
+     *
+     * @return SEMuxChannel
+     */
+    public SEMuxChannel getChannel() {
+        return mMuxChannel;
+    }
+
+    /**
+     * Return the scheduling priority.
+     *
+     * @return priority, {@link #PRIORITY_HIGHEST} to {@link #PRIORITY_LOWEST}
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Set the scheduling priority of data sent on this stream. Priorities are local, the peer schedules its own data.
+     *
+     * @param priority {@link #PRIORITY_HIGHEST} to {@link #PRIORITY_LOWEST}
+     */
+    public void setPriority(int priority) {
+        mPriority = SEMuxChannel.checkPriority(priority);
+    }
+
+    /**
+     * Return whether received data is consumed as soon as the listener returns.
+     *
+     * @return true if auto consume
+     */
+    public boolean isAutoConsume() {
+        return mAutoConsume;
+    }
+
+    /**
+     * Set whether received data is consumed as soon as the listener returns, true by default.
+     * Without auto consume the application calls {@link #markConsumed(int)} once it has processed data,
+     * and the peer stops sending when the window is used up.
+     *
+     * @param autoConsume auto consume
+     */
+    public void setAutoConsume(boolean autoConsume) {
+        mAutoConsume = autoConsume;
+    }
+
+    /**
+     * Send data. It is split into frames and interleaved with other streams by priority as credit allows.
+     *
+     * @param data data
+     */
+    public void write(byte[] data) {
+        if (data != null && data.length > 0) {
+            mMuxChannel.write(this, data);
+        }
+    }
+
+    /**
+     * Grant the peer credit for processed bytes.
+     *
+     * @param bytes consumed byte count
+     */
+    public void markConsumed(int bytes) {
+        if (bytes > 0) {
+            mMuxChannel.markConsumed(this, bytes);
+        }
+    }
+
+    /**
+     * Half close: send the queued data, then tell the peer that no more data follows.
+     */
+    public void close() {
+        mMuxChannel.close(this);
+    }
+}
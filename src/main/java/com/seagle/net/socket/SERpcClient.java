@@ -0,0 +1,264 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipelined request/response client on one connection.
+ * Every request is framed with its own id (see {@link SERpcCodec}), so any number of requests can be in flight
+ * and responses may arrive in any order. In-flight requests live in a primitive long keyed map owned by the
+ * channel's event loop; response futures complete there.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SERpcClient {
+
+    /**
+     * Default request timeout.
+     */
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final SESocketChannel mChannel;
+    private final SEEventLoop mEventLoop;
+    private final AtomicLong mNextId = new AtomicLong();
+    private final LongObjectHashMap<RpcFuture> mInFlight = new LongObjectHashMap<>(1024);
+    private final SERpcCodec.Decoder mDecoder;
+    private final ChannelListener mListener = new ChannelListener();
+    private volatile long mDefaultTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+    private volatile boolean mClosed;
+
+    /**
+     * Create a client on a connected channel. The client consumes all data received by the channel.
+     *
+     * @param channel connected channel
+     */
+    public SERpcClient(SESocketChannel channel) {
+        this(channel, SERpcCodec.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * Create a client on a connected channel. The client consumes all data received by the channel.
+     *
+     * @param channel        connected channel
+     * @param maxFrameLength max response frame length
+     */
+    public SERpcClient(SESocketChannel channel, int maxFrameLength) {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel is null.");
+        }
+        mChannel = channel;
+        mEventLoop = channel.getEventLoop();
+        mDecoder = new SERpcCodec.Decoder(new SERpcCodec.FrameHandler() {
+            @Override
+            public void onFrame(long id, byte[] payload) {
+                handleResponse(id, payload);
+            }
+        }, maxFrameLength);
+        channel.registerSocketChannelListener(mListener);
+    }
+
+    /**
+     * Set the timeout of requests sent without an explicit one.
+     *
+     * @param timeout timeout, zero disables it
+     * @param unit    unit
+     */
+    public void setDefaultTimeout(long timeout, TimeUnit unit) {
+        mDefaultTimeoutNanos = unit.toNanos(Math.max(timeout, 0));
+    }
+
+    /**
+     * Send a request with the default timeout.
+     *
+     * @param payload request payload
+     * @return future completed with the response payload
+     */
+    public CompletableFuture<byte[]> call(byte[] payload) {
+        return call(payload, mDefaultTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Send a request.
+     * The future fails with {@link TimeoutException} when no response arrives in time and with
+     * {@link ClosedChannelException} when the peer closes the connection or the client is closed first.
+     * Cancelling the future forgets the request, a late response is dropped.
+     *
+     * @param payload request payload
+     * @param timeout timeout, zero means none
+     * @param unit    unit
+     * @return future completed with the response payload on the event loop
+     */
+    public CompletableFuture<byte[]> call(byte[] payload, long timeout, TimeUnit unit) {
+        final RpcFuture future = new RpcFuture(mNextId.incrementAndGet());
+        if (mClosed || !mChannel.isConnected()) {
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+        final byte[] frame = SERpcCodec.encode(future.mId, payload);
+        final long timeoutNanos = unit.toNanos(Math.max(timeout, 0));
+        if (mEventLoop.inEventLoop()) {
+            send(future, frame, timeoutNanos);
+        } else {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(future, frame, timeoutNanos);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Detach from the channel and fail all in-flight requests. The channel stays open.
+     */
+    public void close() {
+        mClosed = true;
+        mChannel.unRegisterSocketChannelListener(mListener);
+        if (mEventLoop.inEventLoop()) {
+            failAll();
+        } else {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    failAll();
+                }
+            });
+        }
+    }
+
+    /**
+     * Track the request and write its frame, event loop only.
+     */
+    private void send(final RpcFuture future, byte[] frame, long timeoutNanos) {
+        if (future.isDone()) {
+            return;
+        }
+        if (mClosed || !mChannel.isConnected()) {
+            future.completeExceptionally(new ClosedChannelException());
+            return;
+        }
+        mInFlight.put(future.mId, future);
+        if (timeoutNanos > 0) {
+            future.mTimeout = mEventLoop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mInFlight.remove(future.mId) != null) {
+                        future.completeExceptionally(new TimeoutException("Request " + future.mId + " timed out."));
+                    }
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        mChannel.writeData(frame);
+    }
+
+    /**
+     * Complete the request a response belongs to, event loop only.
+     */
+    private void handleResponse(long id, byte[] payload) {
+        RpcFuture future = mInFlight.remove(id);
+        if (future != null) {
+            future.cancelTimeout();
+            future.complete(payload);
+        }
+    }
+
+    /**
+     * Forget a cancelled request, event loop only.
+     */
+    private void forget(RpcFuture future) {
+        if (mInFlight.get(future.mId) == future) {
+            mInFlight.remove(future.mId);
+        }
+        future.cancelTimeout();
+    }
+
+    /**
+     * Fail all in-flight requests, event loop only. Futures complete after the map is cleared,
+     * so their callbacks may send new requests.
+     */
+    private void failAll() {
+        if (mInFlight.size() == 0) {
+            return;
+        }
+        final ArrayList<RpcFuture> futures = new ArrayList<>(mInFlight.size());
+        mInFlight.forEach(new LongObjectHashMap.EntryVisitor<RpcFuture>() {
+            @Override
+            public void visit(long id, RpcFuture future) {
+                futures.add(future);
+            }
+        });
+        mInFlight.clear();
+        ClosedChannelException cause = new ClosedChannelException();
+        for (RpcFuture future : futures) {
+            future.cancelTimeout();
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Response future of one request.
+     */
+    private final class RpcFuture extends CompletableFuture<byte[]> {
+        private final long mId;
+        private SEEventLoop.ScheduledTask mTimeout;
+
+        private RpcFuture(long id) {
+            mId = id;
+        }
+
+        private void cancelTimeout() {
+            SEEventLoop.ScheduledTask timeout = mTimeout;
+            if (timeout != null) {
+                mTimeout = null;
+                timeout.cancel();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                if (mEventLoop.inEventLoop()) {
+                    forget(this);
+                } else {
+                    mEventLoop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            forget(RpcFuture.this);
+                        }
+                    });
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Feeds received data to the decoder and fails requests on disconnect.
+     */
+    private final class ChannelListener implements SESocketChannel.SocketChannelStateListener {
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+            failAll();
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+            try {
+                mDecoder.decode(data);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                channel.disConnect();
+                failAll();
+            }
+            channel.markInboundConsumed(data.length);
+        }
+    }
+}
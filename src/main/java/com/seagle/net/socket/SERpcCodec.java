@@ -0,0 +1,161 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Correlated frame format of {@link SERpcClient}: [int length][long request id][payload], big endian,
+ * where length counts the id and the payload. Servers answer a request with a frame carrying the same id.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SERpcCodec {
+
+    /**
+     * Bytes of the length and the id field.
+     */
+    public static final int HEADER_SIZE = 12;
+
+    /**
+     * Default max frame length, larger frames are treated as a corrupt stream.
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private SERpcCodec() {
+    }
+
+    /**
+     * Encode one frame.
+     *
+     * @param id      request id
+     * @param payload payload, may be empty
+     * @return frame bytes
+     */
+    public static byte[] encode(long id, byte[] payload) {
+        return encode(id, payload, 0, payload != null ? payload.length : 0);
+    }
+
+    /**
+     * Encode one frame from a slice of the payload.
+     *
+     * @param id      request id
+     * @param payload payload, may be null if length is zero
+     * @param offset  slice offset
+     * @param length  slice length
+     * @return frame bytes
+     */
+    public static byte[] encode(long id, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[HEADER_SIZE + length];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putInt(length + 8);
+        buffer.putLong(id);
+        if (length > 0) {
+            buffer.put(payload, offset, length);
+        }
+        return frame;
+    }
+
+    /**
+     * Incremental frame decoder, fed with the chunks a socket delivers.
+     * Whole frames are parsed straight from the chunk, only a trailing partial frame is copied.
+     * Not thread safe, use it from the channel's event loop.
+     */
+    public static final class Decoder {
+        private final FrameHandler mHandler;
+        private final int mMaxFrameLength;
+        private byte[] mCumulation = new byte[0];
+        private int mCumulated;
+
+        public Decoder(FrameHandler handler) {
+            this(handler, DEFAULT_MAX_FRAME_LENGTH);
+        }
+
+        /**
+         * Create a decoder.
+         *
+         * @param handler        frame handler
+         * @param maxFrameLength max value of the length field
+         */
+        public Decoder(FrameHandler handler, int maxFrameLength) {
+            if (handler == null || maxFrameLength < 8) {
+                throw new IllegalArgumentException("Illegal handler or max frame length.");
+            }
+            mHandler = handler;
+            mMaxFrameLength = maxFrameLength;
+        }
+
+        /**
+         * Decode received bytes, the handler is called for every completed frame.
+         *
+         * @param data received bytes
+         * @throws IOException illegal frame length, the stream can not be resynchronized
+         */
+        public void decode(byte[] data) throws IOException {
+            if (data == null || data.length == 0) {
+                return;
+            }
+            byte[] source = data;
+            int offset = 0;
+            int end = data.length;
+            if (mCumulated > 0) {
+                ensureCumulation(mCumulated + data.length);
+                System.arraycopy(data, 0, mCumulation, mCumulated, data.length);
+                mCumulated += data.length;
+                source = mCumulation;
+                end = mCumulated;
+            }
+            while (end - offset >= 4) {
+                int length = readInt(source, offset);
+                if (length < 8 || length > mMaxFrameLength) {
+                    mCumulated = 0;
+                    throw new IOException("Illegal frame length: " + length);
+                }
+                if (end - offset - 4 < length) {
+                    break;
+                }
+                long id = readLong(source, offset + 4);
+                byte[] payload = Arrays.copyOfRange(source, offset + HEADER_SIZE, offset + 4 + length);
+                offset += 4 + length;
+                mHandler.onFrame(id, payload);
+            }
+            int remaining = end - offset;
+            if (remaining > 0) {
+                if (source != mCumulation) {
+                    ensureCumulation(remaining);
+                }
+                System.arraycopy(source, offset, mCumulation, 0, remaining);
+            }
+            mCumulated = remaining;
+        }
+
+        private void ensureCumulation(int size) {
+            if (mCumulation.length < size) {
+                mCumulation = Arrays.copyOf(mCumulation, Math.max(size, mCumulation.length * 2));
+            }
+        }
+
+        private static int readInt(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                    | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+        }
+
+        private static long readLong(byte[] bytes, int offset) {
+            return (long) readInt(bytes, offset) << 32 | (readInt(bytes, offset + 4) & 0xffffffffL);
+        }
+    }
+
+    /**
+     * Receives decoded frames.
+     */
+    public interface FrameHandler {
+        /**
+         * A complete frame was decoded.
+         *
+         * @param id      request id
+         * @param payload payload
+         */
+        void onFrame(long id, byte[] payload);
+    }
+}
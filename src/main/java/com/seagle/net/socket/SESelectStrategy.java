@@ -0,0 +1,74 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+
+/**
+ * How an event loop waits for ready keys.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ * @see SEEventLoop#SEEventLoop(SESelectStrategy)
+ */
+public interface SESelectStrategy {
+
+    /**
+     * Wait until keys are ready, the timeout elapses or the loop is woken up.
+     *
+     * @param selector      selector of the loop
+     * @param timeoutMillis max wait, zero waits until woken up
+     * @param loop          the loop, a spinning strategy returns once {@link SEEventLoop#hasPendingWork()}
+     * @return number of selected keys
+     * @throws IOException select failed
+     */
+    int select(Selector selector, long timeoutMillis, SEEventLoop loop) throws IOException;
+
+    /**
+     * Block in select(), the power efficient default.
+     */
+    final class Blocking implements SESelectStrategy {
+        @Override
+        public int select(Selector selector, long timeoutMillis, SEEventLoop loop) throws IOException {
+            return timeoutMillis > 0 ? selector.select(timeoutMillis) : selector.select();
+        }
+    }
+
+    /**
+     * Spin on selectNow() before falling back to a blocking select.
+     * Saves the wakeup cost of a blocked selector at the price of one busy core per loop.
+     */
+    final class BusyPoll implements SESelectStrategy {
+        private final int mSpinIterations;
+        private final long mSpinNanos;
+
+        /**
+         * Create a busy poll strategy. Spinning stops at whichever limit comes first.
+         *
+         * @param spinIterations max selectNow() calls before blocking
+         * @param spinNanos      max spin time before blocking
+         */
+        public BusyPoll(int spinIterations, long spinNanos) {
+            if (spinIterations <= 0 || spinNanos <= 0) {
+                throw new IllegalArgumentException("Illegal spin limits: " + spinIterations + ", " + spinNanos);
+            }
+            mSpinIterations = spinIterations;
+            mSpinNanos = spinNanos;
+        }
+
+        @Override
+        public int select(Selector selector, long timeoutMillis, SEEventLoop loop) throws IOException {
+            long spinStart = System.nanoTime();
+            for (int i = 0; i < mSpinIterations; i++) {
+                int selected = selector.selectNow();
+                if (selected > 0 || loop.hasPendingWork()) {
+                    return selected;
+                }
+                if (System.nanoTime() - spinStart >= mSpinNanos) {
+                    break;
+                }
+                SEEventLoop.onSpinWait();
+            }
+            return timeoutMillis > 0 ? selector.select(timeoutMillis) : selector.select();
+        }
+    }
+}
@@ -2,11 +2,20 @@ package com.seagle.net.socket;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
 
 /**
  * Server socket channel.
@@ -16,16 +25,112 @@ import java.util.concurrent.CopyOnWriteArraySet;
  */
 public class SEServerSocketChannel {
 
-    private final int mPort;
+    /**
+     * Interval of the checks whether a handed off server has drained.
+     */
+    private static final long DRAIN_CHECK_MILLIS = 100;
+
+    private final SocketAddress mLocalAddress;
+    /**
+     * Bound channel inherited from another process, null if the server binds its own.
+     */
+    private final ServerSocketChannel mAdoptedChannel;
+    private volatile boolean mReusePort;
+    private volatile boolean mHandingOff;
+    private final SEEventLoop mEventLoop;
+    private volatile SEEventLoop mChildEventLoop;
     private volatile ServerSocketChannel mServerSocketChannel;
     private volatile SelectionKey mSelectionKey;
     private volatile boolean mListening;
     private volatile ServerChannelEventHandler mServerChannelEventHandler;
     private final Set<ServerChannelEventListener> mServerChannelEventListenerSet;
+    private volatile SESocketChannel.SocketChannelStateListener mChildListener;
+    private final SEChannelRegistry mChannelRegistry;
+    private volatile long mChannelReadLimit;
+    private volatile long mChannelWriteLimit;
+    private volatile SSLContext mSslContext;
+    private volatile SECompression mChildCompression;
+    private volatile int mMaxConnections;
+    private volatile int mMaxConnectionsPerAddress;
+    private final TokenBucket mAcceptBucket = new TokenBucket();
+    private final AtomicLong[] mRejected;
+    private final OverloadMonitor mOverloadMonitor = new OverloadMonitor();
+    private volatile boolean mAcceptSuspended;
+    /**
+     * Pending overload check, event loop only.
+     */
+    private SEEventLoop.ScheduledTask mOverloadCheck;
+    private final Runnable mOverloadCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            checkOverload();
+        }
+    };
 
     public SEServerSocketChannel(int port) {
-        mPort = port;
+        this(port, SESocketChannelManager.getInstance().nextLoop());
+    }
+
+    /**
+     * Create a server whose accept events are handled by the given loop.
+     *
+     * @param port      local port
+     * @param eventLoop loop handling accept events
+     */
+    public SEServerSocketChannel(int port, SEEventLoop eventLoop) {
+        this(new InetSocketAddress(port), eventLoop);
+    }
+
+    /**
+     * Create a server listening on a local address, with accept events handled by the next shared loop.
+     *
+     * @param localAddress local address
+     * @see #SEServerSocketChannel(SocketAddress, SEEventLoop)
+     */
+    public SEServerSocketChannel(SocketAddress localAddress) {
+        this(localAddress, SESocketChannelManager.getInstance().nextLoop());
+    }
+
+    /**
+     * Create a server listening on a local address, a host and port, a unix domain socket address or
+     * an in-VM name.
+     *
+     * @param localAddress local address
+     * @param eventLoop    loop handling accept events
+     * @see SEUnixDomainSockets
+     * @see SELocalAddress
+     */
+    public SEServerSocketChannel(SocketAddress localAddress, SEEventLoop eventLoop) {
+        this(localAddress, eventLoop, null);
+    }
+
+    /**
+     * Create a server on a socket that is already bound and listening, inherited from inetd or systemd, see
+     * {@link SEInheritedChannels}. No bind happens on start; the server owns the channel and
+     * closes it on {@link #closeServer()}.
+     *
+     * @param boundChannel bound server socket channel
+     * @param eventLoop    loop handling accept events
+     * @throws IOException the channel is closed
+     */
+    public SEServerSocketChannel(ServerSocketChannel boundChannel, SEEventLoop eventLoop) throws IOException {
+        this(localAddressOf(boundChannel), eventLoop, boundChannel);
+    }
+
+    private SEServerSocketChannel(SocketAddress localAddress, SEEventLoop eventLoop, ServerSocketChannel adoptedChannel) {
+        if (localAddress == null || eventLoop == null) {
+            throw new IllegalArgumentException("Local address or event loop is null.");
+        }
+        mAdoptedChannel = adoptedChannel;
+        mLocalAddress = localAddress;
+        mEventLoop = eventLoop;
         mServerChannelEventListenerSet = new CopyOnWriteArraySet<>();
+        mChannelRegistry = new SEChannelRegistry(SESocketChannelManager.getInstance().getLoopCount(),
+                localAddress instanceof InetSocketAddress);
+        mRejected = new AtomicLong[RejectReason.values().length];
+        for (int i = 0; i < mRejected.length; i++) {
+            mRejected[i] = new AtomicLong();
+        }
     }
 
     /**
@@ -48,22 +153,71 @@ public class SEServerSocketChannel {
         mServerChannelEventListenerSet.remove(listener);
     }
 
+    /**
+     * Set a listener shared by every channel accepted from now on.
+     * It is installed before the channel is registered, so no data is missed, and costs no per connection
+     * registration; the channel argument of the callbacks tells the connections apart.
+     * Channels may still register their own listeners in {@link ServerChannelEventListener#onAccept}.
+     *
+     * @param listener shared listener, null for none
+     */
+    public void setChildSocketChannelListener(SESocketChannel.SocketChannelStateListener listener) {
+        mChildListener = listener;
+    }
+
+    /**
+     * Speak TLS on every channel accepted from now on, in-VM servers ignore it.
+     * The accepted channel is handed to the listeners at once, data written before the handshake finished
+     * is sent after it.
+     *
+     * @param sslContext server TLS context, null for plaintext
+     */
+    public void setSslContext(SSLContext sslContext) {
+        mSslContext = sslContext;
+    }
+
+    /**
+     * Compress the messages of every channel accepted from now on, clients need the same settings.
+     *
+     * @param compression compression settings, null for none
+     * @see SESocketChannel#setCompression(SECompression)
+     */
+    public void setChildCompression(SECompression compression) {
+        mChildCompression = compression;
+    }
+
     /**
      * Start server socket listening.
      *
      * @throws IOException Start exception
      */
     public synchronized void startServer() throws IOException {
+        if (mHandingOff) {
+            throw new IOException("Server was handed off.");
+        }
         if (!mListening) {
+            if (mLocalAddress instanceof SELocalAddress) {
+                LocalPipe.bind((SELocalAddress) mLocalAddress, this);
+                mListening = true;
+                return;
+            }
             try {
-                mServerSocketChannel = ServerSocketChannel.open();
-                mServerSocketChannel.configureBlocking(false);
-                mServerSocketChannel.socket().bind(new InetSocketAddress(mPort));
+                if (mAdoptedChannel != null) {
+                    mServerSocketChannel = mAdoptedChannel;
+                } else {
+                    mServerSocketChannel = SEUnixDomainSockets.openServerSocketChannel(mLocalAddress);
+                    mServerSocketChannel.configureBlocking(false);
+                    if (mReusePort) {
+                        enableReusePort(mServerSocketChannel);
+                    }
+                    mServerSocketChannel.bind(mLocalAddress);
+                }
                 mServerChannelEventHandler = new ServerChannelEventHandler();
                 mServerSocketChannel.configureBlocking(false);
-                mSelectionKey = SESocketChannelManager.getInstance().registerChannel(mServerSocketChannel, SelectionKey.OP_ACCEPT, mServerChannelEventHandler);
+                mSelectionKey = mEventLoop.registerChannel(mServerSocketChannel, SelectionKey.OP_ACCEPT, mServerChannelEventHandler);
                 if (mSelectionKey != null) {
                     mListening = true;
+                    updateOverloadCheck();
                 } else {
                     throw new IOException("Selection key is null!");
                 }
@@ -80,18 +234,35 @@ public class SEServerSocketChannel {
      * Notice: just close server accept.
      */
     public synchronized void closeServer() {
+        closeServer(mAdoptedChannel == null);
+    }
+
+    /**
+     * Stop listening.
+     *
+     * @param deleteSocketFile whether to delete the file of a unix domain socket, which other processes
+     *                         may still listen on
+     */
+    private void closeServer(boolean deleteSocketFile) {
         SelectionKey selectionKey = mSelectionKey;
         ServerSocketChannel serverSocketChannel = mServerSocketChannel;
         mSelectionKey = null;
         mServerSocketChannel = null;
         mServerChannelEventHandler = null;
         mListening = false;
+        updateOverloadCheck();
+        if (mLocalAddress instanceof SELocalAddress) {
+            LocalPipe.unbind((SELocalAddress) mLocalAddress, this);
+        }
         if (selectionKey != null) {
             selectionKey.cancel();
         }
         if (serverSocketChannel != null) {
             try {
                 serverSocketChannel.close();
+                if (deleteSocketFile) {
+                    SEUnixDomainSockets.deleteSocketFile(mLocalAddress);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -99,55 +270,471 @@ public class SEServerSocketChannel {
 
     }
 
+    /**
+     * Hand the listening socket over to a successor process and drain, for restarts without refused
+     * connections. The server stops accepting, takes the connections already queued on its socket, closes its
+     * copy of the socket and keeps serving the connections it has until they close; connections still open at
+     * the deadline are disconnected. The successor must already listen on the same port bound with
+     * {@link #setReusePort(boolean)}, or get the same socket from systemd, whose socket unit keeps it open
+     * across the restart, see {@link SEInheritedChannels}. A unix domain socket file is left in place. With
+     * SO_REUSEPORT the kernel resets connections that reach this socket's queue in the instant between the
+     * last accept and the close; a socket kept by systemd has no such window.
+     *
+     * @param drainTimeout longest wait for the accepted connections to close, zero disconnects them at once
+     * @param unit         timeout unit
+     * @return future completed on the event loop once no accepted connection is left
+     */
+    public CompletableFuture<Void> handOff(long drainTimeout, TimeUnit unit) {
+        final CompletableFuture<Void> drained = new CompletableFuture<>();
+        final long deadline = System.nanoTime() + unit.toNanos(drainTimeout);
+        mHandingOff = true;
+        mEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                stopAccepting();
+                checkDrained(drained, deadline);
+            }
+        });
+        return drained;
+    }
+
+    /**
+     * Return whether the server listens.
+     *
+     * @return true if listening
+     */
+    public synchronized boolean isListening() {
+        return mListening;
+    }
+
+    /**
+     * Return whether {@link #handOff(long, TimeUnit)} was called.
+     *
+     * @return true once handed off
+     */
+    public boolean isHandedOff() {
+        return mHandingOff;
+    }
+
+    /**
+     * Accept what is queued on the socket, then close it without deleting a socket file, event loop only.
+     */
+    private void stopAccepting() {
+        ServerSocketChannel serverSocketChannel;
+        synchronized (this) {
+            serverSocketChannel = mListening ? mServerSocketChannel : null;
+        }
+        if (serverSocketChannel != null) {
+            try {
+                SocketChannel socketChannel;
+                while ((socketChannel = serverSocketChannel.accept()) != null) {
+                    handleAccept(socketChannel, null);
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        synchronized (this) {
+            closeServer(false);
+        }
+    }
+
+    /**
+     * Complete the hand off once the accepted connections are gone or the deadline passed, event loop only.
+     *
+     * @param drained  hand off future
+     * @param deadline drain deadline, System.nanoTime based
+     */
+    private void checkDrained(final CompletableFuture<Void> drained, final long deadline) {
+        if (mChannelRegistry.size() > 0 && System.nanoTime() - deadline >= 0) {
+            mChannelRegistry.forEach(new SEChannelRegistry.ChannelVisitor() {
+                @Override
+                public void visit(long id, SESocketChannel channel) {
+                    channel.disConnect();
+                }
+            });
+        }
+        if (mChannelRegistry.size() == 0) {
+            drained.complete(null);
+            return;
+        }
+        mEventLoop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkDrained(drained, deadline);
+            }
+        }, DRAIN_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Bind with SO_REUSEPORT, so a successor process can bind the same port while this server listens, see
+     * {@link #handOff(long, TimeUnit)}. The kernel spreads new connections over every socket bound to the
+     * port. Set before {@link #startServer()}; needs JDK 9 or later on Linux or macOS.
+     *
+     * @param reusePort true to share the port
+     */
+    public void setReusePort(boolean reusePort) {
+        mReusePort = reusePort;
+    }
+
+    /**
+     * Enable SO_REUSEPORT, looked up by name since the library is built for Java 8.
+     *
+     * @param channel unbound channel
+     * @throws IOException the option is not supported
+     */
+    @SuppressWarnings("unchecked")
+    private static void enableReusePort(ServerSocketChannel channel) throws IOException {
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if ("SO_REUSEPORT".equals(option.name())) {
+                channel.setOption((SocketOption<Boolean>) option, true);
+                return;
+            }
+        }
+        throw new IOException("SO_REUSEPORT is not supported.");
+    }
+
+    private static SocketAddress localAddressOf(ServerSocketChannel channel) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel is null.");
+        }
+        SocketAddress address = channel.getLocalAddress();
+        if (address == null) {
+            throw new IllegalArgumentException("Channel is not bound.");
+        }
+        return address;
+    }
+
+    /**
+     * Bind channels accepted from now on to the given loop.
+     * By default accepted channels are spread over the default loops.
+     *
+     * @param eventLoop loop for accepted channels, null for the default loops
+     */
+    public void setChildEventLoop(SEEventLoop eventLoop) {
+        mChildEventLoop = eventLoop;
+    }
+
+    /**
+     * Limit the bandwidth of every channel accepted from now on.
+     *
+     * @param readBytesPerSecond  ingress limit per channel, zero means unlimited
+     * @param writeBytesPerSecond egress limit per channel, zero means unlimited
+     * @see SESocketChannel#setTrafficLimit(long, long)
+     */
+    public void setChannelTrafficLimit(long readBytesPerSecond, long writeBytesPerSecond) {
+        mChannelReadLimit = readBytesPerSecond;
+        mChannelWriteLimit = writeBytesPerSecond;
+    }
+
+    /**
+     * Limit the connected channels of this server, further connections are closed right after accept.
+     *
+     * @param maxConnections max channels, zero means unlimited
+     */
+    public void setMaxConnections(int maxConnections) {
+        mMaxConnections = Math.max(maxConnections, 0);
+    }
+
+    /**
+     * Limit the connected channels of this server per remote IP address, TCP servers only.
+     *
+     * @param maxConnections max channels per address, zero means unlimited
+     */
+    public void setMaxConnectionsPerAddress(int maxConnections) {
+        mMaxConnectionsPerAddress = Math.max(maxConnections, 0);
+    }
+
+    /**
+     * Limit the accept rate, connections beyond it are closed right after accept.
+     * A burst of one second worth of connections is admitted after a quiet period.
+     *
+     * @param connectionsPerSecond rate, zero means unlimited
+     */
+    public void setAcceptRate(int connectionsPerSecond) {
+        mAcceptBucket.setRate(connectionsPerSecond);
+    }
+
+    /**
+     * Stop accepting while the event loops lag: once a task waits the suspend lag to run, OP_ACCEPT is
+     * cleared and pending connections stay in the listen backlog, until the lag is back at the resume lag.
+     * Probes the child event loop, or the default loops if none is set.
+     *
+     * @param suspendMillis lag that suspends accepting, zero disables the limit
+     * @param resumeMillis  lag that resumes accepting, less than suspendMillis
+     */
+    public void setLoopLagLimit(long suspendMillis, long resumeMillis) {
+        if (suspendMillis < 0 || (suspendMillis > 0 && (resumeMillis < 0 || resumeMillis >= suspendMillis))) {
+            throw new IllegalArgumentException("Illegal lag limit: " + suspendMillis + ", " + resumeMillis);
+        }
+        mOverloadMonitor.setLagLimit(TimeUnit.MILLISECONDS.toNanos(suspendMillis), TimeUnit.MILLISECONDS.toNanos(resumeMillis));
+        updateOverloadCheck();
+    }
+
+    /**
+     * Stop accepting while the heap is full: once the heap holds the suspend ratio of its max size after
+     * garbage collection, OP_ACCEPT is cleared until it is back at the resume ratio.
+     *
+     * @param suspendRatio heap ratio that suspends accepting, zero disables the limit
+     * @param resumeRatio  heap ratio that resumes accepting, less than suspendRatio
+     */
+    public void setHeapLimit(double suspendRatio, double resumeRatio) {
+        if (suspendRatio < 0 || suspendRatio > 1 || (suspendRatio > 0 && (resumeRatio <= 0 || resumeRatio >= suspendRatio))) {
+            throw new IllegalArgumentException("Illegal heap limit: " + suspendRatio + ", " + resumeRatio);
+        }
+        mOverloadMonitor.setHeapLimit(suspendRatio, resumeRatio);
+        updateOverloadCheck();
+    }
+
+    /**
+     * Return whether accepting is suspended by the lag or heap limit.
+     *
+     * @return true if suspended
+     */
+    public boolean isAcceptSuspended() {
+        return mAcceptSuspended;
+    }
+
+    /**
+     * Return connections closed right after accept for the given reason.
+     *
+     * @param reason limit that rejected them
+     * @return count
+     */
+    public long getRejectedConnections(RejectReason reason) {
+        return mRejected[reason.ordinal()].get();
+    }
+
+    /**
+     * Return the connected channels accepted by this server, addressed by {@link SESocketChannel#getId()}.
+     * Channels stay registered after {@link #closeServer()} until they are disconnected.
+     *
+     * @return SEChannelRegistry
+     */
+    public SEChannelRegistry getChannelRegistry() {
+        return mChannelRegistry;
+    }
+
     /**
      * Return local listening port.
      *
-     * @return Port
+     * @return Port, -1 if not listening on a host and port
      */
     public int getPort() {
-        return mPort;
+        return mLocalAddress instanceof InetSocketAddress ? ((InetSocketAddress) mLocalAddress).getPort() : -1;
     }
 
     /**
-     * Handler socket connect to server event.
+     * Return the local address the server listens on.
      *
-     * @param event ChannelEvent
-     * @return true
+     * @return SocketAddress
      */
-    private synchronized boolean handleAccept(ChannelEvent event) {
-        if (mListening) {
-            Object obj = event.getEventObj();
-            if (obj != null && obj instanceof SocketChannel) {
-                SocketChannel socketChannel = (SocketChannel) obj;
-                try {
-                    final SESocketChannel socketChannelClient = new SESocketChannel(socketChannel);
-                    for (ServerChannelEventListener listener : mServerChannelEventListenerSet) {
-                        listener.onAccept(socketChannelClient);
-                    }
-                    return true;
-                } catch (Exception ex) {
-                    ex.printStackTrace();
+    public SocketAddress getLocalAddress() {
+        return mLocalAddress;
+    }
+
+    /**
+     * Return the loop for the next accepted channel.
+     *
+     * @return SEEventLoop
+     */
+    private SEEventLoop childEventLoop() {
+        SEEventLoop eventLoop = mChildEventLoop;
+        return eventLoop != null ? eventLoop : SESocketChannelManager.getInstance().nextLoop();
+    }
+
+    /**
+     * Accept an in-VM connection on the accept loop.
+     *
+     * @param localPipe pipe the accepted end writes to
+     * @return future completed with false if the server is not listening
+     */
+    CompletableFuture<Boolean> acceptLocal(final LocalPipe localPipe) {
+        final CompletableFuture<Boolean> accepted = new CompletableFuture<>();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                accepted.complete(handleAccept(null, localPipe));
+            }
+        };
+        if (mEventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            mEventLoop.execute(task);
+        }
+        return accepted;
+    }
+
+    /**
+     * Start or stop the periodic overload check on the event loop according to the limits.
+     */
+    private void updateOverloadCheck() {
+        if (mEventLoop.inEventLoop()) {
+            checkOverload();
+        } else {
+            mEventLoop.execute(mOverloadCheckTask);
+        }
+    }
+
+    /**
+     * Suspend or resume accepting according to the overload monitor, event loop only.
+     */
+    private void checkOverload() {
+        if (mOverloadCheck != null) {
+            mOverloadCheck.cancel();
+            mOverloadCheck = null;
+        }
+        SelectionKey selectionKey = mSelectionKey;
+        if (!mListening || selectionKey == null) {
+            mOverloadMonitor.reset();
+            mAcceptSuspended = false;
+            return;
+        }
+        SEEventLoop childEventLoop = mChildEventLoop;
+        boolean overloaded = mOverloadMonitor.check(childEventLoop != null ? new SEEventLoop[]{childEventLoop}
+                : SESocketChannelManager.getInstance().getDefaultLoops());
+        if (overloaded != mAcceptSuspended) {
+            try {
+                selectionKey.interestOps(overloaded ? 0 : SelectionKey.OP_ACCEPT);
+            } catch (CancelledKeyException ex) {
+                ex.printStackTrace();
+                return;
+            }
+            mAcceptSuspended = overloaded;
+            if (overloaded) {
+                SEChannelMetrics.ACCEPT_SUSPENSIONS.incrementAndGet();
+            }
+        }
+        if (mOverloadMonitor.isEnabled()) {
+            mOverloadCheck = mEventLoop.schedule(mOverloadCheckTask, OverloadMonitor.CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Apply the connection limits to a new connection.
+     *
+     * @param socketChannel accepted channel, null for an in-VM connection
+     * @return the exceeded limit, null if admitted
+     */
+    private RejectReason checkAdmission(SocketChannel socketChannel) {
+        int maxConnections = mMaxConnections;
+        if (maxConnections > 0 && mChannelRegistry.size() >= maxConnections) {
+            return RejectReason.MAX_CONNECTIONS;
+        }
+        int maxPerAddress = mMaxConnectionsPerAddress;
+        if (maxPerAddress > 0 && socketChannel != null && mLocalAddress instanceof InetSocketAddress
+                && mChannelRegistry.countOf(socketChannel.socket().getInetAddress()) >= maxPerAddress) {
+            return RejectReason.MAX_CONNECTIONS_PER_ADDRESS;
+        }
+        if (mAcceptBucket.getRate() > 0) {
+            if (mAcceptBucket.available() < 1) {
+                return RejectReason.ACCEPT_RATE;
+            }
+            mAcceptBucket.consume(1);
+        }
+        return null;
+    }
+
+    /**
+     * Close a rejected connection. A TCP connection is reset, which frees it on both ends at once.
+     *
+     * @param socketChannel accepted channel, null for an in-VM connection
+     * @param reason        exceeded limit
+     */
+    private void reject(SocketChannel socketChannel, RejectReason reason) {
+        mRejected[reason.ordinal()].incrementAndGet();
+        SEChannelMetrics.CONNECTIONS_REJECTED.incrementAndGet();
+        if (socketChannel != null) {
+            try {
+                if (mLocalAddress instanceof InetSocketAddress) {
+                    socketChannel.setOption(StandardSocketOptions.SO_LINGER, 0);
                 }
+                socketChannel.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
             }
         }
+    }
+
+    /**
+     * Handler socket connect to server event, event loop only.
+     * Only the admission runs under the server monitor: the new channel waits for its child loop to register
+     * it, which must not stall callers of the synchronized methods, nor deadlock a child loop calling them.
+     * Accepts are serialized by the event loop, so the admitted count can not overshoot the limits meanwhile.
+     *
+     * @param socketChannel accepted channel
+     * @param localPipe     pipe of an accepted in-VM connection, if socketChannel is null
+     * @return true
+     */
+    private boolean handleAccept(SocketChannel socketChannel, LocalPipe localPipe) {
+        if (socketChannel == null && localPipe == null) {
+            return false;
+        }
+        RejectReason reason;
+        synchronized (this) {
+            if (!mListening) {
+                return false;
+            }
+            reason = checkAdmission(socketChannel);
+        }
+        if (reason != null) {
+            reject(socketChannel, reason);
+            return false;
+        }
+        try {
+            final SESocketChannel socketChannelClient = socketChannel != null
+                    ? new SESocketChannel(socketChannel, childEventLoop(), mChildListener, mChannelRegistry,
+                    mSslContext, mChildCompression)
+                    : new SESocketChannel(localPipe, childEventLoop(), mChildListener, mChannelRegistry,
+                    mChildCompression);
+            if (mChannelReadLimit > 0 || mChannelWriteLimit > 0) {
+                socketChannelClient.setTrafficLimit(mChannelReadLimit, mChannelWriteLimit);
+            }
+            for (ServerChannelEventListener listener : mServerChannelEventListenerSet) {
+                listener.onAccept(socketChannelClient);
+            }
+            return true;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
         return false;
     }
 
     /**
      * Server channel selection event handler.
      */
-    private class ServerChannelEventHandler implements SESocketChannelManager.ChannelEventHandler {
+    private class ServerChannelEventHandler extends SEEventLoop.ChannelEventHandler {
         @Override
-        public boolean handleChannelEvent(ChannelEvent event) {
-            switch (event.getEventCode()) {
-                case ChannelEvent.EVENT_ACCEPT:
-                    return handleAccept(event);
-                default:
-                    return false;
+        void onAccept(SocketChannel socketChannel) {
+            handleAccept(socketChannel, null);
+        }
+
+        @Override
+        void onKeyChanged(SelectionKey selectionKey) {
+            if (mSelectionKey != null) {
+                mSelectionKey = selectionKey;
             }
         }
     }
 
+    /**
+     * Limits that reject connections.
+     */
+    public enum RejectReason {
+        /**
+         * Max connected channels of the server.
+         */
+        MAX_CONNECTIONS,
+        /**
+         * Max connected channels per remote address.
+         */
+        MAX_CONNECTIONS_PER_ADDRESS,
+        /**
+         * Max accept rate.
+         */
+        ACCEPT_RATE
+    }
+
     /**
      * Server socket channel listener.
      */
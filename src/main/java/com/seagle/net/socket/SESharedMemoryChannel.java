@@ -0,0 +1,397 @@
+package com.seagle.net.socket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Message channel between two processes on the same host through a memory mapped file, without syscalls
+ * on the data path. The file, under /dev/shm where it exists, holds two single producer single consumer
+ * ring buffers, one per direction. One peer creates the file, the other then opens it by name.
+ * <p>
+ * A message is a length prefixed record aligned to 8 bytes, records that would straddle the end of a ring
+ * are preceded by a padding record. The producer copies a record in, then publishes it with an ordered write
+ * of its position; the consumer reads that position, delivers the records and publishes its own position the
+ * same way. Each position sits on its own cache lines. An idle receiver spins, then yields, then parks for
+ * growing periods up to {@link #MAX_PARK_NANOS}, since a process on the other side can not unpark it.
+ * <p>
+ * Messages are delivered in order on a receiver thread of the channel. The rings have a single producer:
+ * {@link #offer(byte[])} and {@link #writeData(byte[])} must not be called by two threads at once.
+ * A peer that dies without closing is not noticed.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SESharedMemoryChannel {
+
+    /**
+     * Default ring capacity per direction.
+     */
+    public static final int DEFAULT_RING_CAPACITY = 1 << 20;
+
+    /**
+     * Longest park of an idle receiver or a writer waiting for space.
+     */
+    public static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int MAGIC = 0x5345534D;
+    private static final int MIN_RING_CAPACITY = 4096;
+    private static final long OPEN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int SPIN_TRIES = 1000;
+    private static final int YIELD_TRIES = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    /**
+     * Two cache lines, adjacent line prefetch pulls lines in pairs.
+     */
+    private static final int LINE = 128;
+    private static final int FILE_HEADER = LINE;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int RING_HEADER = 3 * LINE;
+    private static final int PRODUCER_POSITION = 0;
+    private static final int CONSUMER_POSITION = LINE;
+    private static final int PRODUCER_CLOSED = 2 * LINE;
+    private static final int RECORD_HEADER = 4;
+    private static final int ALIGNMENT = 8;
+    private static final int PADDING = -1;
+
+    private final String mName;
+    private final File mFile;
+    private final boolean mCreator;
+    /**
+     * Keeps the mapping alive, it is released when the buffer is collected.
+     */
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mMask;
+    private final long mSendHeader;
+    private final long mSendData;
+    private final long mRecvHeader;
+    private final long mRecvData;
+    private final Listener mListener;
+    private final Thread mReceiver;
+    private long mSendTail;
+    private long mSendHeadCache;
+    private long mRecvHead;
+    private volatile boolean mClosed;
+
+    private SESharedMemoryChannel(String name, File file, boolean creator, MappedByteBuffer buffer, int capacity,
+                                  Listener listener) {
+        mName = name;
+        mFile = file;
+        mCreator = creator;
+        mBuffer = buffer;
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        long base = UnsafeMemory.address(buffer);
+        long firstRing = base + FILE_HEADER;
+        long secondRing = firstRing + RING_HEADER + capacity;
+        mSendHeader = creator ? firstRing : secondRing;
+        mRecvHeader = creator ? secondRing : firstRing;
+        mSendData = mSendHeader + RING_HEADER;
+        mRecvData = mRecvHeader + RING_HEADER;
+        mSendTail = UnsafeMemory.getLongVolatile(mSendHeader + PRODUCER_POSITION);
+        mRecvHead = UnsafeMemory.getLongVolatile(mRecvHeader + CONSUMER_POSITION);
+        mListener = listener;
+        mReceiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "SEShm-" + name);
+        mReceiver.start();
+    }
+
+    /**
+     * Return whether shared memory channels are supported, they need sun.misc.Unsafe.
+     *
+     * @return true if supported
+     */
+    public static boolean isSupported() {
+        return UnsafeMemory.isSupported();
+    }
+
+    /**
+     * Create a channel with the default ring capacity, replacing a stale file of the same name.
+     *
+     * @param name     channel name, the file name
+     * @param listener listener, called on the receiver thread
+     * @return channel
+     * @throws IOException create failed
+     */
+    public static SESharedMemoryChannel create(String name, Listener listener) throws IOException {
+        return create(name, DEFAULT_RING_CAPACITY, listener);
+    }
+
+    /**
+     * Create a channel, replacing a stale file of the same name.
+     *
+     * @param name         channel name, the file name
+     * @param ringCapacity bytes per direction, a power of two
+     * @param listener     listener, called on the receiver thread
+     * @return channel
+     * @throws IOException create failed
+     */
+    public static SESharedMemoryChannel create(String name, int ringCapacity, Listener listener) throws IOException {
+        if (ringCapacity < MIN_RING_CAPACITY || Integer.bitCount(ringCapacity) != 1 || ringCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two of at least 4096.");
+        }
+        checkArguments(name, listener);
+        File file = fileOf(name);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can not replace " + file);
+        }
+        MappedByteBuffer buffer = map(file, FILE_HEADER + 2L * (RING_HEADER + ringCapacity));
+        long base = UnsafeMemory.address(buffer);
+        UnsafeMemory.putInt(base + CAPACITY_OFFSET, ringCapacity);
+        UnsafeMemory.putOrderedInt(base, MAGIC);
+        return new SESharedMemoryChannel(name, file, true, buffer, ringCapacity, listener);
+    }
+
+    /**
+     * Open a channel created by the peer, waiting up to 5 seconds for the peer to initialize it.
+     *
+     * @param name     channel name, the file name
+     * @param listener listener, called on the receiver thread
+     * @return channel
+     * @throws IOException open failed or timed out
+     */
+    public static SESharedMemoryChannel open(String name, Listener listener) throws IOException {
+        checkArguments(name, listener);
+        File file = fileOf(name);
+        long deadline = System.nanoTime() + OPEN_TIMEOUT_NANOS;
+        for (int idle = 0; file.length() < FILE_HEADER; idle++) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("No shared memory channel " + file);
+            }
+            idle(idle);
+        }
+        MappedByteBuffer buffer = map(file, file.length());
+        long base = UnsafeMemory.address(buffer);
+        for (int idle = 0; UnsafeMemory.getIntVolatile(base) != MAGIC; idle++) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("Shared memory channel not initialized " + file);
+            }
+            idle(idle);
+        }
+        int capacity = UnsafeMemory.getInt(base + CAPACITY_OFFSET);
+        if (buffer.capacity() != FILE_HEADER + 2L * (RING_HEADER + capacity)) {
+            throw new IOException("Corrupt shared memory channel " + file);
+        }
+        return new SESharedMemoryChannel(name, file, false, buffer, capacity, listener);
+    }
+
+    /**
+     * Return the channel name.
+     *
+     * @return name
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Return the largest message that fits, half the ring so a wrapped record always fits once drained.
+     *
+     * @return max message bytes
+     */
+    public int getMaxMessageSize() {
+        return mCapacity / 2 - RECORD_HEADER;
+    }
+
+    /**
+     * Return whether the channel is open, false once either peer has closed it.
+     *
+     * @return true if open
+     */
+    public boolean isConnected() {
+        return !mClosed;
+    }
+
+    /**
+     * Write a message if the ring has room for it.
+     *
+     * @param data message, at most {@link #getMaxMessageSize()} bytes
+     * @return false if the ring is full or the channel is closed
+     */
+    public boolean offer(byte[] data) {
+        int length = data.length;
+        if (length > getMaxMessageSize()) {
+            throw new IllegalArgumentException("Message too large: " + length);
+        }
+        if (mClosed) {
+            return false;
+        }
+        int recordLength = align(RECORD_HEADER + length);
+        long tail = mSendTail;
+        int index = (int) tail & mMask;
+        int toEnd = mCapacity - index;
+        int required = recordLength <= toEnd ? recordLength : toEnd + recordLength;
+        if (tail + required - mSendHeadCache > mCapacity) {
+            mSendHeadCache = UnsafeMemory.getLongVolatile(mSendHeader + CONSUMER_POSITION);
+            if (tail + required - mSendHeadCache > mCapacity) {
+                return false;
+            }
+        }
+        if (required != recordLength) {
+            UnsafeMemory.putInt(mSendData + index, PADDING);
+            tail += toEnd;
+            index = 0;
+        }
+        UnsafeMemory.putInt(mSendData + index, length);
+        UnsafeMemory.copyFromArray(data, 0, mSendData + index + RECORD_HEADER, length);
+        tail += recordLength;
+        mSendTail = tail;
+        UnsafeMemory.putOrderedLong(mSendHeader + PRODUCER_POSITION, tail);
+        return true;
+    }
+
+    /**
+     * Write a message, waiting for room while the ring is full. Dropped once the channel is closed.
+     *
+     * @param data message, at most {@link #getMaxMessageSize()} bytes
+     */
+    public void writeData(byte[] data) {
+        if (data == null) {
+            return;
+        }
+        for (int idle = 0; !offer(data) && !mClosed; idle++) {
+            idle(idle);
+        }
+    }
+
+    /**
+     * Close the channel. The peer delivers what was written so far, then sees the close.
+     * The creator removes the file, mappings of the peer stay valid.
+     */
+    public void disConnect() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        UnsafeMemory.putOrderedInt(mSendHeader + PRODUCER_CLOSED, 1);
+        if (mCreator && !mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+        LockSupport.unpark(mReceiver);
+    }
+
+    private void receive() {
+        int idle = 0;
+        while (!mClosed) {
+            if (poll() > 0) {
+                idle = 0;
+            } else if (UnsafeMemory.getIntVolatile(mRecvHeader + PRODUCER_CLOSED) != 0) {
+                poll();
+                disConnect();
+            } else {
+                idle(idle++);
+            }
+        }
+        try {
+            mListener.onDisConnected(this);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deliver the published records, then release their space to the producer.
+     *
+     * @return delivered message count
+     */
+    private int poll() {
+        long head = mRecvHead;
+        long tail = UnsafeMemory.getLongVolatile(mRecvHeader + PRODUCER_POSITION);
+        int count = 0;
+        while (head < tail) {
+            int index = (int) head & mMask;
+            int length = UnsafeMemory.getInt(mRecvData + index);
+            if (length == PADDING) {
+                head += mCapacity - index;
+                continue;
+            }
+            byte[] data = new byte[length];
+            UnsafeMemory.copyToArray(mRecvData + index + RECORD_HEADER, data, 0, length);
+            head += align(RECORD_HEADER + length);
+            count++;
+            try {
+                mListener.onReceivedData(this, data);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        if (head != mRecvHead) {
+            mRecvHead = head;
+            UnsafeMemory.putOrderedLong(mRecvHeader + CONSUMER_POSITION, head);
+        }
+        return count;
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * Spin, then yield, then park for growing periods.
+     *
+     * @param idleCount consecutive idle rounds
+     */
+    private static void idle(int idleCount) {
+        if (idleCount < SPIN_TRIES) {
+            SEEventLoop.onSpinWait();
+        } else if (idleCount < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            int doublings = Math.min(idleCount - SPIN_TRIES - YIELD_TRIES, 20);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << doublings, MAX_PARK_NANOS));
+        }
+    }
+
+    private static void checkArguments(String name, Listener listener) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Shared memory channels need sun.misc.Unsafe.");
+        }
+        if (name == null || name.isEmpty() || name.indexOf('/') >= 0 || listener == null) {
+            throw new IllegalArgumentException("Illegal name or listener.");
+        }
+    }
+
+    private static File fileOf(String name) {
+        File shm = new File("/dev/shm");
+        return new File(shm.isDirectory() ? shm : new File(System.getProperty("java.io.tmpdir")), name);
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            if (randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Shared memory channel listener, called on the receiver thread.
+     */
+    public interface Listener {
+        /**
+         * Channel closed by either peer, after every message has been delivered.
+         *
+         * @param channel channel
+         */
+        void onDisConnected(SESharedMemoryChannel channel);
+
+        /**
+         * Message received.
+         *
+         * @param channel channel
+         * @param data    message
+         */
+        void onReceivedData(SESharedMemoryChannel channel, byte[] data);
+    }
+}
@@ -1,49 +1,233 @@
 package com.seagle.net.socket;
 
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ConnectionPendingException;
 import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
 
 /**
  * SocketChannel.
+ * All I/O and outbound queue state is owned by the channel's event loop; calls from other threads are handed
+ * to the loop as tasks.
+ * <p>
+ * The channel is its own event handler and keeps its state in plain fields; listener arrays, outbound queues,
+ * bandwidth buckets and the receive sizer are only allocated once they are used. Memory budget of an idle
+ * connected channel with compressed oops: 160 bytes for this object (JOL), 1.5 KB per loopback connection
+ * once the JDK socket channels of both ends, the selection key and the selector's bookkeeping are counted
+ * (1250 bytes measured), see IdleConnectionFootprintTest.
+ * <p>
+ * Connected to an {@link SELocalAddress} the channel has no socket; data is handed to the peer channel
+ * through a {@link LocalPipe} per direction, everything else behaves as with TCP.
+ * <p>
+ * Connected with an {@link SSLContext}, or accepted by a server with one, the channel speaks TLS through a
+ * {@link TlsTransport}: the handshake runs on the event loop, a connect completes once it finished, and
+ * listeners only ever see plaintext.
+ * <p>
+ * With {@link #setCompression(SECompression)} every write is sent as one message, deflated above a size
+ * threshold, and every received message is delivered by one {@link SocketChannelStateListener#onReceivedData}.
+ * <p>
+ * {@link #setTrafficCapture(SETrafficCapture)} logs the bytes of all channels for a later replay.
  *
  * @author : yuanxiudong66@sina.com
  * @since : 2016/4/28
  */
-public class SESocketChannel {
+public class SESocketChannel extends SEEventLoop.ChannelEventHandler {
 
-    private enum ConnectState {
-        STATE_IDLE, STATE_CONNECTING, STATE_CONNECTED
-    }
+    /**
+     * Connect states, a byte rather than an enum reference keeps the layout within its budget.
+     */
+    private static final byte STATE_IDLE = 0;
+    private static final byte STATE_CONNECTING = 1;
+    private static final byte STATE_CONNECTED = 2;
+
+    /**
+     * Max bytes read for one read event while inbound watermarks are disabled.
+     */
+    private static final int DEFAULT_READ_CAPACITY = 64 * 1024;
+
+    /**
+     * Default outbound watermarks.
+     */
+    private static final int DEFAULT_OUTBOUND_LOW_WATERMARK = 32 * 1024;
+    private static final int DEFAULT_OUTBOUND_HIGH_WATERMARK = 64 * 1024;
+
+    /**
+     * Max write calls for one writable event, the rest is flushed on the next one.
+     */
+    private static final int WRITE_SPIN_COUNT = 16;
+
+    /**
+     * Initial capacity of the lazily created outbound queues.
+     */
+    private static final int OUTBOUND_QUEUE_CAPACITY = 4;
 
-    private volatile SocketChannel mSocketChannel;
+    private static final AtomicIntegerFieldUpdater<SESocketChannel> INTEREST_UPDATE_SCHEDULED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(SESocketChannel.class, "mInterestUpdateScheduled");
+    private static final AtomicIntegerFieldUpdater<SESocketChannel> INBOUND_PENDING_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(SESocketChannel.class, "mInboundPending");
+    private static final AtomicLongFieldUpdater<SESocketChannel> OUTBOUND_PENDING_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(SESocketChannel.class, "mOutboundPending");
+
+    private final SEEventLoop mEventLoop;
+    private final long mId;
+    private final SEChannelRegistry mRegistry;
+    /**
+     * The SocketChannel, its TlsTransport, or the outbound LocalPipe of an in-VM connection.
+     */
+    private volatile Object mTransport;
     private volatile SelectionKey mSelectionKey;
-    private volatile ChannelEventHandler mChannelEventHandler;
-    private volatile ConnectState mState;
-    private final Set<SocketChannelStateListener> mListenerSet;
+    private volatile byte mState;
+    /**
+     * Null, a single SocketChannelStateListener or a SocketChannelStateListener array.
+     */
+    private volatile Object mListeners;
     private volatile ConnectionCallback mCallback;
+    private volatile int mInterestUpdateScheduled;
+    private volatile int mInboundPending;
+    private volatile int mInboundLowWatermark;
+    private volatile int mInboundHighWatermark;
+    private volatile boolean mReadPaused;
+    private volatile boolean mInboundOverflow;
+    private Queue<ByteBuffer> mOutboundQueue;
+    private volatile long mOutboundQueued;
+    private boolean mOutboundCounted;
+    private volatile long mOutboundPending;
+    private Queue<WritePromise> mWritePromises;
+    private long mWriteOffset;
+    private long mFlushedOffset;
+    private CompletableFuture<Void> mCloseFuture;
+    private volatile boolean mClosing;
+    private volatile int mOutboundLowWatermark = DEFAULT_OUTBOUND_LOW_WATERMARK;
+    private volatile int mOutboundHighWatermark = DEFAULT_OUTBOUND_HIGH_WATERMARK;
+    private volatile boolean mWritable = true;
+    private volatile TokenBucket mReadBucket;
+    private volatile TokenBucket mWriteBucket;
+    private volatile boolean mReadThrottled;
+    private volatile boolean mWriteThrottled;
+    private volatile long mBytesRead;
+    private volatile long mBytesWritten;
+    private AdaptiveRecvSizer mRecvSizer;
+    private Runnable mUpdateInterestOpsTask;
+    private CompressionCodec mCompression;
 
     public SESocketChannel() {
-        mListenerSet = new CopyOnWriteArraySet<>();
-        mState = ConnectState.STATE_IDLE;
+        this(SESocketChannelManager.getInstance().nextLoop());
+    }
+
+    /**
+     * Create a channel bound to an event loop.
+     *
+     * @param eventLoop loop handling this channel's events
+     */
+    public SESocketChannel(SEEventLoop eventLoop) {
+        if (eventLoop == null) {
+            throw new IllegalArgumentException("Event loop is null.");
+        }
+        mEventLoop = eventLoop;
+        mId = 0;
+        mRegistry = null;
+        mState = STATE_IDLE;
     }
 
-    SESocketChannel(SocketChannel socketChannel) throws IOException {
+    /**
+     * Wrap an accepted channel.
+     *
+     * @param socketChannel accepted channel
+     * @param eventLoop     loop handling this channel's events
+     * @param listener      listener shared by the server's channels, may be null
+     * @param registry      registry of the server's channels, assigns the id
+     * @param sslContext    server TLS context, null for plaintext
+     * @param compression   compression settings, null for none
+     * @throws IOException register failed
+     */
+    SESocketChannel(SocketChannel socketChannel, SEEventLoop eventLoop, SocketChannelStateListener listener,
+                    SEChannelRegistry registry, SSLContext sslContext, SECompression compression) throws IOException {
         if (socketChannel == null || !socketChannel.isConnected()) {
             throw new NotYetConnectedException();
         }
-        mListenerSet = new CopyOnWriteArraySet<>();
-        mChannelEventHandler = new ChannelEventHandler();
-        SelectionKey selectionKey = SESocketChannelManager.getInstance().registerChannel(socketChannel, SelectionKey.OP_READ, mChannelEventHandler);
-        mSocketChannel = socketChannel;
-        mState = ConnectState.STATE_CONNECTED;
-        mSelectionKey = selectionKey;
+        mEventLoop = eventLoop;
+        mId = registry.nextId();
+        mRegistry = registry;
+        mListeners = listener;
+        mCompression = compression != null ? new CompressionCodec(compression) : null;
+        if (sslContext != null) {
+            SSLEngine engine = sslContext.createSSLEngine();
+            engine.setUseClientMode(false);
+            mTransport = new TlsTransport(this, socketChannel, engine,
+                    SESocketChannelManager.getInstance().getTlsTaskExecutor());
+        } else {
+            mTransport = socketChannel;
+        }
+        mState = STATE_CONNECTED;
+        registry.put(mId, this);
+        try {
+            mEventLoop.registerChannel(socketChannel, SelectionKey.OP_READ, this);
+        } catch (IOException ex) {
+            registry.remove(mId, this);
+            throw ex;
+        }
+        if (sslContext != null) {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    startHandshake();
+                }
+            });
+        }
+    }
+
+    /**
+     * Wrap the accepting end of an in-VM connection.
+     *
+     * @param localPipe   pipe this end writes to
+     * @param eventLoop   loop handling this channel's events
+     * @param listener    listener shared by the server's channels, may be null
+     * @param registry    registry of the server's channels, assigns the id
+     * @param compression compression settings, null for none
+     */
+    SESocketChannel(LocalPipe localPipe, SEEventLoop eventLoop, SocketChannelStateListener listener,
+                    SEChannelRegistry registry, SECompression compression) {
+        mEventLoop = eventLoop;
+        mId = registry.nextId();
+        mRegistry = registry;
+        mListeners = listener;
+        mCompression = compression != null ? new CompressionCodec(compression) : null;
+        mTransport = localPipe;
+        mState = STATE_CONNECTED;
+        registry.put(mId, this);
+        localPipe.attach(this);
+    }
+
+    /**
+     * Return the id assigned by the server that accepted this channel, see {@link SEChannelRegistry}.
+     *
+     * @return id, 0 for channels connected by this side
+     */
+    public long getId() {
+        return mId;
     }
 
     /**
@@ -52,8 +236,28 @@ public class SESocketChannel {
      * @param listener SocketChannelStateListener
      * @see SocketChannelStateListener
      */
-    public void registerSocketChannelListener(SocketChannelStateListener listener) {
-        mListenerSet.add(listener);
+    public synchronized void registerSocketChannelListener(SocketChannelStateListener listener) {
+        if (listener == null) {
+            return;
+        }
+        Object listeners = mListeners;
+        if (listeners == null) {
+            mListeners = listener;
+        } else if (listeners instanceof SocketChannelStateListener) {
+            if (!listeners.equals(listener)) {
+                mListeners = new SocketChannelStateListener[]{(SocketChannelStateListener) listeners, listener};
+            }
+        } else {
+            SocketChannelStateListener[] array = (SocketChannelStateListener[]) listeners;
+            for (SocketChannelStateListener registered : array) {
+                if (registered.equals(listener)) {
+                    return;
+                }
+            }
+            SocketChannelStateListener[] newListeners = Arrays.copyOf(array, array.length + 1);
+            newListeners[array.length] = listener;
+            mListeners = newListeners;
+        }
     }
 
     /**
@@ -61,8 +265,28 @@ public class SESocketChannel {
      *
      * @param listener SocketChannelStateListener
      */
-    public void unRegisterSocketChannelListener(SocketChannelStateListener listener) {
-        mListenerSet.remove(listener);
+    public synchronized void unRegisterSocketChannelListener(SocketChannelStateListener listener) {
+        Object listeners = mListeners;
+        if (listeners instanceof SocketChannelStateListener) {
+            if (listeners.equals(listener)) {
+                mListeners = null;
+            }
+        } else if (listeners != null) {
+            SocketChannelStateListener[] array = (SocketChannelStateListener[]) listeners;
+            for (int i = 0; i < array.length; i++) {
+                if (array[i].equals(listener)) {
+                    if (array.length == 2) {
+                        mListeners = array[1 - i];
+                    } else {
+                        SocketChannelStateListener[] newListeners = new SocketChannelStateListener[array.length - 1];
+                        System.arraycopy(array, 0, newListeners, 0, i);
+                        System.arraycopy(array, i + 1, newListeners, i, array.length - i - 1);
+                        mListeners = newListeners;
+                    }
+                    return;
+                }
+            }
+        }
     }
 
     /**
@@ -79,31 +303,92 @@ public class SESocketChannel {
         if (ipAddress == null || ipAddress.length() == 0 || port <= 0) {
             throw new IllegalArgumentException("Remote address or port illegal.");
         }
-        if (ConnectState.STATE_IDLE == mState) {
+        connect(new InetSocketAddress(ipAddress, port), callback);
+    }
+
+    /**
+     * Connect to remote address, a host and port, a unix domain socket address or an in-VM server.
+     * Support sync connection type if callback is null and async connection type if callback not null.
+     * If the socket channel has connected,return.
+     *
+     * @param address  remote address
+     * @param callback ConnectionCallback
+     * @throws Exception Connect exception
+     * @see SEUnixDomainSockets
+     * @see SELocalAddress
+     */
+    public void connect(SocketAddress address, ConnectionCallback callback) throws Exception {
+        connect(address, null, callback);
+    }
+
+    /**
+     * Connect to remote address over TLS, the connect completes once the handshake finished.
+     * The engine is created for the host and port of an {@link InetSocketAddress}, so a reconnect to the
+     * same server resumes the session cached by the context. In-VM connections ignore the context.
+     * Support sync connection type if callback is null and async connection type if callback not null.
+     * A sync TLS connect waits for the handshake on the event loop, so it must not be called from that loop.
+     *
+     * @param address    remote address
+     * @param sslContext client TLS context, null for plaintext
+     * @param callback   ConnectionCallback
+     * @throws Exception Connect or handshake exception
+     * @throws IllegalStateException sync TLS connect on the channel's event loop
+     */
+    public void connect(SocketAddress address, SSLContext sslContext, ConnectionCallback callback) throws Exception {
+        if (address == null) {
+            throw new IllegalArgumentException("Remote address is null.");
+        }
+        if (sslContext != null && callback == null && !(address instanceof SELocalAddress)) {
+            if (mEventLoop.inEventLoop()) {
+                throw new IllegalStateException("A sync TLS connect would wait for its own event loop.");
+            }
+            try {
+                connectAsync(address, sslContext).get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof Exception ? (Exception) cause : ex;
+            }
+            return;
+        }
+        if (STATE_IDLE == mState) {
             mCallback = null;
-            mChannelEventHandler = new ChannelEventHandler();
-            SocketAddress address = new InetSocketAddress(ipAddress, port);
+            mClosing = false;
+            if (address instanceof SELocalAddress) {
+                connectLocal((SELocalAddress) address, callback);
+                return;
+            }
             SocketChannel socketChannel = null;
             SelectionKey selectionKey = null;
             try {
                 if (callback == null) {
-                    mState = ConnectState.STATE_CONNECTING;
+                    mState = STATE_CONNECTING;
                     socketChannel = SocketChannel.open(address);
-                    selectionKey = SESocketChannelManager.getInstance().registerChannel(socketChannel, SelectionKey.OP_READ, mChannelEventHandler);
-                    mState = ConnectState.STATE_CONNECTED;
+                    mTransport = socketChannel;
+                    mState = STATE_CONNECTED;
+                    selectionKey = mEventLoop.registerChannel(socketChannel, SelectionKey.OP_READ, this);
                 } else {
-                    mState = ConnectState.STATE_CONNECTING;
-                    socketChannel = SocketChannel.open();
+                    mState = STATE_CONNECTING;
+                    socketChannel = SEUnixDomainSockets.openSocketChannel(address);
                     socketChannel.configureBlocking(false);
-                    selectionKey = SESocketChannelManager.getInstance().registerChannel(socketChannel, SelectionKey.OP_CONNECT, mChannelEventHandler);
-                    socketChannel.connect(address);
+                    mTransport = sslContext != null ? newClientTransport(socketChannel, address, sslContext) : socketChannel;
                     mCallback = callback;
+                    final SelectionKey connectKey = mEventLoop.registerChannel(socketChannel, 0, this);
+                    selectionKey = connectKey;
+                    final boolean connected = socketChannel.connect(address);
+                    mEventLoop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (connected) {
+                                handleConnected();
+                            } else if (connectKey.isValid()) {
+                                connectKey.interestOps(SelectionKey.OP_CONNECT);
+                            }
+                        }
+                    });
                 }
-                mSocketChannel = socketChannel;
-                mSelectionKey = selectionKey;
             } catch (Exception ex) {
                 ex.printStackTrace();
-                mState = ConnectState.STATE_IDLE;
+                mState = STATE_IDLE;
                 if (selectionKey != null) {
                     selectionKey.cancel();
                 }
@@ -120,35 +405,291 @@ public class SESocketChannel {
         }
     }
 
+    /**
+     * Create the TLS transport of a client connection.
+     *
+     * @param socketChannel socket channel
+     * @param address       remote address
+     * @param sslContext    client TLS context
+     * @return TlsTransport
+     */
+    private TlsTransport newClientTransport(SocketChannel socketChannel, SocketAddress address, SSLContext sslContext) {
+        SSLEngine engine;
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inetAddress = (InetSocketAddress) address;
+            engine = sslContext.createSSLEngine(inetAddress.getHostString(), inetAddress.getPort());
+        } else {
+            engine = sslContext.createSSLEngine();
+        }
+        engine.setUseClientMode(true);
+        return new TlsTransport(this, socketChannel, engine, SESocketChannelManager.getInstance().getTlsTaskExecutor());
+    }
+
+    /**
+     * Connect to an in-VM server. The server accepts on its event loop, a sync connect waits for it.
+     *
+     * @param address  server address
+     * @param callback ConnectionCallback, null for sync connection
+     * @throws Exception no server or the server closed meanwhile
+     */
+    private void connectLocal(SELocalAddress address, ConnectionCallback callback) throws Exception {
+        SEServerSocketChannel server = LocalPipe.lookup(address);
+        final ConnectException refused = new ConnectException("Connection refused: " + address);
+        if (server == null) {
+            throw refused;
+        }
+        mState = STATE_CONNECTING;
+        mCallback = callback;
+        LocalPipe localPipe = new LocalPipe();
+        mTransport = localPipe;
+        CompletableFuture<Boolean> accepted = server.acceptLocal(localPipe.mReverse);
+        if (callback == null) {
+            if (!accepted.get()) {
+                disConnect();
+                throw refused;
+            }
+            mState = STATE_CONNECTED;
+            localPipe.attach(this);
+            return;
+        }
+        accepted.thenAccept(new Consumer<Boolean>() {
+            @Override
+            public void accept(final Boolean result) {
+                mEventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result) {
+                            handleConnected();
+                        } else {
+                            handleConnectFailed(refused);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Connect to remote address without blocking.
+     * The future completes on the event loop, dependent stages added without an executor run there too.
+     * Fails with {@link ConnectionPendingException} while another connect is in progress.
+     *
+     * @param ipAddress remote address.
+     * @param port      Remote port
+     * @return future completed with this channel once connected
+     */
+    public CompletableFuture<SESocketChannel> connectAsync(String ipAddress, int port) {
+        if (ipAddress == null || ipAddress.length() == 0 || port <= 0) {
+            CompletableFuture<SESocketChannel> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalArgumentException("Remote address or port illegal."));
+            return future;
+        }
+        return connectAsync(new InetSocketAddress(ipAddress, port));
+    }
+
+    /**
+     * Connect to remote address, a host and port, a unix domain socket address or an in-VM server, without blocking.
+     *
+     * @param address remote address
+     * @return future completed with this channel once connected
+     * @see #connectAsync(String, int)
+     */
+    public CompletableFuture<SESocketChannel> connectAsync(SocketAddress address) {
+        return connectAsync(address, null);
+    }
+
+    /**
+     * Connect to remote address over TLS without blocking, the future completes once the handshake finished.
+     *
+     * @param address    remote address
+     * @param sslContext client TLS context, null for plaintext
+     * @return future completed with this channel once connected
+     * @see #connect(SocketAddress, SSLContext, ConnectionCallback)
+     */
+    public CompletableFuture<SESocketChannel> connectAsync(SocketAddress address, SSLContext sslContext) {
+        final CompletableFuture<SESocketChannel> future = new CompletableFuture<>();
+        if (STATE_CONNECTED == mState) {
+            future.complete(this);
+            return future;
+        }
+        if (STATE_CONNECTING == mState) {
+            future.completeExceptionally(new ConnectionPendingException());
+            return future;
+        }
+        try {
+            connect(address, sslContext, new ConnectionCallback() {
+                @Override
+                public void onConnectFailed(SESocketChannel channel, Throwable throwable) {
+                    future.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onConnected(SESocketChannel channel) {
+                    future.complete(channel);
+                }
+            });
+        } catch (Exception ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
     /**
      * Disconnect socket channel.
+     * The socket is closed at once, queued outbound data is dropped on the event loop.
      */
     public void disConnect() {
-        mState = ConnectState.STATE_IDLE;
-        SocketChannel socketChannel = mSocketChannel;
+        mState = STATE_IDLE;
+        Object transport = mTransport;
         SelectionKey selectionKey = mSelectionKey;
-        mChannelEventHandler = null;
         mCallback = null;
         mSelectionKey = null;
         if (selectionKey != null) {
             selectionKey.cancel();
         }
-        if (socketChannel != null) {
+        if (transport instanceof LocalPipe) {
+            ((LocalPipe) transport).close();
+        } else if (transport != null) {
+            if (transport instanceof TlsTransport && mEventLoop.inEventLoop()) {
+                ((TlsTransport) transport).closeOutbound();
+            }
             try {
-                socketChannel.close();
+                getSocketChannel().close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        if (mRegistry != null) {
+            mRegistry.remove(mId, this);
+        }
+        if (mEventLoop.inEventLoop()) {
+            handleClosed();
+        } else {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleClosed();
+                }
+            });
+        }
+    }
+
+    /**
+     * Close the channel once the data written so far has been flushed.
+     * Further writes are refused, reading goes on until the close.
+     * The future completes on the event loop.
+     *
+     * @return future completed when the channel is closed
+     */
+    public CompletableFuture<Void> closeAsync() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        if (STATE_IDLE == mState) {
+            future.complete(null);
+            return future;
+        }
+        mClosing = true;
+        if (mEventLoop.inEventLoop()) {
+            closeWhenFlushed(future);
+        } else {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeWhenFlushed(future);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Disconnect now if nothing is queued, otherwise after the queue drained.
+     *
+     * @param future close future
+     */
+    private void closeWhenFlushed(final CompletableFuture<Void> future) {
+        if (STATE_CONNECTED != mState || isFlushed()) {
+            disConnect();
+            future.complete(null);
+        } else if (mCloseFuture == null) {
+            mCloseFuture = future;
+        } else {
+            mCloseFuture.whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void result, Throwable throwable) {
+                    future.complete(null);
+                }
+            });
+        }
+    }
+
+    /**
+     * Release outbound state after disconnect, event loop only.
+     */
+    private void handleClosed() {
+        Object transport = mTransport;
+        if (transport instanceof TlsTransport) {
+            ((TlsTransport) transport).release();
+        }
+        if (mCompression != null) {
+            mCompression.reset();
+        }
+        SETrafficCapture capture = SESocketChannelManager.getInstance().getTrafficCapture();
+        if (capture != null) {
+            capture.onClosed(this);
+        }
+        dropOutbound();
+        mWritable = true;
+        CompletableFuture<Void> closeFuture = mCloseFuture;
+        mCloseFuture = null;
+        if (closeFuture != null) {
+            closeFuture.complete(null);
+        }
     }
 
     /**
      * Return socket channel.
      *
-     * @return SocketChannel
+     * @return SocketChannel, null for in-VM connections
      */
     public SocketChannel getSocketChannel() {
-        return mSocketChannel;
+        Object transport = mTransport;
+        if (transport instanceof TlsTransport) {
+            return ((TlsTransport) transport).getSocketChannel();
+        }
+        return transport instanceof SocketChannel ? (SocketChannel) transport : null;
+    }
+
+    /**
+     * Return the TLS session, which tells the protocol, cipher suite and peer certificates once connected.
+     *
+     * @return SSLSession, null for plaintext connections
+     */
+    public SSLSession getSslSession() {
+        Object transport = mTransport;
+        return transport instanceof TlsTransport ? ((TlsTransport) transport).getSession() : null;
+    }
+
+    /**
+     * Compress the messages of this channel, both ends of the connection need the same settings.
+     * Accepted channels take the server's, see {@link SEServerSocketChannel#setChildCompression}.
+     *
+     * @param compression compression settings, null for none
+     * @throws IllegalStateException the channel is connected or connecting
+     */
+    public void setCompression(SECompression compression) {
+        if (STATE_IDLE != mState) {
+            throw new IllegalStateException("Compression must be set before connecting.");
+        }
+        mCompression = compression != null ? new CompressionCodec(compression) : null;
+    }
+
+    /**
+     * Return the event loop of this channel.
+     *
+     * @return SEEventLoop
+     */
+    public SEEventLoop getEventLoop() {
+        return mEventLoop;
     }
 
     /**
@@ -157,134 +698,1123 @@ public class SESocketChannel {
      * @return Connection State
      */
     public boolean isConnected() {
-        return ConnectState.STATE_CONNECTED == mState;
+        return STATE_CONNECTED == mState;
     }
 
     /**
-     * Write data.
+     * Set inbound watermarks.
+     * Once enabled, every byte delivered to {@link SocketChannelStateListener#onReceivedData} stays
+     * buffered until the consumer calls {@link #markInboundConsumed(int)}. Reading is suspended when
+     * the buffered bytes reach the high watermark and resumed when they drain below the low watermark,
+     * so TCP flow control pushes back on the sender. Both zero disables the watermarks.
      *
-     * @param data Data
+     * @param lowWatermark  low watermark in bytes
+     * @param highWatermark high watermark in bytes
      */
-    public void writeData(byte[] data) {
-        if (ConnectState.STATE_CONNECTED == mState) {
-            try {
-                mSocketChannel.write(ByteBuffer.wrap(data));
-            } catch (NotYetConnectedException | IOException ex) {
-                ex.printStackTrace();
-                disConnect();
-                for (SocketChannelStateListener listener : mListenerSet) {
-                    listener.onDisConnected(SESocketChannel.this);
-                }
-            }
+    public void setInboundWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || highWatermark < lowWatermark || (highWatermark == 0 && lowWatermark != 0)) {
+            throw new IllegalArgumentException("Illegal watermarks: " + lowWatermark + ", " + highWatermark);
+        }
+        mInboundLowWatermark = lowWatermark;
+        mInboundHighWatermark = highWatermark;
+        if (highWatermark == 0) {
+            mInboundPending = 0;
+            mInboundOverflow = false;
+        } else {
+            mInboundOverflow = mInboundPending >= highWatermark;
         }
+        updateInterestOps();
     }
 
     /**
-     * Socket event handler.
+     * Tell the channel that the consumer has processed received bytes.
+     * Only meaningful when inbound watermarks are enabled.
+     *
+     * @param bytes consumed byte count
      */
-    private class ChannelEventHandler implements SESocketChannelManager.ChannelEventHandler {
-        @Override
-        public boolean handleChannelEvent(ChannelEvent event) {
-            switch (event.getEventCode()) {
-                case ChannelEvent.EVENT_CONNECTED:
-                    return handleConnected(event);
-                case ChannelEvent.EVENT_DISCONNECT:
-                    return handleDisConnected(event);
-                case ChannelEvent.EVENT_READ:
-                    return handleReadData(event);
-                case ChannelEvent.EVENT_CONNECT_FAILED:
-                    return handleConnectFailed(event);
-                default:
-                    return false;
-            }
+    public void markInboundConsumed(int bytes) {
+        if (bytes <= 0 || mInboundHighWatermark == 0) {
+            return;
+        }
+        int pending;
+        int current;
+        do {
+            current = mInboundPending;
+            pending = Math.max(current - bytes, 0);
+        } while (!INBOUND_PENDING_UPDATER.compareAndSet(this, current, pending));
+        if (mInboundOverflow && pending < Math.max(mInboundLowWatermark, 1)) {
+            mInboundOverflow = false;
+            updateInterestOps();
         }
     }
 
     /**
-     * Socket channel connect failed.
+     * Return bytes received but not consumed yet.
      *
-     * @param event ChannelEvent
-     * @return result
+     * @return byte count
      */
-    private boolean handleConnectFailed(ChannelEvent event) {
-        if (ConnectState.STATE_CONNECTING == mState) {
-            disConnect();
-            Throwable throwable = null;
-            Object attachment = event.getEventObj();
-            if (attachment != null && attachment instanceof Throwable) {
-                throwable = (Throwable) attachment;
-            }
-            if (mCallback != null) {
-                mCallback.onConnectFailed(SESocketChannel.this, throwable);
-            }
-            mCallback = null;
-            return true;
-        }
-        return false;
+    public int getInboundPendingBytes() {
+        return mInboundPending;
     }
 
     /**
-     * Socket channel connected.
+     * Stop reading from the socket until {@link #resumeReading()}.
+     */
+    public void pauseReading() {
+        mReadPaused = true;
+        updateInterestOps();
+    }
+
+    /**
+     * Resume reading paused by {@link #pauseReading()}.
+     * Reading stays suspended while inbound bytes are above the watermarks.
+     */
+    public void resumeReading() {
+        mReadPaused = false;
+        updateInterestOps();
+    }
+
+    /**
+     * Return whether reading is suspended, manually, by inbound watermarks or by bandwidth limits.
      *
-     * @param event ChannelEvent
-     * @return result
+     * @return true if suspended
      */
-    private boolean handleConnected(ChannelEvent event) {
-        if (ConnectState.STATE_CONNECTING == mState) {
-            mState = ConnectState.STATE_CONNECTED;
-            mSelectionKey.interestOps(SelectionKey.OP_READ);
-            if (mCallback != null) {
-                mCallback.onConnected(SESocketChannel.this);
+    public boolean isReadingPaused() {
+        return mReadPaused || mInboundOverflow || mReadThrottled;
+    }
+
+    /**
+     * Return whether the channel must not read now, paused or waiting for a delegated TLS task.
+     *
+     * @return true if blocked
+     */
+    private boolean isReadBlocked() {
+        Object transport = mTransport;
+        return isReadingPaused() || (transport instanceof TlsTransport && ((TlsTransport) transport).isTaskRunning());
+    }
+
+    /**
+     * Limit the bandwidth of this channel. Can be changed at any time.
+     * Reading is suspended while the ingress bucket is empty and queued data is held back while the
+     * egress bucket is empty; the event loop re-checks throttled channels on its traffic tick.
+     *
+     * @param readBytesPerSecond  ingress limit, zero means unlimited
+     * @param writeBytesPerSecond egress limit, zero means unlimited
+     */
+    public synchronized void setTrafficLimit(long readBytesPerSecond, long writeBytesPerSecond) {
+        mReadBucket = updateBucket(mReadBucket, readBytesPerSecond);
+        mWriteBucket = updateBucket(mWriteBucket, writeBytesPerSecond);
+        mEventLoop.addThrottledChannel(this);
+    }
+
+    /**
+     * Set the rate of a bucket, creating it on the first limit.
+     *
+     * @param bucket         current bucket, null while unlimited
+     * @param bytesPerSecond rate, zero means unlimited
+     * @return bucket, null while unlimited
+     */
+    private static TokenBucket updateBucket(TokenBucket bucket, long bytesPerSecond) {
+        if (bucket == null) {
+            if (bytesPerSecond <= 0) {
+                return null;
             }
-            mCallback = null;
-            return true;
+            bucket = new TokenBucket();
         }
-        return false;
+        bucket.setRate(bytesPerSecond);
+        return bucket;
     }
 
     /**
-     * Socket channel disconnected.
+     * Limit the bandwidth of all channels together. Can be changed at any time.
      *
-     * @param event ChannelEvent
-     * @return result
+     * @param readBytesPerSecond  ingress limit, zero means unlimited
+     * @param writeBytesPerSecond egress limit, zero means unlimited
      */
-    private boolean handleDisConnected(ChannelEvent event) {
-        if (ConnectState.STATE_CONNECTED == mState) {
-            disConnect();
-            for (SocketChannelStateListener listener : mListenerSet) {
-                listener.onDisConnected(SESocketChannel.this);
-            }
-            return true;
+    public static void setGlobalTrafficLimit(long readBytesPerSecond, long writeBytesPerSecond) {
+        SESocketChannelManager manager = SESocketChannelManager.getInstance();
+        manager.getGlobalReadBucket().setRate(readBytesPerSecond);
+        manager.getGlobalWriteBucket().setRate(writeBytesPerSecond);
+    }
+
+    /**
+     * Return bytes read from this channel.
+     *
+     * @return byte count
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Return bytes written to this channel.
+     *
+     * @return byte count
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Return tokens available for reading.
+     *
+     * @return byte count
+     */
+    private long getReadAllowance() {
+        long allowance = SESocketChannelManager.getInstance().getGlobalReadBucket().available();
+        TokenBucket bucket = mReadBucket;
+        return bucket != null ? Math.min(bucket.available(), allowance) : allowance;
+    }
+
+    /**
+     * Return tokens available for writing.
+     *
+     * @return byte count
+     */
+    private long getWriteAllowance() {
+        long allowance = SESocketChannelManager.getInstance().getGlobalWriteBucket().available();
+        TokenBucket bucket = mWriteBucket;
+        return bucket != null ? Math.min(bucket.available(), allowance) : allowance;
+    }
+
+    /**
+     * Account bytes read against the buckets, suspend reading if they ran empty.
+     * The counters are only written by the event loop.
+     *
+     * @param bytes byte count
+     */
+    private void onBytesRead(int bytes) {
+        mBytesRead += bytes;
+        SEChannelMetrics.BYTES_READ.addAndGet(bytes);
+        TokenBucket bucket = mReadBucket;
+        if (bucket != null) {
+            bucket.consume(bytes);
+        }
+        SESocketChannelManager.getInstance().getGlobalReadBucket().consume(bytes);
+        if (getReadAllowance() <= 0 && !mReadThrottled) {
+            mReadThrottled = true;
+            SEChannelMetrics.READ_THROTTLED.incrementAndGet();
+            updateInterestOps();
+            mEventLoop.addThrottledChannel(this);
         }
-        return false;
     }
 
     /**
-     * Socket channel receive data.
+     * Account bytes written against the buckets.
      *
-     * @param event ChannelEvent
-     * @return result
+     * @param bytes byte count
      */
-    private boolean handleReadData(ChannelEvent event) {
-        if (ConnectState.STATE_CONNECTED == mState) {
-            if (event.getEventObj() != null) {
-                final byte[] data = (byte[]) event.getEventObj();
-                for (SocketChannelStateListener listener : mListenerSet) {
-                    listener.onReceivedData(SESocketChannel.this, data);
-                }
+    private void onBytesWritten(long bytes) {
+        if (bytes > 0) {
+            mBytesWritten += bytes;
+            SEChannelMetrics.BYTES_WRITTEN.addAndGet(bytes);
+            TokenBucket bucket = mWriteBucket;
+            if (bucket != null) {
+                bucket.consume(bytes);
             }
-            return true;
+            SESocketChannelManager.getInstance().getGlobalWriteBucket().consume(bytes);
         }
-        return false;
     }
 
     /**
-     * Socket channel state listener.
+     * Hold back queued data until the egress buckets are refilled.
      */
-    public interface SocketChannelStateListener {
-        /**
-         * Socket disconnected.
-         *
+    private void throttleWrite() {
+        if (!mWriteThrottled) {
+            mWriteThrottled = true;
+            SEChannelMetrics.WRITE_THROTTLED.incrementAndGet();
+            mEventLoop.addThrottledChannel(this);
+        }
+    }
+
+    /**
+     * Write at most allowance bytes of the buffer.
+     *
+     * @param buffer    data
+     * @param allowance byte count
+     * @return written byte count
+     * @throws IOException write failed
+     */
+    private int writeLimited(ByteBuffer buffer, long allowance) throws IOException {
+        Object transport = mTransport;
+        if (transport instanceof LocalPipe) {
+            return ((LocalPipe) transport).write(buffer, allowance);
+        }
+        if (transport instanceof TlsTransport) {
+            return ((TlsTransport) transport).write(buffer, allowance);
+        }
+        SocketChannel socketChannel = (SocketChannel) transport;
+        if (allowance >= buffer.remaining()) {
+            return socketChannel.write(buffer);
+        }
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + (int) allowance);
+        try {
+            return socketChannel.write(buffer);
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    /**
+     * Traffic tick of the event loop, resume reading and writing if the buckets allow it.
+     *
+     * @return true if still throttled
+     */
+    boolean handleTrafficTick() {
+        if (STATE_CONNECTED != mState) {
+            mReadThrottled = false;
+            mWriteThrottled = false;
+            return false;
+        }
+        if (mReadThrottled && getReadAllowance() > 0) {
+            mReadThrottled = false;
+        }
+        if (mWriteThrottled && getWriteAllowance() > 0) {
+            mWriteThrottled = false;
+        }
+        updateInterestOps();
+        return mReadThrottled || mWriteThrottled;
+    }
+
+    /**
+     * Update OP_READ according to the pause state and OP_WRITE according to the outbound queue.
+     * Runs on the event loop, calls from other threads are coalesced into one task.
+     */
+    private void updateInterestOps() {
+        if (STATE_CONNECTED != mState) {
+            return;
+        }
+        if (!mEventLoop.inEventLoop()) {
+            if (INTEREST_UPDATE_SCHEDULED_UPDATER.compareAndSet(this, 0, 1)) {
+                Runnable task = mUpdateInterestOpsTask;
+                if (task == null) {
+                    task = new Runnable() {
+                        @Override
+                        public void run() {
+                            mInterestUpdateScheduled = 0;
+                            updateInterestOps();
+                        }
+                    };
+                    mUpdateInterestOpsTask = task;
+                }
+                mEventLoop.execute(task);
+            }
+            return;
+        }
+        Object transport = mTransport;
+        if (transport instanceof LocalPipe) {
+            LocalPipe localPipe = (LocalPipe) transport;
+            if (!isReadingPaused()) {
+                localPipe.mReverse.scheduleRead();
+            }
+            if (mOutboundQueued > 0 && !mWriteThrottled) {
+                localPipe.scheduleWrite();
+            }
+            return;
+        }
+        SelectionKey selectionKey = mSelectionKey;
+        if (selectionKey == null) {
+            return;
+        }
+        try {
+            int interestOps = selectionKey.interestOps();
+            int newInterestOps = isReadBlocked() ? interestOps & ~SelectionKey.OP_READ : interestOps | SelectionKey.OP_READ;
+            boolean writePending = mOutboundQueued > 0 && !mWriteThrottled;
+            if (transport instanceof TlsTransport) {
+                TlsTransport tls = (TlsTransport) transport;
+                writePending = tls.hasPendingOutput() || (writePending && !tls.isHandshaking());
+            }
+            newInterestOps = writePending ? newInterestOps | SelectionKey.OP_WRITE : newInterestOps & ~SelectionKey.OP_WRITE;
+            if (newInterestOps != interestOps) {
+                selectionKey.interestOps(newInterestOps);
+            }
+        } catch (CancelledKeyException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Return how many bytes may be read for the next read event.
+     *
+     * @return byte count
+     */
+    @Override
+    int getReadCapacity() {
+        if (isReadBlocked()) {
+            return 0;
+        }
+        int highWatermark = mInboundHighWatermark;
+        int capacity = highWatermark == 0 ? DEFAULT_READ_CAPACITY : Math.max(highWatermark - mInboundPending, 0);
+        return (int) Math.max(Math.min(capacity, getReadAllowance()), 0);
+    }
+
+    /**
+     * Set outbound watermarks.
+     * The channel turns unwritable when queued bytes reach the high watermark and writable again when
+     * they drain to the low watermark, see {@link SocketChannelStateListener#onWritabilityChanged}.
+     *
+     * @param lowWatermark  low watermark in bytes
+     * @param highWatermark high watermark in bytes
+     */
+    public void setOutboundWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("Illegal watermarks: " + lowWatermark + ", " + highWatermark);
+        }
+        mOutboundLowWatermark = lowWatermark;
+        mOutboundHighWatermark = highWatermark;
+    }
+
+    /**
+     * Return whether pending outbound bytes are below the high watermark.
+     * Producers should stop generating data while the channel is not writable.
+     *
+     * @return true if writable
+     */
+    public boolean isWritable() {
+        return mWritable && mOutboundPending < mOutboundHighWatermark;
+    }
+
+    /**
+     * Return bytes written by the caller but not handed to the socket yet.
+     *
+     * @return byte count
+     */
+    public long getOutboundPendingBytes() {
+        return mOutboundPending;
+    }
+
+    /**
+     * Set the cap on queued outbound bytes across all channels.
+     * When a write pushes the total over the limit, the policy is applied to the channels with the largest
+     * queues until the total falls back under the limit.
+     *
+     * @param limit  limit in bytes, zero or negative disables the cap
+     * @param policy overflow policy
+     */
+    public static void setGlobalOutboundLimit(long limit, OutboundOverflowPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy is null.");
+        }
+        SESocketChannelManager.getInstance().setOutboundLimit(limit, policy);
+    }
+
+    /**
+     * Return queued outbound bytes across all channels.
+     * Queues are only counted while a global outbound limit is set.
+     *
+     * @return byte count
+     */
+    public static long getGlobalOutboundBytes() {
+        return SESocketChannelManager.getInstance().getOutboundBytes();
+    }
+
+    /**
+     * Set the executor running the delegated tasks of TLS handshakes, key exchange and certificate checks,
+     * so they do not stall the event loops. By default a cached pool of daemon threads.
+     *
+     * @param executor executor, null for the default one
+     */
+    public static void setTlsTaskExecutor(Executor executor) {
+        SESocketChannelManager.getInstance().setTlsTaskExecutor(executor);
+    }
+
+    /**
+     * Capture the traffic of all channels into a log, see {@link SETrafficCapture}. Connections are logged
+     * from their next frame on, {@link SETrafficCapture#close()} stops the capture.
+     *
+     * @param capture capture log, null to stop capturing
+     */
+    public static void setTrafficCapture(SETrafficCapture capture) {
+        SESocketChannelManager.getInstance().setTrafficCapture(capture);
+    }
+
+    /**
+     * Write data.
+     * The data is handed to the event loop, which writes what the socket takes and queues the rest until
+     * the socket turns writable.
+     *
+     * @param data Data
+     */
+    public void writeData(byte[] data) {
+        if (STATE_CONNECTED == mState && !mClosing && data != null && data.length > 0) {
+            submitWrite(ByteBuffer.wrap(data), null);
+        }
+    }
+
+    /**
+     * Write data and tell when it is done.
+     * The future completes on the event loop once every byte has been handed to the socket, over TLS once
+     * the records carrying them have, and fails with {@link ClosedChannelException} if the channel is closed
+     * before, or with the write error.
+     *
+     * @param data Data
+     * @return write future
+     */
+    public CompletableFuture<Void> write(byte[] data) {
+        WritePromise promise = new WritePromise();
+        if (STATE_CONNECTED != mState || mClosing) {
+            promise.completeExceptionally(new ClosedChannelException());
+        } else if (data == null || data.length == 0) {
+            promise.complete(null);
+        } else {
+            submitWrite(ByteBuffer.wrap(data), promise);
+        }
+        return promise;
+    }
+
+    /**
+     * Hand a buffer to the event loop.
+     *
+     * @param buffer  data
+     * @param promise write promise, may be null
+     */
+    private void submitWrite(final ByteBuffer buffer, final WritePromise promise) {
+        OUTBOUND_PENDING_UPDATER.addAndGet(this, buffer.remaining());
+        if (mEventLoop.inEventLoop()) {
+            flushOrQueue(buffer, promise);
+        } else {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushOrQueue(buffer, promise);
+                }
+            });
+        }
+    }
+
+    /**
+     * Write the buffer directly if nothing is queued, queue what the socket did not take.
+     *
+     * @param buffer  data
+     * @param promise write promise, may be null
+     */
+    private void flushOrQueue(ByteBuffer buffer, WritePromise promise) {
+        if (STATE_CONNECTED != mState) {
+            OUTBOUND_PENDING_UPDATER.addAndGet(this, -buffer.remaining());
+            if (promise != null) {
+                promise.completeExceptionally(new ClosedChannelException());
+            }
+            return;
+        }
+        if (mCompression != null) {
+            int length = buffer.remaining();
+            buffer = mCompression.encode(buffer);
+            OUTBOUND_PENDING_UPDATER.addAndGet(this, buffer.remaining() - length);
+        }
+        SETrafficCapture capture = SESocketChannelManager.getInstance().getTrafficCapture();
+        if (capture != null) {
+            capture.onWrite(this, buffer);
+        }
+        mWriteOffset += buffer.remaining();
+        try {
+            if (mOutboundQueued == 0 && !mWriteThrottled) {
+                long allowance = getWriteAllowance();
+                int written = 0;
+                if (allowance > 0) {
+                    written = writeLimited(buffer, allowance);
+                    onBytesWritten(written);
+                    OUTBOUND_PENDING_UPDATER.addAndGet(this, -written);
+                    mFlushedOffset += written;
+                }
+                if (buffer.hasRemaining() && allowance <= written) {
+                    throttleWrite();
+                }
+            }
+        } catch (NotYetConnectedException | IOException ex) {
+            ex.printStackTrace();
+            OUTBOUND_PENDING_UPDATER.addAndGet(this, -buffer.remaining());
+            mFlushedOffset += buffer.remaining();
+            handleWriteFailed();
+            if (promise != null) {
+                promise.completeExceptionally(ex);
+            }
+            return;
+        }
+        if (buffer.hasRemaining()) {
+            if (mOutboundQueue == null) {
+                mOutboundQueue = new ArrayDeque<>(OUTBOUND_QUEUE_CAPACITY);
+            }
+            mOutboundQueue.add(buffer);
+            addOutboundQueued(buffer.remaining());
+            updateInterestOps();
+            addWritePromise(promise);
+        } else if (mTransport instanceof TlsTransport) {
+            // The records may still wait in the transport, the promise completes once they reach the socket.
+            addWritePromise(promise);
+            completeWritePromises();
+            updateInterestOps();
+        } else if (promise != null) {
+            promise.complete(null);
+        }
+        updateWritability();
+    }
+
+    /**
+     * Queue a write promise to complete once the stream reaches the current write offset.
+     *
+     * @param promise write promise, may be null
+     */
+    private void addWritePromise(WritePromise promise) {
+        if (promise == null) {
+            return;
+        }
+        promise.mEndOffset = mWriteOffset;
+        if (mWritePromises == null) {
+            mWritePromises = new ArrayDeque<>(OUTBOUND_QUEUE_CAPACITY);
+        }
+        mWritePromises.add(promise);
+    }
+
+    /**
+     * Complete the write promises whose last byte has been handed to the socket.
+     * Over TLS the plaintext of records still pending in the transport does not count yet.
+     */
+    private void completeWritePromises() {
+        if (mWritePromises == null) {
+            return;
+        }
+        long flushedOffset = mFlushedOffset;
+        Object transport = mTransport;
+        if (transport instanceof TlsTransport) {
+            flushedOffset -= ((TlsTransport) transport).getUnflushedBytes();
+        }
+        WritePromise promise;
+        while ((promise = mWritePromises.peek()) != null && promise.mEndOffset - flushedOffset <= 0) {
+            mWritePromises.poll();
+            promise.complete(null);
+        }
+    }
+
+    /**
+     * Flush queued data to the socket.
+     *
+     * @return result
+     */
+    private boolean handleWritable() {
+        if (STATE_CONNECTED != mState) {
+            return false;
+        }
+        Object transport = mTransport;
+        if (transport instanceof TlsTransport) {
+            TlsTransport tls = (TlsTransport) transport;
+            try {
+                if (tls.flush()) {
+                    tls.handshake();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                handleHandshakeFailed(ex);
+                return true;
+            }
+            notifyHandshakeFinished(tls);
+            if (STATE_CONNECTED != mState) {
+                return true;
+            }
+        }
+        long written = 0;
+        try {
+            long allowance = mWriteThrottled ? 0 : getWriteAllowance();
+            int spin = 0;
+            while (mOutboundQueued - written > 0 && allowance > written && spin++ < WRITE_SPIN_COUNT) {
+                ByteBuffer buffer = mOutboundQueue.peek();
+                written += writeLimited(buffer, allowance - written);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                mOutboundQueue.poll();
+            }
+            onBytesWritten(written);
+            if (mOutboundQueued - written > 0 && allowance <= written) {
+                throttleWrite();
+            }
+        } catch (NotYetConnectedException | IOException ex) {
+            ex.printStackTrace();
+            OUTBOUND_PENDING_UPDATER.addAndGet(this, -written);
+            addOutboundQueued(-written);
+            mFlushedOffset += written;
+            completeWritePromises();
+            handleWriteFailed();
+            return true;
+        }
+        OUTBOUND_PENDING_UPDATER.addAndGet(this, -written);
+        addOutboundQueued(-written);
+        mFlushedOffset += written;
+        updateInterestOps();
+        updateWritability();
+        completeWritePromises();
+        if (mCloseFuture != null && isFlushed()) {
+            disConnect();
+        }
+        return true;
+    }
+
+    /**
+     * Return whether everything written has reached the socket, TLS records included.
+     *
+     * @return true if flushed
+     */
+    private boolean isFlushed() {
+        Object transport = mTransport;
+        return mOutboundQueued == 0 && !(transport instanceof TlsTransport && ((TlsTransport) transport).hasPendingOutput());
+    }
+
+    /**
+     * Account bytes entering or leaving the outbound queue against the global outbound cap.
+     * Without a cap nothing is reported, a queue is picked up at its next change once a cap is set.
+     *
+     * @param delta queued bytes change
+     */
+    private void addOutboundQueued(long delta) {
+        long queued = mOutboundQueued;
+        mOutboundQueued = queued + delta;
+        SESocketChannelManager manager = SESocketChannelManager.getInstance();
+        boolean counted = manager.isOutboundLimited() && queued + delta > 0;
+        if (counted || mOutboundCounted) {
+            manager.addOutboundBytes(this, mOutboundCounted ? queued : 0, counted ? queued + delta : 0);
+            mOutboundCounted = counted;
+        }
+    }
+
+    /**
+     * Return the queued outbound bytes, as counted against the global outbound cap.
+     *
+     * @return byte count
+     */
+    long getOutboundQueuedBytes() {
+        return mOutboundQueued;
+    }
+
+    /**
+     * Turn unwritable at the high watermark and writable again at the low watermark, notify listeners on change.
+     */
+    private void updateWritability() {
+        if (STATE_CONNECTED != mState) {
+            return;
+        }
+        long pending = mOutboundPending;
+        if (mWritable && pending >= mOutboundHighWatermark) {
+            mWritable = false;
+            notifyWritabilityChanged();
+        } else if (!mWritable && pending <= mOutboundLowWatermark) {
+            mWritable = true;
+            notifyWritabilityChanged();
+        }
+    }
+
+    /**
+     * Drop all queued outbound data, event loop only.
+     */
+    private void dropOutbound() {
+        long dropped = mOutboundQueued;
+        if (mOutboundQueue != null) {
+            mOutboundQueue.clear();
+        }
+        if (dropped != 0) {
+            OUTBOUND_PENDING_UPDATER.addAndGet(this, -dropped);
+            addOutboundQueued(-dropped);
+        }
+        mFlushedOffset = mWriteOffset;
+        if (mWritePromises != null) {
+            WritePromise promise;
+            while ((promise = mWritePromises.poll()) != null) {
+                promise.completeExceptionally(new ClosedChannelException());
+            }
+        }
+    }
+
+    /**
+     * Apply the global outbound overflow policy to this channel on its event loop.
+     * Called by the manager when the global outbound cap sheds this channel.
+     *
+     * @param policy overflow policy
+     */
+    void shedOutbound(final OutboundOverflowPolicy policy) {
+        if (!mEventLoop.inEventLoop()) {
+            mEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    shedOutbound(policy);
+                }
+            });
+            return;
+        }
+        if (STATE_CONNECTED != mState) {
+            return;
+        }
+        if (OutboundOverflowPolicy.DISCARD_LARGEST == policy) {
+            dropOutbound();
+            updateInterestOps();
+            updateWritability();
+        } else {
+            disConnect();
+            notifyDisConnected();
+        }
+    }
+
+    /**
+     * Socket write failed, disconnect.
+     */
+    private void handleWriteFailed() {
+        if (STATE_CONNECTED != mState) {
+            return;
+        }
+        disConnect();
+        notifyDisConnected();
+    }
+
+    /**
+     * Notify listeners disconnected.
+     */
+    private void notifyDisConnected() {
+        Object listeners = mListeners;
+        if (listeners instanceof SocketChannelStateListener) {
+            ((SocketChannelStateListener) listeners).onDisConnected(this);
+        } else if (listeners != null) {
+            for (SocketChannelStateListener listener : (SocketChannelStateListener[]) listeners) {
+                listener.onDisConnected(this);
+            }
+        }
+    }
+
+    /**
+     * Notify listeners data received.
+     *
+     * @param data bytes read
+     */
+    private void notifyReceivedData(byte[] data) {
+        Object listeners = mListeners;
+        if (listeners instanceof SocketChannelStateListener) {
+            ((SocketChannelStateListener) listeners).onReceivedData(this, data);
+        } else if (listeners != null) {
+            for (SocketChannelStateListener listener : (SocketChannelStateListener[]) listeners) {
+                listener.onReceivedData(this, data);
+            }
+        }
+    }
+
+    /**
+     * Notify listeners writability changed.
+     */
+    private void notifyWritabilityChanged() {
+        boolean writable = mWritable;
+        Object listeners = mListeners;
+        if (listeners instanceof SocketChannelStateListener) {
+            ((SocketChannelStateListener) listeners).onWritabilityChanged(this, writable);
+        } else if (listeners != null) {
+            for (SocketChannelStateListener listener : (SocketChannelStateListener[]) listeners) {
+                listener.onWritabilityChanged(this, writable);
+            }
+        }
+    }
+
+    @Override
+    void onConnected() {
+        handleConnected();
+    }
+
+    @Override
+    void onConnectFailed(Throwable cause) {
+        handleConnectFailed(cause);
+    }
+
+    @Override
+    void onRead(byte[] data) {
+        handleReadData(data);
+    }
+
+    @Override
+    boolean onReadBuffer(ByteBuffer buffer) {
+        Object transport = mTransport;
+        if (!(transport instanceof TlsTransport)) {
+            return false;
+        }
+        if (STATE_CONNECTED == mState) {
+            handleCipherText((TlsTransport) transport, buffer);
+        }
+        return true;
+    }
+
+    @Override
+    void onWritable() {
+        handleWritable();
+    }
+
+    @Override
+    void onDisconnected(Throwable cause) {
+        handleDisConnected();
+    }
+
+    @Override
+    void onKeyChanged(SelectionKey selectionKey) {
+        if (selectionKey.channel() == getSocketChannel()) {
+            mSelectionKey = selectionKey;
+            updateInterestOps();
+        }
+    }
+
+    @Override
+    AdaptiveRecvSizer getRecvSizer() {
+        if (mRecvSizer == null) {
+            mRecvSizer = new AdaptiveRecvSizer();
+        }
+        return mRecvSizer;
+    }
+
+    /**
+     * Socket channel connect failed.
+     *
+     * @param throwable failure
+     * @return result
+     */
+    private boolean handleConnectFailed(Throwable throwable) {
+        if (STATE_CONNECTING == mState) {
+            ConnectionCallback callback = mCallback;
+            disConnect();
+            mCallback = callback;
+            if (mCallback != null) {
+                mCallback.onConnectFailed(SESocketChannel.this, throwable);
+            }
+            mCallback = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Socket channel connected.
+     *
+     * @return result
+     */
+    private boolean handleConnected() {
+        if (STATE_CONNECTING == mState) {
+            mState = STATE_CONNECTED;
+            Object transport = mTransport;
+            if (transport instanceof LocalPipe) {
+                ((LocalPipe) transport).attach(this);
+            } else {
+                mSelectionKey.interestOps(isReadingPaused() ? 0 : SelectionKey.OP_READ);
+                if (transport instanceof TlsTransport) {
+                    startHandshake();
+                    return true;
+                }
+            }
+            if (mCallback != null) {
+                mCallback.onConnected(SESocketChannel.this);
+            }
+            mCallback = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Socket channel disconnected.
+     *
+     * @return result
+     */
+    private boolean handleDisConnected() {
+        if (STATE_CONNECTED == mState) {
+            if (mCallback != null) {
+                handleHandshakeFailed(new SSLException("Connection closed during the TLS handshake."));
+                return true;
+            }
+            disConnect();
+            notifyDisConnected();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Socket channel receive data.
+     *
+     * @param data bytes read
+     * @return result
+     */
+    private boolean handleReadData(byte[] data) {
+        if (STATE_CONNECTED == mState) {
+            Object transport = mTransport;
+            if (transport instanceof TlsTransport) {
+                handleCipherText((TlsTransport) transport, ByteBuffer.wrap(data));
+            } else {
+                handlePlainData(data);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decrypt received ciphertext and handle the plaintext, event loop only.
+     *
+     * @param tls        TlsTransport
+     * @param cipherText ciphertext, only valid during the call
+     */
+    private void handleCipherText(TlsTransport tls, ByteBuffer cipherText) {
+        byte[] data;
+        try {
+            data = tls.unwrap(cipherText);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            handleHandshakeFailed(ex);
+            return;
+        }
+        notifyHandshakeFinished(tls);
+        updateInterestOps();
+        boolean inboundDone = tls.isInboundDone();
+        if (data != null && STATE_CONNECTED == mState) {
+            handlePlainData(data);
+        }
+        if (inboundDone) {
+            handleDisConnected();
+        }
+    }
+
+    /**
+     * Count, capture, decompress and deliver received plaintext, event loop only.
+     *
+     * @param data plaintext
+     */
+    private void handlePlainData(byte[] data) {
+        if (STATE_CONNECTED == mState) {
+            onBytesRead(data.length);
+            SETrafficCapture capture = SESocketChannelManager.getInstance().getTrafficCapture();
+            if (capture != null) {
+                capture.onRead(this, data);
+            }
+            CompressionCodec compression = mCompression;
+            if (compression == null) {
+                deliverData(data);
+            } else {
+                List<byte[]> messages;
+                try {
+                    messages = compression.decode(data);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    handleDisConnected();
+                    return;
+                }
+                for (int i = 0; i < messages.size() && STATE_CONNECTED == mState; i++) {
+                    deliverData(messages.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Account received data against the inbound watermarks and hand it to the listeners.
+     *
+     * @param data received data
+     */
+    private void deliverData(byte[] data) {
+        int highWatermark = mInboundHighWatermark;
+        if (highWatermark > 0 && INBOUND_PENDING_UPDATER.addAndGet(this, data.length) >= highWatermark) {
+            mInboundOverflow = true;
+            updateInterestOps();
+        }
+        notifyReceivedData(data);
+    }
+
+    /**
+     * Begin the TLS handshake of a connected channel, event loop only.
+     */
+    private void startHandshake() {
+        Object transport = mTransport;
+        if (STATE_CONNECTED != mState || !(transport instanceof TlsTransport)) {
+            return;
+        }
+        TlsTransport tls = (TlsTransport) transport;
+        try {
+            tls.beginHandshake();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            handleHandshakeFailed(ex);
+            return;
+        }
+        notifyHandshakeFinished(tls);
+        updateInterestOps();
+    }
+
+    /**
+     * A delegated TLS task finished, go on with the handshake and the ciphertext buffered meanwhile.
+     */
+    void onTlsTaskDone() {
+        Object transport = mTransport;
+        if (STATE_CONNECTED != mState || !(transport instanceof TlsTransport)) {
+            return;
+        }
+        TlsTransport tls = (TlsTransport) transport;
+        try {
+            tls.handshake();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            handleHandshakeFailed(ex);
+            return;
+        }
+        handleCipherText(tls, ByteBuffer.allocate(0));
+    }
+
+    /**
+     * A delegated TLS task threw, the handshake can not go on.
+     *
+     * @param throwable task failure
+     */
+    void onTlsTaskFailed(Throwable throwable) {
+        if (!(mTransport instanceof TlsTransport)) {
+            return;
+        }
+        throwable.printStackTrace();
+        handleHandshakeFailed(throwable);
+    }
+
+    /**
+     * Complete the connect once the TLS handshake finished.
+     *
+     * @param tls TlsTransport
+     */
+    private void notifyHandshakeFinished(TlsTransport tls) {
+        if (tls.takeHandshakeFinished()) {
+            ConnectionCallback callback = mCallback;
+            mCallback = null;
+            if (callback != null) {
+                callback.onConnected(SESocketChannel.this);
+            }
+        }
+    }
+
+    /**
+     * TLS failed, a pending connect fails, a connected channel is disconnected.
+     *
+     * @param throwable failure
+     */
+    private void handleHandshakeFailed(Throwable throwable) {
+        if (STATE_CONNECTED != mState) {
+            return;
+        }
+        ConnectionCallback callback = mCallback;
+        disConnect();
+        if (callback != null) {
+            callback.onConnectFailed(SESocketChannel.this, throwable);
+        } else {
+            notifyDisConnected();
+        }
+    }
+
+    /**
+     * Write future carrying the outbound stream offset of its last byte.
+     */
+    private static final class WritePromise extends CompletableFuture<Void> {
+        private long mEndOffset;
+    }
+
+    /**
+     * Socket channel state listener.
+     */
+    public interface SocketChannelStateListener {
+        /**
+         * Socket disconnected.
+         *
          * @param channel SocketChannel
          */
         void onDisConnected(SESocketChannel channel);
@@ -296,6 +1826,29 @@ public class SESocketChannel {
          * @param data    bytes data
          */
         void onReceivedData(SESocketChannel channel, byte[] data);
+
+        /**
+         * Channel writability changed, see {@link SESocketChannel#isWritable()}. Ignored by default.
+         *
+         * @param channel  SocketChannel
+         * @param writable current writability
+         */
+        default void onWritabilityChanged(SESocketChannel channel, boolean writable) {
+        }
+    }
+
+    /**
+     * Policy applied when the global outbound cap is exceeded.
+     */
+    public enum OutboundOverflowPolicy {
+        /**
+         * Close the channels with the largest outbound queues.
+         */
+        CLOSE_LARGEST,
+        /**
+         * Drop the queued data of the channels with the largest outbound queues.
+         */
+        DISCARD_LARGEST
     }
 
     /**
@@ -1,287 +1,263 @@
 package com.seagle.net.socket;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.Channel;
-import java.nio.channels.NotYetConnectedException;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.nio.channels.spi.AbstractSelectableChannel;
-import java.util.Iterator;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Socket channel manager.
+ * Owns the default event loops and the state shared by all loops.
  *
  * @author : yuanxiudong66@sina.com
  * @since : 2016/4/28
  */
 final class SESocketChannelManager {
-    private volatile Selector mSelector;
-    private volatile boolean mSelecting;
-    private volatile boolean mWaking;
-    private final ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+    /**
+     * Default event loop count, set with -Dseagle.eventLoops.
+     */
+    private static final int DEFAULT_LOOP_COUNT = Math.max(Integer.getInteger("seagle.eventLoops", 1), 1);
+
+    private final SEEventLoop[] mDefaultLoops;
+    private final AtomicInteger mNextLoop = new AtomicInteger();
+    private final TokenBucket mGlobalReadBucket = new TokenBucket();
+    private final TokenBucket mGlobalWriteBucket = new TokenBucket();
+    private final AtomicLong mOutboundBytes = new AtomicLong();
+    private final Set<SESocketChannel> mOutboundChannels = Collections.newSetFromMap(new ConcurrentHashMap<SESocketChannel, Boolean>());
+    private final AtomicBoolean mShedding = new AtomicBoolean();
+    private volatile long mOutboundLimit;
+    private volatile SESocketChannel.OutboundOverflowPolicy mOutboundPolicy = SESocketChannel.OutboundOverflowPolicy.CLOSE_LARGEST;
+
+    private volatile Executor mTlsTaskExecutor;
+    private volatile SETrafficCapture mTrafficCapture;
 
     private volatile static SESocketChannelManager sInstance;
 
-    static synchronized SESocketChannelManager getInstance() {
-        if (sInstance == null) {
-            sInstance = new SESocketChannelManager();
+    static SESocketChannelManager getInstance() {
+        SESocketChannelManager instance = sInstance;
+        if (instance == null) {
+            synchronized (SESocketChannelManager.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new SESocketChannelManager();
+                    sInstance = instance;
+                }
+            }
         }
-        return sInstance;
+        return instance;
     }
 
     private SESocketChannelManager() {
-        mSelecting = false;
+        mDefaultLoops = new SEEventLoop[DEFAULT_LOOP_COUNT];
+        for (int i = 0; i < mDefaultLoops.length; i++) {
+            mDefaultLoops[i] = new SEEventLoop();
+        }
     }
 
     /**
-     * Register socket channel.
+     * Return the default event loops, the array must not be modified.
      *
-     * @param channel     channel
-     * @param interestSet select key set
-     * @param handler     event handler
-     * @return SelectionKey
-     * @throws IOException Socket Exception
+     * @return loops
      */
-    synchronized SelectionKey registerChannel(AbstractSelectableChannel channel, int interestSet,
-                                              ChannelEventHandler handler) throws IOException {
-        if (channel != null) {
-            if (mSelector == null) {
-                mSelector = Selector.open();
-            }
-            channel.configureBlocking(false);
-            //This is too shit.
-            mWaking = true;
-            mSelector.wakeup();
-            SelectionKey selectionKey = channel.register(mSelector, interestSet, handler);
-            mWaking = false;
-            if (!mSelecting) {
-                mSelecting = true;
-                Thread thread = new Thread(new SelectKeyLooper());
-                thread.start();
-            }
-            return selectionKey;
-        }
-        throw new IllegalArgumentException("Illegal channel!");
+    SEEventLoop[] getDefaultLoops() {
+        return mDefaultLoops;
     }
 
     /**
-     * Selector key looper.
+     * Return the default event loop count.
+     *
+     * @return count
      */
-    private class SelectKeyLooper implements Runnable {
-        @Override
-        public void run() {
-            try {
-                while (mSelecting && !Thread.currentThread().isInterrupted()) {
-                    try {
-                        if (mWaking) {
-                            try {
-                                TimeUnit.MILLISECONDS.sleep(50);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                            continue;
-                        }
-                        if (mSelector.select() <= 0) {
-                            continue;
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        break;
-                    }
-                    try {
-                        for (SelectionKey selectionKey : mSelector.keys()) {
-                            System.out.println(selectionKey.interestOps() + "   " + selectionKey.isValid());
-                        }
-                        Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
-                        while (iterator.hasNext()) {
-                            SelectionKey key = iterator.next();
-                            iterator.remove();
-                            if (key.isValid()) {
-                                handleSelectionKey(key);
-                            }
-                        }
-                        mSelector.selectedKeys().clear();
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
+    int getLoopCount() {
+        return mDefaultLoops.length;
+    }
+
+    /**
+     * Set the executor running delegated TLS handshake tasks.
+     *
+     * @param executor executor, null for the default one
+     */
+    void setTlsTaskExecutor(Executor executor) {
+        mTlsTaskExecutor = executor;
+    }
+
+    /**
+     * Return the executor running delegated TLS handshake tasks.
+     * The default one is created on first use, a cached pool of daemon threads.
+     *
+     * @return Executor
+     */
+    synchronized Executor getTlsTaskExecutor() {
+        Executor executor = mTlsTaskExecutor;
+        if (executor == null) {
+            final AtomicInteger threadId = new AtomicInteger();
+            ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SETlsTask-" + threadId.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
                 }
-            } finally {
-                mSelecting = false;
-            }
+            });
+            executor = pool;
+            mTlsTaskExecutor = executor;
         }
+        return executor;
     }
 
     /**
-     * Merge two byte array.
+     * Set the capture log of all channels.
      *
-     * @param bytes1 byte array
-     * @param bytes2 byte array
-     * @return byte array
+     * @param capture capture log, null to stop capturing
      */
-    private byte[] mergeBytes(byte[] bytes1, byte[] bytes2) {
-        int byte1Len = (null != bytes1) ? bytes1.length : 0;
-        int byte2Len = (null != bytes2) ? bytes2.length : 0;
-        if (byte1Len > 0 || byte2Len > 0) {
-            byte[] data = new byte[byte1Len + byte2Len];
-            if (byte1Len > 0) {
-                System.arraycopy(bytes1, 0, data, 0, byte1Len);
-            }
-            if (byte2Len > 0) {
-                System.arraycopy(bytes2, 0, data, byte1Len, byte2Len);
-            }
-            return data;
-        }
-        return null;
+    synchronized void setTrafficCapture(SETrafficCapture capture) {
+        mTrafficCapture = capture;
     }
 
     /**
-     * Dispatch channel event to host channel.
+     * Stop capturing into a log that is being closed, unless another one replaced it.
      *
-     * @param eventCode event code
-     * @param object    attach object
-     * @param handler   event handler
+     * @param capture closed capture log
      */
-    private void dispatchEvent(int eventCode, Object object, ChannelEventHandler handler) {
-        ChannelEvent channelEvent = ChannelEvent.create(eventCode, object);
-        if (handler.handleChannelEvent(channelEvent)) {
-            System.out.println("Event handle success!");
+    synchronized void clearTrafficCapture(SETrafficCapture capture) {
+        if (mTrafficCapture == capture) {
+            mTrafficCapture = null;
         }
-        channelEvent.reuse();
     }
 
     /**
-     * Handle selection key.
+     * Return the capture log of all channels.
      *
-     * @param selectionKey SelectionKey
+     * @return capture log, null if not capturing
      */
-    private void handleSelectionKey(SelectionKey selectionKey) {
-        if (selectionKey.isConnectable()) {
-            System.out.println("isConnectable");
-            handleConnectableKey(selectionKey);
-        } else if (selectionKey.isReadable()) {
-            System.out.println("isReadable");
-            handleReadableKey(selectionKey);
-        } else if (selectionKey.isWritable()) {
-            System.out.println("isWritable");
-            handleWritableKey(selectionKey);
-        } else if (selectionKey.isAcceptable()) {
-            System.out.println("isAcceptable");
-            handleAcceptableKey(selectionKey);
-        }
+    SETrafficCapture getTrafficCapture() {
+        return mTrafficCapture;
     }
 
     /**
-     * Handle connectable key.
+     * Return the next default event loop, round robin.
      *
-     * @param selectionKey SelectionKey
+     * @return SEEventLoop
      */
-    private void handleConnectableKey(SelectionKey selectionKey) {
-        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
-        Object obj = selectionKey.attachment();
-        if (null != obj && obj instanceof ChannelEventHandler) {
-            ChannelEventHandler handler = (ChannelEventHandler) obj;
-            try {
-                if (socketChannel.isConnectionPending()) {
-                    socketChannel.configureBlocking(true);
-                    socketChannel.finishConnect();
-                }
-                socketChannel.configureBlocking(false);
-                dispatchEvent(ChannelEvent.EVENT_CONNECTED, null, handler);
-            } catch (IOException e) {
-                selectionKey.cancel();
-                dispatchEvent(ChannelEvent.EVENT_CONNECT_FAILED, e.getMessage(), handler);
-            }
+    SEEventLoop nextLoop() {
+        if (mDefaultLoops.length == 1) {
+            return mDefaultLoops[0];
         }
+        return mDefaultLoops[(mNextLoop.getAndIncrement() & Integer.MAX_VALUE) % mDefaultLoops.length];
     }
 
     /**
-     * Socket channel client connect accept.
+     * Set the global outbound cap.
      *
-     * @param selectionKey SelectionKey
+     * @param limit  limit in bytes, zero or negative disables the cap
+     * @param policy overflow policy
      */
-    private void handleAcceptableKey(SelectionKey selectionKey) {
-        final Channel socketChannel = selectionKey.channel();
-        Object obj = selectionKey.attachment();
-        if (null != obj && obj instanceof ChannelEventHandler) {
-            if (socketChannel != null) {
-                try {
-                    SocketChannel client = ((ServerSocketChannel) socketChannel).accept();
-                    ChannelEventHandler handler = (ChannelEventHandler) obj;
-                    dispatchEvent(ChannelEvent.EVENT_ACCEPT, client, handler);
-                } catch (Exception ex) {
-                    selectionKey.cancel();
-                    ex.printStackTrace();
-                }
-            }
-        }
+    void setOutboundLimit(long limit, SESocketChannel.OutboundOverflowPolicy policy) {
+        mOutboundPolicy = policy;
+        mOutboundLimit = limit;
+        shedOutbound();
+    }
+
+    /**
+     * Return whether the global outbound cap is set.
+     *
+     * @return true if capped
+     */
+    boolean isOutboundLimited() {
+        return mOutboundLimit > 0;
+    }
+
+    /**
+     * Return queued outbound bytes across all channels.
+     *
+     * @return byte count
+     */
+    long getOutboundBytes() {
+        return mOutboundBytes.get();
     }
 
     /**
-     * Socket channel receive data.
+     * Account queued outbound bytes of a channel.
+     * The channel set is only touched when a queue turns empty or non-empty.
      *
-     * @param selectionKey SelectionKey
+     * @param channel channel
+     * @param before  bytes accounted for the channel so far
+     * @param after   bytes accounted for the channel now
+     */
+    void addOutboundBytes(SESocketChannel channel, long before, long after) {
+        mOutboundBytes.addAndGet(after - before);
+        if (before == 0) {
+            mOutboundChannels.add(channel);
+        } else if (after == 0) {
+            mOutboundChannels.remove(channel);
+        }
+        if (after > before) {
+            shedOutbound();
+        }
+    }
+
+    /**
+     * Apply the overflow policy to the largest queues until the global cap is respected.
+     * Shedding runs on each channel's own loop, so the excess is counted down here instead of re-reading the total,
+     * and shed channels stay in the set until their queue is accounted empty.
      */
-    private void handleReadableKey(SelectionKey selectionKey) {
-        final SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
-        Object obj = selectionKey.attachment();
-        if (null != obj && obj instanceof ChannelEventHandler) {
-            ChannelEventHandler handler = (ChannelEventHandler) obj;
-            byte[] dataBytes = null;
-            try {
-                while (true) {
-                    byteBuffer.clear();
-                    int length = socketChannel.read(byteBuffer);
-                    if (length > 0) {
-                        byteBuffer.flip();
-                        byte[] newData = new byte[byteBuffer.limit()];
-                        byteBuffer.get(newData);
-                        dataBytes = mergeBytes(dataBytes, newData);
-                    } else if (length == 0) {
-                        break;
-                    } else {
-                        socketChannel.close();
-                        throw new IOException("Stream end!");
+    private void shedOutbound() {
+        if (!mShedding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long limit = mOutboundLimit;
+            long excess = limit > 0 ? mOutboundBytes.get() - limit : 0;
+            List<SESocketChannel> shed = null;
+            while (excess > 0) {
+                SESocketChannel largest = null;
+                long largestBytes = 0;
+                for (SESocketChannel channel : mOutboundChannels) {
+                    long bytes = channel.getOutboundQueuedBytes();
+                    if (bytes > largestBytes && (shed == null || !shed.contains(channel))) {
+                        largest = channel;
+                        largestBytes = bytes;
                     }
                 }
-                if (dataBytes != null && dataBytes.length > 0) {
-                    dispatchEvent(ChannelEvent.EVENT_READ, dataBytes, handler);
+                if (largest == null) {
+                    break;
+                }
+                if (shed == null) {
+                    shed = new ArrayList<>();
                 }
-            } catch (NotYetConnectedException | IOException ex) {
-                selectionKey.cancel();
-                dispatchEvent(ChannelEvent.EVENT_DISCONNECT, ex, handler);
+                shed.add(largest);
+                excess -= largestBytes;
+                largest.shedOutbound(mOutboundPolicy);
             }
+        } finally {
+            mShedding.set(false);
         }
     }
 
     /**
-     * Socket channel prepared write data.
+     * Return the process wide ingress bucket.
      *
-     * @param selectionKey SelectionKey
+     * @return TokenBucket
      */
-    private void handleWritableKey(SelectionKey selectionKey) {
-        final Channel socketChannel = selectionKey.channel();
-        Object obj = selectionKey.attachment();
-        if (null != obj && obj instanceof ChannelEventHandler) {
-            if (socketChannel != null) {
-                try {
-                    ChannelEventHandler handler = (ChannelEventHandler) obj;
-                    dispatchEvent(ChannelEvent.EVENT_WRITE, null, handler);
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                    selectionKey.cancel();
-                }
-            }
-        }
+    TokenBucket getGlobalReadBucket() {
+        return mGlobalReadBucket;
     }
 
     /**
-     * Selection event handler。
+     * Return the process wide egress bucket.
+     *
+     * @return TokenBucket
      */
-    interface ChannelEventHandler {
-        boolean handleChannelEvent(ChannelEvent event);
+    TokenBucket getGlobalWriteBucket() {
+        return mGlobalWriteBucket;
     }
+
 }
@@ -0,0 +1,381 @@
+package com.seagle.net.socket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Traffic capture of all channels into a memory mapped, append only log, see
+ * {@link SESocketChannel#setTrafficCapture(SETrafficCapture)}; {@link SECaptureReplay} plays a log back.
+ * <p>
+ * The event loops never touch the file: a captured frame is a timestamp and a copy of the bytes handed to a
+ * lock free queue, a writer thread puts the frames into the mapping. The copy is taken on capture, so the
+ * channel and its listeners may reuse or recycle their arrays and buffers right away; the queued copies are
+ * bounded by the max queued bytes. Frames are dropped, and counted, while the queued bytes exceed that bound
+ * or once the log is full; the loops never wait for the writer or the disk.
+ * <p>
+ * Bytes are captured where the channel meets its transport: received bytes after TLS decryption and before
+ * message decompression, written bytes after compression and before encryption. The log thus holds the plain
+ * byte stream of each connection, replayable over plain TCP to a server with the same compression settings.
+ * <p>
+ * Log format, big endian: a {@link #HEADER_SIZE} byte header of [int magic][int version][long start epoch
+ * millis][long end position], then records of [int length][int connection][long nanos since start]
+ * [byte kind][body]. Connections are numbered from 1 in the order they are first seen; the body of an
+ * {@link #KIND_OPEN} record is [byte accepted] and the UTF-8 remote address. The end position is published
+ * after every batch, a reader stops there.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SETrafficCapture {
+
+    /**
+     * Record kinds.
+     */
+    public static final int KIND_OPEN = 0;
+    public static final int KIND_READ = 1;
+    public static final int KIND_WRITE = 2;
+    public static final int KIND_CLOSE = 3;
+
+    /**
+     * Default log capacity.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+    /**
+     * Default bound of the bytes queued for the writer.
+     */
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_HEADER = 17;
+
+    private static final int MAGIC = 0x53454350;
+    private static final int VERSION = 1;
+    private static final int END_POSITION_OFFSET = 16;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    /**
+     * Writer thread only after the header is written.
+     */
+    private final MappedByteBuffer mBuffer;
+    private final int mMaxQueuedBytes;
+    private final long mStartNanos;
+    private final MpscQueue<Frame> mQueue = new MpscQueue<>();
+    private final AtomicLong mQueuedBytes = new AtomicLong();
+    private final ConcurrentHashMap<SESocketChannel, Integer> mConnections = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextConnection = new AtomicInteger();
+    private final AtomicLong mCapturedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mDroppedBytes = new AtomicLong();
+    private final Thread mWriter;
+    private volatile boolean mFull;
+    private volatile boolean mClosed;
+
+    public SETrafficCapture(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY, DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    /**
+     * Create a log, replacing the file.
+     *
+     * @param file           log file
+     * @param capacity       file size, frames beyond are dropped
+     * @param maxQueuedBytes bound of the bytes waiting for the writer, frames beyond are dropped
+     * @throws IOException map failed
+     */
+    public SETrafficCapture(File file, int capacity, int maxQueuedBytes) throws IOException {
+        if (capacity <= HEADER_SIZE || maxQueuedBytes <= 0) {
+            throw new IllegalArgumentException("Illegal capacity or max queued bytes: " + capacity + ", " + maxQueuedBytes);
+        }
+        mFile = file;
+        mMaxQueuedBytes = maxQueuedBytes;
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            mRandomAccessFile.setLength(0);
+            mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException ex) {
+            mRandomAccessFile.close();
+            throw ex;
+        }
+        mStartNanos = System.nanoTime();
+        mBuffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(HEADER_SIZE);
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "SECapture-" + file.getName());
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Return the log file.
+     *
+     * @return File
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Return the frames written to the log so far.
+     *
+     * @return count
+     */
+    public long getCapturedFrames() {
+        return mCapturedFrames.get();
+    }
+
+    /**
+     * Return the frames dropped because the writer fell behind or the log was full.
+     *
+     * @return count
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * Return the body bytes of the dropped frames.
+     *
+     * @return byte count
+     */
+    public long getDroppedBytes() {
+        return mDroppedBytes.get();
+    }
+
+    /**
+     * Capture a copy of received bytes, event loop only.
+     *
+     * @param channel receiving channel
+     * @param data    bytes
+     */
+    void onRead(SESocketChannel channel, byte[] data) {
+        if (admit(data.length)) {
+            capture(channel, KIND_READ, data.clone());
+        }
+    }
+
+    /**
+     * Capture a copy of written bytes, event loop only. The buffer's position is left as it is.
+     *
+     * @param channel writing channel
+     * @param buffer  bytes from position to limit
+     */
+    void onWrite(SESocketChannel channel, ByteBuffer buffer) {
+        if (admit(buffer.remaining())) {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            capture(channel, KIND_WRITE, data);
+        }
+    }
+
+    /**
+     * Record the end of a connection that was captured, event loop only.
+     *
+     * @param channel closed channel
+     */
+    void onClosed(SESocketChannel channel) {
+        Integer connection = mConnections.remove(channel);
+        if (connection != null) {
+            offer(new Frame(connection, KIND_CLOSE, System.nanoTime() - mStartNanos, null), 0);
+        }
+    }
+
+    /**
+     * Stop capturing and flush the log. Frames captured after the close are dropped.
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        SESocketChannelManager.getInstance().clearTrafficCapture(this);
+        try {
+            mWriter.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        mBuffer.force();
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Return whether a frame of length bytes may be queued, counting it as dropped otherwise.
+     */
+    private boolean admit(int length) {
+        if (length == 0) {
+            return false;
+        }
+        if (mFull || mClosed || mQueuedBytes.get() + length > mMaxQueuedBytes) {
+            mDroppedFrames.incrementAndGet();
+            mDroppedBytes.addAndGet(length);
+            return false;
+        }
+        return true;
+    }
+
+    private void capture(SESocketChannel channel, int kind, byte[] data) {
+        long nanos = System.nanoTime() - mStartNanos;
+        Integer connection = mConnections.get(channel);
+        if (connection == null) {
+            connection = mNextConnection.incrementAndGet();
+            mConnections.put(channel, connection);
+            byte[] address = remoteAddress(channel).getBytes(StandardCharsets.UTF_8);
+            byte[] body = new byte[1 + address.length];
+            body[0] = (byte) (channel.getId() != 0 ? 1 : 0);
+            System.arraycopy(address, 0, body, 1, address.length);
+            offer(new Frame(connection, KIND_OPEN, nanos, body), body.length);
+        }
+        offer(new Frame(connection, kind, nanos, data), data.length);
+    }
+
+    private void offer(Frame frame, int length) {
+        mQueuedBytes.addAndGet(length + RECORD_HEADER);
+        mQueue.offer(frame);
+    }
+
+    /**
+     * Writer thread, copies queued frames into the mapping until closed.
+     */
+    private void drain() {
+        MappedByteBuffer buffer = mBuffer;
+        while (true) {
+            boolean closed = mClosed;
+            Frame frame = mQueue.poll();
+            if (frame == null) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            do {
+                int length = frame.length();
+                mQueuedBytes.addAndGet(-(length + RECORD_HEADER));
+                if (mFull || buffer.remaining() < RECORD_HEADER + length) {
+                    mFull = true;
+                    mDroppedFrames.incrementAndGet();
+                    mDroppedBytes.addAndGet(length);
+                } else {
+                    buffer.putInt(length).putInt(frame.mConnection).putLong(frame.mNanos).put((byte) frame.mKind);
+                    if (frame.mData != null) {
+                        buffer.put(frame.mData);
+                    }
+                    mCapturedFrames.incrementAndGet();
+                }
+                frame = mQueue.poll();
+            } while (frame != null);
+            buffer.putLong(END_POSITION_OFFSET, buffer.position());
+        }
+    }
+
+    private static String remoteAddress(SESocketChannel channel) {
+        SocketChannel socketChannel = channel.getSocketChannel();
+        if (socketChannel != null) {
+            try {
+                SocketAddress address = socketChannel.getRemoteAddress();
+                if (address != null) {
+                    return address.toString();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Read a log, from any process, also while it is being written.
+     *
+     * @param file    log file
+     * @param visitor called for each record in order
+     * @return start of the capture, epoch millis
+     * @throws IOException not a capture log or read failed
+     */
+    public static long read(File file, RecordVisitor visitor) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            if (fileChannel.size() < HEADER_SIZE) {
+                throw new IOException("Not a capture log: " + file);
+            }
+            MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a capture log: " + file);
+            }
+            long startMillis = buffer.getLong();
+            long end = buffer.getLong();
+            if (end < HEADER_SIZE || end > buffer.capacity()) {
+                throw new IOException("Illegal end position: " + end);
+            }
+            buffer.limit((int) end);
+            while (buffer.remaining() >= RECORD_HEADER) {
+                int length = buffer.getInt();
+                int connection = buffer.getInt();
+                long nanos = buffer.getLong();
+                int kind = buffer.get();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Illegal record length: " + length);
+                }
+                byte[] body = new byte[length];
+                buffer.get(body);
+                visitor.onRecord(connection, kind, nanos, body);
+            }
+            return startMillis;
+        }
+    }
+
+    /**
+     * Receives the records of a log.
+     */
+    public interface RecordVisitor {
+        /**
+         * One record.
+         *
+         * @param connection connection number
+         * @param kind       record kind, one of the KIND constants
+         * @param nanos      time since the capture started
+         * @param body       record body
+         */
+        void onRecord(int connection, int kind, long nanos, byte[] body);
+    }
+
+    private static final class Frame {
+        final int mConnection;
+        final int mKind;
+        final long mNanos;
+        /**
+         * Body, null if none.
+         */
+        final byte[] mData;
+
+        Frame(int connection, int kind, long nanos, byte[] data) {
+            mConnection = connection;
+            mKind = kind;
+            mNanos = nanos;
+            mData = data;
+        }
+
+        int length() {
+            return mData != null ? mData.length : 0;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Unix domain socket support for same host peers, available on JDK 16 and later.
+ * The library is built for Java 8, so the JDK API is reached by reflection. A UnixDomainSocketAddress can be
+ * passed wherever {@link SEServerSocketChannel} and {@link SESocketChannel} take a SocketAddress; such
+ * channels run on the same event loops, listeners and write queues as TCP channels, without the TCP stack.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+public final class SEUnixDomainSockets {
+
+    private static final Class<?> ADDRESS_CLASS;
+    private static final Method ADDRESS_OF;
+    private static final Method ADDRESS_GET_PATH;
+    private static final ProtocolFamily UNIX_FAMILY;
+    private static final Method SOCKET_CHANNEL_OPEN;
+    private static final Method SERVER_SOCKET_CHANNEL_OPEN;
+
+    static {
+        Class<?> addressClass = null;
+        Method addressOf = null;
+        Method addressGetPath = null;
+        ProtocolFamily unixFamily = null;
+        Method socketChannelOpen = null;
+        Method serverSocketChannelOpen = null;
+        try {
+            addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+            addressOf = addressClass.getMethod("of", String.class);
+            addressGetPath = addressClass.getMethod("getPath");
+            unixFamily = StandardProtocolFamily.valueOf("UNIX");
+            socketChannelOpen = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            serverSocketChannelOpen = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (Throwable ex) {
+            addressClass = null;
+        }
+        ADDRESS_CLASS = addressClass;
+        ADDRESS_OF = addressOf;
+        ADDRESS_GET_PATH = addressGetPath;
+        UNIX_FAMILY = unixFamily;
+        SOCKET_CHANNEL_OPEN = socketChannelOpen;
+        SERVER_SOCKET_CHANNEL_OPEN = serverSocketChannelOpen;
+    }
+
+    private SEUnixDomainSockets() {
+    }
+
+    /**
+     * Return whether the running JDK supports unix domain sockets.
+     *
+     * @return true on JDK 16 and later
+     */
+    public static boolean isSupported() {
+        return ADDRESS_CLASS != null;
+    }
+
+    /**
+     * Create a unix domain socket address.
+     *
+     * @param path socket file path
+     * @return UnixDomainSocketAddress
+     * @throws UnsupportedOperationException JDK older than 16
+     */
+    public static SocketAddress address(String path) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets need JDK 16 or later.");
+        }
+        try {
+            return (SocketAddress) ADDRESS_OF.invoke(null, path);
+        } catch (InvocationTargetException ex) {
+            throw new IllegalArgumentException(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new UnsupportedOperationException(ex);
+        }
+    }
+
+    /**
+     * Return whether the address is a unix domain socket address.
+     *
+     * @param address address
+     * @return true if unix domain
+     */
+    static boolean isUnixAddress(SocketAddress address) {
+        return ADDRESS_CLASS != null && ADDRESS_CLASS.isInstance(address);
+    }
+
+    /**
+     * Open an unconnected socket channel of the address family.
+     *
+     * @param address remote address
+     * @return SocketChannel
+     * @throws IOException open failed
+     */
+    static SocketChannel openSocketChannel(SocketAddress address) throws IOException {
+        if (isUnixAddress(address)) {
+            return (SocketChannel) invoke(SOCKET_CHANNEL_OPEN, null, UNIX_FAMILY);
+        }
+        return SocketChannel.open();
+    }
+
+    /**
+     * Open an unbound server socket channel of the address family.
+     *
+     * @param address local address
+     * @return ServerSocketChannel
+     * @throws IOException open failed
+     */
+    static ServerSocketChannel openServerSocketChannel(SocketAddress address) throws IOException {
+        if (isUnixAddress(address)) {
+            return (ServerSocketChannel) invoke(SERVER_SOCKET_CHANNEL_OPEN, null, UNIX_FAMILY);
+        }
+        return ServerSocketChannel.open();
+    }
+
+    /**
+     * Delete the socket file a unix domain server left behind, closing the channel does not.
+     *
+     * @param address local address, other families are ignored
+     * @throws IOException delete failed
+     */
+    static void deleteSocketFile(SocketAddress address) throws IOException {
+        if (isUnixAddress(address)) {
+            Files.deleteIfExists((Path) invoke(ADDRESS_GET_PATH, address));
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.seagle.net.socket;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Array backed replacement of the selector's selected key set.
+ * The selector only adds keys, so add is an append without hashing, and the loop walks the keys by index.
+ * Installed by reflection into the JDK selector, see {@link #install(Selector)}.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class SelectedSelectionKeySet extends AbstractSet<SelectionKey> {
+
+    private SelectionKey[] mKeys = new SelectionKey[1024];
+    private int mSize;
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null) {
+            return false;
+        }
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize << 1);
+        }
+        mKeys[mSize++] = key;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            private int mIndex;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < mSize;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return mKeys[mIndex++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Return the key at index.
+     *
+     * @param index index
+     * @return SelectionKey
+     */
+    SelectionKey get(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Forget all keys, clearing only the used slots.
+     */
+    void reset() {
+        Arrays.fill(mKeys, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Replace the selected key set of a JDK selector.
+     * Uses sun.misc.Unsafe when available, since plain reflection into sun.nio.ch is blocked on newer JDKs,
+     * then falls back to setAccessible.
+     *
+     * @param selector selector, not selecting yet
+     * @return installed set, or null if the selector does not allow it
+     */
+    static SelectedSelectionKeySet install(Selector selector) {
+        try {
+            Class<?> selectorImplClass = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+            if (!selectorImplClass.isInstance(selector)) {
+                return null;
+            }
+            Field selectedKeysField = selectorImplClass.getDeclaredField("selectedKeys");
+            Field publicSelectedKeysField = selectorImplClass.getDeclaredField("publicSelectedKeys");
+            SelectedSelectionKeySet keySet = new SelectedSelectionKeySet();
+            if (!installWithUnsafe(selector, selectedKeysField, publicSelectedKeysField, keySet)) {
+                selectedKeysField.setAccessible(true);
+                publicSelectedKeysField.setAccessible(true);
+                selectedKeysField.set(selector, keySet);
+                publicSelectedKeysField.set(selector, keySet);
+            }
+            return keySet;
+        } catch (Throwable ex) {
+            return null;
+        }
+    }
+
+    private static boolean installWithUnsafe(Selector selector, Field selectedKeysField, Field publicSelectedKeysField,
+                                             SelectedSelectionKeySet keySet) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            Method objectFieldOffset = unsafeClass.getMethod("objectFieldOffset", Field.class);
+            Method putObject = unsafeClass.getMethod("putObject", Object.class, long.class, Object.class);
+            long selectedKeysOffset = (Long) objectFieldOffset.invoke(unsafe, selectedKeysField);
+            long publicSelectedKeysOffset = (Long) objectFieldOffset.invoke(unsafe, publicSelectedKeysField);
+            putObject.invoke(unsafe, selector, selectedKeysOffset, keySet);
+            putObject.invoke(unsafe, selector, publicSelectedKeysOffset, keySet);
+            return true;
+        } catch (Throwable ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.seagle.net.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * TLS of one {@link SESocketChannel}, driven by its event loop with an {@link SSLEngine}.
+ * Received records are unwrapped straight from the loop's read buffer; a partial record and outbound
+ * ciphertext are staged in direct buffers borrowed from the loop's pool and given back as soon as they are
+ * empty, so an idle connection holds none. One flush wraps as many records as fit the largest pool buffer
+ * and hands them to the socket in a single write. Delegated handshake tasks run on the task executor, the
+ * engine is left alone until they are done. Everything but the constructor runs on the event loop.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class TlsTransport {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SESocketChannel mChannel;
+    private final SocketChannel mSocketChannel;
+    private final SSLEngine mEngine;
+    private final Executor mTaskExecutor;
+    private BufferPool mPool;
+    private ByteBuffer mNetIn;
+    private ByteBuffer mNetOut;
+    private int mUnflushedPlain;
+    private boolean mHandshaking = true;
+    private boolean mHandshakeFinished;
+    private boolean mTaskRunning;
+    private boolean mInboundDone;
+
+    TlsTransport(SESocketChannel channel, SocketChannel socketChannel, SSLEngine engine, Executor taskExecutor) {
+        mChannel = channel;
+        mSocketChannel = socketChannel;
+        mEngine = engine;
+        mTaskExecutor = taskExecutor;
+    }
+
+    SocketChannel getSocketChannel() {
+        return mSocketChannel;
+    }
+
+    SSLSession getSession() {
+        return mEngine.getSession();
+    }
+
+    /**
+     * Return whether a delegated task runs, the channel does not read meanwhile.
+     *
+     * @return true while a task runs
+     */
+    boolean isTaskRunning() {
+        return mTaskRunning;
+    }
+
+    /**
+     * Return whether application data has to wait, for the initial handshake or a delegated task.
+     *
+     * @return true while handshaking
+     */
+    boolean isHandshaking() {
+        return mHandshaking || mTaskRunning;
+    }
+
+    /**
+     * Return whether the initial handshake finished since the last call.
+     *
+     * @return true once
+     */
+    boolean takeHandshakeFinished() {
+        boolean finished = mHandshakeFinished;
+        mHandshakeFinished = false;
+        return finished;
+    }
+
+    /**
+     * Return whether the peer sent close_notify.
+     *
+     * @return true if closed by the peer
+     */
+    boolean isInboundDone() {
+        return mInboundDone;
+    }
+
+    /**
+     * Return whether ciphertext waits for the socket to turn writable.
+     *
+     * @return true if pending
+     */
+    boolean hasPendingOutput() {
+        return mNetOut != null;
+    }
+
+    /**
+     * Start the handshake, the client side sends its hello.
+     *
+     * @throws IOException handshake failed
+     */
+    void beginHandshake() throws IOException {
+        mEngine.beginHandshake();
+        handshake();
+    }
+
+    /**
+     * Drive the handshake as far as it goes without more input.
+     *
+     * @throws IOException handshake failed
+     */
+    void handshake() throws IOException {
+        while (!mTaskRunning) {
+            switch (mEngine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    return;
+                case NEED_WRAP:
+                    if (!flush()) {
+                        return;
+                    }
+                    if (wrap(EMPTY) == 0 || mNetOut != null) {
+                        return;
+                    }
+                    break;
+                case FINISHED:
+                case NOT_HANDSHAKING:
+                    if (mHandshaking) {
+                        mHandshaking = false;
+                        mHandshakeFinished = true;
+                    }
+                    return;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Hand pending ciphertext to the socket.
+     *
+     * @return true if nothing is pending any more
+     * @throws IOException write failed
+     */
+    boolean flush() throws IOException {
+        ByteBuffer netOut = mNetOut;
+        if (netOut == null) {
+            return true;
+        }
+        mSocketChannel.write(netOut);
+        if (netOut.hasRemaining()) {
+            return false;
+        }
+        mNetOut = null;
+        mUnflushedPlain = 0;
+        pool().release(netOut);
+        return true;
+    }
+
+    /**
+     * Return the plaintext of the last {@link #write(ByteBuffer, long)} whose records still wait in the
+     * pending ciphertext, it has not reached the socket yet.
+     *
+     * @return byte count
+     */
+    int getUnflushedBytes() {
+        return mUnflushedPlain;
+    }
+
+    /**
+     * Encrypt and write application data, nothing before the handshake finished or while ciphertext is pending.
+     *
+     * @param src       plaintext
+     * @param allowance max plaintext bytes
+     * @return plaintext bytes consumed
+     * @throws IOException write failed
+     */
+    int write(ByteBuffer src, long allowance) throws IOException {
+        if (isHandshaking() || !flush()) {
+            return 0;
+        }
+        int limit = src.limit();
+        int position = src.position();
+        if (allowance < src.remaining()) {
+            src.limit(position + (int) allowance);
+        }
+        try {
+            wrap(src);
+        } finally {
+            src.limit(limit);
+        }
+        int consumed = src.position() - position;
+        if (mEngine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            handshake();
+        }
+        mUnflushedPlain = mNetOut != null ? consumed : 0;
+        return consumed;
+    }
+
+    /**
+     * Decrypt received ciphertext. Complete records are unwrapped straight from the given buffer, usually the
+     * loop's pooled read buffer; only a partial record, or what arrives while a delegated task runs, is staged
+     * in a buffer of its own until the rest arrives.
+     *
+     * @param data ciphertext, only valid during the call, empty to go on with what is staged
+     * @return plaintext, null if none
+     * @throws IOException bad record or handshake failed
+     */
+    byte[] unwrap(ByteBuffer data) throws IOException {
+        byte[] plain = null;
+        if (mNetIn != null && !mTaskRunning) {
+            // Complete the staged record, then go on without staging once nothing is left of it.
+            do {
+                int limit = data.limit();
+                data.limit(data.position() + Math.min(mNetIn.remaining(), data.remaining()));
+                mNetIn.put(data);
+                data.limit(limit);
+                mNetIn.flip();
+                try {
+                    plain = concat(plain, unwrapRecords(mNetIn));
+                } finally {
+                    mNetIn.compact();
+                }
+            } while (data.hasRemaining() && mNetIn.position() > 0 && mNetIn.hasRemaining()
+                    && !mTaskRunning && !mInboundDone);
+            if (mNetIn.position() == 0) {
+                pool().release(mNetIn);
+                mNetIn = null;
+            }
+        }
+        if (mNetIn == null && !mTaskRunning && !mInboundDone && data.hasRemaining()) {
+            plain = concat(plain, unwrapRecords(data));
+        }
+        if (data.hasRemaining() && !mInboundDone) {
+            stage(data);
+        }
+        return plain;
+    }
+
+    /**
+     * Keep ciphertext that can not be unwrapped yet.
+     *
+     * @param data ciphertext
+     */
+    private void stage(ByteBuffer data) {
+        if (mNetIn == null) {
+            mNetIn = pool().acquire(BufferPool.MAX_SIZE);
+        }
+        if (mNetIn.remaining() < data.remaining()) {
+            // Only while a delegated task runs, the channel stops reading until it is done.
+            ByteBuffer grown = ByteBuffer.allocate(mNetIn.position() + data.remaining());
+            mNetIn.flip();
+            grown.put(mNetIn);
+            pool().release(mNetIn);
+            mNetIn = grown;
+        }
+        mNetIn.put(data);
+    }
+
+    /**
+     * Queue close_notify and try to send it, the socket is closed right after.
+     */
+    void closeOutbound() {
+        mEngine.closeOutbound();
+        try {
+            if (flush()) {
+                wrap(EMPTY);
+                flush();
+            }
+        } catch (IOException ex) {
+            // The close goes on without close_notify.
+        }
+    }
+
+    /**
+     * Give the borrowed buffers back to the pool.
+     */
+    void release() {
+        if (mNetIn != null) {
+            pool().release(mNetIn);
+            mNetIn = null;
+        }
+        if (mNetOut != null) {
+            pool().release(mNetOut);
+            mNetOut = null;
+        }
+    }
+
+    /**
+     * Wrap into a new pending output buffer and flush it, nothing may be pending before.
+     *
+     * @param src plaintext
+     * @return ciphertext bytes produced
+     * @throws IOException wrap or write failed
+     */
+    private int wrap(ByteBuffer src) throws IOException {
+        ByteBuffer netOut = pool().acquire(BufferPool.MAX_SIZE);
+        try {
+            while (true) {
+                SSLEngineResult result = mEngine.wrap(src, netOut);
+                if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesProduced() == 0) {
+                    break;
+                }
+                if (!src.hasRemaining() && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    break;
+                }
+            }
+        } catch (SSLException ex) {
+            pool().release(netOut);
+            throw ex;
+        }
+        netOut.flip();
+        int produced = netOut.remaining();
+        if (produced > 0) {
+            mNetOut = netOut;
+            flush();
+        } else {
+            pool().release(netOut);
+        }
+        return produced;
+    }
+
+    /**
+     * Unwrap every complete record of a flipped ciphertext buffer.
+     *
+     * @param netIn ciphertext
+     * @return plaintext, null if none
+     * @throws IOException bad record or handshake failed
+     */
+    private byte[] unwrapRecords(ByteBuffer netIn) throws IOException {
+        byte[] plain = null;
+        ByteBuffer appIn = pool().acquire(BufferPool.MAX_SIZE);
+        try {
+            while (netIn.hasRemaining() && !mTaskRunning) {
+                SSLEngineResult result = mEngine.unwrap(netIn, appIn);
+                SSLEngineResult.Status status = result.getStatus();
+                if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    if (appIn.position() == 0) {
+                        throw new SSLException("Record larger than " + appIn.capacity() + " bytes.");
+                    }
+                    plain = drain(plain, appIn);
+                    continue;
+                }
+                if (status == SSLEngineResult.Status.CLOSED) {
+                    mInboundDone = true;
+                    break;
+                }
+                if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    break;
+                }
+                if (mHandshaking || mEngine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                    handshake();
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+            }
+            plain = drain(plain, appIn);
+        } finally {
+            pool().release(appIn);
+        }
+        return plain;
+    }
+
+    private void runDelegatedTasks() {
+        mTaskRunning = true;
+        mTaskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Throwable failure = null;
+                try {
+                    Runnable task;
+                    while ((task = mEngine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                } catch (Throwable throwable) {
+                    failure = throwable;
+                }
+                final Throwable error = failure;
+                mChannel.getEventLoop().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTaskRunning = false;
+                        if (error != null) {
+                            mChannel.onTlsTaskFailed(error);
+                        } else {
+                            mChannel.onTlsTaskDone();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private BufferPool pool() {
+        if (mPool == null) {
+            mPool = mChannel.getEventLoop().getDirectBufferPool();
+        }
+        return mPool;
+    }
+
+    private static byte[] drain(byte[] plain, ByteBuffer appIn) {
+        if (appIn.position() == 0) {
+            return plain;
+        }
+        appIn.flip();
+        byte[] data = new byte[appIn.remaining()];
+        appIn.get(data);
+        appIn.clear();
+        return concat(plain, data);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        byte[] data = new byte[first.length + second.length];
+        System.arraycopy(first, 0, data, 0, first.length);
+        System.arraycopy(second, 0, data, first.length, second.length);
+        return data;
+    }
+}
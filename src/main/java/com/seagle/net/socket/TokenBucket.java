@@ -0,0 +1,77 @@
+package com.seagle.net.socket;
+
+/**
+ * Token bucket for bandwidth shaping.
+ * Tokens are bytes, refilled by elapsed time at the configured rate and capped at one second of traffic.
+ * The bucket may go into debt when a read or write overshoots the available tokens.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private volatile long mRate;
+    private long mTokens;
+    private long mLastRefill;
+
+    /**
+     * Set rate.
+     *
+     * @param bytesPerSecond rate, zero or negative means unlimited
+     */
+    synchronized void setRate(long bytesPerSecond) {
+        mRate = Math.max(bytesPerSecond, 0);
+        mTokens = mRate;
+        mLastRefill = System.nanoTime();
+    }
+
+    /**
+     * Return rate.
+     *
+     * @return bytes per second, zero means unlimited
+     */
+    long getRate() {
+        return mRate;
+    }
+
+    /**
+     * Return available tokens.
+     * An unlimited bucket answers without taking its lock.
+     *
+     * @return bytes, Long.MAX_VALUE if unlimited
+     */
+    long available() {
+        if (mRate == 0) {
+            return Long.MAX_VALUE;
+        }
+        synchronized (this) {
+            long rate = mRate;
+            if (rate == 0) {
+                return Long.MAX_VALUE;
+            }
+            long now = System.nanoTime();
+            long elapsed = now - mLastRefill;
+            long refill = elapsed >= NANOS_PER_SECOND ? rate : rate * elapsed / NANOS_PER_SECOND;
+            if (refill > 0) {
+                mTokens = Math.min(mTokens + refill, rate);
+                mLastRefill = now;
+            }
+            return mTokens;
+        }
+    }
+
+    /**
+     * Take tokens.
+     *
+     * @param bytes byte count
+     */
+    void consume(long bytes) {
+        if (mRate == 0) {
+            return;
+        }
+        synchronized (this) {
+            mTokens -= bytes;
+        }
+    }
+}
@@ -95,7 +95,7 @@ public class UDPSocketChannel {
                 mDatagramChannel = DatagramChannel.open();
                 mDatagramChannel.configureBlocking(false);
                 mChannelEventHandler = new UdpChannelEventHandler();
-                mSelectionKey = SESocketChannelManager.getInstance().registerChannel(mDatagramChannel, SelectionKey.OP_READ, mChannelEventHandler);
+                mSelectionKey = SESocketChannelManager.getInstance().nextLoop().registerChannel(mDatagramChannel, SelectionKey.OP_READ, mChannelEventHandler);
                 if (mSelectionKey != null) {
                     mSelectionKey.interestOps(SelectionKey.OP_READ);
                     mDatagramChannel.connect(new InetSocketAddress("127.0.0.1", mUdpPort));
@@ -163,28 +163,32 @@ public class UDPSocketChannel {
     /**
      * 读取到数据
      *
-     * @param event 事件
+     * @param data 数据
      */
-    private boolean handleReadData(ChannelEvent event) {
+    private boolean handleReadData(byte[] data) {
         if (mStarted) {
-            if (event.getEventObj() != null) {
-                final byte[] data = (byte[]) event.getEventObj();
-            }
             return true;
         }
         return false;
     }
 
-    private class UdpChannelEventHandler implements SESocketChannelManager.ChannelEventHandler {
+    private class UdpChannelEventHandler extends SEEventLoop.ChannelEventHandler {
+
+        @Override
+        void onRead(byte[] data) {
+            handleReadData(data);
+        }
 
         @Override
-        public boolean handleChannelEvent(ChannelEvent event) {
-            switch (event.getEventCode()) {
-                case ChannelEvent.EVENT_READ:
-                    return handleReadData(event);
-                default:
-                    return false;
+        void onKeyChanged(SelectionKey selectionKey) {
+            if (mSelectionKey != null) {
+                mSelectionKey = selectionKey;
             }
         }
+
+        @Override
+        int getReadCapacity() {
+            return Integer.MAX_VALUE;
+        }
     }
 }
@@ -0,0 +1,205 @@
+package com.seagle.net.socket;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Off heap memory access with explicit ordering, through sun.misc.Unsafe.
+ * The library is built for Java 8, where neither VarHandles nor ordered ByteBuffer access exist, so Unsafe is
+ * reached by reflection and its methods are bound to constant method handles, which the JIT inlines.
+ * All addresses are absolute, callers keep the memory alive.
+ *
+ * @author : yuanxiudong66@sina.com
+ * @since : 2016/4/28
+ */
+final class UnsafeMemory {
+
+    private static final MethodHandle GET_INT;
+    private static final MethodHandle PUT_INT;
+    private static final MethodHandle GET_INT_VOLATILE;
+    private static final MethodHandle PUT_ORDERED_INT;
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_ORDERED_LONG;
+    private static final MethodHandle COPY_MEMORY;
+    private static final long BUFFER_ADDRESS_OFFSET;
+    private static final long BYTE_ARRAY_BASE_OFFSET;
+
+    static {
+        MethodHandle getInt = null;
+        MethodHandle putInt = null;
+        MethodHandle getIntVolatile = null;
+        MethodHandle putOrderedInt = null;
+        MethodHandle getLong = null;
+        MethodHandle getLongVolatile = null;
+        MethodHandle putOrderedLong = null;
+        MethodHandle copyMemory = null;
+        long bufferAddressOffset = -1;
+        long byteArrayBaseOffset = -1;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            getInt = lookup.findVirtual(unsafeClass, "getInt",
+                    MethodType.methodType(int.class, Object.class, long.class)).bindTo(unsafe);
+            putInt = lookup.findVirtual(unsafeClass, "putInt",
+                    MethodType.methodType(void.class, Object.class, long.class, int.class)).bindTo(unsafe);
+            getIntVolatile = lookup.findVirtual(unsafeClass, "getIntVolatile",
+                    MethodType.methodType(int.class, Object.class, long.class)).bindTo(unsafe);
+            putOrderedInt = lookup.findVirtual(unsafeClass, "putOrderedInt",
+                    MethodType.methodType(void.class, Object.class, long.class, int.class)).bindTo(unsafe);
+            getLong = lookup.findVirtual(unsafeClass, "getLong",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            putOrderedLong = lookup.findVirtual(unsafeClass, "putOrderedLong",
+                    MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            copyMemory = lookup.findVirtual(unsafeClass, "copyMemory",
+                    MethodType.methodType(void.class, Object.class, long.class, Object.class, long.class, long.class))
+                    .bindTo(unsafe);
+            bufferAddressOffset = (Long) unsafeClass.getMethod("objectFieldOffset", Field.class)
+                    .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+            byteArrayBaseOffset = (Integer) unsafeClass.getMethod("arrayBaseOffset", Class.class)
+                    .invoke(unsafe, byte[].class);
+        } catch (Throwable ex) {
+            getInt = null;
+        }
+        GET_INT = getInt;
+        PUT_INT = putInt;
+        GET_INT_VOLATILE = getIntVolatile;
+        PUT_ORDERED_INT = putOrderedInt;
+        GET_LONG = getLong;
+        GET_LONG_VOLATILE = getLongVolatile;
+        PUT_ORDERED_LONG = putOrderedLong;
+        COPY_MEMORY = copyMemory;
+        BUFFER_ADDRESS_OFFSET = bufferAddressOffset;
+        BYTE_ARRAY_BASE_OFFSET = byteArrayBaseOffset;
+    }
+
+    private UnsafeMemory() {
+    }
+
+    /**
+     * Return whether Unsafe could be reached.
+     *
+     * @return true if supported
+     */
+    static boolean isSupported() {
+        return GET_INT != null;
+    }
+
+    /**
+     * Return the base address of a direct buffer.
+     *
+     * @param buffer direct buffer
+     * @return address
+     */
+    static long address(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer is not direct.");
+        }
+        try {
+            return (long) GET_LONG.invokeExact((Object) buffer, BUFFER_ADDRESS_OFFSET);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static int getInt(long address) {
+        try {
+            return (int) GET_INT.invokeExact((Object) null, address);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static void putInt(long address, int value) {
+        try {
+            PUT_INT.invokeExact((Object) null, address, value);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static int getIntVolatile(long address) {
+        try {
+            return (int) GET_INT_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Store with release semantics: earlier writes become visible no later than this one.
+     *
+     * @param address address
+     * @param value   value
+     */
+    static void putOrderedInt(long address, int value) {
+        try {
+            PUT_ORDERED_INT.invokeExact((Object) null, address, value);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static long getLongVolatile(long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Store with release semantics: earlier writes become visible no later than this one.
+     *
+     * @param address address
+     * @param value   value
+     */
+    static void putOrderedLong(long address, long value) {
+        try {
+            PUT_ORDERED_LONG.invokeExact((Object) null, address, value);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Copy array bytes to memory.
+     *
+     * @param src     source array
+     * @param offset  array offset
+     * @param address destination address
+     * @param length  byte count
+     */
+    static void copyFromArray(byte[] src, int offset, long address, int length) {
+        try {
+            COPY_MEMORY.invokeExact((Object) src, BYTE_ARRAY_BASE_OFFSET + offset, (Object) null, address, (long) length);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Copy memory bytes to an array.
+     *
+     * @param address source address
+     * @param dst     destination array
+     * @param offset  array offset
+     * @param length  byte count
+     */
+    static void copyToArray(long address, byte[] dst, int offset, int length) {
+        try {
+            COPY_MEMORY.invokeExact((Object) null, address, (Object) dst, BYTE_ARRAY_BASE_OFFSET + offset, (long) length);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveRecvSizerTest {
+
+    @Test
+    public void growWhenFilled() {
+        AdaptiveRecvSizer sizer = new AdaptiveRecvSizer();
+        assertEquals(1024, sizer.nextSize());
+        sizer.record(1024, 1024);
+        assertEquals(2048, sizer.nextSize());
+        for (int i = 0; i < 20; i++) {
+            sizer.record(sizer.nextSize(), sizer.nextSize());
+        }
+        assertEquals(BufferPool.MAX_SIZE, sizer.nextSize());
+    }
+
+    @Test
+    public void shrinkAfterConsecutiveSmallReads() {
+        AdaptiveRecvSizer sizer = new AdaptiveRecvSizer();
+        sizer.record(10, 1024);
+        assertEquals(1024, sizer.nextSize());
+        sizer.record(10, 1024);
+        assertEquals(512, sizer.nextSize());
+        sizer.record(300, 512);
+        sizer.record(400, 512);
+        assertEquals(512, sizer.nextSize());
+    }
+
+    @Test
+    public void poolSizeClasses() {
+        BufferPool pool = new BufferPool(false);
+        ByteBuffer buffer = pool.acquire(1000);
+        assertEquals(1024, buffer.capacity());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(1024));
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).capacity());
+    }
+}
@@ -0,0 +1,241 @@
+package com.seagle.net.socket;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+    private static final int PORT = 55670;
+
+    @Test
+    public void rejectAboveConnectionLimit() throws Exception {
+        long rejectedBefore = SEChannelMetrics.getRejectedConnections();
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        server.setMaxConnections(2);
+        server.startServer();
+        List<SocketChannel> clients = new ArrayList<>();
+        clients.add(connect("127.0.0.1", PORT));
+        clients.add(connect("127.0.0.1", PORT));
+        assertTrue(isClosedByPeer(connect("127.0.0.1", PORT)));
+        assertEquals(1, server.getRejectedConnections(SEServerSocketChannel.RejectReason.MAX_CONNECTIONS));
+        awaitSize(server, 2);
+
+        clients.remove(0).close();
+        awaitSize(server, 1);
+        SocketChannel admitted = connect("127.0.0.1", PORT);
+        assertFalse(isClosedByPeer(admitted));
+        clients.add(admitted);
+        assertEquals(1, SEChannelMetrics.getRejectedConnections() - rejectedBefore);
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        server.closeServer();
+    }
+
+    @Test
+    public void rejectAbovePerAddressLimit() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT + 2, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        server.setMaxConnectionsPerAddress(2);
+        server.setMaxConnections(3);
+        server.startServer();
+        List<SocketChannel> clients = new ArrayList<>();
+        try {
+            clients.add(connect("127.0.0.1", PORT + 2));
+            clients.add(connect("127.0.0.1", PORT + 2));
+            assertTrue(isClosedByPeer(connect("127.0.0.1", PORT + 2)));
+            assertEquals(1, server.getRejectedConnections(SEServerSocketChannel.RejectReason.MAX_CONNECTIONS_PER_ADDRESS));
+            awaitSize(server, 2);
+
+            // Only Linux routes all of 127.0.0.0/8 to loopback.
+            Assume.assumeTrue("127.0.0.2 and 127.0.0.3 are not local", canBind("127.0.0.2") && canBind("127.0.0.3"));
+            clients.add(connect("127.0.0.2", PORT + 2));
+            assertTrue(isClosedByPeer(connect("127.0.0.3", PORT + 2)));
+            assertEquals(1, server.getRejectedConnections(SEServerSocketChannel.RejectReason.MAX_CONNECTIONS));
+            awaitSize(server, 3);
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            server.closeServer();
+        }
+    }
+
+    @Test
+    public void rejectAboveAcceptRate() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT + 4, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        server.setAcceptRate(2);
+        server.startServer();
+        List<SocketChannel> clients = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            clients.add(connect("127.0.0.1", PORT + 4));
+        }
+        assertFalse(isClosedByPeer(clients.get(0)));
+        assertFalse(isClosedByPeer(clients.get(1)));
+        assertTrue(isClosedByPeer(clients.get(2)));
+        assertEquals(1, server.getRejectedConnections(SEServerSocketChannel.RejectReason.ACCEPT_RATE));
+
+        // One token is back after half a second.
+        Thread.sleep(600);
+        SocketChannel admitted = connect("127.0.0.1", PORT + 4);
+        assertFalse(isClosedByPeer(admitted));
+        clients.add(admitted);
+        server.setAcceptRate(0);
+        for (int i = 0; i < 5; i++) {
+            clients.add(connect("127.0.0.1", PORT + 4));
+        }
+        awaitSize(server, 8);
+        assertEquals(1, server.getRejectedConnections(SEServerSocketChannel.RejectReason.ACCEPT_RATE));
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        server.closeServer();
+    }
+
+    @Test
+    public void suspendAcceptWhileHeapFull() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT + 6, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        try {
+            server.setHeapLimit(0.5, 0.6);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        server.startServer();
+        // Any live heap after a collection is above this limit.
+        System.gc();
+        server.setHeapLimit(1e-9, 1e-10);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!server.isAcceptSuspended() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(server.isAcceptSuspended());
+        SocketChannel waiting = connect("127.0.0.1", PORT + 6);
+        Thread.sleep(200);
+        assertEquals(0, server.getChannelRegistry().size());
+
+        server.setHeapLimit(0, 0);
+        deadline = System.currentTimeMillis() + 3000;
+        while (server.isAcceptSuspended() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(server.isAcceptSuspended());
+        awaitSize(server, 1);
+        waiting.close();
+        server.closeServer();
+    }
+
+    @Test
+    public void suspendAcceptWhileLoopLags() throws Exception {
+        SEEventLoop childEventLoop = new SEEventLoop();
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT + 8, new SEEventLoop());
+        server.setChildEventLoop(childEventLoop);
+        server.setLoopLagLimit(200, 20);
+        server.startServer();
+        final CountDownLatch release = new CountDownLatch(1);
+        childEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!server.isAcceptSuspended() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(server.isAcceptSuspended());
+        release.countDown();
+        deadline = System.currentTimeMillis() + 3000;
+        while (server.isAcceptSuspended() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(server.isAcceptSuspended());
+        server.setLoopLagLimit(0, 0);
+        server.closeServer();
+    }
+
+    @Test
+    public void childLoopMayCallServerDuringAccept() throws Exception {
+        SEEventLoop childEventLoop = new SEEventLoop();
+        final SEServerSocketChannel server = new SEServerSocketChannel(PORT + 10, new SEEventLoop());
+        server.setChildEventLoop(childEventLoop);
+        server.startServer();
+        final CountDownLatch accepted = new CountDownLatch(1);
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                accepted.countDown();
+            }
+        });
+        // The child loop is busy while the accept waits for it to register the channel, then calls the server.
+        childEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                server.isListening();
+            }
+        });
+        SocketChannel client = connect("127.0.0.1", PORT + 10);
+        assertTrue(accepted.await(3, TimeUnit.SECONDS));
+        client.close();
+        server.closeServer();
+    }
+
+    private static SocketChannel connect(String sourceAddress, int port) throws Exception {
+        SocketChannel client = SocketChannel.open();
+        client.bind(new InetSocketAddress(sourceAddress, 0));
+        client.connect(new InetSocketAddress("127.0.0.1", port));
+        return client;
+    }
+
+    private static boolean canBind(String address) {
+        try (SocketChannel channel = SocketChannel.open()) {
+            channel.bind(new InetSocketAddress(address, 0));
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Wait a little for the server to reset the connection.
+     */
+    private static boolean isClosedByPeer(SocketChannel client) throws Exception {
+        client.socket().setSoTimeout(300);
+        try {
+            return client.socket().getInputStream().read() < 0;
+        } catch (SocketTimeoutException ex) {
+            return false;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    private static void awaitSize(SEServerSocketChannel server, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (server.getChannelRegistry().size() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, server.getChannelRegistry().size());
+    }
+}
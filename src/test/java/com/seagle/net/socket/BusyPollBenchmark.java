@@ -0,0 +1,89 @@
+package com.seagle.net.socket;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ping-pong round trip latency over loopback for the blocking and the busy poll select strategy.
+ * Client and server channel each get their own loop, pings are sent from the client's receive callback.
+ * Busy polling needs a free core per spinning loop, on fewer cores it is slower than blocking.
+ * Run with: java BusyPollBenchmark [rounds]
+ */
+public class BusyPollBenchmark {
+    private static final int PORT = 55603;
+    private static final int MESSAGE_SIZE = 32;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        run("blocking", new SESelectStrategy.Blocking(), PORT, rounds);
+        run("busy-poll", new SESelectStrategy.BusyPoll(Integer.MAX_VALUE, TimeUnit.MILLISECONDS.toNanos(1)), PORT + 1, rounds);
+        System.exit(0);
+    }
+
+    private static void run(String mode, SESelectStrategy strategy, int port, final int rounds) throws Exception {
+        final BlockingQueue<SESocketChannel> accepted = new ArrayBlockingQueue<>(1);
+        SEServerSocketChannel server = new SEServerSocketChannel(port, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop(strategy));
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                accepted.offer(socketChannelClient);
+            }
+        });
+        server.startServer();
+        SESocketChannel client = new SESocketChannel(new SEEventLoop(strategy));
+        client.connect("127.0.0.1", port, null);
+        client.getSocketChannel().socket().setTcpNoDelay(true);
+        SESocketChannel serverChannel = accepted.take();
+        serverChannel.getSocketChannel().socket().setTcpNoDelay(true);
+        serverChannel.registerSocketChannelListener(new Listener() {
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                channel.writeData(data);
+            }
+        });
+
+        final long[] rtt = new long[rounds];
+        final CountDownLatch done = new CountDownLatch(1);
+        final byte[] ping = new byte[MESSAGE_SIZE];
+        client.registerSocketChannelListener(new Listener() {
+            private int mRound;
+            private int mReceived;
+            private long mSentAt = System.nanoTime();
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                mReceived += data.length;
+                if (mReceived < MESSAGE_SIZE) {
+                    return;
+                }
+                mReceived -= MESSAGE_SIZE;
+                long now = System.nanoTime();
+                rtt[mRound++] = now - mSentAt;
+                if (mRound == rounds) {
+                    done.countDown();
+                    return;
+                }
+                mSentAt = now;
+                channel.writeData(ping);
+            }
+        });
+        client.writeData(ping);
+        done.await();
+
+        Arrays.sort(rtt);
+        System.out.println(mode + " RTT over " + rounds + " rounds: p50 = " + rtt[rounds / 2] / 1000.0
+                + " us, p99 = " + rtt[(int) (rounds * 0.99)] / 1000.0 + " us, p99.9 = " + rtt[(int) (rounds * 0.999)] / 1000.0 + " us");
+        client.disConnect();
+        server.closeServer();
+    }
+
+    private abstract static class Listener implements SESocketChannel.SocketChannelStateListener {
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+        }
+    }
+}
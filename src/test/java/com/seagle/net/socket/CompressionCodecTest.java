@@ -0,0 +1,62 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class CompressionCodecTest {
+
+    @Test
+    public void streamAcrossSplitReads() throws Exception {
+        byte[] dictionary = "{\"user\":\"\",\"status\":\"active\",\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+        SECompression settings = new SECompression(Deflater.DEFAULT_COMPRESSION, 64, 1024 * 1024, dictionary);
+        CompressionCodec sender = new CompressionCodec(settings);
+        CompressionCodec receiver = new CompressionCodec(settings);
+        List<byte[]> sent = new ArrayList<>();
+        ByteBuffer wire = ByteBuffer.allocate(1024 * 1024);
+        long rawBytes = 0;
+        for (int i = 0; i < 200; i++) {
+            String json = "{\"user\":\"user" + i + "\",\"status\":\"active\",\"items\":[" + (i % 7) + "]}";
+            byte[] message = (i % 10 == 0 ? "ping" + i : json + json).getBytes(StandardCharsets.UTF_8);
+            sent.add(message);
+            rawBytes += message.length;
+            wire.put(sender.encode(ByteBuffer.wrap(message)));
+        }
+        wire.flip();
+        assertTrue("wire " + wire.remaining() + " raw " + rawBytes, wire.remaining() * 4 < rawBytes);
+        List<byte[]> received = new ArrayList<>();
+        while (wire.hasRemaining()) {
+            byte[] chunk = new byte[Math.min(wire.remaining(), 7)];
+            wire.get(chunk);
+            received.addAll(receiver.decode(chunk));
+        }
+        assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertArrayEquals(sent.get(i), received.get(i));
+        }
+        assertTrue(SEChannelMetrics.getCompressionRatio() > 1);
+    }
+
+    @Test
+    public void inflateBoundedByMaxMessageSize() throws Exception {
+        CompressionCodec sender = new CompressionCodec(new SECompression());
+        ByteBuffer bomb = sender.encode(ByteBuffer.wrap(new byte[8 * 1024 * 1024]));
+        assertTrue(bomb.remaining() < 16 * 1024);
+        byte[] wire = new byte[bomb.remaining()];
+        bomb.get(wire);
+        CompressionCodec receiver = new CompressionCodec(new SECompression(Deflater.DEFAULT_COMPRESSION, 0, 64 * 1024, null));
+        try {
+            receiver.decode(wire);
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("exceeds"));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.seagle.net.socket;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes allocated and time spent per channel event, measured two ways.
+ * <ul>
+ * <li>dispatch: the typed callbacks of a connected channel's event handler are called directly with a
+ * preallocated payload. This is the cost of dispatch alone; the read path's copy of the received bytes is
+ * not included.</li>
+ * <li>selector: a client streams 64 byte writes and the allocations of the server's event loop thread are
+ * counted per delivered read, select, socket read, the byte[] handed to listeners included.</li>
+ * </ul>
+ * Run with: java EventDispatchBenchmark [iterations] [seconds]
+ */
+public class EventDispatchBenchmark {
+    private static final int PORT = 55602;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        final BlockingQueue<SESocketChannel> accepted = new ArrayBlockingQueue<>(1);
+        final AtomicLong reads = new AtomicLong();
+        SEEventLoop childEventLoop = new SEEventLoop();
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT);
+        server.setChildEventLoop(childEventLoop);
+        server.setChildSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                reads.incrementAndGet();
+            }
+        });
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                accepted.offer(socketChannelClient);
+            }
+        });
+        server.startServer();
+        final Socket client = new Socket("127.0.0.1", PORT);
+        client.setTcpNoDelay(true);
+        SESocketChannel channel = accepted.take();
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SEEventLoop.ChannelEventHandler handler = channel;
+        byte[] payload = new byte[64];
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < 3; round++) {
+            long allocated = threadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                handler.onRead(payload);
+                handler.onWritable();
+            }
+            long elapsed = System.nanoTime() - start;
+            allocated = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+            long events = iterations * 2L;
+            System.out.println("dispatch round " + round + ": " + (double) allocated / events + " bytes/event, "
+                    + (double) elapsed / events + " ns/event");
+        }
+
+        final CompletableFuture<Long> loopThread = new CompletableFuture<>();
+        childEventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                loopThread.complete(Thread.currentThread().getId());
+            }
+        });
+        long loopThreadId = loopThread.get();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = client.getOutputStream();
+                    byte[] message = new byte[64];
+                    while (true) {
+                        out.write(message);
+                    }
+                } catch (Exception ex) {
+                    // Closed at the end of the run.
+                }
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        Thread.sleep(500);
+        for (int round = 0; round < 3; round++) {
+            long allocated = threadBean.getThreadAllocatedBytes(loopThreadId);
+            long before = reads.get();
+            long start = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            long elapsed = System.nanoTime() - start;
+            allocated = threadBean.getThreadAllocatedBytes(loopThreadId) - allocated;
+            long events = reads.get() - before;
+            System.out.println("selector round " + round + ": " + (double) allocated / events + " bytes/read, "
+                    + (double) elapsed / events + " ns/read, " + events + " reads");
+        }
+        client.close();
+        server.closeServer();
+        System.exit(0);
+    }
+}
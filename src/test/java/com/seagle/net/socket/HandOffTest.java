@@ -0,0 +1,142 @@
+package com.seagle.net.socket;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HandOffTest {
+    private static final int PORT = 55619;
+
+    @Test
+    public void handOffToReusePortSuccessor() throws Exception {
+        SEServerSocketChannel old = echoServer(new SEServerSocketChannel(PORT, new SEEventLoop()), 'o');
+        old.setReusePort(true);
+        boolean started;
+        try {
+            old.startServer();
+            started = true;
+        } catch (IOException ex) {
+            started = false;
+        }
+        Assume.assumeTrue("SO_REUSEPORT is not supported", started);
+        Socket oldClient = new Socket("127.0.0.1", PORT);
+        assertEquals('o', echo(oldClient));
+
+        SEServerSocketChannel successor = echoServer(new SEServerSocketChannel(PORT, new SEEventLoop()), 'n');
+        successor.setReusePort(true);
+        successor.startServer();
+        CompletableFuture<Void> drained = old.handOff(5, TimeUnit.SECONDS);
+        assertTrue(old.isHandedOff());
+
+        long deadline = System.currentTimeMillis() + 3000;
+        while (old.isListening() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(old.isListening());
+        // A closed channel still registered with a selector keeps listening until the loop's next select.
+        Thread.sleep(100);
+        for (int i = 0; i < 4; i++) {
+            try (Socket client = new Socket("127.0.0.1", PORT)) {
+                assertEquals('n', echo(client));
+            }
+        }
+        assertEquals('o', echo(oldClient));
+        assertFalse(drained.isDone());
+        oldClient.close();
+        drained.get(3, TimeUnit.SECONDS);
+        try {
+            old.startServer();
+            fail();
+        } catch (IOException expected) {
+        }
+        successor.closeServer();
+    }
+
+    @Test
+    public void adoptBoundChannel() throws Exception {
+        ServerSocketChannel bound = ServerSocketChannel.open();
+        bound.bind(new InetSocketAddress("127.0.0.1", PORT + 100));
+        SEServerSocketChannel server = echoServer(new SEServerSocketChannel(bound, new SEEventLoop()), 'a');
+        assertEquals(PORT + 100, ((InetSocketAddress) server.getLocalAddress()).getPort());
+        server.startServer();
+        try (Socket client = new Socket("127.0.0.1", PORT + 100)) {
+            assertEquals('a', echo(client));
+        }
+        if (SEInheritedChannels.isFileDescriptorSupported()) {
+            assertTrue(SEInheritedChannels.getFileDescriptor(bound) > 2);
+        }
+        server.closeServer();
+        assertFalse(bound.isOpen());
+    }
+
+    @Test
+    public void adoptFileDescriptor() throws Exception {
+        Assume.assumeTrue("Descriptors can not be wrapped on this JDK", SEInheritedChannels.isFileDescriptorSupported());
+        ServerSocketChannel bound = ServerSocketChannel.open();
+        bound.bind(new InetSocketAddress("127.0.0.1", PORT + 101));
+        // Both channels own the descriptor now, only the adopting server closes it.
+        ServerSocketChannel adopted = SEInheritedChannels.fromFileDescriptor(SEInheritedChannels.getFileDescriptor(bound));
+        assertEquals(bound.getLocalAddress(), adopted.getLocalAddress());
+        SEServerSocketChannel server = echoServer(new SEServerSocketChannel(adopted, new SEEventLoop()), 'd');
+        server.startServer();
+        try (Socket client = new Socket("127.0.0.1", PORT + 101)) {
+            assertEquals('d', echo(client));
+        }
+        server.closeServer();
+        assertFalse(adopted.isOpen());
+    }
+
+    @Test
+    public void noSystemdChannelsWithoutActivation() throws Exception {
+        Assume.assumeTrue("Started by systemd socket activation", System.getenv("LISTEN_PID") == null);
+        assertEquals(0, SEInheritedChannels.systemdServerChannels().length);
+    }
+
+    @Test
+    public void handedOffLocalServerDoesNotRestart() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(new SELocalAddress("hand-off"), new SEEventLoop());
+        server.startServer();
+        server.handOff(0, TimeUnit.SECONDS).get(3, TimeUnit.SECONDS);
+        assertFalse(server.isListening());
+        try {
+            server.startServer();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(server.isListening());
+    }
+
+    /**
+     * Answer every byte with the server's tag.
+     */
+    private static SEServerSocketChannel echoServer(SEServerSocketChannel server, final char tag) {
+        server.setChildEventLoop(new SEEventLoop());
+        server.setChildSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                channel.writeData(new byte[]{(byte) tag});
+            }
+        });
+        return server;
+    }
+
+    private static char echo(Socket socket) throws Exception {
+        socket.setSoTimeout(3000);
+        socket.getOutputStream().write('?');
+        InputStream in = socket.getInputStream();
+        return (char) in.read();
+    }
+}
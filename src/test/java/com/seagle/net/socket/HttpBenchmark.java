@@ -0,0 +1,120 @@
+package com.seagle.net.socket;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests per second of the HTTP server mode at a small payload, keep-alive without and with pipelining.
+ * Every connection keeps depth requests in flight and sends the next one as soon as a response is complete;
+ * responses have a fixed length, so they are counted by bytes.
+ * Run with: java HttpBenchmark [connections] [seconds]
+ */
+public class HttpBenchmark {
+    private static final int PORT = 55618;
+    private static final byte[] REQUEST = ("GET /health HTTP/1.1\r\nHost: localhost\r\nUser-Agent: bench\r\n"
+            + "Accept: */*\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BODY = "{\"status\":\"ok\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] DEPTHS = {1, 4, 16};
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        SEServerSocketChannel serverChannel = new SEServerSocketChannel(PORT, new SEEventLoop());
+        serverChannel.setChildEventLoop(new SEEventLoop());
+        SEHttpServer server = new SEHttpServer(serverChannel, new SEHttpServer.Handler() {
+            @Override
+            public void handle(SEHttpRequest request, SEHttpResponse response) {
+                response.setContentType(SEHttpResponse.APPLICATION_JSON).send(BODY);
+            }
+        });
+        server.start();
+        int responseLength = responseLength();
+        System.out.println("response " + responseLength + " bytes, " + connections + " connections");
+
+        SEEventLoop clientLoop = new SEEventLoop();
+        for (int depth : DEPTHS) {
+            final AtomicLong completed = new AtomicLong();
+            SESocketChannel[] clients = new SESocketChannel[connections];
+            for (int i = 0; i < connections; i++) {
+                clients[i] = new SESocketChannel(clientLoop);
+                clients[i].registerSocketChannelListener(new LoadListener(responseLength, completed));
+                clients[i].connectAsync("127.0.0.1", PORT).get();
+            }
+            for (SESocketChannel client : clients) {
+                byte[] burst = new byte[REQUEST.length * depth];
+                for (int i = 0; i < depth; i++) {
+                    System.arraycopy(REQUEST, 0, burst, i * REQUEST.length, REQUEST.length);
+                }
+                client.writeData(burst);
+            }
+            Thread.sleep(500);
+            long start = System.nanoTime();
+            long before = completed.get();
+            Thread.sleep(seconds * 1000L);
+            long count = completed.get() - before;
+            long elapsed = System.nanoTime() - start;
+            System.out.println("depth " + depth + ": " + (long) (count / (elapsed / 1e9)) + " req/s");
+            for (SESocketChannel client : clients) {
+                client.disConnect();
+            }
+            Thread.sleep(200);
+        }
+        server.stop();
+        System.exit(0);
+    }
+
+    /**
+     * Fetch one response with a blocking socket to learn its length, the Date header has a fixed width.
+     */
+    private static int responseLength() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            socket.getOutputStream().write(("GET /health HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            int length = 0;
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                length += read;
+            }
+            // The keep-alive responses lack the Connection: close line.
+            return length - "Connection: close\r\n".length();
+        }
+    }
+
+    /**
+     * Sends a new request for every complete response.
+     */
+    private static final class LoadListener implements SESocketChannel.SocketChannelStateListener {
+        private final int mResponseLength;
+        private final AtomicLong mCompleted;
+        private long mReceived;
+
+        private LoadListener(int responseLength, AtomicLong completed) {
+            mResponseLength = responseLength;
+            mCompleted = completed;
+        }
+
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+            mReceived += data.length;
+            int responses = (int) (mReceived / mResponseLength);
+            if (responses > 0) {
+                mReceived -= (long) responses * mResponseLength;
+                mCompleted.addAndGet(responses);
+                byte[] burst = new byte[REQUEST.length * responses];
+                for (int i = 0; i < responses; i++) {
+                    System.arraycopy(REQUEST, 0, burst, i * REQUEST.length, REQUEST.length);
+                }
+                channel.writeData(burst);
+            }
+        }
+    }
+}
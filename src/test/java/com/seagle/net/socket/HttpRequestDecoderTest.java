@@ -0,0 +1,80 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HttpRequestDecoderTest {
+
+    @Test
+    public void pipelinedAcrossSplitReads() throws Exception {
+        String stream = "GET /a?x=1 HTTP/1.1\r\nHost: localhost\r\nX-Custom:  v  \r\n\r\n"
+                + "POST /b HTTP/1.1\r\ncontent-length: 5\r\n\r\nhello\r\n"
+                + "PUT /c HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3;ext=1\r\nabc\r\n2\r\nde\r\n0\r\nTrailer: x\r\n\r\n"
+                + "GET /d HTTP/1.0\r\nConnection: keep-alive\r\n\r\n"
+                + "GET /e HTTP/1.1\r\nConnection: close\r\n\r\n";
+        byte[] bytes = stream.getBytes(StandardCharsets.US_ASCII);
+        for (int split = 1; split <= bytes.length; split++) {
+            final List<SEHttpRequest> requests = new ArrayList<>();
+            HttpRequestDecoder decoder = new HttpRequestDecoder(new HttpRequestDecoder.RequestHandler() {
+                @Override
+                public void onRequest(SEHttpRequest request) {
+                    requests.add(request);
+                }
+            }, 1024, 1024);
+            for (int offset = 0; offset < bytes.length; offset += split) {
+                byte[] chunk = new byte[Math.min(split, bytes.length - offset)];
+                System.arraycopy(bytes, offset, chunk, 0, chunk.length);
+                decoder.decode(chunk);
+            }
+            assertEquals(5, requests.size());
+            SEHttpRequest get = requests.get(0);
+            assertSame(HttpRequestDecoder.GET, get.getMethod());
+            assertEquals("/a?x=1", get.getUri());
+            assertEquals("/a", get.getPath());
+            assertEquals("localhost", get.getHeader("host"));
+            assertEquals("v", get.getHeader("X-Custom"));
+            assertTrue(get.isKeepAlive());
+            assertEquals("hello", new String(requests.get(1).getBody(), StandardCharsets.US_ASCII));
+            assertSame(HttpRequestDecoder.CONTENT_LENGTH, requests.get(1).getHeaderName(0));
+            assertEquals("abcde", new String(requests.get(2).getBody(), StandardCharsets.US_ASCII));
+            assertEquals("HTTP/1.0", requests.get(3).getVersion());
+            assertTrue(requests.get(3).isKeepAlive());
+            assertFalse(requests.get(4).isKeepAlive());
+        }
+    }
+
+    @Test
+    public void refuseMalformedRequests() throws Exception {
+        assertStatus(400, "GET /\r\n\r\n");
+        assertStatus(505, "GET / HTTP/2.0\r\n\r\n");
+        assertStatus(400, "POST / HTTP/1.1\r\nContent-Length: 1\r\nTransfer-Encoding: chunked\r\n\r\n");
+        assertStatus(400, "POST / HTTP/1.1\r\nContent-Length: 1x\r\n\r\n");
+        assertStatus(400, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n");
+        assertStatus(413, "POST / HTTP/1.1\r\nContent-Length: 2000\r\n\r\n");
+        StringBuilder large = new StringBuilder("GET / HTTP/1.1\r\n");
+        while (large.length() < 2000) {
+            large.append("X-Padding: 0123456789\r\n");
+        }
+        assertStatus(431, large.toString());
+    }
+
+    private static void assertStatus(int status, String request) {
+        HttpRequestDecoder decoder = new HttpRequestDecoder(new HttpRequestDecoder.RequestHandler() {
+            @Override
+            public void onRequest(SEHttpRequest request) {
+                fail();
+            }
+        }, 1024, 1024);
+        try {
+            decoder.decode(request.getBytes(StandardCharsets.US_ASCII));
+            fail();
+        } catch (HttpRequestDecoder.DecodeException ex) {
+            assertEquals(status, ex.getStatus());
+        }
+    }
+}
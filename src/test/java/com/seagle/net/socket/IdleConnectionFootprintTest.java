@@ -0,0 +1,109 @@
+package com.seagle.net.socket;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jol.info.ClassLayout;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Memory held per idle connection.
+ * holdIdleConnections only runs when seagle.test.connections is set, e.g. for the 1M connection run:
+ * -Dseagle.test.connections=1000000 -Xmx2g, with ulimit -n and fs.nr_open above twice the connection count.
+ * Client sockets are bound to 127.0.0.2 and up so the ephemeral port range is not exhausted.
+ */
+public class IdleConnectionFootprintTest {
+    private static final int PORT = 55606;
+
+    /**
+     * Shallow size of an idle SESocketChannel with compressed oops.
+     */
+    private static final long CHANNEL_BUDGET = 160;
+
+    /**
+     * Heap per idle connection: the accepted SESocketChannel with its JDK channel, selection key and selector
+     * entries, plus the test's own client SocketChannel.
+     */
+    private static final long CONNECTION_BUDGET = 1536;
+
+    private static final int CONNECTIONS_PER_SOURCE_ADDRESS = 20000;
+    private static final int MAX_UNACCEPTED = 32;
+
+    @Test
+    public void channelLayoutWithinBudget() {
+        long size = ClassLayout.parseClass(SESocketChannel.class).instanceSize();
+        assertTrue("SESocketChannel takes " + size + " bytes", size <= CHANNEL_BUDGET);
+    }
+
+    @Test
+    public void holdIdleConnections() throws Exception {
+        int connections = Integer.getInteger("seagle.test.connections", 0);
+        Assume.assumeTrue(connections > 0);
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger disconnected = new AtomicInteger();
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        server.setChildSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+                disconnected.incrementAndGet();
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+            }
+        });
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                accepted.incrementAndGet();
+            }
+        });
+        server.startServer();
+        SocketChannel[] clients = new SocketChannel[connections];
+        long before = usedHeap();
+        InetSocketAddress remote = new InetSocketAddress("127.0.0.1", PORT);
+        for (int i = 0; i < connections; i++) {
+            int source = 2 + i / CONNECTIONS_PER_SOURCE_ADDRESS;
+            SocketChannel client = SocketChannel.open();
+            client.bind(new InetSocketAddress(InetAddress.getByAddress(new byte[]{127, 0, (byte) (source >> 8), (byte) source}), 0));
+            client.connect(remote);
+            clients[i] = client;
+            if (i - accepted.get() > MAX_UNACCEPTED) {
+                awaitCount(accepted, i - MAX_UNACCEPTED);
+            }
+        }
+        awaitCount(accepted, connections);
+        long perConnection = (usedHeap() - before) / connections;
+        System.out.println(connections + " idle connections, " + perConnection + " bytes each");
+
+        server.closeServer();
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        awaitCount(disconnected, connections);
+        assertTrue(perConnection + " bytes per idle connection", perConnection <= CONNECTION_BUDGET);
+    }
+
+    private static void awaitCount(AtomicInteger counter, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60000;
+        while (counter.get() < count) {
+            assertTrue("Timed out at " + counter.get() + " of " + count, System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
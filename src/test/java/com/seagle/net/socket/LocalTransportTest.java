@@ -0,0 +1,122 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class LocalTransportTest {
+
+    @Test
+    public void echoAndDisconnect() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(new SELocalAddress("echo"), new SEEventLoop());
+        final CountDownLatch serverDisconnected = new CountDownLatch(1);
+        server.setChildSocketChannelListener(new Listener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+                serverDisconnected.countDown();
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                channel.writeData(data);
+            }
+        });
+        server.startServer();
+        final AtomicLong echoed = new AtomicLong();
+        final CountDownLatch received = new CountDownLatch(1);
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.registerSocketChannelListener(new Listener() {
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                if (echoed.addAndGet(data.length) == 1000 * 100) {
+                    received.countDown();
+                }
+            }
+        });
+        client.connectAsync(new SELocalAddress("echo")).get(5, TimeUnit.SECONDS);
+        assertNull(client.getSocketChannel());
+        for (int i = 0; i < 1000; i++) {
+            client.writeData(new byte[100]);
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getChannelRegistry().size());
+        client.disConnect();
+        assertTrue(serverDisconnected.await(5, TimeUnit.SECONDS));
+        server.closeServer();
+        try {
+            client.connectAsync(new SELocalAddress("echo")).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ConnectException);
+        }
+    }
+
+    @Test
+    public void pausedReaderPushesBack() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(new SELocalAddress("sink"), new SEEventLoop());
+        final AtomicLong received = new AtomicLong();
+        final SESocketChannel[] accepted = new SESocketChannel[1];
+        final CountDownLatch acceptLatch = new CountDownLatch(1);
+        server.setChildSocketChannelListener(new Listener() {
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                received.addAndGet(data.length);
+            }
+        });
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                socketChannelClient.pauseReading();
+                accepted[0] = socketChannelClient;
+                acceptLatch.countDown();
+            }
+        });
+        server.startServer();
+        final CountDownLatch unwritable = new CountDownLatch(1);
+        final CountDownLatch writable = new CountDownLatch(1);
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.registerSocketChannelListener(new Listener() {
+            @Override
+            public void onWritabilityChanged(SESocketChannel channel, boolean isWritable) {
+                (isWritable ? writable : unwritable).countDown();
+            }
+        });
+        client.connect(new SELocalAddress("sink"), null);
+        assertTrue(acceptLatch.await(5, TimeUnit.SECONDS));
+        int chunks = 0;
+        while (!unwritable.await(1, TimeUnit.MILLISECONDS)) {
+            if (client.isWritable()) {
+                client.writeData(new byte[8 * 1024]);
+                chunks++;
+            }
+            assertTrue(chunks < 1000);
+        }
+        assertTrue(chunks * 8 * 1024 >= LocalPipe.CAPACITY);
+        assertEquals(0, received.get());
+        accepted[0].resumeReading();
+        assertTrue(writable.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.get() < chunks * 8 * 1024L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(chunks * 8 * 1024L, received.get());
+        client.disConnect();
+        server.closeServer();
+    }
+
+    private static class Listener implements SESocketChannel.SocketChannelStateListener {
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+        }
+    }
+}
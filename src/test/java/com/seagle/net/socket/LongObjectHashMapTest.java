@@ -0,0 +1,51 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongObjectHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        assertNull(map.put(1L, "a"));
+        assertEquals("a", map.put(1L, "b"));
+        assertEquals("b", map.get(1L));
+        assertNull(map.get(2L));
+        assertEquals("b", map.remove(1L));
+        assertNull(map.remove(1L));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomChurn() {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(2048) * 1024L;
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        final long[] visited = new long[1];
+        map.forEach(new LongObjectHashMap.EntryVisitor<Long>() {
+            @Override
+            public void visit(long key, Long value) {
+                visited[0]++;
+            }
+        });
+        assertEquals(expected.size(), visited[0]);
+    }
+}
@@ -0,0 +1,166 @@
+package com.seagle.net.socket;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip latency of small echo clients sharing the event loop with a bulk sender.
+ * Run with: java ReadFairnessBenchmark [smallClients] [roundsPerClient]
+ */
+public class ReadFairnessBenchmark {
+    private static final int PORT = 55601;
+    private static final int SMALL_MESSAGE_SIZE = 64;
+    private static final int BULK_CHUNK_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int smallClients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT);
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                socketChannelClient.registerSocketChannelListener(ECHO_LISTENER);
+            }
+        });
+        server.startServer();
+
+        Thread bulk = new Thread(new BulkSender());
+        bulk.setDaemon(true);
+        bulk.start();
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        final long[][] samples = new long[smallClients][];
+        final CountDownLatch latch = new CountDownLatch(smallClients);
+        for (int i = 0; i < smallClients; i++) {
+            final int index = i;
+            final int clientRounds = rounds;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        samples[index] = pingPong(clientRounds);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        samples[index] = new long[0];
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        latch.await();
+
+        int count = 0;
+        for (long[] sample : samples) {
+            count += sample.length;
+        }
+        long[] all = new long[count];
+        int offset = 0;
+        for (long[] sample : samples) {
+            System.arraycopy(sample, 0, all, offset, sample.length);
+            offset += sample.length;
+        }
+        Arrays.sort(all);
+        System.out.println("Small client RTT with bulk sender, samples=" + count);
+        System.out.println("  p50 = " + percentile(all, 0.50) / 1000 + " us");
+        System.out.println("  p99 = " + percentile(all, 0.99) / 1000 + " us");
+        System.out.println("  max = " + (count > 0 ? all[count - 1] / 1000 : 0) + " us");
+        server.closeServer();
+        System.exit(0);
+    }
+
+    private static long[] pingPong(int rounds) throws Exception {
+        long[] rtt = new long[rounds];
+        byte[] message = new byte[SMALL_MESSAGE_SIZE];
+        byte[] reply = new byte[SMALL_MESSAGE_SIZE];
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                out.write(message);
+                int read = 0;
+                while (read < reply.length) {
+                    int length = in.read(reply, read, reply.length - read);
+                    if (length < 0) {
+                        throw new IllegalStateException("Stream end!");
+                    }
+                    read += length;
+                }
+                rtt[i] = System.nanoTime() - start;
+            }
+        }
+        return rtt;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+    /**
+     * Writes as fast as possible and discards the echo.
+     */
+    private static final class BulkSender implements Runnable {
+        @Override
+        public void run() {
+            try (final Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+                Thread drain = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        byte[] buffer = new byte[BULK_CHUNK_SIZE];
+                        try {
+                            InputStream in = socket.getInputStream();
+                            while (in.read(buffer) >= 0) {
+                                continue;
+                            }
+                        } catch (Exception ignored) {
+                        }
+                    }
+                });
+                drain.setDaemon(true);
+                drain.start();
+                OutputStream out = socket.getOutputStream();
+                byte[] chunk = new byte[BULK_CHUNK_SIZE];
+                while (!Thread.currentThread().isInterrupted()) {
+                    out.write(chunk);
+                }
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static final SESocketChannel.SocketChannelStateListener ECHO_LISTENER = new SESocketChannel.SocketChannelStateListener() {
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+            channel.unRegisterSocketChannelListener(this);
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+            channel.writeData(data);
+        }
+
+        @Override
+        public void onWritabilityChanged(SESocketChannel channel, boolean writable) {
+            if (writable) {
+                channel.resumeReading();
+            } else {
+                channel.pauseReading();
+            }
+        }
+    };
+}
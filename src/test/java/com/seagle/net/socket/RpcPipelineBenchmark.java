@@ -0,0 +1,96 @@
+package com.seagle.net.socket;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+/**
+ * Requests per second and latency of many concurrent calls pipelined over one connection.
+ * The server echoes every frame back; up to window requests are in flight at any time.
+ * Run with: java RpcPipelineBenchmark [requests] [window]
+ */
+public class RpcPipelineBenchmark {
+    private static final int PORT = 55605;
+    private static final int PAYLOAD_SIZE = 64;
+
+    public static void main(String[] args) throws Exception {
+        final int requests = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        final int window = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(final SESocketChannel socketChannelClient) {
+                socketChannelClient.registerSocketChannelListener(new EchoListener(socketChannelClient));
+            }
+        });
+        server.startServer();
+        SESocketChannel channel = new SESocketChannel(new SEEventLoop());
+        channel.connectAsync("127.0.0.1", PORT).get();
+        SERpcClient client = new SERpcClient(channel);
+
+        for (int round = 0; round < 3; round++) {
+            final long[] latency = new long[requests];
+            final Semaphore inFlight = new Semaphore(window);
+            final CountDownLatch done = new CountDownLatch(requests);
+            byte[] payload = new byte[PAYLOAD_SIZE];
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                inFlight.acquire();
+                final int index = i;
+                final long sentAt = System.nanoTime();
+                CompletableFuture<byte[]> future = client.call(payload);
+                future.whenComplete(new BiConsumer<byte[], Throwable>() {
+                    @Override
+                    public void accept(byte[] response, Throwable throwable) {
+                        latency[index] = System.nanoTime() - sentAt;
+                        inFlight.release();
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+            long elapsed = System.nanoTime() - start;
+            Arrays.sort(latency);
+            System.out.println("round " + round + ": " + (long) (requests / (elapsed / 1e9)) + " req/s, window " + window
+                    + ", p50 = " + latency[requests / 2] / 1000 + " us, p99 = " + latency[(int) (requests * 0.99)] / 1000 + " us");
+        }
+        client.close();
+        channel.disConnect();
+        server.closeServer();
+        System.exit(0);
+    }
+
+    /**
+     * Decodes request frames and writes each back unchanged.
+     */
+    private static final class EchoListener implements SESocketChannel.SocketChannelStateListener {
+        private final SERpcCodec.Decoder mDecoder;
+
+        private EchoListener(final SESocketChannel channel) {
+            mDecoder = new SERpcCodec.Decoder(new SERpcCodec.FrameHandler() {
+                @Override
+                public void onFrame(long id, byte[] payload) {
+                    channel.writeData(SERpcCodec.encode(id, payload));
+                }
+            });
+        }
+
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+            try {
+                mDecoder.decode(data);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                channel.disConnect();
+            }
+        }
+    }
+}
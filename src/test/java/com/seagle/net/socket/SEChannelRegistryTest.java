@@ -0,0 +1,50 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SEChannelRegistryTest {
+
+    @Test
+    public void putGetRemove() {
+        SEChannelRegistry registry = new SEChannelRegistry(2);
+        SEEventLoop eventLoop = new SEEventLoop();
+        SESocketChannel first = new SESocketChannel(eventLoop);
+        SESocketChannel second = new SESocketChannel(eventLoop);
+        long firstId = registry.nextId();
+        long secondId = registry.nextId();
+        assertTrue(secondId > firstId);
+        registry.put(firstId, first);
+        registry.put(secondId, second);
+        assertSame(first, registry.get(firstId));
+        assertEquals(2, registry.size());
+        registry.remove(firstId, second);
+        assertSame(first, registry.get(firstId));
+        registry.remove(firstId, first);
+        assertNull(registry.get(firstId));
+        assertFalse(registry.writeData(firstId, new byte[1]));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void visitorMayRemove() {
+        final SEChannelRegistry registry = new SEChannelRegistry(1);
+        SEEventLoop eventLoop = new SEEventLoop();
+        for (int i = 0; i < 1000; i++) {
+            registry.put(registry.nextId(), new SESocketChannel(eventLoop));
+        }
+        final long[] visited = new long[2];
+        registry.forEach(new SEChannelRegistry.ChannelVisitor() {
+            @Override
+            public void visit(long id, SESocketChannel channel) {
+                visited[0]++;
+                visited[1] += id;
+                registry.remove(id, channel);
+            }
+        });
+        assertEquals(1000, visited[0]);
+        assertEquals(1000 * 1001 / 2, visited[1]);
+        assertEquals(0, registry.size());
+    }
+}
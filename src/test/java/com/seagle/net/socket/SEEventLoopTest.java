@@ -0,0 +1,196 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SEEventLoopTest {
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 100000;
+
+    @Test
+    public void mpscQueueKeepsProducerOrder() throws Exception {
+        final MpscQueue<Integer> queue = new MpscQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        queue.offer(producer * PER_PRODUCER + i);
+                    }
+                }
+            }).start();
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        start.countDown();
+        int[] next = new int[PRODUCERS];
+        long deadline = System.currentTimeMillis() + 10000;
+        for (int received = 0; received < PRODUCERS * PER_PRODUCER; ) {
+            Integer value = queue.poll();
+            if (value == null) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.yield();
+                continue;
+            }
+            int producer = value / PER_PRODUCER;
+            assertEquals(next[producer]++, value % PER_PRODUCER);
+            received++;
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void executeRunsTasksInSubmissionOrder() throws Exception {
+        final SEEventLoop loop = new SEEventLoop();
+        final List<Integer> ran = new ArrayList<>();
+        final AtomicInteger offLoop = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(PRODUCERS);
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        final int value = producer * 10000 + i;
+                        loop.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!loop.inEventLoop()) {
+                                    offLoop.incrementAndGet();
+                                }
+                                ran.add(value);
+                            }
+                        });
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        List<Integer> result = onLoop(loop, new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() {
+                return new ArrayList<>(ran);
+            }
+        });
+        assertEquals(PRODUCERS * 10000, result.size());
+        assertEquals(0, offLoop.get());
+        int[] next = new int[PRODUCERS];
+        for (int value : result) {
+            assertEquals(next[value / 10000]++, value % 10000);
+        }
+    }
+
+    @Test
+    public void scheduleRunsByDeadline() throws Exception {
+        SEEventLoop loop = new SEEventLoop();
+        final List<String> ran = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(4);
+        long start = System.nanoTime();
+        loop.schedule(record(ran, "50", done), 50, TimeUnit.MILLISECONDS);
+        loop.schedule(record(ran, "10a", done), 10, TimeUnit.MILLISECONDS);
+        loop.schedule(record(ran, "30", done), 30, TimeUnit.MILLISECONDS);
+        loop.schedule(record(ran, "10b", done), 10, TimeUnit.MILLISECONDS);
+        assertTrue(done.await(3, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Arrays.asList("10a", "10b", "30", "50"), onLoop(loop, new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return new ArrayList<>(ran);
+            }
+        }));
+    }
+
+    @Test
+    public void cancelRemovesTaskFromHeap() throws Exception {
+        final SEEventLoop loop = new SEEventLoop();
+        final List<String> ran = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(5);
+        List<SEEventLoop.ScheduledTask> cancelled = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            SEEventLoop.ScheduledTask task = loop.schedule(record(ran, String.valueOf(i), done), 200 + 10 * i,
+                    TimeUnit.MILLISECONDS);
+            if (i % 2 == 1) {
+                cancelled.add(task);
+            }
+        }
+        for (SEEventLoop.ScheduledTask task : cancelled) {
+            task.cancel();
+            assertTrue(task.isCancelled());
+        }
+        assertEquals(5, (int) onLoop(loop, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return loop.getScheduledTaskCount();
+            }
+        }));
+        assertTrue(done.await(3, TimeUnit.SECONDS));
+        Thread.sleep(150);
+        assertEquals(Arrays.asList("0", "2", "4", "6", "8"), onLoop(loop, new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return new ArrayList<>(ran);
+            }
+        }));
+
+        final CountDownLatch ranOnce = new CountDownLatch(1);
+        SEEventLoop.ScheduledTask task = loop.schedule(record(ran, "late", ranOnce), 0, TimeUnit.MILLISECONDS);
+        assertTrue(ranOnce.await(3, TimeUnit.SECONDS));
+        task.cancel();
+        assertEquals(0, (int) onLoop(loop, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return loop.getScheduledTaskCount();
+            }
+        }));
+        assertEquals(6, onLoop(loop, new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return new ArrayList<>(ran);
+            }
+        }).size());
+    }
+
+    private static Runnable record(final List<String> ran, final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    private static <T> T onLoop(SEEventLoop loop, final Callable<T> callable) throws Exception {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.complete(callable.call());
+                } catch (Exception ex) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+        return result.get(5, TimeUnit.SECONDS);
+    }
+}
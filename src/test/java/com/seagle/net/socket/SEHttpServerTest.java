@@ -0,0 +1,99 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SEHttpServerTest {
+    private static final int PORT = 55617;
+
+    @Test
+    public void pipelinedKeepAliveInOrder() throws Exception {
+        final SEEventLoop childEventLoop = new SEEventLoop();
+        SEServerSocketChannel serverChannel = new SEServerSocketChannel(PORT, new SEEventLoop());
+        serverChannel.setChildEventLoop(childEventLoop);
+        SEHttpServer server = new SEHttpServer(serverChannel, new SEHttpServer.Handler() {
+            @Override
+            public void handle(SEHttpRequest request, final SEHttpResponse response) {
+                if ("/slow".equals(request.getPath())) {
+                    childEventLoop.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            response.setContentType(SEHttpResponse.TEXT_PLAIN).send(ascii("slow"));
+                        }
+                    }, 50, TimeUnit.MILLISECONDS);
+                } else if ("/stream".equals(request.getPath())) {
+                    response.write(ascii("ab"));
+                    response.write(ascii("cde"));
+                    response.end();
+                } else {
+                    response.setContentType(SEHttpResponse.APPLICATION_JSON).addHeader("X-Id", request.getPath())
+                            .send(request.getBody().length > 0 ? request.getBody() : ascii("{}"));
+                }
+            }
+        });
+        server.start();
+
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(ascii("GET /slow HTTP/1.1\r\nHost: a\r\n\r\n"
+                    + "GET /stream HTTP/1.1\r\nHost: a\r\n\r\n"
+                    + "POST /echo HTTP/1.1\r\nHost: a\r\nContent-Length: 4\r\n\r\nping"
+                    + "GET /last HTTP/1.1\r\nHost: a\r\nConnection: close\r\n\r\n"
+                    + "GET /ignored HTTP/1.1\r\nHost: a\r\n\r\n"));
+            out.flush();
+            String responses = readToEnd(socket.getInputStream());
+            int slow = responses.indexOf("\r\n\r\nslow");
+            int stream = responses.indexOf("Transfer-Encoding: chunked\r\n\r\n2\r\nab\r\n3\r\ncde\r\n0\r\n\r\n");
+            int echo = responses.indexOf("X-Id: /echo\r\nContent-Length: 4\r\n\r\nping");
+            int last = responses.indexOf("X-Id: /last\r\nConnection: close\r\nContent-Length: 2\r\n\r\n{}");
+            assertTrue(responses, slow > 0 && stream > slow && echo > stream && last > echo);
+            assertTrue(responses.endsWith("{}"));
+            assertFalse(responses.contains("/ignored"));
+            assertEquals(4, count(responses, "HTTP/1.1 200 OK\r\n"));
+        }
+
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(ascii("GET / HTTP/1.1\r\nContent-Length: 1\r\nTransfer-Encoding: chunked\r\n\r\n"));
+            String response = readToEnd(socket.getInputStream());
+            assertTrue(response, response.startsWith("HTTP/1.1 400 Bad Request\r\n"));
+        }
+        long deadline = System.currentTimeMillis() + 3000;
+        while (server.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.getConnectionCount());
+        server.stop();
+    }
+
+    private static String readToEnd(InputStream in) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static int count(String text, String token) {
+        int count = 0;
+        for (int index = text.indexOf(token); index >= 0; index = text.indexOf(token, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
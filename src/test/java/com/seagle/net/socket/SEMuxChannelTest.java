@@ -0,0 +1,355 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SEMuxChannelTest {
+    private static final int PORT = 55660;
+    private static final int TYPE_DATA = 0;
+    private static final int TYPE_WINDOW_UPDATE = 1;
+    private static final int TYPE_CLOSE = 2;
+
+    @Test
+    public void creditWindowStopsSender() throws Exception {
+        final AtomicLong received = new AtomicLong();
+        final BlockingQueue<SEMuxStream> opened = new LinkedBlockingQueue<>();
+        SEMuxChannel[] pair = localPair("mux-credit", new Listener() {
+            @Override
+            public void onStreamOpened(SEMuxStream stream) {
+                stream.setAutoConsume(false);
+                opened.add(stream);
+            }
+
+            @Override
+            public void onData(SEMuxStream stream, byte[] data) {
+                received.addAndGet(data.length);
+            }
+        });
+        SEMuxStream stream = pair[0].openStream();
+        stream.write(new byte[200 * 1024]);
+        SEMuxStream remote = opened.poll(3, TimeUnit.SECONDS);
+        await(received, SEMuxChannel.DEFAULT_INITIAL_WINDOW);
+        Thread.sleep(200);
+        assertEquals(SEMuxChannel.DEFAULT_INITIAL_WINDOW, received.get());
+
+        remote.markConsumed(SEMuxChannel.DEFAULT_INITIAL_WINDOW);
+        await(received, 2 * SEMuxChannel.DEFAULT_INITIAL_WINDOW);
+        Thread.sleep(200);
+        assertEquals(2 * SEMuxChannel.DEFAULT_INITIAL_WINDOW, received.get());
+
+        remote.setAutoConsume(true);
+        remote.markConsumed(SEMuxChannel.DEFAULT_INITIAL_WINDOW);
+        await(received, 200 * 1024);
+        assertEquals(200 * 1024, received.get());
+        pair[0].getSocketChannel().disConnect();
+    }
+
+    @Test
+    public void halfCloseThenRemove() throws Exception {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        SEMuxChannel[] pair = localPair("mux-close", new Listener() {
+            @Override
+            public void onData(SEMuxStream stream, byte[] data) {
+                events.add("server data " + ascii(data));
+            }
+
+            @Override
+            public void onStreamClosed(SEMuxStream stream) {
+                events.add("server closed");
+                stream.write(ascii("bye"));
+                stream.close();
+            }
+        });
+        final SEMuxChannel client = pair[0];
+        client.setStreamListener(new Listener() {
+            @Override
+            public void onData(SEMuxStream stream, byte[] data) {
+                events.add("client data " + ascii(data));
+            }
+
+            @Override
+            public void onStreamClosed(SEMuxStream stream) {
+                events.add("client closed");
+            }
+        });
+        SEMuxStream stream = client.openStream();
+        stream.write(ascii("hello"));
+        stream.close();
+        stream.write(ascii("ignored"));
+        assertEquals("server data hello", events.poll(3, TimeUnit.SECONDS));
+        assertEquals("server closed", events.poll(3, TimeUnit.SECONDS));
+        assertEquals("client data bye", events.poll(3, TimeUnit.SECONDS));
+        assertEquals("client closed", events.poll(3, TimeUnit.SECONDS));
+        assertEquals(0, streamCount(client));
+        assertEquals(0, streamCount(pair[1]));
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+        client.getSocketChannel().disConnect();
+    }
+
+    @Test
+    public void higherPrioritySentFirst() throws Exception {
+        ServerSocketChannel server = rawServer(PORT);
+        final SEMuxChannel mux = connect(PORT);
+        RawPeer peer = new RawPeer(server.accept());
+        final CompletableFuture<Void> queued = new CompletableFuture<>();
+        // Queue everything in one loop task, so the flush sees all streams at once.
+        mux.getSocketChannel().getEventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                SEMuxStream low = mux.openStream(SEMuxStream.PRIORITY_LOWEST);
+                SEMuxStream roundRobinA = mux.openStream(SEMuxStream.PRIORITY_DEFAULT);
+                SEMuxStream roundRobinB = mux.openStream(SEMuxStream.PRIORITY_DEFAULT);
+                SEMuxStream high = mux.openStream(SEMuxStream.PRIORITY_HIGHEST);
+                low.write(new byte[2 * SEMuxChannel.MAX_FRAME_PAYLOAD]);
+                roundRobinA.write(new byte[2 * SEMuxChannel.MAX_FRAME_PAYLOAD]);
+                roundRobinB.write(new byte[2 * SEMuxChannel.MAX_FRAME_PAYLOAD]);
+                high.write(new byte[2 * SEMuxChannel.MAX_FRAME_PAYLOAD]);
+                queued.complete(null);
+            }
+        });
+        queued.get(3, TimeUnit.SECONDS);
+        List<Long> order = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            long[] frame = peer.readFrame();
+            if (frame[2] > 0) {
+                order.add(frame[0]);
+            }
+        }
+        // Streams 1 to 7 are low, A, B and high; empty frames are the announcements.
+        assertEquals(Arrays.asList(7L, 7L, 3L, 5L, 3L, 5L, 1L, 1L), order);
+        mux.getSocketChannel().disConnect();
+        peer.close();
+        server.close();
+    }
+
+    @Test
+    public void refuseIllegalWindowUpdates() throws Exception {
+        ServerSocketChannel server = rawServer(PORT + 1);
+        assertProtocolError(server, frame(1, TYPE_WINDOW_UPDATE, ByteBuffer.allocate(4).putInt(-5).array()));
+        assertProtocolError(server, frame(1, TYPE_WINDOW_UPDATE, ByteBuffer.allocate(4).putInt(0).array()));
+        assertProtocolError(server, frame(1, TYPE_WINDOW_UPDATE,
+                ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE - 1000).array()));
+        server.close();
+    }
+
+    @Test
+    public void refuseDataForClosedOrUnknownStreams() throws Exception {
+        ServerSocketChannel server = rawServer(PORT + 2);
+        assertProtocolError(server, frame(2, TYPE_DATA, ascii("x")), frame(2, TYPE_CLOSE, null),
+                frame(2, TYPE_DATA, ascii("again")));
+        assertProtocolError(server, frame(4, TYPE_DATA, ascii("x")), frame(2, TYPE_DATA, ascii("lower")));
+        assertProtocolError(server, frame(3, TYPE_DATA, ascii("not opened by the peer")));
+        byte[] full = new byte[SEMuxChannel.MAX_FRAME_PAYLOAD];
+        assertProtocolError(server, frame(2, TYPE_DATA, full), frame(2, TYPE_DATA, full), frame(2, TYPE_DATA, full),
+                frame(2, TYPE_DATA, full), frame(2, TYPE_DATA, ascii("over the window")));
+        assertProtocolError(server, frame(2, TYPE_DATA, new byte[SEMuxChannel.MAX_FRAME_PAYLOAD + 1]));
+        server.close();
+    }
+
+    /**
+     * Connect a mux with one open stream to the raw server, send frames and expect the connection to be closed.
+     * The mux consumes nothing and closes every stream the peer opens as soon as the peer closes it.
+     */
+    private static void assertProtocolError(ServerSocketChannel server, byte[]... frames) throws Exception {
+        SEMuxChannel mux = connect(server.socket().getLocalPort());
+        mux.setStreamListener(new Listener() {
+            @Override
+            public void onStreamOpened(SEMuxStream stream) {
+                stream.setAutoConsume(false);
+            }
+
+            @Override
+            public void onStreamClosed(SEMuxStream stream) {
+                stream.close();
+            }
+        });
+        RawPeer peer = new RawPeer(server.accept());
+        mux.openStream();
+        assertEquals(1, peer.readFrame()[0]);
+        for (byte[] frame : frames) {
+            peer.write(frame);
+        }
+        assertTrue(peer.awaitClose());
+        assertFalse(mux.getSocketChannel().isConnected());
+        peer.close();
+    }
+
+    private static SEMuxChannel[] localPair(String name, SEMuxChannel.StreamListener serverListener) throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(new SELocalAddress(name), new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        final BlockingQueue<SEMuxChannel> accepted = new LinkedBlockingQueue<>();
+        final SEMuxChannel.StreamListener listener = serverListener;
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                SEMuxChannel mux = new SEMuxChannel(socketChannelClient, false);
+                mux.setStreamListener(listener);
+                accepted.add(mux);
+            }
+        });
+        server.startServer();
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.connectAsync(new SELocalAddress(name)).get(3, TimeUnit.SECONDS);
+        SEMuxChannel serverMux = accepted.poll(3, TimeUnit.SECONDS);
+        server.closeServer();
+        return new SEMuxChannel[]{new SEMuxChannel(client, true), serverMux};
+    }
+
+    private static ServerSocketChannel rawServer(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        return server;
+    }
+
+    private static SEMuxChannel connect(int port) throws Exception {
+        SESocketChannel channel = new SESocketChannel(new SEEventLoop());
+        channel.connectAsync("127.0.0.1", port).get(3, TimeUnit.SECONDS);
+        return new SEMuxChannel(channel, true);
+    }
+
+    private static int streamCount(final SEMuxChannel mux) throws Exception {
+        final CompletableFuture<Integer> count = new CompletableFuture<>();
+        mux.getSocketChannel().getEventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                count.complete(mux.getStreamCount());
+            }
+        });
+        return count.get(3, TimeUnit.SECONDS);
+    }
+
+    private static byte[] frame(int streamId, int type, byte[] payload) {
+        return SERpcCodec.encode((long) streamId << 8 | type, payload);
+    }
+
+    private static void await(AtomicLong counter, long value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counter.get() < value && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String ascii(byte[] data) {
+        return new String(data, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Blocking peer speaking the frame format by hand.
+     */
+    private static final class RawPeer {
+        private final SocketChannel mChannel;
+        private final Queue<long[]> mFrames = new ArrayDeque<>();
+        private final SERpcCodec.Decoder mDecoder = new SERpcCodec.Decoder(new SERpcCodec.FrameHandler() {
+            @Override
+            public void onFrame(long tag, byte[] payload) {
+                mFrames.add(new long[]{tag >>> 8, tag & 0xff, payload.length});
+            }
+        });
+
+        private RawPeer(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        /**
+         * Return the next frame as stream id, type and payload length.
+         */
+        private long[] readFrame() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (mFrames.isEmpty()) {
+                buffer.clear();
+                if (mChannel.read(buffer) < 0) {
+                    throw new IOException("Closed.");
+                }
+                mDecoder.decode(Arrays.copyOf(buffer.array(), buffer.position()));
+            }
+            return mFrames.poll();
+        }
+
+        private void write(byte[] frame) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+        }
+
+        private boolean awaitClose() throws Exception {
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            return onThread(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    while (true) {
+                        buffer.clear();
+                        try {
+                            if (mChannel.read(buffer) < 0) {
+                                return true;
+                            }
+                        } catch (IOException ex) {
+                            return true;
+                        }
+                    }
+                }
+            });
+        }
+
+        private void close() throws IOException {
+            mChannel.close();
+        }
+    }
+
+    private static boolean onThread(final Callable<Boolean> callable) throws Exception {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.complete(callable.call());
+                } catch (Exception ex) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return result.get(3, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stream listener ignoring what a test does not override.
+     */
+    private static class Listener implements SEMuxChannel.StreamListener {
+        @Override
+        public void onStreamOpened(SEMuxStream stream) {
+        }
+
+        @Override
+        public void onData(SEMuxStream stream, byte[] data) {
+        }
+
+        @Override
+        public void onStreamClosed(SEMuxStream stream) {
+        }
+    }
+}
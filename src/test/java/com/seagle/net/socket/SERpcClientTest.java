@@ -0,0 +1,170 @@
+package com.seagle.net.socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class SERpcClientTest {
+    private static final int PORT = 55650;
+
+    private ServerSocketChannel mServer;
+    private SocketChannel mPeer;
+    private SESocketChannel mChannel;
+    private SERpcClient mClient;
+    private final Queue<Long> mRequestIds = new ArrayDeque<>();
+    private final SERpcCodec.Decoder mPeerDecoder = new SERpcCodec.Decoder(new SERpcCodec.FrameHandler() {
+        @Override
+        public void onFrame(long id, byte[] payload) {
+            mRequestIds.add(id);
+        }
+    });
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = ServerSocketChannel.open();
+        mServer.bind(new InetSocketAddress("127.0.0.1", PORT));
+        mChannel = new SESocketChannel(new SEEventLoop());
+        mChannel.connectAsync("127.0.0.1", PORT).get(3, TimeUnit.SECONDS);
+        mPeer = mServer.accept();
+        mClient = new SERpcClient(mChannel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mClient.close();
+        mChannel.disConnect();
+        mPeer.close();
+        mServer.close();
+    }
+
+    @Test
+    public void outOfOrderResponses() throws Exception {
+        CompletableFuture<byte[]> first = mClient.call(ascii("a"));
+        CompletableFuture<byte[]> second = mClient.call(ascii("b"));
+        CompletableFuture<byte[]> third = mClient.call(ascii("c"));
+        long[] ids = readRequests(3);
+
+        // Answer the third, then the first and second in one write split across two frames.
+        respond(SERpcCodec.encode(ids[2], ascii("C")));
+        assertArrayEquals(ascii("C"), third.get(3, TimeUnit.SECONDS));
+        assertFalse(first.isDone());
+        byte[] both = concat(SERpcCodec.encode(ids[0], ascii("A")), SERpcCodec.encode(ids[1], ascii("B")));
+        respond(Arrays.copyOfRange(both, 0, 7));
+        Thread.sleep(50);
+        respond(Arrays.copyOfRange(both, 7, both.length));
+        assertArrayEquals(ascii("A"), first.get(3, TimeUnit.SECONDS));
+        assertArrayEquals(ascii("B"), second.get(3, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void timeoutDropsLateResponse() throws Exception {
+        CompletableFuture<byte[]> slow = mClient.call(ascii("slow"), 100, TimeUnit.MILLISECONDS);
+        long slowId = readRequests(1)[0];
+        try {
+            slow.get(3, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        respond(SERpcCodec.encode(slowId, ascii("late")));
+
+        CompletableFuture<byte[]> next = mClient.call(ascii("next"), 3, TimeUnit.SECONDS);
+        long nextId = readRequests(1)[0];
+        assertTrue(nextId != slowId);
+        respond(SERpcCodec.encode(nextId, ascii("ok")));
+        assertArrayEquals(ascii("ok"), next.get(3, TimeUnit.SECONDS));
+        assertTrue(mChannel.isConnected());
+    }
+
+    @Test
+    public void cancelForgetsRequest() throws Exception {
+        CompletableFuture<byte[]> cancelled = mClient.call(ascii("x"), 0, TimeUnit.MILLISECONDS);
+        long cancelledId = readRequests(1)[0];
+        assertTrue(cancelled.cancel(true));
+        try {
+            cancelled.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+        respond(SERpcCodec.encode(cancelledId, ascii("late")));
+
+        CompletableFuture<byte[]> next = mClient.call(ascii("y"));
+        long nextId = readRequests(1)[0];
+        respond(SERpcCodec.encode(nextId, ascii("ok")));
+        assertArrayEquals(ascii("ok"), next.get(3, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+    }
+
+    @Test
+    public void peerCloseFailsInFlight() throws Exception {
+        CompletableFuture<byte[]> pending = mClient.call(ascii("x"));
+        readRequests(1);
+        mPeer.close();
+        try {
+            pending.get(3, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ClosedChannelException);
+        }
+        try {
+            mClient.call(ascii("y")).get(3, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ClosedChannelException);
+        }
+    }
+
+    /**
+     * Read request frames on the peer until count ids arrived.
+     */
+    private long[] readRequests(int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (mRequestIds.size() < count) {
+            buffer.clear();
+            if (mPeer.read(buffer) < 0) {
+                throw new IOException("Closed.");
+            }
+            mPeerDecoder.decode(Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = mRequestIds.poll();
+        }
+        return ids;
+    }
+
+    private void respond(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            mPeer.write(buffer);
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
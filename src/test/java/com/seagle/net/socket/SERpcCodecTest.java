@@ -0,0 +1,95 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SERpcCodecTest {
+
+    @Test
+    public void decodeFramesSplitAcrossReads() throws Exception {
+        byte[] stream = concat(SERpcCodec.encode(1, ascii("first")), SERpcCodec.encode(-2, new byte[0]),
+                SERpcCodec.encode(Long.MAX_VALUE, new byte[300]), SERpcCodec.encode(4, ascii("last")));
+        for (int split = 1; split <= stream.length; split++) {
+            final List<Long> ids = new ArrayList<>();
+            final List<byte[]> payloads = new ArrayList<>();
+            SERpcCodec.Decoder decoder = new SERpcCodec.Decoder(new SERpcCodec.FrameHandler() {
+                @Override
+                public void onFrame(long id, byte[] payload) {
+                    ids.add(id);
+                    payloads.add(payload);
+                }
+            });
+            for (int offset = 0; offset < stream.length; offset += split) {
+                byte[] chunk = new byte[Math.min(split, stream.length - offset)];
+                System.arraycopy(stream, offset, chunk, 0, chunk.length);
+                decoder.decode(chunk);
+            }
+            assertEquals(4, ids.size());
+            assertEquals(1L, (long) ids.get(0));
+            assertEquals(-2L, (long) ids.get(1));
+            assertEquals(Long.MAX_VALUE, (long) ids.get(2));
+            assertEquals(4L, (long) ids.get(3));
+            assertArrayEquals(ascii("first"), payloads.get(0));
+            assertEquals(0, payloads.get(1).length);
+            assertEquals(300, payloads.get(2).length);
+            assertArrayEquals(ascii("last"), payloads.get(3));
+        }
+    }
+
+    @Test
+    public void encodeSlice() throws Exception {
+        final List<byte[]> payloads = new ArrayList<>();
+        SERpcCodec.Decoder decoder = new SERpcCodec.Decoder(new SERpcCodec.FrameHandler() {
+            @Override
+            public void onFrame(long id, byte[] payload) {
+                payloads.add(payload);
+            }
+        });
+        decoder.decode(SERpcCodec.encode(7, ascii("abcdef"), 2, 3));
+        assertArrayEquals(ascii("cde"), payloads.get(0));
+    }
+
+    @Test
+    public void refuseIllegalFrameLength() throws Exception {
+        SERpcCodec.Decoder decoder = new SERpcCodec.Decoder(new SERpcCodec.FrameHandler() {
+            @Override
+            public void onFrame(long id, byte[] payload) {
+                fail();
+            }
+        }, 1024);
+        try {
+            decoder.decode(new byte[]{0, 0, 4, 8});
+            fail();
+        } catch (IOException expected) {
+        }
+        try {
+            decoder.decode(new byte[]{0, 0, 0, 7, 0});
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
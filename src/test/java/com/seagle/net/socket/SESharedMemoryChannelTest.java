@@ -0,0 +1,84 @@
+package com.seagle.net.socket;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SESharedMemoryChannelTest {
+
+    private static final int MESSAGES = 20000;
+
+    @Test
+    public void orderedDeliveryAcrossWraps() throws Exception {
+        Assume.assumeTrue(SESharedMemoryChannel.isSupported());
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(2);
+        SESharedMemoryChannel.Listener creatorListener = new SESharedMemoryChannel.Listener() {
+            @Override
+            public void onDisConnected(SESharedMemoryChannel channel) {
+                disconnected.countDown();
+            }
+
+            @Override
+            public void onReceivedData(SESharedMemoryChannel channel, byte[] data) {
+            }
+        };
+        SESharedMemoryChannel.Listener openerListener = new SESharedMemoryChannel.Listener() {
+            @Override
+            public void onDisConnected(SESharedMemoryChannel channel) {
+                disconnected.countDown();
+            }
+
+            @Override
+            public void onReceivedData(SESharedMemoryChannel channel, byte[] data) {
+                int i = next.getAndIncrement();
+                if (!matches(data, i)) {
+                    errors.incrementAndGet();
+                }
+                if (i == MESSAGES - 1) {
+                    received.countDown();
+                }
+            }
+        };
+        SESharedMemoryChannel creator = SESharedMemoryChannel.create("seagle-test-" + System.nanoTime(), 4096,
+                creatorListener);
+        SESharedMemoryChannel opener = SESharedMemoryChannel.open(creator.getName(), openerListener);
+        for (int i = 0; i < MESSAGES; i++) {
+            creator.writeData(message(i));
+        }
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+        assertEquals(MESSAGES, next.get());
+        creator.disConnect();
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertFalse(opener.isConnected());
+        assertFalse(opener.offer(new byte[1]));
+    }
+
+    private static byte[] message(int i) {
+        byte[] data = new byte[i % 700];
+        for (int j = 0; j < data.length; j++) {
+            data[j] = (byte) (i + j);
+        }
+        return data;
+    }
+
+    private static boolean matches(byte[] data, int i) {
+        if (data.length != i % 700) {
+            return false;
+        }
+        for (int j = 0; j < data.length; j++) {
+            if (data[j] != (byte) (i + j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
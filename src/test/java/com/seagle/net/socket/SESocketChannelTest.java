@@ -2,12 +2,445 @@ package com.seagle.net.socket;
 
 import org.junit.Test;
 
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
 import static org.junit.Assert.*;
 
 public class SESocketChannelTest {
+    private static final int PORT = 55640;
 
     @Test
     public void connect() {
         assertTrue(true);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void pauseReadingAtInboundHighWatermark() throws Exception {
+        final AtomicLong received = new AtomicLong();
+        SEServerSocketChannel server = countingServer(PORT, received);
+        final BlockingQueue<SESocketChannel> accepted = acceptQueue(server);
+        server.startServer();
+        final Socket client = new Socket("127.0.0.1", PORT);
+        SESocketChannel channel = accepted.poll(3, TimeUnit.SECONDS);
+        channel.setInboundWatermarks(16 * 1024, 64 * 1024);
+
+        final int total = 1024 * 1024;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = client.getOutputStream();
+                    byte[] chunk = new byte[8192];
+                    for (int written = 0; written < total; written += chunk.length) {
+                        out.write(chunk);
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
+        writer.start();
+        await(received, 64 * 1024);
+        Thread.sleep(200);
+        assertTrue(channel.isReadingPaused());
+        assertEquals(64 * 1024, received.get());
+        assertEquals(64 * 1024, channel.getInboundPendingBytes());
+
+        channel.markInboundConsumed(40 * 1024);
+        Thread.sleep(200);
+        assertTrue("above the low watermark", channel.isReadingPaused());
+        assertEquals(64 * 1024, received.get());
+
+        long consumed = 40 * 1024;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (consumed < total && System.currentTimeMillis() < deadline) {
+            long now = received.get();
+            channel.markInboundConsumed((int) (now - consumed));
+            consumed = now;
+            Thread.sleep(1);
+        }
+        assertEquals(total, received.get());
+        assertFalse(channel.isReadingPaused());
+        assertEquals(0, channel.getInboundPendingBytes());
+        writer.join(3000);
+        client.close();
+        server.closeServer();
+    }
+
+    @Test
+    public void pauseAndResumeReading() throws Exception {
+        AtomicLong received = new AtomicLong();
+        SEServerSocketChannel server = countingServer(PORT + 1, received);
+        BlockingQueue<SESocketChannel> accepted = acceptQueue(server);
+        server.startServer();
+        Socket client = new Socket("127.0.0.1", PORT + 1);
+        SESocketChannel channel = accepted.poll(3, TimeUnit.SECONDS);
+        channel.pauseReading();
+        assertTrue(channel.isReadingPaused());
+        Thread.sleep(100);
+        client.getOutputStream().write(new byte[100]);
+        Thread.sleep(200);
+        assertEquals(0, received.get());
+
+        channel.resumeReading();
+        await(received, 100);
+        assertEquals(100, received.get());
+        assertFalse(channel.isReadingPaused());
+        client.close();
+        server.closeServer();
+    }
+
+    @Test
+    public void outboundWatermarkTransitions() throws Exception {
+        ServerSocketChannel peer = silentPeer(PORT + 2);
+        final BlockingQueue<Boolean> transitions = new LinkedBlockingQueue<>();
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.registerSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+            }
+
+            @Override
+            public void onWritabilityChanged(SESocketChannel channel, boolean writable) {
+                transitions.add(writable);
+            }
+        });
+        client.setOutboundWatermarks(64 * 1024, 256 * 1024);
+        client.connectAsync("127.0.0.1", PORT + 2).get(3, TimeUnit.SECONDS);
+        client.getSocketChannel().setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+        SocketChannel accepted = peer.accept();
+
+        int total = 1024 * 1024;
+        for (int written = 0; written < total; written += 16 * 1024) {
+            client.writeData(new byte[16 * 1024]);
+        }
+        assertEquals(Boolean.FALSE, transitions.poll(3, TimeUnit.SECONDS));
+        assertFalse(client.isWritable());
+        assertTrue(client.getOutboundPendingBytes() >= 256 * 1024);
+
+        drain(accepted, total);
+        assertEquals(Boolean.TRUE, transitions.poll(3, TimeUnit.SECONDS));
+        assertTrue(client.isWritable());
+        long deadline = System.currentTimeMillis() + 3000;
+        while (client.getOutboundPendingBytes() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, client.getOutboundPendingBytes());
+        assertNull(transitions.poll(100, TimeUnit.MILLISECONDS));
+        client.disConnect();
+        accepted.close();
+        peer.close();
+    }
+
+    @Test
+    public void globalOutboundCapClosesLargest() throws Exception {
+        ServerSocketChannel peer = silentPeer(PORT + 3);
+        final BlockingQueue<SESocketChannel> disconnected = new LinkedBlockingQueue<>();
+        SESocketChannel.SocketChannelStateListener listener = new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+                disconnected.add(channel);
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+            }
+        };
+        SESocketChannel large = stalledClient(PORT + 3, listener);
+        SESocketChannel small = stalledClient(PORT + 3, listener);
+        SocketChannel first = peer.accept();
+        SocketChannel second = peer.accept();
+        try {
+            SESocketChannel.setGlobalOutboundLimit(512 * 1024, SESocketChannel.OutboundOverflowPolicy.CLOSE_LARGEST);
+            small.writeData(new byte[128 * 1024]);
+            CompletableFuture<Void> queued = null;
+            for (int i = 0; i < 32; i++) {
+                queued = large.write(new byte[32 * 1024]);
+            }
+            assertSame(large, disconnected.poll(3, TimeUnit.SECONDS));
+            assertFalse(large.isConnected());
+            assertWriteClosed(queued);
+            assertTrue(small.isConnected());
+            assertTrue(small.getOutboundPendingBytes() > 0);
+            assertTrue(SESocketChannel.getGlobalOutboundBytes() <= 512 * 1024);
+        } finally {
+            SESocketChannel.setGlobalOutboundLimit(0, SESocketChannel.OutboundOverflowPolicy.CLOSE_LARGEST);
+        }
+        small.disConnect();
+        first.close();
+        second.close();
+        peer.close();
+    }
+
+    @Test
+    public void globalOutboundCapDiscardsLargest() throws Exception {
+        ServerSocketChannel peer = silentPeer(PORT + 4);
+        SESocketChannel.SocketChannelStateListener listener = new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+                fail("disconnected");
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+            }
+        };
+        SESocketChannel large = stalledClient(PORT + 4, listener);
+        SocketChannel accepted = peer.accept();
+        try {
+            SESocketChannel.setGlobalOutboundLimit(512 * 1024, SESocketChannel.OutboundOverflowPolicy.DISCARD_LARGEST);
+            CompletableFuture<Void> first = large.write(new byte[32 * 1024]);
+            CompletableFuture<Void> last = null;
+            for (int i = 1; i < 32; i++) {
+                last = large.write(new byte[32 * 1024]);
+            }
+            assertWriteClosed(first);
+            assertTrue(large.isConnected());
+            assertTrue(SESocketChannel.getGlobalOutboundBytes() <= 512 * 1024);
+            assertTrue(large.getOutboundPendingBytes() < 512 * 1024);
+
+            // What was written after the discard is still delivered.
+            long pending = large.getOutboundPendingBytes();
+            drain(accepted, (int) pending);
+            last.get(3, TimeUnit.SECONDS);
+            assertEquals(0, large.getOutboundPendingBytes());
+        } finally {
+            SESocketChannel.setGlobalOutboundLimit(0, SESocketChannel.OutboundOverflowPolicy.CLOSE_LARGEST);
+        }
+        large.disConnect();
+        accepted.close();
+        peer.close();
+    }
+
+    @Test
+    public void connectAsyncCompletesOrFails() throws Exception {
+        ServerSocketChannel peer = silentPeer(PORT + 5);
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        assertSame(client, client.connectAsync("127.0.0.1", PORT + 5).get(3, TimeUnit.SECONDS));
+        assertTrue(client.isConnected());
+        assertSame(client, client.connectAsync("127.0.0.1", PORT + 5).get(3, TimeUnit.SECONDS));
+        client.disConnect();
+        peer.close();
+
+        SESocketChannel refused = new SESocketChannel(new SEEventLoop());
+        try {
+            refused.connectAsync("127.0.0.1", PORT + 5).get(3, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(String.valueOf(ex.getCause()), ex.getCause() instanceof ConnectException);
+        }
+        assertFalse(refused.isConnected());
+        try {
+            refused.connectAsync(null, PORT + 5).get(3, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void writeFuturesCompleteAtTheirOffset() throws Exception {
+        ServerSocketChannel peer = silentPeer(PORT + 6);
+        SESocketChannel client = stalledClient(PORT + 6, null);
+        SocketChannel accepted = peer.accept();
+        final List<String> completed = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> large = client.write(new byte[512 * 1024]);
+        CompletableFuture<Void> small = client.write(new byte[16]);
+        large.whenComplete(recordCompletion(completed, "large"));
+        small.whenComplete(recordCompletion(completed, "small"));
+        Thread.sleep(100);
+        assertFalse(large.isDone());
+        assertFalse(small.isDone());
+
+        drain(accepted, 256 * 1024);
+        Thread.sleep(100);
+        assertFalse(large.isDone());
+        assertFalse(small.isDone());
+
+        drain(accepted, 256 * 1024 + 16);
+        small.get(3, TimeUnit.SECONDS);
+        assertTrue(large.isDone());
+        assertEquals("large", completed.get(0));
+        assertEquals("small", completed.get(1));
+        client.disConnect();
+        accepted.close();
+        peer.close();
+    }
+
+    @Test
+    public void closeAsyncAfterFlush() throws Exception {
+        ServerSocketChannel peer = silentPeer(PORT + 7);
+        SESocketChannel client = stalledClient(PORT + 7, null);
+        SocketChannel accepted = peer.accept();
+        CompletableFuture<Void> written = client.write(new byte[256 * 1024]);
+        CompletableFuture<Void> closed = client.closeAsync();
+        assertWriteClosed(client.write(new byte[16]));
+        Thread.sleep(100);
+        assertFalse(closed.isDone());
+        assertTrue(client.isConnected());
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long read = 0;
+        int length;
+        while ((length = accepted.read(buffer)) >= 0) {
+            read += length;
+            buffer.clear();
+        }
+        assertEquals(256 * 1024, read);
+        written.get(3, TimeUnit.SECONDS);
+        closed.get(3, TimeUnit.SECONDS);
+        assertFalse(client.isConnected());
+        client.closeAsync().get(3, TimeUnit.SECONDS);
+        accepted.close();
+        peer.close();
+    }
+
+    @Test
+    public void writeFlushesUnderSteadyInbound() throws Exception {
+        ServerSocketChannel peer = silentPeer(PORT + 9);
+        SESocketChannel client = stalledClient(PORT + 9, null);
+        client.getSocketChannel().setOption(StandardSocketOptions.SO_RCVBUF, 1024 * 1024);
+        final SocketChannel accepted = peer.accept();
+        final AtomicBoolean stop = new AtomicBoolean();
+        // The peer floods the client so its key is readable in every iteration, while draining what it is sent.
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer chunk = ByteBuffer.allocate(256 * 1024);
+                try {
+                    while (!stop.get()) {
+                        chunk.clear();
+                        accepted.write(chunk);
+                    }
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain(accepted, 1024 * 1024);
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        sender.start();
+        receiver.start();
+        try {
+            client.write(new byte[1024 * 1024]).get(5, TimeUnit.SECONDS);
+            assertEquals(0, client.getOutboundPendingBytes());
+        } finally {
+            stop.set(true);
+            accepted.close();
+            client.disConnect();
+            sender.join(3000);
+            receiver.join(3000);
+            peer.close();
+        }
+    }
+
+    private static SEServerSocketChannel countingServer(int port, final AtomicLong received) {
+        SEServerSocketChannel server = new SEServerSocketChannel(port, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        server.setChildSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                received.addAndGet(data.length);
+            }
+        });
+        return server;
+    }
+
+    private static BlockingQueue<SESocketChannel> acceptQueue(SEServerSocketChannel server) {
+        final BlockingQueue<SESocketChannel> accepted = new LinkedBlockingQueue<>();
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                accepted.add(socketChannelClient);
+            }
+        });
+        return accepted;
+    }
+
+    /**
+     * Listening peer that never reads, with a small receive buffer so writes to it queue soon.
+     */
+    private static ServerSocketChannel silentPeer(int port) throws Exception {
+        ServerSocketChannel peer = ServerSocketChannel.open();
+        peer.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+        peer.bind(new InetSocketAddress("127.0.0.1", port));
+        return peer;
+    }
+
+    private static SESocketChannel stalledClient(int port, SESocketChannel.SocketChannelStateListener listener)
+            throws Exception {
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        if (listener != null) {
+            client.registerSocketChannelListener(listener);
+        }
+        client.connectAsync("127.0.0.1", port).get(3, TimeUnit.SECONDS);
+        client.getSocketChannel().setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+        return client;
+    }
+
+    private static void drain(SocketChannel channel, int total) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (int read = 0; read < total; ) {
+            buffer.clear();
+            buffer.limit(Math.min(buffer.capacity(), total - read));
+            read += channel.read(buffer);
+        }
+    }
+
+    private static void assertWriteClosed(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(3, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ClosedChannelException);
+        }
+    }
+
+    private static BiConsumer<Void, Throwable> recordCompletion(final List<String> completed, final String name) {
+        return new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable throwable) {
+                completed.add(name);
+            }
+        };
+    }
+
+    private static void await(AtomicLong counter, long value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counter.get() < value && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
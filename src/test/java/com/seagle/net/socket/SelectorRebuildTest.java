@@ -0,0 +1,114 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SelectorRebuildTest {
+
+    @Test
+    public void rebuildKeepsKeysAndInterestOps() throws Exception {
+        SpuriousWakeups strategy = new SpuriousWakeups();
+        SEEventLoop loop = new SEEventLoop(strategy);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel readingClient = SocketChannel.open(server.getLocalAddress());
+        SocketChannel reading = server.accept();
+        SocketChannel pausedClient = SocketChannel.open(server.getLocalAddress());
+        SocketChannel paused = server.accept();
+        RecordingHandler readingHandler = new RecordingHandler();
+        RecordingHandler pausedHandler = new RecordingHandler();
+        SelectionKey readingKey = loop.registerChannel(reading, SelectionKey.OP_READ, readingHandler);
+        SelectionKey pausedKey = loop.registerChannel(paused, 0, pausedHandler);
+        assertEquals(1, readingHandler.mKeys.size());
+
+        long rebuilds = SEChannelMetrics.getSelectorRebuildCount();
+        strategy.mSpuriousWakeups.set(1000);
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (SEChannelMetrics.getSelectorRebuildCount() == rebuilds && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(SEChannelMetrics.getSelectorRebuildCount() > rebuilds);
+
+        assertEquals(2, readingHandler.mKeys.size());
+        SelectionKey newReadingKey = readingHandler.mKeys.get(1);
+        assertFalse(readingKey.isValid());
+        assertTrue(newReadingKey.isValid());
+        assertTrue(newReadingKey.selector() != readingKey.selector());
+        assertEquals(SelectionKey.OP_READ, newReadingKey.interestOps());
+        assertSame(readingHandler, newReadingKey.attachment());
+        assertEquals(2, pausedHandler.mKeys.size());
+        assertFalse(pausedKey.isValid());
+        assertEquals(0, pausedHandler.mKeys.get(1).interestOps());
+        assertFalse(readingKey.selector().isOpen());
+
+        readingClient.write(ByteBuffer.wrap(new byte[10]));
+        pausedClient.write(ByteBuffer.wrap(new byte[10]));
+        deadline = System.currentTimeMillis() + 3000;
+        while (readingHandler.mRead.get() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(10, readingHandler.mRead.get());
+        Thread.sleep(100);
+        assertEquals(0, pausedHandler.mRead.get());
+        readingClient.close();
+        pausedClient.close();
+        reading.close();
+        paused.close();
+        server.close();
+    }
+
+    /**
+     * Returns from select at once with nothing selected while wakeups remain, like the epoll bug.
+     */
+    private static final class SpuriousWakeups implements SESelectStrategy {
+        private final AtomicInteger mSpuriousWakeups = new AtomicInteger();
+
+        @Override
+        public int select(Selector selector, long timeoutMillis, SEEventLoop loop) throws IOException {
+            if (mSpuriousWakeups.get() > 0) {
+                mSpuriousWakeups.decrementAndGet();
+                return 0;
+            }
+            return timeoutMillis > 0 ? selector.select(timeoutMillis) : selector.select();
+        }
+    }
+
+    private static final class RecordingHandler extends SEEventLoop.ChannelEventHandler {
+        private final List<SelectionKey> mKeys = new CopyOnWriteArrayList<>();
+        private final AtomicLong mRead = new AtomicLong();
+
+        @Override
+        void onKeyChanged(SelectionKey selectionKey) {
+            mKeys.add(selectionKey);
+        }
+
+        @Override
+        void onRead(byte[] data) {
+            mRead.addAndGet(data.length);
+        }
+
+        @Override
+        int getReadCapacity() {
+            return 64 * 1024;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.seagle.net.socket;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * SSLContext of a self-signed certificate for tests and benchmarks, client and server alike.
+ * The key store is generated once per run with the JDK's keytool.
+ */
+final class SelfSignedContext {
+    private static final char[] PASSWORD = "seagle".toCharArray();
+    private static final Map<String, SSLContext> sContexts = new HashMap<>();
+    private static KeyManagerFactory sKeyManagers;
+    private static TrustManagerFactory sTrustManagers;
+
+    private SelfSignedContext() {
+    }
+
+    static SSLContext get() throws Exception {
+        return get("TLS");
+    }
+
+    /**
+     * Return a context of the given protocol, a client one does not go beyond that version.
+     *
+     * @param protocol SSLContext protocol, like TLSv1.2
+     * @return SSLContext
+     */
+    static synchronized SSLContext get(String protocol) throws Exception {
+        SSLContext context = sContexts.get(protocol);
+        if (context == null) {
+            if (sKeyManagers == null) {
+                loadKeyStore();
+            }
+            context = SSLContext.getInstance(protocol);
+            context.init(sKeyManagers.getKeyManagers(), sTrustManagers.getTrustManagers(), null);
+            sContexts.put(protocol, context);
+        }
+        return context;
+    }
+
+    private static void loadKeyStore() throws Exception {
+        File keyStoreFile = File.createTempFile("seagle", ".p12");
+        keyStoreFile.delete();
+        keyStoreFile.deleteOnExit();
+        String keytool = new File(System.getProperty("java.home"), "bin/keytool").getPath();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-keyalg", "EC", "-alias", "seagle",
+                "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", keyStoreFile.getPath(), "-storepass", new String(PASSWORD),
+                "-keypass", new String(PASSWORD)).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("keytool failed: " + process.exitValue());
+        }
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = new FileInputStream(keyStoreFile)) {
+            keyStore.load(input, PASSWORD);
+        }
+        sKeyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        sKeyManagers.init(keyStore, PASSWORD);
+        sTrustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        sTrustManagers.init(keyStore);
+    }
+}
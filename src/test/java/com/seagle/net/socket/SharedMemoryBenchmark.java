@@ -0,0 +1,54 @@
+package com.seagle.net.socket;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Small message rate of a shared memory channel, both peers in this process on their own mapping of the file.
+ * The writer offers back to back and spins while the ring is full, the receiver thread counts.
+ * Run with: java SharedMemoryBenchmark [messages] [message size]
+ */
+public class SharedMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 50000000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        final long[] received = new long[1];
+        final CountDownLatch[] done = new CountDownLatch[1];
+        SESharedMemoryChannel creator = SESharedMemoryChannel.create("seagle-benchmark", new SESharedMemoryChannel.Listener() {
+            @Override
+            public void onDisConnected(SESharedMemoryChannel channel) {
+            }
+
+            @Override
+            public void onReceivedData(SESharedMemoryChannel channel, byte[] data) {
+            }
+        });
+        SESharedMemoryChannel opener = SESharedMemoryChannel.open("seagle-benchmark", new SESharedMemoryChannel.Listener() {
+            @Override
+            public void onDisConnected(SESharedMemoryChannel channel) {
+            }
+
+            @Override
+            public void onReceivedData(SESharedMemoryChannel channel, byte[] data) {
+                if (++received[0] % messages == 0) {
+                    done[0].countDown();
+                }
+            }
+        });
+        byte[] message = new byte[size];
+        for (int round = 0; round < 5; round++) {
+            done[0] = new CountDownLatch(1);
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                while (!creator.offer(message)) {
+                    SEEventLoop.onSpinWait();
+                }
+            }
+            done[0].await();
+            long elapsed = System.nanoTime() - start;
+            System.out.println(size + " byte messages: " + (long) (messages / (elapsed / 1e9)) + " msg/s");
+        }
+        creator.disConnect();
+        opener.disConnect();
+    }
+}
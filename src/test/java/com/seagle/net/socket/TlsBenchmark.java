@@ -0,0 +1,132 @@
+package com.seagle.net.socket;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Loopback throughput of plaintext against TLS through the same event loops and write queues, and the cost of
+ * a full handshake against a resumed one.
+ * Run with: java TlsBenchmark [megabytes] [handshakes]
+ */
+public class TlsBenchmark {
+    private static final int PORT = 55612;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int handshakes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        SSLContext context = SelfSignedContext.get();
+        Link plain = new Link("plain", PORT, null);
+        Link tls = new Link("tls", PORT + 1, context);
+        for (int round = 0; round < 3; round++) {
+            plain.run(megabytes * 1024L * 1024L);
+            tls.run(megabytes * 1024L * 1024L);
+        }
+        plain.close();
+        tls.close();
+
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT + 2, new SEEventLoop());
+        server.setSslContext(context);
+        server.startServer();
+        for (int round = 0; round < 3; round++) {
+            handshakes(context, handshakes, false);
+            handshakes(context, handshakes, true);
+        }
+        server.closeServer();
+        System.exit(0);
+    }
+
+    /**
+     * Connect and disconnect in a loop, invalidating the session forces a full handshake each time.
+     */
+    private static void handshakes(SSLContext context, int count, boolean resume) throws Exception {
+        SEEventLoop eventLoop = new SEEventLoop();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            SESocketChannel client = new SESocketChannel(eventLoop);
+            client.connect(new InetSocketAddress("127.0.0.1", PORT + 2), context, null);
+            if (!resume) {
+                client.getSslSession().invalidate();
+            }
+            client.disConnect();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println((resume ? "resumed" : "full") + " handshake: " + elapsed / count / 1000 + " us");
+    }
+
+    /**
+     * Server counting bulk bytes and a connected client.
+     */
+    private static final class Link {
+        private final String mName;
+        private final SEServerSocketChannel mServer;
+        private final SESocketChannel mClient;
+        private final AtomicLong mReceived = new AtomicLong();
+        private final Semaphore mBulkDone = new Semaphore(0);
+        private final Semaphore mWritable = new Semaphore(0);
+        private volatile long mExpected;
+
+        private Link(String name, int port, SSLContext context) throws Exception {
+            mName = name;
+            mServer = new SEServerSocketChannel(port, new SEEventLoop());
+            mServer.setChildEventLoop(new SEEventLoop());
+            mServer.setSslContext(context);
+            mServer.setChildSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+                @Override
+                public void onDisConnected(SESocketChannel channel) {
+                }
+
+                @Override
+                public void onReceivedData(SESocketChannel channel, byte[] data) {
+                    if (mReceived.addAndGet(data.length) == mExpected) {
+                        mBulkDone.release();
+                    }
+                }
+            });
+            mServer.startServer();
+            mClient = new SESocketChannel(new SEEventLoop());
+            mClient.registerSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+                @Override
+                public void onDisConnected(SESocketChannel channel) {
+                }
+
+                @Override
+                public void onReceivedData(SESocketChannel channel, byte[] data) {
+                }
+
+                @Override
+                public void onWritabilityChanged(SESocketChannel channel, boolean writable) {
+                    if (writable) {
+                        mWritable.release();
+                    }
+                }
+            });
+            mClient.connectAsync(new InetSocketAddress("127.0.0.1", port), context).get();
+        }
+
+        private void run(long bytes) throws InterruptedException {
+            mReceived.set(0);
+            mExpected = bytes;
+            byte[] chunk = new byte[CHUNK_SIZE];
+            long start = System.nanoTime();
+            for (long sent = 0; sent < bytes; sent += CHUNK_SIZE) {
+                while (!mClient.isWritable()) {
+                    mWritable.tryAcquire(1, TimeUnit.MILLISECONDS);
+                }
+                mClient.writeData(chunk);
+            }
+            mBulkDone.acquire();
+            long elapsed = System.nanoTime() - start;
+            System.out.println(mName + ": " + (long) (bytes / 1048576.0 / (elapsed / 1e9)) + " MB/s");
+        }
+
+        private void close() {
+            mClient.disConnect();
+            mServer.closeServer();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import static org.junit.Assert.*;
+
+public class TlsTest {
+    private static final int PORT = 55611;
+
+    @Test
+    public void echoAndResume() throws Exception {
+        // TLSv1.3 resumes with a new session id, the client is kept on TLSv1.2 to compare them.
+        SSLContext context = SelfSignedContext.get("TLSv1.2");
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT, new SEEventLoop());
+        server.setSslContext(SelfSignedContext.get());
+        final CountDownLatch serverDisconnected = new CountDownLatch(1);
+        server.setChildSocketChannelListener(new Listener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+                serverDisconnected.countDown();
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                channel.writeData(data);
+            }
+        });
+        server.startServer();
+        byte[] payload = new byte[300 * 1024];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        final AtomicLong echoed = new AtomicLong();
+        final byte[] received = new byte[payload.length];
+        final CountDownLatch done = new CountDownLatch(1);
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.registerSocketChannelListener(new Listener() {
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                int offset = (int) echoed.getAndAdd(data.length);
+                System.arraycopy(data, 0, received, offset, data.length);
+                if (offset + data.length == received.length) {
+                    done.countDown();
+                }
+            }
+        });
+        client.connect(new InetSocketAddress("127.0.0.1", PORT), context, null);
+        assertTrue(client.isConnected());
+        byte[] firstSessionId = client.getSslSession().getId();
+        client.writeData(Arrays.copyOf(payload, 1000));
+        client.writeData(Arrays.copyOfRange(payload, 1000, payload.length));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(payload, received);
+        client.closeAsync().get(5, TimeUnit.SECONDS);
+        assertTrue(serverDisconnected.await(5, TimeUnit.SECONDS));
+
+        SESocketChannel resumed = new SESocketChannel(new SEEventLoop());
+        resumed.connectAsync(new InetSocketAddress("127.0.0.1", PORT), context).get(5, TimeUnit.SECONDS);
+        assertEquals("TLSv1.2", resumed.getSslSession().getProtocol());
+        assertArrayEquals(firstSessionId, resumed.getSslSession().getId());
+        resumed.disConnect();
+        server.closeServer();
+    }
+
+    @Test
+    public void refuseSyncConnectOnLoop() throws Exception {
+        final SSLContext context = SelfSignedContext.get();
+        final SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        final CompletableFuture<Throwable> result = new CompletableFuture<>();
+        client.getEventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.connect(new InetSocketAddress("127.0.0.1", PORT + 1), context, null);
+                    result.complete(null);
+                } catch (Throwable throwable) {
+                    result.complete(throwable);
+                }
+            }
+        });
+        assertTrue(result.get(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+        assertFalse(client.isConnected());
+    }
+
+    @Test
+    public void failedDelegatedTaskFailsConnect() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT + 10, new SEEventLoop());
+        server.setSslContext(SelfSignedContext.get());
+        server.startServer();
+        // The certificate check runs as a delegated task, an Error escapes the engine's own handling.
+        SSLContext context = SSLContext.getInstance("TLSv1.2");
+        context.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                throw new AssertionError("Trust check failed.");
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        try {
+            client.connectAsync(new InetSocketAddress("127.0.0.1", PORT + 10), context).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof AssertionError);
+        }
+        assertFalse(client.isConnected());
+        server.closeServer();
+    }
+
+    @Test
+    public void writeFutureWaitsForPendingRecords() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT + 12, new SEEventLoop());
+        server.setSslContext(SelfSignedContext.get());
+        final BlockingQueue<SESocketChannel> accepted = new LinkedBlockingQueue<>();
+        server.registerSocketChannelListener(new SEServerSocketChannel.ServerChannelEventListener() {
+            @Override
+            public void onAccept(SESocketChannel socketChannelClient) {
+                accepted.add(socketChannelClient);
+            }
+        });
+        server.startServer();
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.connectAsync(new InetSocketAddress("127.0.0.1", PORT + 12), SelfSignedContext.get("TLSv1.2"))
+                .get(5, TimeUnit.SECONDS);
+        client.getSocketChannel().setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+        SESocketChannel serverChannel = accepted.poll(5, TimeUnit.SECONDS);
+        assertNotNull(serverChannel);
+        serverChannel.pauseReading();
+
+        // Each chunk is wrapped whole, the last wrapped one waits in the transport once the peer stops reading.
+        int chunk = 16 * 1024;
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 128; i++) {
+            futures.add(client.write(new byte[chunk]));
+        }
+        Thread.sleep(300);
+        long wrapped = 128L * chunk - client.getOutboundPendingBytes();
+        assertTrue(wrapped < 128L * chunk);
+        long completed = 0;
+        for (CompletableFuture<Void> future : futures) {
+            if (future.isDone()) {
+                completed += chunk;
+            }
+        }
+        assertTrue(completed < wrapped);
+
+        serverChannel.resumeReading();
+        futures.get(futures.size() - 1).get(5, TimeUnit.SECONDS);
+        client.disConnect();
+        server.closeServer();
+    }
+
+    private static class Listener implements SESocketChannel.SocketChannelStateListener {
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+        }
+    }
+}
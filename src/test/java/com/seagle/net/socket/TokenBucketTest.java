@@ -0,0 +1,35 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void unlimited() {
+        TokenBucket bucket = new TokenBucket();
+        bucket.consume(1024);
+        assertEquals(Long.MAX_VALUE, bucket.available());
+    }
+
+    @Test
+    public void consumeIntoDebt() {
+        TokenBucket bucket = new TokenBucket();
+        bucket.setRate(1000);
+        assertTrue(bucket.available() <= 1000);
+        bucket.consume(3000);
+        assertTrue(bucket.available() < 0);
+    }
+
+    @Test
+    public void refillCappedAtRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.setRate(100000);
+        bucket.consume(100000);
+        Thread.sleep(50);
+        long available = bucket.available();
+        assertTrue(available > 0);
+        assertTrue(available <= 100000);
+    }
+}
@@ -0,0 +1,164 @@
+package com.seagle.net.socket;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TrafficCaptureTest {
+    private static final int PORT = 55615;
+
+    @Test
+    public void captureAndReplay() throws Exception {
+        final CountDownLatch serverDisconnected = new CountDownLatch(1);
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT, new SEEventLoop());
+        server.setChildSocketChannelListener(new Listener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+                serverDisconnected.countDown();
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                channel.writeData(data);
+            }
+        });
+        server.startServer();
+        File file = File.createTempFile("capture", ".log");
+        file.deleteOnExit();
+        SETrafficCapture capture = new SETrafficCapture(file);
+        SESocketChannel.setTrafficCapture(capture);
+
+        final AtomicLong echoed = new AtomicLong();
+        final CountDownLatch received = new CountDownLatch(1);
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.registerSocketChannelListener(new Listener() {
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                if (echoed.addAndGet(data.length) == 3000) {
+                    received.countDown();
+                }
+            }
+        });
+        client.connectAsync(new InetSocketAddress("127.0.0.1", PORT)).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            client.writeData(new byte[1000]);
+            Thread.sleep(20);
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        client.closeAsync().get(5, TimeUnit.SECONDS);
+        assertTrue(serverDisconnected.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        capture.close();
+        assertEquals(0, capture.getDroppedFrames());
+
+        final Map<Integer, long[]> bytes = new HashMap<>();
+        SETrafficCapture.read(file, new SETrafficCapture.RecordVisitor() {
+            @Override
+            public void onRecord(int connection, int kind, long nanos, byte[] body) {
+                long[] counts = bytes.get(connection);
+                if (counts == null) {
+                    assertEquals(SETrafficCapture.KIND_OPEN, kind);
+                    counts = new long[4];
+                    bytes.put(connection, counts);
+                }
+                counts[kind] += kind == SETrafficCapture.KIND_OPEN || kind == SETrafficCapture.KIND_CLOSE ? 1 : body.length;
+            }
+        });
+        assertEquals(2, bytes.size());
+        for (long[] counts : bytes.values()) {
+            assertEquals(1, counts[SETrafficCapture.KIND_OPEN]);
+            assertEquals(3000, counts[SETrafficCapture.KIND_READ]);
+            assertEquals(3000, counts[SETrafficCapture.KIND_WRITE]);
+            assertEquals(1, counts[SETrafficCapture.KIND_CLOSE]);
+        }
+
+        SECaptureReplay replay = new SECaptureReplay(file);
+        assertEquals(2, replay.getConnectionCount());
+        assertEquals(6000, replay.getRequestBytes());
+        SECaptureReplay.Result result = replay.replay(new InetSocketAddress("127.0.0.1", PORT), 4)
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(0, result.getFailedConnections());
+        assertEquals(6000, result.getBytesSent());
+        assertEquals(6000, result.getBytesReceived());
+        server.closeServer();
+    }
+
+    @Test
+    public void dropWhenFull() throws Exception {
+        SEServerSocketChannel server = new SEServerSocketChannel(PORT + 1, new SEEventLoop());
+        server.startServer();
+        File file = File.createTempFile("capture", ".log");
+        file.deleteOnExit();
+        SETrafficCapture capture = new SETrafficCapture(file, 4096, 1024 * 1024);
+        SESocketChannel.setTrafficCapture(capture);
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.connectAsync(new InetSocketAddress("127.0.0.1", PORT + 1)).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            client.write(new byte[1000]).get(5, TimeUnit.SECONDS);
+        }
+        client.closeAsync().get(5, TimeUnit.SECONDS);
+        capture.close();
+        assertTrue(capture.getDroppedFrames() > 0);
+        assertTrue(capture.getCapturedFrames() > 0);
+        final AtomicLong records = new AtomicLong();
+        SETrafficCapture.read(file, new SETrafficCapture.RecordVisitor() {
+            @Override
+            public void onRecord(int connection, int kind, long nanos, byte[] body) {
+                records.incrementAndGet();
+            }
+        });
+        assertEquals(capture.getCapturedFrames(), records.get());
+        server.closeServer();
+    }
+
+    @Test
+    public void captureCopiesBytes() throws Exception {
+        File file = File.createTempFile("capture", ".log");
+        file.deleteOnExit();
+        SETrafficCapture capture = new SETrafficCapture(file);
+        SESocketChannel channel = new SESocketChannel(new SEEventLoop());
+        byte[] received = {1, 2, 3};
+        ByteBuffer written = ByteBuffer.wrap(new byte[]{9, 4, 5, 6});
+        written.position(1);
+        capture.onRead(channel, received);
+        capture.onWrite(channel, written);
+        assertEquals(1, written.position());
+        // The channel reuses its arrays and buffers as soon as the capture returns.
+        received[0] = 0;
+        written.put(1, (byte) 0);
+        capture.close();
+        final List<byte[]> bodies = new ArrayList<>();
+        SETrafficCapture.read(file, new SETrafficCapture.RecordVisitor() {
+            @Override
+            public void onRecord(int connection, int kind, long nanos, byte[] body) {
+                if (kind != SETrafficCapture.KIND_OPEN) {
+                    bodies.add(body);
+                }
+            }
+        });
+        assertEquals(2, bodies.size());
+        assertArrayEquals(new byte[]{1, 2, 3}, bodies.get(0));
+        assertArrayEquals(new byte[]{4, 5, 6}, bodies.get(1));
+    }
+
+    private static class Listener implements SESocketChannel.SocketChannelStateListener {
+        @Override
+        public void onDisConnected(SESocketChannel channel) {
+        }
+
+        @Override
+        public void onReceivedData(SESocketChannel channel, byte[] data) {
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.seagle.net.socket;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback TCP against unix domain sockets, both through the same event loops and write queues.
+ * Throughput: one channel streams bulk data to a counting server. Latency: 64 byte ping-pong round trips.
+ * Needs JDK 16 or later for the unix domain run.
+ * Run with: java UnixDomainSocketBenchmark [megabytes] [round trips]
+ */
+public class UnixDomainSocketBenchmark {
+    private static final int PORT = 55607;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int PING_SIZE = 64;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int roundTrips = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Link tcp = new Link("tcp", new InetSocketAddress("127.0.0.1", PORT));
+        Link uds = null;
+        if (SEUnixDomainSockets.isSupported()) {
+            File socketFile = new File(System.getProperty("java.io.tmpdir"), "seagle-benchmark.sock");
+            socketFile.delete();
+            uds = new Link("uds", SEUnixDomainSockets.address(socketFile.getPath()));
+        }
+        for (int round = 0; round < 3; round++) {
+            tcp.run(megabytes * 1024L * 1024L, roundTrips);
+            if (uds != null) {
+                uds.run(megabytes * 1024L * 1024L, roundTrips);
+            }
+        }
+        tcp.close();
+        if (uds != null) {
+            uds.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Server and connected client on one transport.
+     * The server counts bulk bytes and echoes everything once the counter is switched off.
+     */
+    private static final class Link {
+        private final String mName;
+        private final SEServerSocketChannel mServer;
+        private final SESocketChannel mClient;
+        private final AtomicLong mReceived = new AtomicLong();
+        private final Semaphore mBulkDone = new Semaphore(0);
+        private final Semaphore mWritable = new Semaphore(0);
+        private final Semaphore mEchoed = new Semaphore(0);
+        private final AtomicLong mEchoedBytes = new AtomicLong();
+        private volatile long mExpected;
+
+        private Link(String name, SocketAddress address) throws Exception {
+            mName = name;
+            mServer = new SEServerSocketChannel(address, new SEEventLoop());
+            mServer.setChildEventLoop(new SEEventLoop());
+            mServer.setChildSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+                @Override
+                public void onDisConnected(SESocketChannel channel) {
+                }
+
+                @Override
+                public void onReceivedData(SESocketChannel channel, byte[] data) {
+                    if (mExpected == 0) {
+                        channel.writeData(data);
+                    } else if (mReceived.addAndGet(data.length) == mExpected) {
+                        mBulkDone.release();
+                    }
+                }
+            });
+            mServer.startServer();
+            mClient = new SESocketChannel(new SEEventLoop());
+            mClient.registerSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+                @Override
+                public void onDisConnected(SESocketChannel channel) {
+                }
+
+                @Override
+                public void onReceivedData(SESocketChannel channel, byte[] data) {
+                    long pending = mEchoedBytes.addAndGet(data.length);
+                    for (; pending >= PING_SIZE; pending -= PING_SIZE) {
+                        mEchoedBytes.addAndGet(-PING_SIZE);
+                        mEchoed.release();
+                    }
+                }
+
+                @Override
+                public void onWritabilityChanged(SESocketChannel channel, boolean writable) {
+                    if (writable) {
+                        mWritable.release();
+                    }
+                }
+            });
+            mClient.connectAsync(address).get();
+        }
+
+        private void run(long bytes, int roundTrips) throws InterruptedException {
+            mReceived.set(0);
+            mExpected = bytes;
+            byte[] chunk = new byte[CHUNK_SIZE];
+            long start = System.nanoTime();
+            for (long sent = 0; sent < bytes; sent += CHUNK_SIZE) {
+                while (!mClient.isWritable()) {
+                    mWritable.tryAcquire(1, TimeUnit.MILLISECONDS);
+                }
+                mClient.writeData(chunk);
+            }
+            mBulkDone.acquire();
+            long elapsed = System.nanoTime() - start;
+            mExpected = 0;
+
+            long[] latency = new long[roundTrips];
+            byte[] ping = new byte[PING_SIZE];
+            for (int i = 0; i < roundTrips; i++) {
+                long sentAt = System.nanoTime();
+                mClient.writeData(ping);
+                mEchoed.acquire();
+                latency[i] = System.nanoTime() - sentAt;
+            }
+            Arrays.sort(latency);
+            System.out.println(mName + ": " + (long) (bytes / 1048576.0 / (elapsed / 1e9)) + " MB/s, rtt p50 = "
+                    + latency[roundTrips / 2] / 1000 + " us, p99 = " + latency[(int) (roundTrips * 0.99)] / 1000 + " us");
+        }
+
+        private void close() {
+            mClient.disConnect();
+            mServer.closeServer();
+        }
+    }
+}
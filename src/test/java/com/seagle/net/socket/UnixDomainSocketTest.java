@@ -0,0 +1,63 @@
+package com.seagle.net.socket;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.SocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class UnixDomainSocketTest {
+
+    @Test
+    public void echoAndDeleteSocketFile() throws Exception {
+        Assume.assumeTrue("Unix domain sockets are not supported", SEUnixDomainSockets.isSupported());
+        File socketFile = new File(System.getProperty("java.io.tmpdir"), "seagle-test-" + System.nanoTime() + ".sock");
+        SocketAddress address = SEUnixDomainSockets.address(socketFile.getPath());
+        SEServerSocketChannel server = new SEServerSocketChannel(address, new SEEventLoop());
+        server.setChildEventLoop(new SEEventLoop());
+        server.setChildSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                channel.writeData(data);
+            }
+        });
+        assertEquals(-1, server.getPort());
+        server.startServer();
+        assertTrue(socketFile.exists());
+
+        final AtomicLong echoed = new AtomicLong();
+        final CountDownLatch received = new CountDownLatch(1);
+        SESocketChannel client = new SESocketChannel(new SEEventLoop());
+        client.registerSocketChannelListener(new SESocketChannel.SocketChannelStateListener() {
+            @Override
+            public void onDisConnected(SESocketChannel channel) {
+            }
+
+            @Override
+            public void onReceivedData(SESocketChannel channel, byte[] data) {
+                if (echoed.addAndGet(data.length) == 1000 * 100) {
+                    received.countDown();
+                }
+            }
+        });
+        client.connectAsync(address).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            client.writeData(new byte[100]);
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals(1000 * 100, client.getBytesWritten());
+        client.disConnect();
+        server.closeServer();
+        assertFalse(server.isListening());
+        assertFalse(socketFile.exists());
+    }
+}